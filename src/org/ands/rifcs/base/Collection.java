@@ -645,6 +645,17 @@ public class Collection extends RIFCSElement {
     }
 
 
+    /**
+     * Obtain the existence dates for this collection.
+     *
+     * @return List<ExistenceDates>
+     *      A list of ExistenceDates objects
+     */
+    public final List<ExistenceDates> getExistenceDates() {
+        return existenceDates;
+    }
+
+
     /**
      * Create and return an empty RelatedInfo object.
      *
@@ -0,0 +1,324 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compressed input and output of RIF-CS documents.
+ *
+ * Input is recognised by its first bytes as gzip, including files of
+ * several members such as those written in blocks, as zlib (HTTP
+ * "deflate"), or as uncompressed, and decoded as it is read. Streams
+ * are buffered for large sequential reads and writes.
+ *
+ */
+public final class Compression {
+    /** No compression. */
+    public static final int NONE = 0;
+    /** gzip compression. */
+    public static final int GZIP = 1;
+    /** zlib compression, as used by HTTP "deflate". */
+    public static final int DEFLATE = 2;
+    /** gzip compression in independent blocks of whole registry
+     *  objects; see GzipBlockOutputStream. */
+    public static final int GZIP_BLOCKS = 3;
+
+    /** Size of the buffers used for compressed streams. */
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    /** First byte of gzip data. */
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    /** Second byte of gzip data. */
+    private static final int GZIP_MAGIC_2 = 0x8b;
+    /** Mask of the method in the first byte of zlib data. */
+    private static final int ZLIB_METHOD_MASK = 0x0f;
+    /** The deflate method of zlib data. */
+    private static final int ZLIB_DEFLATE = 8;
+    /** The first two bytes of zlib data are a multiple of this. */
+    private static final int ZLIB_CHECK = 31;
+    /** Bits in a byte. */
+    private static final int BYTE_BITS = 8;
+
+
+    /**
+     * Prevent instantiation.
+     */
+    private Compression() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Determine the compression of a stream from its first bytes,
+     * leaving them unread.
+     *
+     * @param in
+     *      The stream, which must support mark()
+     *
+     * @return
+     *      GZIP, DEFLATE or NONE
+     *
+     * @throws IOException An IOException
+     */
+    public static int detect(final InputStream in) throws IOException {
+        in.mark(2);
+        int b0 = in.read();
+        int b1 = in.read();
+        in.reset();
+        if (b0 == GZIP_MAGIC_1 && b1 == GZIP_MAGIC_2) {
+            return GZIP;
+        }
+        if (b0 >= 0 && b1 >= 0
+                && (b0 & ZLIB_METHOD_MASK) == ZLIB_DEFLATE
+                && ((b0 << BYTE_BITS) | b1) % ZLIB_CHECK == 0) {
+            return DEFLATE;
+        }
+        return NONE;
+    }
+
+
+    /**
+     * Wrap a stream so that it is buffered and, if compressed,
+     * decompressed.
+     *
+     * @param in
+     *      The stream
+     *
+     * @return
+     *      A stream of the uncompressed document
+     *
+     * @throws IOException An IOException
+     */
+    public static InputStream decode(final InputStream in)
+            throws IOException {
+        InputStream is = in;
+        if (!is.markSupported()) {
+            is = new BufferedInputStream(is, BUFFER_SIZE);
+        }
+        switch (detect(is)) {
+        case GZIP:
+            return new GZIPInputStream(is, BUFFER_SIZE);
+        case DEFLATE:
+            return new Inflating(is);
+        default:
+            return is;
+        }
+    }
+
+
+    /**
+     * Wrap a stream so that what is written is buffered and compressed.
+     * Call finish() when done.
+     *
+     * @param out
+     *      The stream
+     * @param compression
+     *      NONE, GZIP, DEFLATE or GZIP_BLOCKS
+     *
+     * @return
+     *      The stream to write to
+     *
+     * @throws IOException An IOException
+     */
+    public static OutputStream encode(final OutputStream out,
+                                      final int compression)
+            throws IOException {
+        switch (compression) {
+        case NONE:
+            return new Encoder(out);
+        case GZIP:
+            return new Encoder(new Gzipping(out));
+        case DEFLATE:
+            return new Encoder(new Deflating(out));
+        case GZIP_BLOCKS:
+            return new GzipBlockOutputStream(out);
+        default:
+            throw new IllegalArgumentException("Unknown compression "
+                    + compression);
+        }
+    }
+
+
+    /**
+     * Complete a stream returned by encode() and flush it, without
+     * closing the underlying stream.
+     *
+     * @param out
+     *      The stream returned by encode()
+     *
+     * @throws IOException An IOException
+     */
+    public static void finish(final OutputStream out) throws IOException {
+        if (out instanceof Encoder) {
+            ((Encoder) out).finish();
+        } else if (out instanceof GzipBlockOutputStream) {
+            ((GzipBlockOutputStream) out).finish();
+        }
+        out.flush();
+    }
+
+
+    /**
+     * Buffer in front of a compressor, so that the compressor is given
+     * large writes.
+     */
+    private static final class Encoder extends BufferedOutputStream {
+        /**
+         * Create a buffer.
+         *
+         * @param anOut
+         *      The compressor, or the stream if not compressing
+         */
+        Encoder(final OutputStream anOut) {
+            super(anOut, BUFFER_SIZE);
+        }
+
+        /**
+         * Write what is buffered and complete the compressed data.
+         *
+         * @throws IOException An IOException
+         */
+        void finish() throws IOException {
+            flush();
+            if (out instanceof DeflaterOutputStream) {
+                ((DeflaterOutputStream) out).finish();
+            }
+        }
+    }
+
+
+    /**
+     * Decompressor of zlib data with a buffer of BUFFER_SIZE, which ends
+     * its Inflater when closed so that its native memory is released.
+     */
+    private static final class Inflating extends InflaterInputStream {
+        /**
+         * Create a decompressor.
+         *
+         * @param anIn
+         *      The compressed stream
+         */
+        Inflating(final InputStream anIn) {
+            super(anIn, new Inflater(), BUFFER_SIZE);
+        }
+
+        /**
+         * Close the stream and end the Inflater.
+         *
+         * @throws IOException An IOException
+         */
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+
+
+    /**
+     * Compressor of gzip data with a buffer of BUFFER_SIZE, which ends
+     * its Deflater when finished, as Deflating does.
+     */
+    private static final class Gzipping extends GZIPOutputStream {
+        /**
+         * Create a compressor.
+         *
+         * @param anOut
+         *      The stream written
+         *
+         * @throws IOException if the header can not be written
+         */
+        Gzipping(final OutputStream anOut) throws IOException {
+            super(anOut, BUFFER_SIZE);
+        }
+
+        /**
+         * Complete the compressed data and end the Deflater.
+         *
+         * @throws IOException An IOException
+         */
+        public void finish() throws IOException {
+            if (!def.finished()) {
+                try {
+                    super.finish();
+                } finally {
+                    def.end();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Compressor of zlib data with a buffer of BUFFER_SIZE, which ends
+     * its Deflater when finished or closed so that its native memory is
+     * released, as streams returned by encode() are finished rather than
+     * closed.
+     */
+    private static final class Deflating extends DeflaterOutputStream {
+        /**
+         * Create a compressor.
+         *
+         * @param anOut
+         *      The stream written
+         */
+        Deflating(final OutputStream anOut) {
+            super(anOut, new Deflater(), BUFFER_SIZE);
+        }
+
+        /**
+         * Complete the compressed data and end the Deflater.
+         *
+         * @throws IOException An IOException
+         */
+        public void finish() throws IOException {
+            if (!def.finished()) {
+                try {
+                    super.finish();
+                } finally {
+                    def.end();
+                }
+            }
+        }
+
+        /**
+         * Complete the compressed data, end the Deflater and close the
+         * stream written.
+         *
+         * @throws IOException An IOException
+         */
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                def.end();
+            }
+        }
+    }
+}
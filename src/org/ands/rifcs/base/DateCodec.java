@@ -0,0 +1,522 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.SignStyle;
+import java.time.temporal.ChronoField;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Formatting and parsing of RIF-CS dates. Stateless and thread safe:
+ * unlike SimpleDateFormat no formatter or calendar is created per call.
+ *
+ * Dates are formatted as UTC timestamps (Constants.TIMESTAMP_UTC_FORMAT)
+ * or as W3CDTF date-times with the offset of the default time zone.
+ * Parsing accepts W3CDTF: a year, a year and month, a complete date, or
+ * a complete date with hours and minutes, optional seconds and decimal
+ * fraction, and an optional time zone designator, UTC being assumed if
+ * it is missing. For compatibility with existing documents, months,
+ * days and hours of a single digit are accepted.
+ *
+ * The proleptic Gregorian calendar of ISO 8601 is used throughout.
+ *
+ */
+public final class DateCodec {
+    /** Milliseconds in a second. */
+    private static final int MILLIS_PER_SECOND = 1000;
+    /** Seconds in a minute. */
+    private static final int SECONDS_PER_MINUTE = 60;
+    /** Minutes in an hour. */
+    private static final int MINUTES_PER_HOUR = 60;
+    /** Hours in a day. */
+    private static final int HOURS_PER_DAY = 24;
+    /** Milliseconds in a minute. */
+    private static final int MILLIS_PER_MINUTE =
+            MILLIS_PER_SECOND * SECONDS_PER_MINUTE;
+    /** Milliseconds in a day. */
+    private static final long MILLIS_PER_DAY =
+            (long) MILLIS_PER_MINUTE * MINUTES_PER_HOUR * HOURS_PER_DAY;
+    /** Greatest offset from UTC, in hours. */
+    private static final int MAX_OFFSET_HOURS = 18;
+    /** Greatest year formatted without a DateTimeFormatter. */
+    private static final int MAX_FAST_YEAR = 9999;
+    /** Digits in a year. */
+    private static final int YEAR_DIGITS = 4;
+    /** Greatest number of digits in a year of the era. */
+    private static final int MAX_YEAR_DIGITS = 10;
+    /** Digits in a month, day, hour, minute or second. */
+    private static final int FIELD_DIGITS = 2;
+    /** Radix of decimal digits. */
+    private static final int RADIX = 10;
+    /** Length of a UTC timestamp. */
+    private static final int UTC_LENGTH = 20;
+    /** Length of a date-time with an offset. */
+    private static final int OFFSET_LENGTH = 25;
+    /** Offset of the month in a formatted date. */
+    private static final int MONTH_POS = 5;
+    /** Offset of the day in a formatted date. */
+    private static final int DAY_POS = 8;
+    /** Offset of the hour in a formatted date. */
+    private static final int HOUR_POS = 11;
+    /** Offset of the minute in a formatted date. */
+    private static final int MINUTE_POS = 14;
+    /** Offset of the second in a formatted date. */
+    private static final int SECOND_POS = 17;
+    /** Offset after the seconds in a formatted date. */
+    private static final int ZONE_POS = 19;
+    /** Offset of the minutes of the time zone offset. */
+    private static final int OFFSET_MINUTE_POS = 23;
+
+    /** Formatter of UTC timestamps for other years, giving the year of
+     *  the era as SimpleDateFormat did. */
+    private static final DateTimeFormatter UTC_FORMATTER =
+            yearOfEra().appendPattern("-MM-dd'T'HH:mm:ss'Z'")
+            .toFormatter().withZone(ZoneOffset.UTC);
+    /** Formatter of date-times with an offset for other years. */
+    private static final DateTimeFormatter OFFSET_FORMATTER =
+            yearOfEra().appendPattern("-MM-dd'T'HH:mm:ssxxx")
+            .toFormatter();
+
+
+    /**
+     * This class can not be instantiated.
+     */
+    private DateCodec() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Start a formatter with the year of the era, unsigned and of at
+     * least four digits.
+     *
+     * @return
+     *      The formatter builder
+     */
+    private static DateTimeFormatterBuilder yearOfEra() {
+        return new DateTimeFormatterBuilder().appendValue(
+                ChronoField.YEAR_OF_ERA, YEAR_DIGITS, MAX_YEAR_DIGITS,
+                SignStyle.NORMAL);
+    }
+
+
+    /**
+     * Format a date as a UTC timestamp, yyyy-MM-dd'T'HH:mm:ss'Z'.
+     *
+     * @param date
+     *      The date
+     *
+     * @return
+     *      The timestamp
+     */
+    public static String formatUTC(final Date date) {
+        return formatUTC(date.getTime());
+    }
+
+
+    /**
+     * Format an instant as a UTC timestamp, yyyy-MM-dd'T'HH:mm:ss'Z'.
+     *
+     * @param millis
+     *      Milliseconds since the epoch
+     *
+     * @return
+     *      The timestamp
+     */
+    public static String formatUTC(final long millis) {
+        char[] c = new char[UTC_LENGTH];
+        if (!writeDateTime(millis, c)) {
+            return UTC_FORMATTER.format(Instant.ofEpochMilli(millis));
+        }
+        c[ZONE_POS] = 'Z';
+        return new String(c);
+    }
+
+
+    /**
+     * Format a date as a W3CDTF date-time with the offset of the default
+     * time zone, yyyy-MM-dd'T'HH:mm:ss+hh:mm.
+     *
+     * @param date
+     *      The date
+     *
+     * @return
+     *      The date-time
+     */
+    public static String formatLocal(final Date date) {
+        long millis = date.getTime();
+        return format(millis, TimeZone.getDefault().getOffset(millis));
+    }
+
+
+    /**
+     * Format an instant as a W3CDTF date-time with an offset,
+     * yyyy-MM-dd'T'HH:mm:ss+hh:mm.
+     *
+     * @param millis
+     *      Milliseconds since the epoch
+     * @param offset
+     *      Offset from UTC in milliseconds, whole minutes
+     *
+     * @return
+     *      The date-time
+     */
+    public static String format(final long millis, final int offset) {
+        char[] c = new char[OFFSET_LENGTH];
+        if (!writeDateTime(millis + offset, c)) {
+            return OFFSET_FORMATTER.format(Instant.ofEpochMilli(millis)
+                    .atOffset(ZoneOffset.ofTotalSeconds(
+                            offset / MILLIS_PER_SECOND)));
+        }
+        int minutes = Math.abs(offset) / MILLIS_PER_MINUTE;
+        c[ZONE_POS] = '+';
+        if (offset < 0) {
+            c[ZONE_POS] = '-';
+        }
+        writeDigits(minutes / MINUTES_PER_HOUR, c, ZONE_POS + 1,
+                FIELD_DIGITS);
+        c[ZONE_POS + 1 + FIELD_DIGITS] = ':';
+        writeDigits(minutes % MINUTES_PER_HOUR, c, OFFSET_MINUTE_POS,
+                FIELD_DIGITS);
+        return new String(c);
+    }
+
+
+    /**
+     * Write yyyy-MM-dd'T'HH:mm:ss into the start of an array.
+     *
+     * @param millis
+     *      Milliseconds since the epoch, in the time zone wanted
+     * @param c
+     *      The array
+     *
+     * @return
+     *      false if the year is not from 1 to 9999
+     */
+    private static boolean writeDateTime(final long millis, final char[] c) {
+        LocalDate date = LocalDate.ofEpochDay(
+                Math.floorDiv(millis, MILLIS_PER_DAY));
+        if (date.getYear() < 1 || date.getYear() > MAX_FAST_YEAR) {
+            return false;
+        }
+        int seconds = (int) (Math.floorMod(millis, MILLIS_PER_DAY)
+                / MILLIS_PER_SECOND);
+        writeDigits(date.getYear(), c, 0, YEAR_DIGITS);
+        c[MONTH_POS - 1] = '-';
+        writeDigits(date.getMonthValue(), c, MONTH_POS, FIELD_DIGITS);
+        c[DAY_POS - 1] = '-';
+        writeDigits(date.getDayOfMonth(), c, DAY_POS, FIELD_DIGITS);
+        c[HOUR_POS - 1] = 'T';
+        writeDigits(seconds / (SECONDS_PER_MINUTE * MINUTES_PER_HOUR), c,
+                HOUR_POS, FIELD_DIGITS);
+        c[MINUTE_POS - 1] = ':';
+        writeDigits(seconds / SECONDS_PER_MINUTE % MINUTES_PER_HOUR, c,
+                MINUTE_POS, FIELD_DIGITS);
+        c[SECOND_POS - 1] = ':';
+        writeDigits(seconds % SECONDS_PER_MINUTE, c, SECOND_POS,
+                FIELD_DIGITS);
+        return true;
+    }
+
+
+    /**
+     * Write a number as a fixed number of decimal digits.
+     *
+     * @param value
+     *      The number, not negative
+     * @param c
+     *      The array to write to
+     * @param start
+     *      Offset of the first digit
+     * @param digits
+     *      Number of digits
+     */
+    private static void writeDigits(final int value, final char[] c,
+                                    final int start, final int digits) {
+        int v = value;
+        for (int i = start + digits - 1; i >= start; i--) {
+            c[i] = (char) ('0' + v % RADIX);
+            v /= RADIX;
+        }
+    }
+
+
+    /**
+     * Parse a W3CDTF date to the first instant of the period it gives.
+     *
+     * @param value
+     *      The date, such as "1990", "1990-06" or
+     *      "1990-06-30T12:00:00+10:00"
+     * @param defaultValue
+     *      The result if the date is missing or can not be parsed
+     *
+     * @return
+     *      Milliseconds since the epoch
+     */
+    public static long parseStart(final String value,
+                                  final long defaultValue) {
+        return parse(value, false, defaultValue);
+    }
+
+
+    /**
+     * Parse a W3CDTF date to the last instant of the period it gives,
+     * such as the last millisecond of 2000 for "2000". A date with a
+     * time gives the instant itself.
+     *
+     * @param value
+     *      The date, such as "2000", "2000-12" or "2000-12-31T23:59:59Z"
+     * @param defaultValue
+     *      The result if the date is missing or can not be parsed
+     *
+     * @return
+     *      Milliseconds since the epoch
+     */
+    public static long parseEnd(final String value,
+                                final long defaultValue) {
+        return parse(value, true, defaultValue);
+    }
+
+
+    /**
+     * Parse a W3CDTF date.
+     *
+     * @param value
+     *      The date
+     * @param end
+     *      true for the last instant of the period given
+     * @param defaultValue
+     *      The result if the date is missing or can not be parsed
+     *
+     * @return
+     *      Milliseconds since the epoch
+     */
+    private static long parse(final String value, final boolean end,
+                              final long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        String s = value.trim();
+        int n = s.length();
+        int p = digitsEnd(s, 0, YEAR_DIGITS);
+        if (p != YEAR_DIGITS) {
+            return defaultValue;
+        }
+        int year = Integer.parseInt(s, 0, p, RADIX);
+        if (p == n) {
+            LocalDate first = LocalDate.of(year, 1, 1);
+            return bound(first, first.plusYears(1), end);
+        }
+        int q = field(s, p, '-', FIELD_DIGITS);
+        if (q < 0) {
+            return defaultValue;
+        }
+        int month = Integer.parseInt(s, p + 1, q, RADIX);
+        if (month < 1 || month > Month.DECEMBER.getValue()) {
+            return defaultValue;
+        }
+        p = q;
+        if (p == n) {
+            LocalDate first = LocalDate.of(year, month, 1);
+            return bound(first, first.plusMonths(1), end);
+        }
+        q = field(s, p, '-', FIELD_DIGITS);
+        if (q < 0) {
+            return defaultValue;
+        }
+        int day = Integer.parseInt(s, p + 1, q, RADIX);
+        if (day < 1
+                || day > Month.of(month).length(Year.isLeap(year))) {
+            return defaultValue;
+        }
+        p = q;
+        LocalDate date = LocalDate.of(year, month, day);
+        if (p == n) {
+            return bound(date, date.plusDays(1), end);
+        }
+        return parseTime(s, p, date, defaultValue);
+    }
+
+
+    /**
+     * Obtain the first or last instant of a year, month or day.
+     *
+     * @param first
+     *      The first day of the period
+     * @param next
+     *      The first day after the period
+     * @param end
+     *      true for the last instant
+     *
+     * @return
+     *      Milliseconds since the epoch
+     */
+    private static long bound(final LocalDate first, final LocalDate next,
+                              final boolean end) {
+        if (end) {
+            return next.toEpochDay() * MILLIS_PER_DAY - 1;
+        }
+        return first.toEpochDay() * MILLIS_PER_DAY;
+    }
+
+
+    /**
+     * Parse the time and time zone designator of a W3CDTF date-time.
+     *
+     * @param s
+     *      The date-time
+     * @param start
+     *      Offset of the T separating the date and time
+     * @param date
+     *      The date
+     * @param defaultValue
+     *      The result if the time can not be parsed
+     *
+     * @return
+     *      Milliseconds since the epoch
+     */
+    private static long parseTime(final String s, final int start,
+                                  final LocalDate date,
+                                  final long defaultValue) {
+        int n = s.length();
+        int p = field(s, start, 'T', FIELD_DIGITS);
+        if (p < 0) {
+            p = field(s, start, 't', FIELD_DIGITS);
+        }
+        if (p < 0) {
+            return defaultValue;
+        }
+        int hour = Integer.parseInt(s, start + 1, p, RADIX);
+        int q = field(s, p, ':', FIELD_DIGITS);
+        if (q != p + 1 + FIELD_DIGITS) {
+            return defaultValue;
+        }
+        int minute = Integer.parseInt(s, p + 1, q, RADIX);
+        p = q;
+        int second = 0;
+        q = field(s, p, ':', FIELD_DIGITS);
+        if (q == p + 1 + FIELD_DIGITS) {
+            second = Integer.parseInt(s, p + 1, q, RADIX);
+            p = q;
+        }
+        int millis = 0;
+        q = field(s, p, '.', Integer.MAX_VALUE);
+        if (q > 0) {
+            int scale = MILLIS_PER_SECOND;
+            for (int i = p + 1; i < q && scale > 1; i++) {
+                scale /= RADIX;
+                millis += (s.charAt(i) - '0') * scale;
+            }
+            p = q;
+        }
+        if (hour >= HOURS_PER_DAY || minute >= MINUTES_PER_HOUR
+                || second >= SECONDS_PER_MINUTE) {
+            return defaultValue;
+        }
+        int offset = 0;
+        if (p < n && (s.charAt(p) == 'Z' || s.charAt(p) == 'z')) {
+            p++;
+        } else if (p < n && (s.charAt(p) == '+' || s.charAt(p) == '-')) {
+            q = digitsEnd(s, p + 1, FIELD_DIGITS);
+            int m = q;
+            if (m < n && s.charAt(m) == ':') {
+                m++;
+            }
+            int r = digitsEnd(s, m, FIELD_DIGITS);
+            if (q != p + 1 + FIELD_DIGITS || r != m + FIELD_DIGITS) {
+                return defaultValue;
+            }
+            int hours = Integer.parseInt(s, p + 1, q, RADIX);
+            int minutes = Integer.parseInt(s, m, r, RADIX);
+            if (hours > MAX_OFFSET_HOURS || minutes >= MINUTES_PER_HOUR) {
+                return defaultValue;
+            }
+            offset = (hours * MINUTES_PER_HOUR + minutes) * MILLIS_PER_MINUTE;
+            if (s.charAt(p) == '-') {
+                offset = -offset;
+            }
+            p = r;
+        }
+        if (p != n) {
+            return defaultValue;
+        }
+        return date.toEpochDay() * MILLIS_PER_DAY
+                + (((long) hour * MINUTES_PER_HOUR + minute)
+                * SECONDS_PER_MINUTE + second) * MILLIS_PER_SECOND
+                + millis - offset;
+    }
+
+
+    /**
+     * Find the end of a separator followed by digits.
+     *
+     * @param s
+     *      The string
+     * @param p
+     *      Offset of the separator
+     * @param sep
+     *      The separator
+     * @param max
+     *      The greatest number of digits
+     *
+     * @return
+     *      The offset after the digits, or -1 if the separator or the
+     *      digits are missing
+     */
+    private static int field(final String s, final int p, final char sep,
+                             final int max) {
+        if (p >= s.length() || s.charAt(p) != sep) {
+            return -1;
+        }
+        int q = digitsEnd(s, p + 1, max);
+        if (q == p + 1) {
+            return -1;
+        }
+        return q;
+    }
+
+
+    /**
+     * Find the end of a run of digits.
+     *
+     * @param s
+     *      The string
+     * @param p
+     *      Offset of the first digit
+     * @param max
+     *      The greatest number of digits
+     *
+     * @return
+     *      The offset after the last digit
+     */
+    private static int digitsEnd(final String s, final int p,
+                                 final int max) {
+        int q = p;
+        while (q < s.length() && q - p < max && s.charAt(q) >= '0'
+                && s.charAt(q) <= '9') {
+            q++;
+        }
+        return q;
+    }
+}
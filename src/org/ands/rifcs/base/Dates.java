@@ -15,8 +15,6 @@
  */
 package org.ands.rifcs.base;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -31,16 +29,6 @@ import org.w3c.dom.NodeList;
  *
  */
 public class Dates extends RIFCSElement {
-    /**
-     * Pattern to use to make the SimpleDateFormat for formatting dates.
-     */
-    private static final String DATE_FORMAT =
-            "yyyy-MM-dd'T'HH:mm:ssZ";
-    /**
-     * The length of TEMPORAL_DATE_FORMAT.
-     */
-    private static final int DATE_FORMAT_LENGTH =
-            DATE_FORMAT.length();
     /** List of date nodes. */
     private List<DateWithTypeDateFormat> dateList =
             new ArrayList<DateWithTypeDateFormat>();
@@ -165,11 +153,7 @@ public class Dates extends RIFCSElement {
      */
     public final void addDate(final Date date,
             final String type) throws RIFCSException {
-        DateFormat df = new SimpleDateFormat(DATE_FORMAT);
-        String text = df.format(date);
-        String result = text.substring(0, DATE_FORMAT_LENGTH)
-                + ":" + text.substring(DATE_FORMAT_LENGTH);
-        this.addDate(result, type);
+        this.addDate(DateCodec.formatLocal(date), type);
     }
 
 
@@ -0,0 +1,385 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+import java.util.Arrays;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Canonical content fingerprints for registry objects.
+ *
+ * A fingerprint is a 64-bit hash of the content of an element which
+ * does not depend on the order of child elements or attributes, on
+ * insignificant whitespace (text is trimmed and runs of whitespace
+ * collapsed to a single space), or on the namespace prefixes used.
+ * Two registry objects with the same fingerprint may therefore be
+ * treated as unchanged.
+ *
+ * The same value is produced from a DOM, using {@link #of(RegistryObject)},
+ * and from a stream of parser events, using a {@link Builder}, so
+ * fingerprints computed during a streaming parse can be compared with
+ * those computed from a loaded RIF-CS document.
+ *
+ */
+public final class Fingerprint {
+    /** FNV-1a 64 bit offset basis. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    /** FNV-1a 64 bit prime. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+    /** First multiplier of the finalisation mix. */
+    private static final long MIX_1 = 0xff51afd7ed558ccdL;
+    /** Second multiplier of the finalisation mix. */
+    private static final long MIX_2 = 0xc4ceb9fe1a85ec53L;
+    /** Shift of the finalisation mix. */
+    private static final int MIX_SHIFT = 33;
+    /** Odd constant used to combine the parts of a hash. */
+    private static final long COMBINE = 0x9e3779b97f4a7c15L;
+
+    /** This class can not be instantiated. */
+    private Fingerprint() {
+    }
+
+
+    /**
+     * Compute the fingerprint of a registry object.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @return
+     *      The fingerprint of the registryObject element and its content
+     */
+    public static long of(final RegistryObject ro) {
+        return of(ro.getElement());
+    }
+
+
+    /**
+     * Compute the fingerprint of a DOM element.
+     *
+     * @param e
+     *      A w3c Element
+     *
+     * @return
+     *      The fingerprint of the element and its content
+     */
+    public static long of(final Element e) {
+        Builder b = new Builder();
+        add(b, e);
+        return b.endElement();
+    }
+
+
+    /**
+     * Feed an element and its descendants to a builder.
+     *
+     * @param b
+     *      The builder
+     * @param e
+     *      The element
+     */
+    private static void add(final Builder b, final Element e) {
+        b.startElement(e.getNamespaceURI(), localName(e));
+
+        NamedNodeMap attrs = e.getAttributes();
+        for (int i = 0; i < attrs.getLength(); i++) {
+            Attr a = (Attr) attrs.item(i);
+            if (!isNamespaceDeclaration(a.getNamespaceURI(), a.getName())) {
+                b.attribute(a.getNamespaceURI(), localName(a), a.getValue());
+            }
+        }
+
+        for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
+            switch (n.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                add(b, (Element) n);
+                b.child(b.endElement());
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                b.text(n.getNodeValue());
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * Obtain the local name of a node, allowing for nodes created
+     * without namespace support.
+     *
+     * @param n
+     *      An element or attribute node
+     *
+     * @return
+     *      The local name of the node
+     */
+    public static String localName(final Node n) {
+        String name = n.getLocalName();
+        if (name == null) {
+            name = n.getNodeName();
+            int colon = name.indexOf(':');
+            if (colon >= 0) {
+                name = name.substring(colon + 1);
+            }
+        }
+        return name;
+    }
+
+
+    /**
+     * Determine whether an attribute is a namespace declaration, which
+     * is excluded from the fingerprint.
+     *
+     * @param uri
+     *      The attribute namespace, which may be null or empty
+     * @param qName
+     *      The qualified attribute name
+     *
+     * @return
+     *      true if the attribute declares a namespace
+     */
+    public static boolean isNamespaceDeclaration(final String uri,
+                                                 final String qName) {
+        return XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(uri)
+                || Constants.NS_XMLNS.equals(qName)
+                || qName.startsWith(Constants.NS_XMLNS + ":");
+    }
+
+
+    /**
+     * Hash a string with 64 bit FNV-1a, treating null as empty.
+     *
+     * @param s
+     *      The string
+     *
+     * @return
+     *      A 64-bit hash of the characters of the string
+     */
+    public static long hash(final String s) {
+        long h = FNV_OFFSET;
+        if (s != null) {
+            for (int i = 0; i < s.length(); i++) {
+                h = (h ^ s.charAt(i)) * FNV_PRIME;
+            }
+        }
+        return h;
+    }
+
+
+    /**
+     * Finalisation mix, spreading every input bit over the result.
+     *
+     * @param value
+     *      The value to mix
+     *
+     * @return
+     *      The mixed value
+     */
+    private static long mix(final long value) {
+        long h = value;
+        h ^= h >>> MIX_SHIFT;
+        h *= MIX_1;
+        h ^= h >>> MIX_SHIFT;
+        h *= MIX_2;
+        h ^= h >>> MIX_SHIFT;
+        return h;
+    }
+
+
+    /**
+     * Incremental fingerprint computation from parser events.
+     *
+     * Elements are started and ended in document order; the value
+     * returned by {@link #endElement()} must be passed to
+     * {@link #child(long)} of the parent unless the element is the
+     * outermost one being fingerprinted. A builder may be reused once
+     * the outermost element has ended. Builders do not allocate per
+     * event once their stack has grown to the document depth.
+     *
+     */
+    public static final class Builder {
+        /** Initial capacity of the element stack. */
+        private static final int INITIAL_DEPTH = 16;
+
+        /** Hash of the name of each open element. */
+        private long[] names = new long[INITIAL_DEPTH];
+        /** Order independent sum of the attribute hashes. */
+        private long[] attributes = new long[INITIAL_DEPTH];
+        /** Order independent sum of the child element hashes. */
+        private long[] children = new long[INITIAL_DEPTH];
+        /** Running hash of the normalised text. */
+        private long[] texts = new long[INITIAL_DEPTH];
+        /** Whether text has been seen, i.e. leading whitespace is over. */
+        private boolean[] textStarted = new boolean[INITIAL_DEPTH];
+        /** Whether whitespace is pending output before the next
+         *  non-whitespace character. */
+        private boolean[] spacePending = new boolean[INITIAL_DEPTH];
+        /** Index of the innermost open element. */
+        private int top = -1;
+
+        /**
+         * Create a builder.
+         */
+        public Builder() {
+            // do nothing constructor
+        }
+
+        /**
+         * Start an element.
+         *
+         * @param uri
+         *      The element namespace, which may be null or empty
+         * @param localName
+         *      The unqualified element name
+         */
+        public void startElement(final String uri, final String localName) {
+            top++;
+            if (top == names.length) {
+                grow();
+            }
+            names[top] = hash(uri) * COMBINE + hash(localName);
+            attributes[top] = 0;
+            children[top] = 0;
+            texts[top] = FNV_OFFSET;
+            textStarted[top] = false;
+            spacePending[top] = false;
+        }
+
+        /**
+         * Add an attribute of the current element. Namespace
+         * declarations should not be passed.
+         *
+         * @param uri
+         *      The attribute namespace, which may be null or empty
+         * @param localName
+         *      The unqualified attribute name
+         * @param value
+         *      The attribute value
+         */
+        public void attribute(final String uri, final String localName,
+                              final String value) {
+            attributes[top] += mix((hash(uri) * COMBINE + hash(localName))
+                    * COMBINE + hash(value));
+        }
+
+        /**
+         * Add text content of the current element.
+         *
+         * @param s
+         *      The text
+         */
+        public void text(final String s) {
+            for (int i = 0; i < s.length(); i++) {
+                character(s.charAt(i));
+            }
+        }
+
+        /**
+         * Add text content of the current element.
+         *
+         * @param chars
+         *      An array of characters
+         * @param start
+         *      The start position of the first in the array
+         * @param length
+         *      The number of characters to add
+         */
+        public void text(final char[] chars, final int start,
+                         final int length) {
+            for (int i = start; i < start + length; i++) {
+                character(chars[i]);
+            }
+        }
+
+        /**
+         * Add one character of text, normalising whitespace.
+         *
+         * @param c
+         *      The character
+         */
+        private void character(final char c) {
+            if (Character.isWhitespace(c)) {
+                spacePending[top] = textStarted[top];
+                return;
+            }
+            long h = texts[top];
+            if (spacePending[top]) {
+                h = (h ^ ' ') * FNV_PRIME;
+                spacePending[top] = false;
+            }
+            texts[top] = (h ^ c) * FNV_PRIME;
+            textStarted[top] = true;
+        }
+
+        /**
+         * Add the fingerprint of a completed child element to the
+         * current element.
+         *
+         * @param fingerprint
+         *      The value returned by endElement() for the child
+         */
+        public void child(final long fingerprint) {
+            children[top] += mix(fingerprint);
+        }
+
+        /**
+         * End the current element.
+         *
+         * @return
+         *      The fingerprint of the element
+         */
+        public long endElement() {
+            long h = names[top];
+            h = h * COMBINE + attributes[top];
+            h = h * COMBINE + texts[top];
+            h = h * COMBINE + children[top];
+            top--;
+            return mix(h);
+        }
+
+        /**
+         * Obtain the number of open elements.
+         *
+         * @return
+         *      The current element depth, 0 when no element is open
+         */
+        public int getDepth() {
+            return top + 1;
+        }
+
+        /**
+         * Double the capacity of the element stack.
+         */
+        private void grow() {
+            int n = names.length * 2;
+            names = Arrays.copyOf(names, n);
+            attributes = Arrays.copyOf(attributes, n);
+            children = Arrays.copyOf(children, n);
+            texts = Arrays.copyOf(texts, n);
+            textStarted = Arrays.copyOf(textStarted, n);
+            spacePending = Arrays.copyOf(spacePending, n);
+        }
+    }
+}
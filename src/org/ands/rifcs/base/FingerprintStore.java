@@ -0,0 +1,258 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A store of registry object fingerprints keyed by registry object key.
+ *
+ * The store records the fingerprint of each registry object seen in a
+ * previous harvest so that unchanged records can be skipped in the next
+ * one. Fingerprints may come from a loaded document (see
+ * {@link Fingerprint}) or from a streaming parse (see
+ * org.ands.rifcs.ch.FingerprintHandler). A store may be updated from
+ * several threads at once.
+ *
+ * Keys are saved as modified UTF-8, so a key may be at most
+ * MAX_KEY_BYTES long in that encoding; longer keys are rejected.
+ *
+ */
+public class FingerprintStore {
+    /** Greatest length of a key in modified UTF-8. */
+    public static final int MAX_KEY_BYTES = 0xffff;
+
+    /** Format marker written at the start of a saved store. */
+    private static final int MAGIC = 0x52494650;
+    /** Greatest character encoded in one byte. */
+    private static final int MAX_ONE_BYTE = 0x7f;
+    /** Greatest character encoded in two bytes. */
+    private static final int MAX_TWO_BYTES = 0x7ff;
+    /** Most bytes encoding one character. */
+    private static final int MAX_BYTES_PER_CHAR = 3;
+
+    /** Map from registry object key to fingerprint. */
+    private Map<String, Long> fingerprints =
+            new ConcurrentHashMap<String, Long>();
+
+
+    /**
+     * Create an empty fingerprint store.
+     */
+    public FingerprintStore() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Obtain the fingerprint recorded for a key.
+     *
+     * @param key
+     *      A registry object key
+     *
+     * @return
+     *      The recorded fingerprint or null if none is recorded
+     */
+    public final Long get(final String key) {
+        return fingerprints.get(key);
+    }
+
+
+    /**
+     * Record a fingerprint.
+     *
+     * @param key
+     *      A registry object key
+     * @param fingerprint
+     *      The fingerprint of the registry object
+     *
+     * @return
+     *      true if the key was not recorded before or its fingerprint
+     *      differed, i.e. the registry object is new or changed
+     *
+     * @throws IllegalArgumentException if the key is longer than
+     *      MAX_KEY_BYTES in modified UTF-8
+     */
+    public final boolean update(final String key, final long fingerprint) {
+        checkKey(key);
+        Long previous = fingerprints.put(key, Long.valueOf(fingerprint));
+        return previous == null || previous.longValue() != fingerprint;
+    }
+
+
+    /**
+     * Record the fingerprint of a registry object.
+     *
+     * @param ro
+     *      A registry object
+     *
+     * @return
+     *      true if the registry object is new or changed
+     */
+    public final boolean update(final RegistryObject ro) {
+        return update(ro.getKey(), Fingerprint.of(ro));
+    }
+
+
+    /**
+     * Determine whether a registry object is unchanged without
+     * recording its fingerprint.
+     *
+     * @param key
+     *      A registry object key
+     * @param fingerprint
+     *      The fingerprint of the registry object
+     *
+     * @return
+     *      true if the same fingerprint is recorded for the key
+     */
+    public final boolean isUnchanged(final String key,
+                                     final long fingerprint) {
+        Long previous = fingerprints.get(key);
+        return previous != null && previous.longValue() == fingerprint;
+    }
+
+
+    /**
+     * Remove the fingerprint recorded for a key.
+     *
+     * @param key
+     *      A registry object key
+     *
+     * @return
+     *      The fingerprint that was recorded or null if none was
+     */
+    public final Long remove(final String key) {
+        return fingerprints.remove(key);
+    }
+
+
+    /**
+     * Obtain the keys with recorded fingerprints.
+     *
+     * @return
+     *      A live view of the keys in the store
+     */
+    public final Set<String> getKeys() {
+        return fingerprints.keySet();
+    }
+
+
+    /**
+     * Obtain the number of recorded fingerprints.
+     *
+     * @return
+     *      The number of keys in the store
+     */
+    public final int size() {
+        return fingerprints.size();
+    }
+
+
+    /**
+     * Write the store to an output stream. The stream is not closed.
+     * The fingerprints written are a snapshot taken at the start, so
+     * that updates made meanwhile from other threads do not corrupt the
+     * saved store.
+     *
+     * @param os
+     *      The OutputStream to write the data to
+     *
+     * @throws IOException An IOException
+     */
+    public final void save(final OutputStream os) throws IOException {
+        List<Map.Entry<String, Long>> entries =
+                new ArrayList<Map.Entry<String, Long>>(
+                        fingerprints.entrySet());
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(os));
+        out.writeInt(MAGIC);
+        out.writeInt(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            out.writeUTF(entries.get(i).getKey());
+            out.writeLong(entries.get(i).getValue().longValue());
+        }
+        out.flush();
+    }
+
+
+    /**
+     * Add the fingerprints saved by {@link #save(OutputStream)} to the
+     * store. The stream is not closed, and is read no further than the
+     * end of the saved store, so that data following it can be read
+     * afterwards; it is read a few bytes at a time, so should be
+     * buffered.
+     *
+     * @param is
+     *      The InputStream to read the data from
+     *
+     * @throws IOException
+     *      if the stream can not be read or does not contain a saved store
+     */
+    public final void load(final InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a saved fingerprint store");
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            fingerprints.put(key, Long.valueOf(in.readLong()));
+        }
+    }
+
+
+    /**
+     * Check that a key can be saved.
+     *
+     * @param key
+     *      A registry object key
+     *
+     * @throws IllegalArgumentException if the key is longer than
+     *      MAX_KEY_BYTES in modified UTF-8
+     */
+    private static void checkKey(final String key) {
+        if (key.length() <= MAX_KEY_BYTES / MAX_BYTES_PER_CHAR) {
+            return;
+        }
+        long bytes = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c != 0 && c <= MAX_ONE_BYTE) {
+                bytes += 1;
+            } else if (c <= MAX_TWO_BYTES) {
+                bytes += 2;
+            } else {
+                bytes += MAX_BYTES_PER_CHAR;
+            }
+        }
+        if (bytes > MAX_KEY_BYTES) {
+            throw new IllegalArgumentException("Key of " + bytes
+                    + " bytes is longer than the " + MAX_KEY_BYTES
+                    + " bytes a fingerprint store can save");
+        }
+    }
+}
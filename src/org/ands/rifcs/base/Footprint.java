@@ -0,0 +1,472 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * The approximate heap retained by registry objects: their DOM nodes
+ * and strings, and the RegistryObject and map entries a RIFCS object
+ * keeps for each, with counts of nodes and a breakdown by element name
+ * and by object class.
+ *
+ * Sizes are estimated from the fields of the JDK's DOM implementation
+ * on a 64 bit JVM with compressed references and compact strings, as
+ * built by DefaultRIFCSHandler; they are not measured, so the figures
+ * are for sizing and for comparing releases rather than exact. Each
+ * distinct String is counted once, so values shared through a
+ * StringPool are not counted again. Element and attribute names are
+ * shared by the parser and not counted. Class objects obtained from
+ * RegistryObject.getClassObject() are built on each call and not
+ * retained, and so are not counted either.
+ *
+ * Measuring reads every node of a registry object. sample() measures
+ * one registry object in a number and scales the figures, so that the
+ * footprint of a large document can be estimated in production.
+ *
+ * Not thread safe, and a DOM must not be changed while it is measured.
+ *
+ */
+public final class Footprint {
+    /** Bytes of an element. */
+    private static final int ELEMENT_BYTES = 48;
+    /** Bytes of the attribute map of an element with attributes. */
+    private static final int ATTRIBUTE_MAP_BYTES = 64;
+    /** Bytes of an attribute map for each attribute. */
+    private static final int ATTRIBUTE_SLOT_BYTES = 4;
+    /** Bytes of an attribute. */
+    private static final int ATTRIBUTE_BYTES = 40;
+    /** Bytes of a text, comment or other leaf node. */
+    private static final int TEXT_BYTES = 32;
+    /** Bytes of a String, without its characters. */
+    private static final int STRING_BYTES = 24;
+    /** Bytes of an array, without its elements. */
+    private static final int ARRAY_BYTES = 16;
+    /** Bytes a RIFCS object retains for each registry object: the
+     *  RegistryObject, its map entry and its list slot. */
+    private static final int REGISTRY_OBJECT_BYTES = 64;
+    /** Objects are aligned to this many bytes. */
+    private static final int ALIGNMENT = 8;
+    /** The greatest character of a Latin-1 string. */
+    private static final char LATIN_1 = '\u00ff';
+
+    /** Registry objects measured. */
+    private long measured = 0;
+    /** Registry objects the figures are scaled to. */
+    private long total = 0;
+    /** Elements measured. */
+    private long elements = 0;
+    /** Attributes measured. */
+    private long attributes = 0;
+    /** Text and other leaf nodes measured. */
+    private long texts = 0;
+    /** Bytes measured. */
+    private long bytes = 0;
+    /** Map from element name to count and bytes. */
+    private final Map<String, long[]> byElement =
+            new TreeMap<String, long[]>();
+    /** Map from object class to count and bytes. */
+    private final Map<String, long[]> byClass =
+            new TreeMap<String, long[]>();
+    /** Strings already counted. */
+    private final Set<String> seen = Collections.newSetFromMap(
+            new IdentityHashMap<String, Boolean>());
+
+
+    /**
+     * Create an empty footprint, to which registry objects are added.
+     */
+    public Footprint() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Measure a registry object.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @return
+     *      Its footprint
+     */
+    public static Footprint of(final RegistryObject ro) {
+        Footprint f = new Footprint();
+        f.add(ro);
+        return f;
+    }
+
+
+    /**
+     * Measure every registry object of a document.
+     *
+     * @param rifcs
+     *      The document
+     *
+     * @return
+     *      The footprint of its registry objects
+     */
+    public static Footprint of(final RIFCS rifcs) {
+        return sample(rifcs, 1);
+    }
+
+
+    /**
+     * Estimate the footprint of the registry objects of a document from
+     * one in every so many, in the order of RIFCS.spliterator(). The
+     * figures are scaled to all the registry objects.
+     *
+     * @param rifcs
+     *      The document
+     * @param every
+     *      Measure one registry object in this many
+     *
+     * @return
+     *      The estimated footprint of its registry objects
+     */
+    public static Footprint sample(final RIFCS rifcs, final int every) {
+        if (every < 1) {
+            throw new IllegalArgumentException(
+                    "Sampling interval must be positive");
+        }
+        Footprint f = new Footprint();
+        Iterator<RegistryObject> i = rifcs.stream().iterator();
+        long n = 0;
+        while (i.hasNext()) {
+            RegistryObject ro = i.next();
+            if (n % every == 0) {
+                f.add(ro);
+            }
+            n++;
+        }
+        f.total = n;
+        return f;
+    }
+
+
+    /**
+     * Measure a registry object and add it to this footprint.
+     *
+     * @param ro
+     *      The registry object
+     */
+    public void add(final RegistryObject ro) {
+        long before = bytes;
+        bytes += REGISTRY_OBJECT_BYTES;
+        addElement(ro.getDOMElement());
+        String c = ro.getObjectClassName();
+        if (c == null) {
+            c = "";
+        }
+        add(byClass, c, bytes - before);
+        measured++;
+        total++;
+    }
+
+
+    /**
+     * Obtain the number of registry objects the figures are for.
+     *
+     * @return
+     *      The number of registry objects
+     */
+    public long getRegistryObjects() {
+        return total;
+    }
+
+
+    /**
+     * Obtain the number of registry objects measured.
+     *
+     * @return
+     *      The number of registry objects, fewer than
+     *      getRegistryObjects() for a sample
+     */
+    public long getMeasured() {
+        return measured;
+    }
+
+
+    /**
+     * Obtain the approximate retained bytes.
+     *
+     * @return
+     *      The number of bytes
+     */
+    public long getBytes() {
+        return scale(bytes);
+    }
+
+
+    /**
+     * Obtain the approximate retained bytes of a registry object on
+     * average.
+     *
+     * @return
+     *      The number of bytes, 0 if there are no registry objects
+     */
+    public long getBytesPerRegistryObject() {
+        if (measured == 0) {
+            return 0;
+        }
+        return bytes / measured;
+    }
+
+
+    /**
+     * Obtain the number of DOM nodes.
+     *
+     * @return
+     *      The number of elements, attributes and other nodes
+     */
+    public long getNodes() {
+        return scale(elements + attributes + texts);
+    }
+
+
+    /**
+     * Obtain the number of elements.
+     *
+     * @return
+     *      The number of elements
+     */
+    public long getElements() {
+        return scale(elements);
+    }
+
+
+    /**
+     * Obtain the number of attributes.
+     *
+     * @return
+     *      The number of attributes
+     */
+    public long getAttributes() {
+        return scale(attributes);
+    }
+
+
+    /**
+     * Obtain the number of text and other leaf nodes.
+     *
+     * @return
+     *      The number of nodes
+     */
+    public long getTextNodes() {
+        return scale(texts);
+    }
+
+
+    /**
+     * Obtain the number of elements of each name.
+     *
+     * @return
+     *      Map from local name to number of elements, by name
+     */
+    public Map<String, Long> getElementCounts() {
+        return toMap(byElement, 0);
+    }
+
+
+    /**
+     * Obtain the bytes of the elements of each name, including their
+     * attributes and text but not their child elements.
+     *
+     * @return
+     *      Map from local name to number of bytes, by name
+     */
+    public Map<String, Long> getElementBytes() {
+        return toMap(byElement, 1);
+    }
+
+
+    /**
+     * Obtain the number of registry objects of each object class.
+     *
+     * @return
+     *      Map from object class to number of registry objects
+     */
+    public Map<String, Long> getObjectClassCounts() {
+        return toMap(byClass, 0);
+    }
+
+
+    /**
+     * Obtain the bytes of the registry objects of each object class.
+     *
+     * @return
+     *      Map from object class to number of bytes
+     */
+    public Map<String, Long> getObjectClassBytes() {
+        return toMap(byClass, 1);
+    }
+
+
+    /**
+     * Summarise the footprint.
+     *
+     * @return
+     *      The number of registry objects, bytes, bytes per registry
+     *      object and nodes
+     */
+    public String toString() {
+        return getRegistryObjects() + " registry objects, " + getBytes()
+                + " bytes, " + getBytesPerRegistryObject()
+                + " bytes per registry object, " + getNodes() + " nodes";
+    }
+
+
+    /**
+     * Measure an element and its descendants.
+     *
+     * @param e
+     *      The element
+     */
+    private void addElement(final Element e) {
+        long b = ELEMENT_BYTES;
+        elements++;
+        NamedNodeMap attrs = e.getAttributes();
+        if (attrs != null && attrs.getLength() > 0) {
+            b += align(ATTRIBUTE_MAP_BYTES
+                    + ATTRIBUTE_SLOT_BYTES * attrs.getLength());
+            for (int i = 0; i < attrs.getLength(); i++) {
+                b += ATTRIBUTE_BYTES + string(attrs.item(i).getNodeValue());
+                attributes++;
+            }
+        }
+        for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() == Node.ELEMENT_NODE) {
+                addElement((Element) n);
+            } else {
+                b += TEXT_BYTES + string(n.getNodeValue());
+                texts++;
+            }
+        }
+        String name = e.getLocalName();
+        if (name == null) {
+            name = e.getNodeName();
+        }
+        add(byElement, name, b);
+        bytes += b;
+    }
+
+
+    /**
+     * Obtain the bytes of a string not already counted.
+     *
+     * @param s
+     *      The string, or null
+     *
+     * @return
+     *      The number of bytes, 0 if it has been counted
+     */
+    private long string(final String s) {
+        if (s == null || !seen.add(s)) {
+            return 0;
+        }
+        int perChar = 1;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > LATIN_1) {
+                perChar = 2;
+                break;
+            }
+        }
+        return STRING_BYTES + align(ARRAY_BYTES + (long) perChar * s.length());
+    }
+
+
+    /**
+     * Round a size up to the object alignment.
+     *
+     * @param size
+     *      The size in bytes
+     *
+     * @return
+     *      The aligned size
+     */
+    private static long align(final long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+
+    /**
+     * Add to a count and bytes.
+     *
+     * @param m
+     *      Map from name to count and bytes
+     * @param name
+     *      The name
+     * @param b
+     *      The bytes
+     */
+    private static void add(final Map<String, long[]> m, final String name,
+                            final long b) {
+        long[] v = m.get(name);
+        if (v == null) {
+            v = new long[2];
+            m.put(name, v);
+        }
+        v[0]++;
+        v[1] += b;
+    }
+
+
+    /**
+     * Scale a figure measured to all the registry objects.
+     *
+     * @param n
+     *      The figure measured
+     *
+     * @return
+     *      The scaled figure
+     */
+    private long scale(final long n) {
+        if (measured == 0 || measured == total) {
+            return n;
+        }
+        return Math.round((double) n * total / measured);
+    }
+
+
+    /**
+     * Scale one figure of a breakdown.
+     *
+     * @param m
+     *      Map from name to count and bytes
+     * @param field
+     *      0 for counts, 1 for bytes
+     *
+     * @return
+     *      Map from name to the scaled figure
+     */
+    private Map<String, Long> toMap(final Map<String, long[]> m,
+                                    final int field) {
+        Map<String, Long> scaled = new TreeMap<String, Long>();
+        for (Map.Entry<String, long[]> e : m.entrySet()) {
+            scaled.put(e.getKey(), Long.valueOf(scale(e.getValue()[field])));
+        }
+        return scaled;
+    }
+}
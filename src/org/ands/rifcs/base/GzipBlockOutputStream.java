@@ -0,0 +1,297 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Stream writing gzip data as a series of independent members, each
+ * holding whole registry objects, so that a file can be decompressed
+ * and parsed in parallel while remaining readable by any gzip reader.
+ *
+ * The writer calls endRecord() after each registry object and
+ * endBlock() after the start and before the end of the document, so
+ * that the first block holds the document up to the registryObjects
+ * start tag and the last block holds its end tag. A block is ended
+ * once it holds at least the block size of uncompressed data.
+ *
+ * Each member's header has an extra field with subfield ID "RC"
+ * holding the length of the member and the number of registry objects
+ * in it, as two little-endian unsigned 32 bit integers, so that a
+ * reader can find the blocks without decompressing them, as
+ * RIFCSFileReader does.
+ *
+ * finish() ends the Deflater, releasing its native memory, so nothing
+ * more may be written once the stream is finished.
+ *
+ */
+public class GzipBlockOutputStream extends OutputStream {
+    /** The default uncompressed size of a block. */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    /** First byte of the extra subfield ID. */
+    public static final int SUBFIELD_ID1 = 'R';
+    /** Second byte of the extra subfield ID. */
+    public static final int SUBFIELD_ID2 = 'C';
+    /** Length of the extra subfield data. */
+    public static final int SUBFIELD_LENGTH = 8;
+    /** Length of the member header, including the extra field. */
+    public static final int HEADER_LENGTH = 24;
+
+    /** Length of the member trailer. */
+    private static final int TRAILER_LENGTH = 8;
+    /** Length of the extra field. */
+    private static final int EXTRA_LENGTH = 12;
+    /** The gzip header up to the extra field: magic, deflate method,
+     *  FEXTRA flag, no time, no extra flags, unknown OS. */
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, 8, 4,
+        0, 0, 0, 0, 0, (byte) 0xff};
+    /** Mask of a byte. */
+    private static final int BYTE_MASK = 0xff;
+    /** Bits in a byte. */
+    private static final int BYTE_BITS = 8;
+    /** Bytes in an integer of the header or trailer. */
+    private static final int INT_BYTES = 4;
+
+    /** The stream written. */
+    private final OutputStream out;
+    /** The uncompressed size at which a block is ended. */
+    private final int blockSize;
+    /** The compressor. */
+    private final Deflater deflater = new Deflater(
+            Deflater.DEFAULT_COMPRESSION, true);
+    /** Checksum of a block. */
+    private final CRC32 crc = new CRC32();
+    /** Uncompressed data of the current block. */
+    private byte[] buffer;
+    /** Length of the uncompressed data. */
+    private int count = 0;
+    /** Registry objects in the current block. */
+    private int records = 0;
+    /** The compressed block. */
+    private byte[] block;
+    /** Whether the stream has been finished and the Deflater ended. */
+    private boolean finished = false;
+
+
+    /**
+     * Create a stream with the default block size.
+     *
+     * @param anOut
+     *      The stream written
+     */
+    public GzipBlockOutputStream(final OutputStream anOut) {
+        this(anOut, DEFAULT_BLOCK_SIZE);
+    }
+
+
+    /**
+     * Create a stream.
+     *
+     * @param anOut
+     *      The stream written
+     * @param aBlockSize
+     *      The uncompressed size at which a block is ended
+     */
+    public GzipBlockOutputStream(final OutputStream anOut,
+                                 final int aBlockSize) {
+        if (aBlockSize < 1) {
+            throw new IllegalArgumentException(
+                    "Block size must be positive");
+        }
+        this.out = anOut;
+        this.blockSize = aBlockSize;
+        this.buffer = new byte[Math.min(aBlockSize,
+                Compression.BUFFER_SIZE)];
+        this.block = new byte[HEADER_LENGTH + TRAILER_LENGTH
+                + buffer.length];
+    }
+
+
+    /**
+     * Write a byte to the current block.
+     *
+     * @param b
+     *      The byte
+     *
+     * @throws IOException if the stream has been finished
+     */
+    public final void write(final int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[count++] = (byte) b;
+    }
+
+
+    /**
+     * Write bytes to the current block.
+     *
+     * @param b
+     *      The bytes
+     * @param off
+     *      The index of the first byte
+     * @param len
+     *      The number of bytes
+     *
+     * @throws IOException if the stream has been finished
+     */
+    public final void write(final byte[] b, final int off, final int len)
+            throws IOException {
+        ensureOpen();
+        if (count + len > buffer.length) {
+            buffer = Arrays.copyOf(buffer,
+                    Math.max(buffer.length * 2, count + len));
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+
+    /**
+     * Note that a registry object has been written, and end the block if
+     * it is full.
+     *
+     * @throws IOException An IOException
+     */
+    public final void endRecord() throws IOException {
+        ensureOpen();
+        records++;
+        if (count >= blockSize) {
+            endBlock();
+        }
+    }
+
+
+    /**
+     * Compress and write the current block, if it is not empty.
+     *
+     * @throws IOException An IOException
+     */
+    public final void endBlock() throws IOException {
+        ensureOpen();
+        if (count == 0) {
+            return;
+        }
+        deflater.reset();
+        deflater.setInput(buffer, 0, count);
+        deflater.finish();
+        int length = HEADER_LENGTH;
+        while (!deflater.finished()) {
+            if (length == block.length) {
+                block = Arrays.copyOf(block, block.length * 2);
+            }
+            length += deflater.deflate(block, length,
+                    block.length - length);
+        }
+        crc.reset();
+        crc.update(buffer, 0, count);
+        if (length + TRAILER_LENGTH > block.length) {
+            block = Arrays.copyOf(block, length + TRAILER_LENGTH);
+        }
+        putInt(length, crc.getValue());
+        putInt(length + INT_BYTES, count);
+        System.arraycopy(HEADER, 0, block, 0, HEADER.length);
+        int i = HEADER.length;
+        block[i++] = (byte) EXTRA_LENGTH;
+        block[i++] = 0;
+        block[i++] = (byte) SUBFIELD_ID1;
+        block[i++] = (byte) SUBFIELD_ID2;
+        block[i++] = (byte) SUBFIELD_LENGTH;
+        block[i++] = 0;
+        putInt(i, length + TRAILER_LENGTH);
+        putInt(i + INT_BYTES, records);
+        out.write(block, 0, length + TRAILER_LENGTH);
+        count = 0;
+        records = 0;
+    }
+
+
+    /**
+     * Write a little-endian 32 bit integer into the compressed block.
+     *
+     * @param index
+     *      The index of the first byte
+     * @param value
+     *      The value
+     */
+    private void putInt(final int index, final long value) {
+        for (int i = 0; i < INT_BYTES; i++) {
+            block[index + i] = (byte) ((value >>> (BYTE_BITS * i))
+                    & BYTE_MASK);
+        }
+    }
+
+
+    /**
+     * Do nothing: blocks are written as they end, and the data of the
+     * current block can not be written before it ends. finish() flushes
+     * the stream written.
+     */
+    public final void flush() {
+        // do nothing
+    }
+
+
+    /**
+     * Write the current block, end the Deflater and flush the stream
+     * written, without closing it. Only the first call has any effect.
+     *
+     * @throws IOException An IOException
+     */
+    public final void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        try {
+            endBlock();
+        } finally {
+            finished = true;
+            deflater.end();
+        }
+        out.flush();
+    }
+
+
+    /**
+     * Write the current block and close the stream written.
+     *
+     * @throws IOException An IOException
+     */
+    public final void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Check that the stream has not been finished.
+     *
+     * @throws IOException if it has
+     */
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Stream finished");
+        }
+    }
+}
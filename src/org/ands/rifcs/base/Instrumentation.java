@@ -0,0 +1,155 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+
+/**
+ * Instrumentation of the stages of reading, building, validating and
+ * writing RIF-CS documents. Each stage is timed to the nanosecond with
+ * the registry objects and bytes it processed, and given to each
+ * registered Metrics and recorded as a StageEvent for Java Flight
+ * Recorder, the event "org.ands.rifcs.Stage".
+ *
+ * When no Metrics is registered and the event is not enabled in a
+ * recording, start() returns a timer that does nothing, without
+ * allocating, so that the cost of the instrumentation is a check at
+ * the start of each stage. Whether the event is enabled is checked as
+ * recordings start and stop; enabling it in a recording already running
+ * takes effect when a recording next starts or stops.
+ *
+ * Stages are timed separately but may overlap. The classObject stage is
+ * timed on every call of RegistryObject.getClassObject(), which is
+ * often made during another stage by code reading the registry objects
+ * as they are built, indexed or written, so that its time is then also
+ * counted in that stage. Its time should not be added to that of the
+ * other stages.
+ *
+ */
+public final class Instrumentation {
+    /** Stage of parsing a document to DOM, RIFCSReader.mapToDOM(). */
+    public static final String STAGE_PARSE = "parse";
+    /** Stage of building the registry objects of a RIFCS object. */
+    public static final String STAGE_BUILD = "build";
+    /** Stage of building an object class object,
+     *  RegistryObject.getClassObject(), which may overlap other stages. */
+    public static final String STAGE_CLASS_OBJECT = "classObject";
+    /** Stage of validating a document against the schema. */
+    public static final String STAGE_VALIDATE = "validate";
+    /** Stage of writing a document, RIFCSWrapper.write(). */
+    public static final String STAGE_WRITE = "write";
+
+    /** The registered metrics. */
+    private static final List<Metrics> METRICS =
+            new CopyOnWriteArrayList<Metrics>();
+
+    /** Whether the StageEvent is enabled in a running recording, as of
+     *  the last time a recording started or stopped. */
+    private static volatile boolean eventEnabled = false;
+
+    static {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            public void recorderInitialized(final FlightRecorder recorder) {
+                updateEventEnabled();
+            }
+
+            public void recordingStateChanged(final Recording recording) {
+                updateEventEnabled();
+            }
+        });
+    }
+
+
+    /**
+     * Prevent instantiation.
+     */
+    private Instrumentation() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Register metrics to receive the timings of stages.
+     *
+     * @param metrics
+     *      The metrics
+     */
+    public static void addMetrics(final Metrics metrics) {
+        METRICS.add(metrics);
+    }
+
+
+    /**
+     * Unregister metrics.
+     *
+     * @param metrics
+     *      The metrics
+     */
+    public static void removeMetrics(final Metrics metrics) {
+        METRICS.remove(metrics);
+    }
+
+
+    /**
+     * Start timing a stage on the current thread.
+     *
+     * @param stage
+     *      The stage, STAGE_PARSE etc.
+     *
+     * @return
+     *      The timer, to be stopped when the stage ends
+     */
+    public static StageTimer start(final String stage) {
+        if (METRICS.isEmpty() && !eventEnabled) {
+            return StageTimer.DISABLED;
+        }
+        return new StageTimer(stage, new StageEvent());
+    }
+
+
+    /**
+     * Check whether the StageEvent is enabled, after a recording has
+     * started or stopped.
+     */
+    private static void updateEventEnabled() {
+        eventEnabled = new StageEvent().isEnabled();
+    }
+
+
+    /**
+     * Give the timing of a stage to the registered metrics.
+     *
+     * @param stage
+     *      The stage
+     * @param nanos
+     *      The time the stage took, in nanoseconds
+     * @param records
+     *      The number of registry objects processed
+     * @param bytes
+     *      The number of bytes read or written
+     */
+    static void stage(final String stage, final long nanos,
+                      final long records, final long bytes) {
+        for (Metrics m : METRICS) {
+            m.stage(stage, nanos, records, bytes);
+        }
+    }
+}
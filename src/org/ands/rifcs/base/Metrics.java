@@ -0,0 +1,41 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+/**
+ * Interface for objects receiving the timings of the stages of reading,
+ * building, validating and writing RIF-CS documents, such as adapters
+ * to a metrics library. Registered with Instrumentation.addMetrics().
+ *
+ * Called on the thread that ran the stage, so implementations must be
+ * thread safe, and should be quick.
+ *
+ */
+public interface Metrics {
+    /**
+     * Called after a stage has ended.
+     *
+     * @param stage
+     *      The stage, Instrumentation.STAGE_PARSE etc.
+     * @param nanos
+     *      The time the stage took, in nanoseconds
+     * @param records
+     *      The number of registry objects processed, 0 if not known
+     * @param bytes
+     *      The number of bytes read or written, 0 if none
+     */
+    void stage(String stage, long nanos, long records, long bytes);
+}
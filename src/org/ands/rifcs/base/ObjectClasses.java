@@ -0,0 +1,340 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Access to the elements common to the four object classes, which do
+ * not share a superclass declaring them.
+ *
+ */
+public final class ObjectClasses {
+    /**
+     * Prevent instantiation.
+     */
+    private ObjectClasses() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Determine whether an element name is that of an object class
+     * element.
+     *
+     * @param localName
+     *      The unqualified element name
+     *
+     * @return
+     *      true for collection, party, activity and service
+     */
+    public static boolean isObjectClass(final String localName) {
+        return Constants.ELEMENT_COLLECTION.equals(localName)
+                || Constants.ELEMENT_PARTY.equals(localName)
+                || Constants.ELEMENT_ACTIVITY.equals(localName)
+                || Constants.ELEMENT_SERVICE.equals(localName);
+    }
+
+
+    /**
+     * Determine whether an element is an object class element.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     *
+     * @return
+     *      true for collection, party, activity and service elements
+     *      in the RIF-CS namespace
+     */
+    public static boolean isObjectClass(final String uri,
+                                        final String localName) {
+        return Constants.NS_RIFCS.equals(uri) && isObjectClass(localName);
+    }
+
+
+    /**
+     * Obtain the identifiers of an object class element.
+     *
+     * @param c
+     *      A Collection, Party, Activity or Service
+     *
+     * @return
+     *      A List of Identifier objects, empty for other objects
+     */
+    public static List<Identifier> getIdentifiers(final RIFCSElement c) {
+        if (c instanceof Collection) {
+            return ((Collection) c).getIdentifiers();
+        } else if (c instanceof Party) {
+            return ((Party) c).getIdentifiers();
+        } else if (c instanceof Activity) {
+            return ((Activity) c).getIdentifiers();
+        } else if (c instanceof Service) {
+            return ((Service) c).getIdentifiers();
+        }
+        return Collections.emptyList();
+    }
+
+
+    /**
+     * Obtain the names of an object class element.
+     *
+     * @param c
+     *      A Collection, Party, Activity or Service
+     *
+     * @return
+     *      A List of Name objects, empty for other objects
+     */
+    public static List<Name> getNames(final RIFCSElement c) {
+        if (c instanceof Collection) {
+            return ((Collection) c).getNames();
+        } else if (c instanceof Party) {
+            return ((Party) c).getNames();
+        } else if (c instanceof Activity) {
+            return ((Activity) c).getNames();
+        } else if (c instanceof Service) {
+            return ((Service) c).getNames();
+        }
+        return Collections.emptyList();
+    }
+
+
+    /**
+     * Obtain the descriptions of an object class element.
+     *
+     * @param c
+     *      A Collection, Party, Activity or Service
+     *
+     * @return
+     *      A List of Description objects, empty for other objects
+     */
+    public static List<Description> getDescriptions(
+            final RIFCSElement c) {
+        if (c instanceof Collection) {
+            return ((Collection) c).getDescriptions();
+        } else if (c instanceof Party) {
+            return ((Party) c).getDescriptions();
+        } else if (c instanceof Activity) {
+            return ((Activity) c).getDescriptions();
+        } else if (c instanceof Service) {
+            return ((Service) c).getDescriptions();
+        }
+        return Collections.emptyList();
+    }
+
+
+    /**
+     * Obtain the subjects of an object class element.
+     *
+     * @param c
+     *      A Collection, Party, Activity or Service
+     *
+     * @return
+     *      A List of Subject objects, empty for other objects
+     */
+    public static List<Subject> getSubjects(final RIFCSElement c) {
+        if (c instanceof Collection) {
+            return ((Collection) c).getSubjects();
+        } else if (c instanceof Party) {
+            return ((Party) c).getSubjects();
+        } else if (c instanceof Activity) {
+            return ((Activity) c).getSubjects();
+        } else if (c instanceof Service) {
+            return ((Service) c).getSubjects();
+        }
+        return Collections.emptyList();
+    }
+
+
+    /**
+     * Obtain the citations of an object class element. Only collections
+     * have citations.
+     *
+     * @param c
+     *      A Collection, Party, Activity or Service
+     *
+     * @return
+     *      A List of CitationInfo objects, possibly empty
+     */
+    public static List<CitationInfo> getCitationInfos(
+            final RIFCSElement c) {
+        if (c instanceof Collection) {
+            return ((Collection) c).getCitationInfos();
+        }
+        return Collections.emptyList();
+    }
+
+
+    /**
+     * Obtain the citation titles of an object class element. Only
+     * collections have citations.
+     *
+     * @param c
+     *      A Collection, Party, Activity or Service
+     *
+     * @return
+     *      A List of titles, possibly empty
+     */
+    public static List<String> getCitationTitles(final RIFCSElement c) {
+        List<String> titles = new ArrayList<String>();
+        if (c instanceof Collection) {
+            List<CitationInfo> l = ((Collection) c).getCitationInfos();
+            for (int i = 0; i < l.size(); i++) {
+                if (l.get(i).getCitationMetadata() != null) {
+                    titles.add(l.get(i).getCitationMetadata().getTitle());
+                }
+            }
+        }
+        return titles;
+    }
+
+
+    /**
+     * Obtain the type attribute of an object class element.
+     *
+     * @param c
+     *      A Collection, Party, Activity or Service
+     *
+     * @return
+     *      The type, or null for other objects
+     */
+    public static String getType(final RIFCSElement c) {
+        if (c instanceof Collection) {
+            return ((Collection) c).getType();
+        } else if (c instanceof Party) {
+            return ((Party) c).getType();
+        } else if (c instanceof Activity) {
+            return ((Activity) c).getType();
+        } else if (c instanceof Service) {
+            return ((Service) c).getType();
+        }
+        return null;
+    }
+
+
+    /**
+     * Obtain the rights of an object class element.
+     *
+     * @param c
+     *      A Collection, Party, Activity or Service
+     *
+     * @return
+     *      A List of Rights objects, empty for other objects
+     */
+    public static List<Rights> getRights(final RIFCSElement c) {
+        if (c instanceof Collection) {
+            return ((Collection) c).getRightsList();
+        } else if (c instanceof Party) {
+            return ((Party) c).getRights();
+        } else if (c instanceof Activity) {
+            return ((Activity) c).getRights();
+        } else if (c instanceof Service) {
+            return ((Service) c).getRights();
+        }
+        return Collections.emptyList();
+    }
+
+
+    /**
+     * Obtain the coverage elements of an object class element.
+     *
+     * @param c
+     *      A Collection, Party, Activity or Service
+     *
+     * @return
+     *      A List of Coverage objects, empty for other objects
+     */
+    public static List<Coverage> getCoverage(final RIFCSElement c) {
+        if (c instanceof Collection) {
+            return ((Collection) c).getCoverage();
+        } else if (c instanceof Party) {
+            return ((Party) c).getCoverage();
+        } else if (c instanceof Activity) {
+            return ((Activity) c).getCoverage();
+        } else if (c instanceof Service) {
+            return ((Service) c).getCoverage();
+        }
+        return Collections.emptyList();
+    }
+
+
+    /**
+     * Obtain the locations of an object class element.
+     *
+     * @param c
+     *      A Collection, Party, Activity or Service
+     *
+     * @return
+     *      A List of Location objects, empty for other objects
+     */
+    public static List<Location> getLocations(final RIFCSElement c) {
+        if (c instanceof Collection) {
+            return ((Collection) c).getLocations();
+        } else if (c instanceof Party) {
+            return ((Party) c).getLocations();
+        } else if (c instanceof Activity) {
+            return ((Activity) c).getLocations();
+        } else if (c instanceof Service) {
+            return ((Service) c).getLocations();
+        }
+        return Collections.emptyList();
+    }
+
+
+    /**
+     * Obtain the dates elements of an object class element. Only
+     * collections have dates.
+     *
+     * @param c
+     *      A Collection, Party, Activity or Service
+     *
+     * @return
+     *      A List of Dates objects, possibly empty
+     */
+    public static List<Dates> getDates(final RIFCSElement c) {
+        if (c instanceof Collection) {
+            return ((Collection) c).getDates();
+        }
+        return Collections.emptyList();
+    }
+
+
+    /**
+     * Obtain the existence dates of an object class element.
+     *
+     * @param c
+     *      A Collection, Party, Activity or Service
+     *
+     * @return
+     *      A List of ExistenceDates objects, empty for other objects
+     */
+    public static List<ExistenceDates> getExistenceDates(
+            final RIFCSElement c) {
+        if (c instanceof Collection) {
+            return ((Collection) c).getExistenceDates();
+        } else if (c instanceof Party) {
+            return ((Party) c).getExistenceDates();
+        } else if (c instanceof Activity) {
+            return ((Activity) c).getExistenceDates();
+        } else if (c instanceof Service) {
+            return ((Service) c).getExistenceDates();
+        }
+        return Collections.emptyList();
+    }
+}
@@ -20,6 +20,10 @@ import java.util.HashMap;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -27,6 +31,7 @@ import javax.xml.parsers.ParserConfigurationException;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 /**
@@ -46,6 +51,9 @@ public class RIFCS {
         that type. */
     private HashMap<String, ArrayList<RegistryObject>> rosByClass =
             new HashMap<String, ArrayList<RegistryObject>>();
+    /** Listeners notified when registry objects are added or replaced. */
+    private List<RegistryObjectListener> listeners =
+            new CopyOnWriteArrayList<RegistryObjectListener>();
 
 
     /**
@@ -179,7 +187,121 @@ public class RIFCS {
 
 
     /**
-     * Add a registry object to the RIF-CS document.
+     * Obtain a spliterator over the registry objects: the collections,
+     * then the activities, parties and services. It reports its exact
+     * size and splits evenly, and is not affected by registry objects
+     * added afterwards.
+     *
+     * @return A Spliterator of RegistryObject objects
+     */
+    public final Spliterator<RegistryObject> spliterator() {
+        RegistryObject[] a = toArray();
+        return new RegistryObjectSpliterator(a, null, 0, a.length);
+    }
+
+
+    /**
+     * Obtain a sequential stream of the registry objects, in the order
+     * of spliterator().
+     *
+     * The registry objects are those of this document, not copies, so
+     * changes made to them change the document; those of
+     * parallelStream() are detached copies, whose changes are lost. A
+     * DOM, including a Xerces DOM, may not be read from two threads at
+     * once, so this stream must not be made parallel unless its
+     * operations leave the registry objects unread; use
+     * parallelStream() instead.
+     *
+     * @return A Stream of RegistryObject objects
+     */
+    public final Stream<RegistryObject> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+
+    /**
+     * Obtain a parallel stream of copies of the registry objects, in
+     * the order of spliterator().
+     *
+     * Each registry object is copied into a document of its own
+     * shortly before it is passed on, so that the copies may be read and
+     * changed from several threads at once. Reading this document to
+     * make the copies is done by one thread at a time, a few registry
+     * objects at a time, so the stream scales with the work done on
+     * each copy rather than with the copying. The copies are detached:
+     * changes to them do not affect this document and are lost unless
+     * written elsewhere.
+     *
+     * @return A Stream of RegistryObject objects
+     */
+    public final Stream<RegistryObject> parallelStream() {
+        RegistryObject[] a = toArray();
+        return StreamSupport.stream(
+                new RegistryObjectSpliterator(a, doc, 0, a.length), true);
+    }
+
+
+    /**
+     * Select nodes of the document with an XPath query; see RIFCSXPath.
+     *
+     * @param expression
+     *    An XPath 1.0 expression giving a node set, with RIF-CS
+     *    elements prefixed by "rif"
+     * @return The nodes selected, in document order
+     * @throws RIFCSException if the expression can not be compiled or
+     *    does not give a node set
+     */
+    public final NodeList query(final String expression)
+            throws RIFCSException {
+        return RIFCSXPath.nodes(expression, doc);
+    }
+
+
+    /**
+     * Select the text of nodes of each registry object with an XPath
+     * query, several registry objects at once. Each is copied into a
+     * document of its own first; see parallelStream().
+     *
+     * @param expression
+     *    An XPath 1.0 expression giving a node set, relative to the
+     *    registryObject element, such as
+     *    <code>rif:collection/rif:identifier</code>
+     * @return The text of the nodes selected from each registry
+     *    object, by key, in the order of spliterator()
+     * @throws RIFCSException if the expression can not be compiled or
+     *    does not give a node set
+     */
+    public final Map<String, List<String>> queryEach(
+            final String expression) throws RIFCSException {
+        return RIFCSXPath.strings(expression, parallelStream());
+    }
+
+
+    /**
+     * Copy the registry objects into an array, by object class.
+     *
+     * @return An array of RegistryObject objects
+     */
+    private RegistryObject[] toArray() {
+        RegistryObject[] a = new RegistryObject[ros.size()];
+        int n = 0;
+        String[] classes = {Constants.ELEMENT_COLLECTION,
+                Constants.ELEMENT_ACTIVITY, Constants.ELEMENT_PARTY,
+                Constants.ELEMENT_SERVICE};
+        for (int i = 0; i < classes.length; i++) {
+            List<RegistryObject> l = rosByClass.get(classes[i]);
+            for (int j = 0; j < l.size(); j++) {
+                a[n++] = l.get(j);
+            }
+        }
+        return a;
+    }
+
+
+    /**
+     * Add a registry object to the RIF-CS document. If the document
+     * already contains a registry object with the same key, that
+     * registry object is replaced, keeping its position in the document.
      *
      * @param r
      *    A RegistryObject
@@ -187,24 +309,91 @@ public class RIFCS {
      */
     public final void addRegistryObject(final RegistryObject r)
             throws RIFCSException {
-        doc.getDocumentElement().appendChild(r.getElement());
-        ros.put(r.getKey(), r);
+        Element root = doc.getDocumentElement();
+        RegistryObject previous = ros.put(r.getKey(), r);
+        if (previous == r) {
+            return;
+        }
+
+        if (previous == null) {
+            root.appendChild(r.getElement());
+        } else {
+            rosByClass.get(previous.getObjectClassName()).remove(previous);
+            if (previous.getElement().getParentNode() == root) {
+                root.replaceChild(r.getElement(), previous.getElement());
+            } else {
+                root.appendChild(r.getElement());
+            }
+        }
         rosByClass.get(r.getObjectClassName()).add(r);
+
+        for (int i = 0; i < listeners.size(); i++) {
+            if (previous != null) {
+                listeners.get(i).registryObjectRemoved(previous);
+            }
+            listeners.get(i).registryObjectAdded(r);
+        }
+    }
+
+
+    /**
+     * Register a listener to be notified when registry objects are
+     * added to the document by addRegistryObject().
+     *
+     * @param listener
+     *    A RegistryObjectListener
+     */
+    public final void addRegistryObjectListener(
+            final RegistryObjectListener listener) {
+        listeners.add(listener);
+    }
+
+
+    /**
+     * Remove a listener registered by addRegistryObjectListener().
+     *
+     * @param listener
+     *    A RegistryObjectListener
+     */
+    public final void removeRegistryObjectListener(
+            final RegistryObjectListener listener) {
+        listeners.remove(listener);
     }
 
 
     /**
      * For existing DOM, initialise and create all the supporting structures.
+     * Of registry objects with the same key, the last is kept and the
+     * others are removed from the document, as by addRegistryObject().
      * @throws RIFCSException A RIFCSException
      */
     private void initRegistryObjects() throws RIFCSException {
-        NodeList nl = doc.getElementsByTagNameNS(Constants.NS_RIFCS,
-                Constants.ELEMENT_REGISTRY_OBJECT);
+        StageTimer timer = Instrumentation.start(
+                Instrumentation.STAGE_BUILD);
+        try {
+            NodeList nl = doc.getElementsByTagNameNS(Constants.NS_RIFCS,
+                    Constants.ELEMENT_REGISTRY_OBJECT);
+            // the list is live, so is copied before any are removed
+            Node[] nodes = new Node[nl.getLength()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = nl.item(i);
+            }
 
-        for (int i = 0; i < nl.getLength(); i++) {
-            RegistryObject ro = new RegistryObject(nl.item(i));
-            ros.put(ro.getKey(), ro);
-            rosByClass.get(ro.getObjectClassName()).add(ro);
+            for (int i = 0; i < nodes.length; i++) {
+                RegistryObject ro = new RegistryObject(nodes[i]);
+                RegistryObject previous = ros.put(ro.getKey(), ro);
+                if (previous != null) {
+                    // a later registry object with the same key wins
+                    rosByClass.get(previous.getObjectClassName()).remove(
+                            previous);
+                    Element e = previous.getElement();
+                    e.getParentNode().removeChild(e);
+                }
+                rosByClass.get(ro.getObjectClassName()).add(ro);
+            }
+            timer.addRecords(nodes.length);
+        } finally {
+            timer.stop();
         }
     }
 
@@ -15,12 +15,9 @@
  */
 package org.ands.rifcs.base;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
-import java.util.TimeZone;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -239,6 +236,19 @@ public class RIFCSElement {
     }
 
 
+    /**
+     * Obtain the w3c dom element this object represents, for example
+     * to serialise it without the rest of its document, or to tell
+     * its own children from deeper descendants.
+     *
+     * @return
+     *      A w3c dom element
+     */
+    public final Element getDOMElement() {
+        return e;
+    }
+
+
     /**
      * Create and return an empty generic Element object.
      *
@@ -269,11 +279,6 @@ public class RIFCSElement {
      *      The date in UTC format
      */
     protected static String formatDate(final Date date) {
-        SimpleDateFormat df =
-                new SimpleDateFormat(Constants.TIMESTAMP_UTC_FORMAT);
-        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-        cal.setTime(date);
-        df.setCalendar(cal);
-        return df.format(cal.getTime());
+        return DateCodec.formatUTC(date);
     }
 }
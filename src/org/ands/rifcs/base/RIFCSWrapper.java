@@ -138,6 +138,26 @@ public class RIFCSWrapper {
     }
 
 
+    /**
+     * Select nodes of the RIF-CS document with an XPath query; see
+     * RIFCSXPath.
+     *
+     * @param expression
+     *        An XPath 1.0 expression giving a node set, with RIF-CS
+     *        elements prefixed by "rif"
+     *
+     * @return
+     *        The nodes selected, in document order
+     *
+     * @throws RIFCSException if the expression can not be compiled or
+     *         does not give a node set
+     */
+    public final NodeList query(final String expression)
+            throws RIFCSException {
+        return RIFCSXPath.nodes(expression, doc);
+    }
+
+
     /**
      * Write a RIFCS document to an output stream.
      *
@@ -145,16 +165,46 @@ public class RIFCSWrapper {
      *        The OutputStream to write the data to
      */
     public final void write(final OutputStream os) {
-        DOMImplementation impl = doc.getImplementation();
-        DOMImplementationLS implLS =
-                (DOMImplementationLS) impl.getFeature("LS", "3.0");
-
-        LSOutput lso = implLS.createLSOutput();
-        lso.setByteStream(os);
-        LSSerializer writer = implLS.createLSSerializer();
-        DOMConfiguration domConfig = writer.getDomConfig();
-        domConfig.setParameter("format-pretty-print", Boolean.TRUE);
-        writer.write(doc, lso);
+        StageTimer timer = Instrumentation.start(
+                Instrumentation.STAGE_WRITE);
+        try {
+            DOMImplementation impl = doc.getImplementation();
+            DOMImplementationLS implLS =
+                    (DOMImplementationLS) impl.getFeature("LS", "3.0");
+
+            LSOutput lso = implLS.createLSOutput();
+            lso.setByteStream(timer.count(os));
+            LSSerializer writer = implLS.createLSSerializer();
+            DOMConfiguration domConfig = writer.getDomConfig();
+            domConfig.setParameter("format-pretty-print", Boolean.TRUE);
+            writer.write(doc, lso);
+            timer.addRecords(rifcs.getRegistryObjects().size());
+        } finally {
+            timer.stop();
+        }
+    }
+
+
+    /**
+     * Write a RIFCS document to an output stream, compressed.
+     *
+     * @param os
+     *        The OutputStream to write the data to, which is flushed but
+     *        not closed
+     * @param compression
+     *        Compression.NONE, GZIP or DEFLATE
+     *
+     * @throws IOException An IOException
+     */
+    public final void write(final OutputStream os, final int compression)
+            throws IOException {
+        if (compression == Compression.GZIP_BLOCKS) {
+            throw new IllegalArgumentException(
+                    "Blocks are written by WriterStage");
+        }
+        OutputStream out = Compression.encode(os, compression);
+        write(out);
+        Compression.finish(out);
     }
 
 
@@ -207,16 +257,55 @@ public class RIFCSWrapper {
      */
     public final void validate() throws SAXException,
     MalformedURLException, IOException, ParserConfigurationException {
-        // create a SchemaFactory capable of understanding WXS schemas
-        SchemaFactory factory = SchemaFactory.newInstance(
-                XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        validate(newSchema());
+    }
 
-        Schema schema = factory.newSchema(doXercesWorkaround());
 
+    /**
+     * Validate against a schema. Compiling the schema is much slower
+     * than validating a document against it, so a schema from
+     * newSchema() should be kept when validating many documents.
+     *
+     * @param schema
+     *      The schema
+     *
+     * @throws SAXException
+     *      if document is invalid
+     * @throws IOException
+     *      if the document can not be read
+     */
+    public final void validate(final Schema schema) throws SAXException,
+    IOException {
         // create a Validator instance, which can be used
         // to validate an instance document
         Validator validator = schema.newValidator();
-        validator.validate(new DOMSource(doc));
+        validate(validator);
+    }
+
+
+    /**
+     * Compile the most recent rif-cs schema, accessed remotely from the
+     * production site. The schema is thread safe and may be used to
+     * validate many documents.
+     *
+     * @return
+     *      The schema
+     *
+     * @throws SAXException
+     *      if the schema is invalid
+     * @throws MalformedURLException
+     *      if schema URL is invalid
+     * @throws IOException
+     *      if URL stream cannot be accessed
+     * @throws ParserConfigurationException
+     *      A ParserConfigurationException
+     */
+    public static Schema newSchema() throws SAXException,
+    MalformedURLException, IOException, ParserConfigurationException {
+        // create a SchemaFactory capable of understanding WXS schemas
+        SchemaFactory factory = SchemaFactory.newInstance(
+                XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        return factory.newSchema(doXercesWorkaround());
     }
 
     /** Xerces cannot handle multiple schema files with the same namespace,
@@ -234,7 +323,7 @@ public class RIFCSWrapper {
      * @throws ParserConfigurationException
      *      A ParserConfigurationException
     */
-    private Source doXercesWorkaround() throws SAXException,
+    private static Source doXercesWorkaround() throws SAXException,
     MalformedURLException, IOException, ParserConfigurationException {
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         factory.setNamespaceAware(true);
@@ -300,7 +389,7 @@ public class RIFCSWrapper {
      *  @param element
      *      the name of the elements to be removed
      */
-    private void removeElements(final Document targetDoc,
+    private static void removeElements(final Document targetDoc,
                                 final String element) {
         NodeList nl = targetDoc.getDocumentElement().
                 getElementsByTagName(element);
@@ -325,7 +414,7 @@ public class RIFCSWrapper {
      *  @param sourceDoc
      *      the document from which elements are to be copied
      */
-    private void addToSchema(final Document targetDoc,
+    private static void addToSchema(final Document targetDoc,
                              final Document sourceDoc) {
         NodeList nl = sourceDoc.getDocumentElement().getChildNodes();
         for (int i = 0; i < nl.getLength(); i++) {
@@ -366,6 +455,31 @@ public class RIFCSWrapper {
         // to validate an instance document
         Validator validator = schema.newValidator();
 
-        validator.validate(new DOMSource(doc));
+        validate(validator);
+    }
+
+
+    /**
+     * Validate the document, timing the validation as
+     * Instrumentation.STAGE_VALIDATE.
+     *
+     * @param validator
+     *      The validator of the schema
+     *
+     * @throws SAXException
+     *      if document is invalid
+     * @throws IOException
+     *      if the document can not be read
+     */
+    private void validate(final Validator validator) throws SAXException,
+    IOException {
+        StageTimer timer = Instrumentation.start(
+                Instrumentation.STAGE_VALIDATE);
+        try {
+            validator.validate(new DOMSource(doc));
+            timer.addRecords(rifcs.getRegistryObjects().size());
+        } finally {
+            timer.stop();
+        }
     }
 }
@@ -0,0 +1,418 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * XPath queries over RIF-CS documents, for extraction the RIF-CS
+ * classes do not cover.
+ *
+ * Queries are evaluated with the prefix "rif" bound to the RIF-CS
+ * namespace, "xsi" to the XML Schema instance namespace and "xml" to
+ * the XML namespace. XPath 1.0 has no default namespace, so RIF-CS
+ * elements must be prefixed, for example
+ * <code>//rif:relatedInfo[@type='publication']/rif:identifier</code>.
+ *
+ * Compiled expressions are not thread safe, so each thread has an
+ * evaluator of its own and a cache of the expressions it has compiled,
+ * by expression, the least recently used being dropped beyond
+ * CACHE_CAPACITY. As with any other use of a DOM, a document must not
+ * be queried from two threads at once; strings(String, Stream) queries
+ * each registry object of a parallel stream of copies, such as
+ * RIFCS.parallelStream(), on its own.
+ *
+ */
+public final class RIFCSXPath {
+    /** The number of expressions cached by each thread. */
+    public static final int CACHE_CAPACITY = 128;
+    /** The prefix bound to the RIF-CS namespace. */
+    public static final String PREFIX_RIFCS = "rif";
+    /** The prefix bound to the XML Schema instance namespace. */
+    public static final String PREFIX_XSI = "xsi";
+
+    /** Load factor of the caches. */
+    private static final float LOAD_FACTOR = 0.75f;
+    /** The namespace context of every query. */
+    private static final NamespaceContext NAMESPACES =
+            new RIFCSNamespaceContext();
+    /** The evaluator and expressions of each thread. */
+    private static final ThreadLocal<Evaluator> EVALUATOR =
+            new ThreadLocal<Evaluator>() {
+        protected Evaluator initialValue() {
+            return new Evaluator();
+        }
+    };
+
+
+    /**
+     * Prevent instantiation.
+     */
+    private RIFCSXPath() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Obtain the namespace context queries are evaluated with.
+     *
+     * @return
+     *      The namespace context
+     */
+    public static NamespaceContext getNamespaceContext() {
+        return NAMESPACES;
+    }
+
+
+    /**
+     * Obtain the calling thread's compiled form of an expression,
+     * compiling it if it is not cached. It must only be used by the
+     * calling thread.
+     *
+     * @param expression
+     *      An XPath 1.0 expression
+     *
+     * @return
+     *      The compiled expression
+     *
+     * @throws RIFCSException if the expression can not be compiled
+     */
+    public static XPathExpression compile(final String expression)
+            throws RIFCSException {
+        return EVALUATOR.get().compile(expression);
+    }
+
+
+    /**
+     * Select nodes.
+     *
+     * @param expression
+     *      An XPath 1.0 expression giving a node set
+     * @param context
+     *      The context node, for example a Document or the DOM element
+     *      of a registry object
+     *
+     * @return
+     *      The nodes selected, in document order
+     *
+     * @throws RIFCSException if the expression can not be compiled or
+     *      does not give a node set
+     */
+    public static NodeList nodes(final String expression,
+                                 final Node context) throws RIFCSException {
+        return (NodeList) evaluate(expression, context,
+                XPathConstants.NODESET);
+    }
+
+
+    /**
+     * Select the text of nodes.
+     *
+     * @param expression
+     *      An XPath 1.0 expression giving a node set
+     * @param context
+     *      The context node
+     *
+     * @return
+     *      The text content of each node selected, in document order
+     *
+     * @throws RIFCSException if the expression can not be compiled or
+     *      does not give a node set
+     */
+    public static List<String> strings(final String expression,
+                                       final Node context)
+            throws RIFCSException {
+        NodeList nl = nodes(expression, context);
+        List<String> l = new ArrayList<String>(nl.getLength());
+        for (int i = 0; i < nl.getLength(); i++) {
+            l.add(nl.item(i).getTextContent());
+        }
+        return l;
+    }
+
+
+    /**
+     * Evaluate an expression as a string.
+     *
+     * @param expression
+     *      An XPath 1.0 expression
+     * @param context
+     *      The context node
+     *
+     * @return
+     *      The value of the expression converted to a string, the text
+     *      of the first node of a node set
+     *
+     * @throws RIFCSException if the expression can not be compiled
+     */
+    public static String string(final String expression,
+                                final Node context) throws RIFCSException {
+        return (String) evaluate(expression, context,
+                XPathConstants.STRING);
+    }
+
+
+    /**
+     * Evaluate an expression as a boolean, for example to filter
+     * registry objects.
+     *
+     * @param expression
+     *      An XPath 1.0 expression
+     * @param context
+     *      The context node
+     *
+     * @return
+     *      The value of the expression converted to a boolean, true for
+     *      a node set if it is not empty
+     *
+     * @throws RIFCSException if the expression can not be compiled
+     */
+    public static boolean matches(final String expression,
+                                  final Node context)
+            throws RIFCSException {
+        return ((Boolean) evaluate(expression, context,
+                XPathConstants.BOOLEAN)).booleanValue();
+    }
+
+
+    /**
+     * Select the text of nodes of each registry object of a stream,
+     * with the DOM element of the registry object as the context node.
+     * Those of a parallel stream are queried in parallel, and so must
+     * not share a DOM.
+     *
+     * @param expression
+     *      An XPath 1.0 expression giving a node set, usually relative,
+     *      such as <code>.//rif:identifier</code>
+     * @param ros
+     *      The registry objects
+     *
+     * @return
+     *      The text of the nodes selected from each registry object, by
+     *      key, in the order of the stream
+     *
+     * @throws RIFCSException if the expression can not be compiled or
+     *      does not give a node set
+     */
+    public static Map<String, List<String>> strings(
+            final String expression, final Stream<RegistryObject> ros)
+            throws RIFCSException {
+        compile(expression);
+        Object[] results;
+        try {
+            results = ros.map(new Function<RegistryObject, Object[]>() {
+                public Object[] apply(final RegistryObject ro) {
+                    try {
+                        return new Object[] {ro.getKey(),
+                            strings(expression, ro.getDOMElement())};
+                    } catch (RIFCSException re) {
+                        throw new UncheckedRIFCSException(re);
+                    }
+                }
+            }).toArray();
+        } catch (UncheckedRIFCSException ure) {
+            throw ure.getCause();
+        }
+        Map<String, List<String>> m =
+                new LinkedHashMap<String, List<String>>();
+        for (Object o : results) {
+            Object[] result = (Object[]) o;
+            @SuppressWarnings("unchecked")
+            List<String> l = (List<String>) result[1];
+            m.put((String) result[0], l);
+        }
+        return m;
+    }
+
+
+    /**
+     * Evaluate an expression with the calling thread's compiled form.
+     *
+     * @param expression
+     *      An XPath 1.0 expression
+     * @param context
+     *      The context node
+     * @param type
+     *      The type of result, one of the XPathConstants
+     *
+     * @return
+     *      The result
+     *
+     * @throws RIFCSException if the expression can not be compiled or
+     *      evaluated
+     */
+    private static Object evaluate(final String expression,
+                                   final Node context, final QName type)
+            throws RIFCSException {
+        try {
+            return compile(expression).evaluate(context, type);
+        } catch (XPathExpressionException xpee) {
+            throw new RIFCSException(xpee);
+        }
+    }
+
+
+    /**
+     * The evaluator of a thread, with the expressions it has compiled.
+     */
+    private static final class Evaluator {
+        /** Compiles expressions. */
+        private final XPath xpath;
+        /** The compiled expressions, least recently used first. */
+        private final Map<String, XPathExpression> cache =
+                new LinkedHashMap<String, XPathExpression>(
+                        CACHE_CAPACITY, LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(
+                    final Map.Entry<String, XPathExpression> eldest) {
+                return size() > CACHE_CAPACITY;
+            }
+        };
+
+        /**
+         * Create an evaluator.
+         */
+        Evaluator() {
+            this.xpath = XPathFactory.newInstance().newXPath();
+            this.xpath.setNamespaceContext(NAMESPACES);
+        }
+
+        /**
+         * Obtain the compiled form of an expression.
+         *
+         * @param expression
+         *      The expression
+         *
+         * @return
+         *      The compiled expression
+         *
+         * @throws RIFCSException if the expression can not be compiled
+         */
+        XPathExpression compile(final String expression)
+                throws RIFCSException {
+            XPathExpression xpe = cache.get(expression);
+            if (xpe == null) {
+                try {
+                    xpe = xpath.compile(expression);
+                } catch (XPathExpressionException xpee) {
+                    throw new RIFCSException(xpee);
+                }
+                cache.put(expression, xpe);
+            }
+            return xpe;
+        }
+    }
+
+
+    /**
+     * Binds the prefixes of queries to namespaces.
+     */
+    private static final class RIFCSNamespaceContext
+            implements NamespaceContext {
+        /**
+         * Create a namespace context.
+         */
+        RIFCSNamespaceContext() {
+            // do nothing constructor
+        }
+
+        /**
+         * Obtain the namespace of a prefix.
+         *
+         * @param prefix
+         *      The prefix
+         *
+         * @return
+         *      The namespace, or the empty string if it is not bound
+         */
+        public String getNamespaceURI(final String prefix) {
+            if (prefix == null) {
+                throw new IllegalArgumentException("Null prefix");
+            } else if (PREFIX_RIFCS.equals(prefix)) {
+                return Constants.NS_RIFCS;
+            } else if (PREFIX_XSI.equals(prefix)) {
+                return Constants.NS_SCHEMA;
+            } else if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+                return XMLConstants.XML_NS_URI;
+            } else if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+                return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+            }
+            return XMLConstants.NULL_NS_URI;
+        }
+
+        /**
+         * Obtain the prefix of a namespace.
+         *
+         * @param namespaceURI
+         *      The namespace
+         *
+         * @return
+         *      The prefix, or null if the namespace is not bound
+         */
+        public String getPrefix(final String namespaceURI) {
+            if (namespaceURI == null) {
+                throw new IllegalArgumentException("Null namespace");
+            } else if (Constants.NS_RIFCS.equals(namespaceURI)) {
+                return PREFIX_RIFCS;
+            } else if (Constants.NS_SCHEMA.equals(namespaceURI)) {
+                return PREFIX_XSI;
+            } else if (XMLConstants.XML_NS_URI.equals(namespaceURI)) {
+                return XMLConstants.XML_NS_PREFIX;
+            } else if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(
+                    namespaceURI)) {
+                return XMLConstants.XMLNS_ATTRIBUTE;
+            }
+            return null;
+        }
+
+        /**
+         * Obtain the prefixes of a namespace.
+         *
+         * @param namespaceURI
+         *      The namespace
+         *
+         * @return
+         *      The prefix, if the namespace is bound
+         */
+        public Iterator<String> getPrefixes(final String namespaceURI) {
+            String prefix = getPrefix(namespaceURI);
+            if (prefix == null) {
+                return Collections.<String>emptyList().iterator();
+            }
+            return Collections.singletonList(prefix).iterator();
+        }
+    }
+}
@@ -336,23 +336,30 @@ public class RegistryObject extends RIFCSElement {
      * @throws RIFCSException A RIFCSException
      */
     public final RIFCSElement getClassObject() throws RIFCSException {
-        NodeList nl = super.getElements(objectClass);
+        StageTimer timer = Instrumentation.start(
+                Instrumentation.STAGE_CLASS_OBJECT);
+        try {
+            NodeList nl = super.getElements(objectClass);
 
-        if (nl.getLength() != 1) {
-            return null;
-        }
+            if (nl.getLength() != 1) {
+                return null;
+            }
 
-        if (objectClass.equals(Constants.ELEMENT_COLLECTION)) {
-            return new Collection(nl.item(0));
-        } else if (objectClass.equals(Constants.ELEMENT_PARTY)) {
-            return new Party(nl.item(0));
-        } else if (objectClass.equals(Constants.ELEMENT_ACTIVITY)) {
-            return new Activity(nl.item(0));
-        } else if (objectClass.equals(Constants.ELEMENT_SERVICE)) {
-            return new Service(nl.item(0));
-        }
+            timer.addRecords(1);
+            if (objectClass.equals(Constants.ELEMENT_COLLECTION)) {
+                return new Collection(nl.item(0));
+            } else if (objectClass.equals(Constants.ELEMENT_PARTY)) {
+                return new Party(nl.item(0));
+            } else if (objectClass.equals(Constants.ELEMENT_ACTIVITY)) {
+                return new Activity(nl.item(0));
+            } else if (objectClass.equals(Constants.ELEMENT_SERVICE)) {
+                return new Service(nl.item(0));
+            }
 
-        return null;
+            return null;
+        } finally {
+            timer.stop();
+        }
     }
 
 
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+/**
+ * Interface for objects notified when registry objects are added to or
+ * replaced in a RIF-CS document, such as indexes of the document.
+ *
+ */
+public interface RegistryObjectListener {
+    /**
+     * Called after a registry object has been added to the document.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    void registryObjectAdded(RegistryObject ro) throws RIFCSException;
+
+
+    /**
+     * Called after a registry object has been removed from the document,
+     * including when it is replaced by another with the same key. When
+     * a registry object is replaced this is called before
+     * registryObjectAdded() is called for its replacement.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    void registryObjectRemoved(RegistryObject ro) throws RIFCSException;
+}
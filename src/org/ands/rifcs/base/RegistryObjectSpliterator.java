@@ -0,0 +1,209 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Spliterator over a snapshot of the registry objects of a RIF-CS
+ * document, split evenly by index.
+ *
+ * A DOM may not be read from two threads at once, even by Xerces, whose
+ * nodes cache child lists and expand deferred nodes as they are read.
+ * So for parallel streams each registry object is copied into a
+ * document of its own before it is passed on. Only reading the source
+ * is done under the lock of the source document, a batch of registry
+ * objects of the split's own range at a time; creating the documents
+ * and building the registry objects from the copies is not, nor is
+ * the work of the stream.
+ *
+ */
+final class RegistryObjectSpliterator implements Spliterator<RegistryObject> {
+    /** Smallest range worth splitting. */
+    private static final int MIN_SPLIT = 2;
+    /** Most registry objects copied under one hold of the lock. */
+    private static final int COPY_BATCH = 16;
+
+    /** The registry objects. */
+    private final RegistryObject[] objects;
+    /** The source document, and the lock held while copying from it, or
+     *  null if registry objects are passed on as they are. */
+    private final Document source;
+    /** Index of the next registry object. */
+    private int index;
+    /** Index after the last registry object. */
+    private final int end;
+    /** Copies of the registry objects from index on, or null. */
+    private RegistryObject[] copies = null;
+    /** Index in copies of the next registry object. */
+    private int copied = 0;
+
+
+    /**
+     * Create a spliterator.
+     *
+     * @param someObjects
+     *      The registry objects
+     * @param aSource
+     *      The document to copy registry objects from, or null to pass
+     *      them on as they are
+     * @param anIndex
+     *      Index of the first registry object
+     * @param anEnd
+     *      Index after the last registry object
+     */
+    RegistryObjectSpliterator(final RegistryObject[] someObjects,
+                              final Document aSource,
+                              final int anIndex, final int anEnd) {
+        this.objects = someObjects;
+        this.source = aSource;
+        this.index = anIndex;
+        this.end = anEnd;
+    }
+
+
+    /**
+     * Pass on the next registry object, if any.
+     *
+     * @param action
+     *      The action receiving it
+     *
+     * @return
+     *      false if there are none left
+     */
+    public boolean tryAdvance(final Consumer<? super RegistryObject> action) {
+        if (index >= end) {
+            return false;
+        }
+        action.accept(next());
+        return true;
+    }
+
+
+    /**
+     * Pass on the remaining registry objects.
+     *
+     * @param action
+     *      The action receiving them
+     */
+    public void forEachRemaining(
+            final Consumer<? super RegistryObject> action) {
+        while (index < end) {
+            action.accept(next());
+        }
+    }
+
+
+    /**
+     * Obtain the next registry object, copying it if required.
+     *
+     * @return
+     *      The registry object
+     */
+    private RegistryObject next() {
+        if (source == null) {
+            return objects[index++];
+        }
+        if (copies == null || copied == copies.length) {
+            copies = copy(Math.min(COPY_BATCH, end - index));
+            copied = 0;
+        }
+        index++;
+        return copies[copied++];
+    }
+
+
+    /**
+     * Copy the next registry objects into documents of their own,
+     * holding the lock of the source document only while reading it.
+     *
+     * @param n
+     *      The number of registry objects to copy, at least one
+     *
+     * @return
+     *      The copies
+     */
+    private RegistryObject[] copy(final int n) {
+        Document[] docs = new Document[n];
+        for (int i = 0; i < n; i++) {
+            docs[i] = source.getImplementation().createDocument(
+                    Constants.NS_RIFCS, Constants.ELEMENT_REGISTRY_OBJECTS,
+                    null);
+        }
+        Element[] elements = new Element[n];
+        synchronized (source) {
+            for (int i = 0; i < n; i++) {
+                elements[i] = (Element) docs[i].importNode(
+                        objects[index + i].getElement(), true);
+            }
+        }
+        RegistryObject[] result = new RegistryObject[n];
+        try {
+            for (int i = 0; i < n; i++) {
+                docs[i].getDocumentElement().appendChild(elements[i]);
+                result[i] = new RegistryObject(elements[i]);
+            }
+        } catch (RIFCSException re) {
+            // the registry object was read from the source already
+            throw new IllegalStateException(re);
+        }
+        return result;
+    }
+
+
+    /**
+     * Split off the first half of the remaining registry objects.
+     *
+     * @return
+     *      A spliterator over the first half, or null if too few remain
+     */
+    public Spliterator<RegistryObject> trySplit() {
+        if (end - index < MIN_SPLIT) {
+            return null;
+        }
+        int mid = (index + end) >>> 1;
+        Spliterator<RegistryObject> first =
+                new RegistryObjectSpliterator(objects, source, index, mid);
+        index = mid;
+        return first;
+    }
+
+
+    /**
+     * Obtain the number of registry objects remaining.
+     *
+     * @return
+     *      The number remaining
+     */
+    public long estimateSize() {
+        return end - index;
+    }
+
+
+    /**
+     * Obtain the characteristics of the spliterator.
+     *
+     * @return
+     *      ORDERED, DISTINCT, NONNULL, SIZED and SUBSIZED
+     */
+    public int characteristics() {
+        return ORDERED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+    }
+}
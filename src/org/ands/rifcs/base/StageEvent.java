@@ -0,0 +1,75 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event of a stage of reading, building,
+ * validating or writing a RIF-CS document. Its duration is that of the
+ * stage.
+ *
+ */
+@Name("org.ands.rifcs.Stage")
+@Label("RIF-CS Stage")
+@Category("RIF-CS")
+@Description("A stage of reading, building, validating or writing "
+        + "a RIF-CS document")
+@StackTrace(false)
+final class StageEvent extends Event {
+    /** The stage. */
+    @Label("Stage")
+    private String stage;
+    /** The number of registry objects processed. */
+    @Label("Records")
+    private long records;
+    /** The number of bytes read or written. */
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+
+
+    /**
+     * Create an event, to be begun.
+     */
+    StageEvent() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Set the fields of the event.
+     *
+     * @param aStage
+     *      The stage
+     * @param someRecords
+     *      The number of registry objects processed
+     * @param someBytes
+     *      The number of bytes read or written
+     */
+    void set(final String aStage, final long someRecords,
+             final long someBytes) {
+        this.stage = aStage;
+        this.records = someRecords;
+        this.bytes = someBytes;
+    }
+}
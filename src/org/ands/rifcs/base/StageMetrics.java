@@ -0,0 +1,250 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics that total the runs, time, registry objects and bytes of each
+ * stage, giving rates of records and bytes per second. Thread safe.
+ *
+ */
+public final class StageMetrics implements Metrics {
+    /** Nanoseconds in a second. */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /** Map from stage to totals. */
+    private final ConcurrentMap<String, Totals> stages =
+            new ConcurrentHashMap<String, Totals>();
+
+
+    /**
+     * Create metrics with no stages, to be registered with
+     * Instrumentation.addMetrics().
+     */
+    public StageMetrics() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Add the timing of a stage.
+     *
+     * @param stage
+     *      The stage
+     * @param nanos
+     *      The time the stage took, in nanoseconds
+     * @param records
+     *      The number of registry objects processed
+     * @param bytes
+     *      The number of bytes read or written
+     */
+    public void stage(final String stage, final long nanos,
+                      final long records, final long bytes) {
+        Totals t = stages.get(stage);
+        if (t == null) {
+            Totals created = new Totals();
+            t = stages.putIfAbsent(stage, created);
+            if (t == null) {
+                t = created;
+            }
+        }
+        t.count.increment();
+        t.nanos.add(nanos);
+        t.records.add(records);
+        t.bytes.add(bytes);
+    }
+
+
+    /**
+     * Obtain the stages timed.
+     *
+     * @return
+     *      The stages, by name
+     */
+    public Set<String> getStages() {
+        return new TreeSet<String>(stages.keySet());
+    }
+
+
+    /**
+     * Obtain the number of runs of a stage.
+     *
+     * @param stage
+     *      The stage
+     *
+     * @return
+     *      The number of runs
+     */
+    public long getCount(final String stage) {
+        Totals t = stages.get(stage);
+        if (t == null) {
+            return 0;
+        }
+        return t.count.sum();
+    }
+
+
+    /**
+     * Obtain the total time of a stage.
+     *
+     * @param stage
+     *      The stage
+     *
+     * @return
+     *      The time, in nanoseconds
+     */
+    public long getNanos(final String stage) {
+        Totals t = stages.get(stage);
+        if (t == null) {
+            return 0;
+        }
+        return t.nanos.sum();
+    }
+
+
+    /**
+     * Obtain the registry objects processed by a stage.
+     *
+     * @param stage
+     *      The stage
+     *
+     * @return
+     *      The number of registry objects
+     */
+    public long getRecords(final String stage) {
+        Totals t = stages.get(stage);
+        if (t == null) {
+            return 0;
+        }
+        return t.records.sum();
+    }
+
+
+    /**
+     * Obtain the bytes read or written by a stage.
+     *
+     * @param stage
+     *      The stage
+     *
+     * @return
+     *      The number of bytes
+     */
+    public long getBytes(final String stage) {
+        Totals t = stages.get(stage);
+        if (t == null) {
+            return 0;
+        }
+        return t.bytes.sum();
+    }
+
+
+    /**
+     * Obtain the rate at which a stage processed registry objects.
+     *
+     * @param stage
+     *      The stage
+     *
+     * @return
+     *      Registry objects per second of the time of the stage, 0 if
+     *      it has not been timed
+     */
+    public double getRecordsPerSecond(final String stage) {
+        return rate(getRecords(stage), getNanos(stage));
+    }
+
+
+    /**
+     * Obtain the rate at which a stage read or wrote bytes.
+     *
+     * @param stage
+     *      The stage
+     *
+     * @return
+     *      Bytes per second of the time of the stage, 0 if it has not
+     *      been timed
+     */
+    public double getBytesPerSecond(final String stage) {
+        return rate(getBytes(stage), getNanos(stage));
+    }
+
+
+    /**
+     * Forget the stages timed.
+     */
+    public void reset() {
+        stages.clear();
+    }
+
+
+    /**
+     * Summarise the stages, one to a line.
+     *
+     * @return
+     *      The runs, time and rates of each stage
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (String stage : getStages()) {
+            sb.append(stage).append(": ").append(getCount(stage))
+                    .append(" runs, ").append(getNanos(stage))
+                    .append(" ns, ")
+                    .append(Math.round(getRecordsPerSecond(stage)))
+                    .append(" records/s, ")
+                    .append(Math.round(getBytesPerSecond(stage)))
+                    .append(" bytes/s\n");
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Obtain a rate per second.
+     *
+     * @param n
+     *      The quantity
+     * @param nanos
+     *      The time, in nanoseconds
+     *
+     * @return
+     *      The rate, 0 if no time
+     */
+    private static double rate(final long n, final long nanos) {
+        if (nanos <= 0) {
+            return 0;
+        }
+        return n * NANOS_PER_SECOND / nanos;
+    }
+
+
+    /**
+     * The totals of a stage.
+     */
+    private static final class Totals {
+        /** The number of runs. */
+        private final LongAdder count = new LongAdder();
+        /** The time, in nanoseconds. */
+        private final LongAdder nanos = new LongAdder();
+        /** The number of registry objects. */
+        private final LongAdder records = new LongAdder();
+        /** The number of bytes. */
+        private final LongAdder bytes = new LongAdder();
+    }
+}
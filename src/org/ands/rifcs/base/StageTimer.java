@@ -0,0 +1,283 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Timer of one run of a stage, obtained from Instrumentation.start().
+ * The registry objects and bytes the stage processes are added to it,
+ * and it is stopped when the stage ends, in a finally block so that a
+ * stage that fails is also timed. The timer returned when there is
+ * nothing to record does nothing.
+ *
+ * Not thread safe; a timer is used by the thread running its stage.
+ *
+ */
+public final class StageTimer {
+    /** The timer that does nothing. */
+    static final StageTimer DISABLED = new StageTimer(null, null);
+
+    /** The stage, null if disabled. */
+    private final String stage;
+    /** The flight recorder event. */
+    private final StageEvent event;
+    /** The time the stage started, in nanoseconds. */
+    private final long start;
+    /** The number of registry objects processed. */
+    private long records = 0;
+    /** The number of bytes read or written. */
+    private long bytes = 0;
+    /** Whether the timer has been stopped. */
+    private boolean stopped = false;
+
+
+    /**
+     * Start a timer.
+     *
+     * @param aStage
+     *      The stage, null for the timer that does nothing
+     * @param anEvent
+     *      The flight recorder event
+     */
+    StageTimer(final String aStage, final StageEvent anEvent) {
+        this.stage = aStage;
+        this.event = anEvent;
+        if (aStage == null) {
+            this.start = 0;
+        } else {
+            anEvent.begin();
+            this.start = System.nanoTime();
+        }
+    }
+
+
+    /**
+     * Determine whether the timer records anything.
+     *
+     * @return
+     *      false for the timer that does nothing
+     */
+    public boolean isEnabled() {
+        return stage != null;
+    }
+
+
+    /**
+     * Add to the registry objects processed.
+     *
+     * @param n
+     *      The number of registry objects
+     */
+    public void addRecords(final long n) {
+        if (isEnabled()) {
+            records += n;
+        }
+    }
+
+
+    /**
+     * Add to the bytes read or written.
+     *
+     * @param n
+     *      The number of bytes
+     */
+    public void addBytes(final long n) {
+        if (isEnabled()) {
+            bytes += n;
+        }
+    }
+
+
+    /**
+     * Count the bytes read from a stream as bytes of the stage.
+     *
+     * @param in
+     *      The stream
+     *
+     * @return
+     *      A stream reading from it, or the stream itself if the timer
+     *      does nothing
+     */
+    public InputStream count(final InputStream in) {
+        if (!isEnabled()) {
+            return in;
+        }
+        return new CountingInputStream(in);
+    }
+
+
+    /**
+     * Count the bytes written to a stream as bytes of the stage.
+     *
+     * @param out
+     *      The stream
+     *
+     * @return
+     *      A stream writing to it, or the stream itself if the timer
+     *      does nothing
+     */
+    public OutputStream count(final OutputStream out) {
+        if (!isEnabled()) {
+            return out;
+        }
+        return new CountingOutputStream(out);
+    }
+
+
+    /**
+     * Stop the timer, giving the timing to the registered metrics and
+     * committing the flight recorder event. Only the first call has
+     * any effect.
+     */
+    public void stop() {
+        if (!isEnabled() || stopped) {
+            return;
+        }
+        stopped = true;
+        long nanos = System.nanoTime() - start;
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(stage, records, bytes);
+            event.commit();
+        }
+        Instrumentation.stage(stage, nanos, records, bytes);
+    }
+
+
+    /**
+     * Input stream adding the bytes read to the timer.
+     */
+    private final class CountingInputStream extends FilterInputStream {
+        /**
+         * Create a counting stream.
+         *
+         * @param anIn
+         *      The stream read
+         */
+        CountingInputStream(final InputStream anIn) {
+            super(anIn);
+        }
+
+        /**
+         * Read a byte.
+         *
+         * @return
+         *      The byte, or -1 at the end of the stream
+         *
+         * @throws IOException An IOException
+         */
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                bytes++;
+            }
+            return b;
+        }
+
+        /**
+         * Read bytes.
+         *
+         * @param b
+         *      The buffer
+         * @param off
+         *      The index of the first byte
+         * @param len
+         *      The greatest number of bytes
+         *
+         * @return
+         *      The number of bytes read, or -1 at the end of the stream
+         *
+         * @throws IOException An IOException
+         */
+        public int read(final byte[] b, final int off, final int len)
+                throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                bytes += n;
+            }
+            return n;
+        }
+
+        /**
+         * Skip bytes.
+         *
+         * @param n
+         *      The number of bytes
+         *
+         * @return
+         *      The number of bytes skipped
+         *
+         * @throws IOException An IOException
+         */
+        public long skip(final long n) throws IOException {
+            long skipped = in.skip(n);
+            bytes += skipped;
+            return skipped;
+        }
+    }
+
+
+    /**
+     * Output stream adding the bytes written to the timer.
+     */
+    private final class CountingOutputStream extends FilterOutputStream {
+        /**
+         * Create a counting stream.
+         *
+         * @param anOut
+         *      The stream written
+         */
+        CountingOutputStream(final OutputStream anOut) {
+            super(anOut);
+        }
+
+        /**
+         * Write a byte.
+         *
+         * @param b
+         *      The byte
+         *
+         * @throws IOException An IOException
+         */
+        public void write(final int b) throws IOException {
+            out.write(b);
+            bytes++;
+        }
+
+        /**
+         * Write bytes.
+         *
+         * @param b
+         *      The bytes
+         * @param off
+         *      The index of the first byte
+         * @param len
+         *      The number of bytes
+         *
+         * @throws IOException An IOException
+         */
+        public void write(final byte[] b, final int off, final int len)
+                throws IOException {
+            out.write(b, off, len);
+            bytes += len;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+/**
+ * A bounded table of strings, so that values repeated throughout a
+ * harvest, such as types, groups, originating sources and language
+ * codes, are held once rather than once for each registry object.
+ *
+ * The table is a fixed array of slots, each string going in the slot
+ * of its hash. A string whose slot holds another replaces it, so the
+ * table never grows and recently seen values stay; a replaced value
+ * seen again is simply stored again. Strings longer than MAX_LENGTH
+ * are passed through, being unlikely to repeat. Text given as
+ * characters is only made a String when it is not in the table.
+ *
+ * Thread safe without locking: a slot is a single reference, and a
+ * lost update costs only a duplicate string.
+ *
+ */
+public final class StringPool {
+    /** The longest string held. */
+    public static final int MAX_LENGTH = 64;
+    /** The default number of slots. */
+    public static final int DEFAULT_SLOTS = 1 << 14;
+
+    /** The pool shared by the readers. */
+    private static final StringPool SHARED = new StringPool(DEFAULT_SLOTS);
+    /** Multiplier of the hash. */
+    private static final int HASH_MULTIPLIER = 31;
+    /** Shift mixing the high bits of the hash into the low. */
+    private static final int HASH_SHIFT = 16;
+
+    /** The slots. */
+    private final String[] slots;
+    /** Mask of the slot of a hash. */
+    private final int mask;
+
+
+    /**
+     * Create a pool.
+     *
+     * @param someSlots
+     *      The number of slots, rounded up to a power of two
+     */
+    public StringPool(final int someSlots) {
+        if (someSlots < 1) {
+            throw new IllegalArgumentException(
+                    "Number of slots must be positive");
+        }
+        int n = Integer.highestOneBit(someSlots);
+        if (n < someSlots) {
+            n <<= 1;
+        }
+        this.slots = new String[n];
+        this.mask = n - 1;
+    }
+
+
+    /**
+     * Obtain the pool shared by the readers of RIF-CS documents.
+     *
+     * @return
+     *      The shared pool
+     */
+    public static StringPool getShared() {
+        return SHARED;
+    }
+
+
+    /**
+     * Obtain the pooled instance of a string.
+     *
+     * @param s
+     *      The string, or null
+     *
+     * @return
+     *      An equal string, the same instance as earlier calls returned
+     *      while it remains in the table
+     */
+    public String intern(final String s) {
+        if (s == null || s.length() > MAX_LENGTH) {
+            return s;
+        }
+        int h = s.hashCode();
+        int slot = (h ^ (h >>> HASH_SHIFT)) & mask;
+        String pooled = slots[slot];
+        if (s.equals(pooled)) {
+            return pooled;
+        }
+        slots[slot] = s;
+        return s;
+    }
+
+
+    /**
+     * Obtain the pooled instance of a string given as characters.
+     *
+     * @param chars
+     *      An array of characters
+     * @param start
+     *      The position of the first character
+     * @param length
+     *      The number of characters
+     *
+     * @return
+     *      The string
+     */
+    public String intern(final char[] chars, final int start,
+                         final int length) {
+        if (length > MAX_LENGTH) {
+            return new String(chars, start, length);
+        }
+        int h = 0;
+        for (int i = start; i < start + length; i++) {
+            h = HASH_MULTIPLIER * h + chars[i];
+        }
+        int slot = (h ^ (h >>> HASH_SHIFT)) & mask;
+        String pooled = slots[slot];
+        if (pooled != null && equals(pooled, chars, start, length)) {
+            return pooled;
+        }
+        String s = new String(chars, start, length);
+        slots[slot] = s;
+        return s;
+    }
+
+
+    /**
+     * Compare a string with characters.
+     *
+     * @param s
+     *      The string
+     * @param chars
+     *      An array of characters
+     * @param start
+     *      The position of the first character
+     * @param length
+     *      The number of characters
+     *
+     * @return
+     *      true if the string holds the characters
+     */
+    private static boolean equals(final String s, final char[] chars,
+                                  final int start, final int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
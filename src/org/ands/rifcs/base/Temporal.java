@@ -15,8 +15,6 @@
  */
 package org.ands.rifcs.base;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Date;
@@ -33,16 +31,6 @@ import org.w3c.dom.NodeList;
  *
  */
 public class Temporal extends RIFCSElement {
-    /**
-     * Pattern to use to make the SimpleDateFormat for formatting dates.
-     */
-    private static final String TEMPORAL_DATE_FORMAT =
-            "yyyy-MM-dd'T'HH:mm:ssZ";
-    /**
-     * The length of TEMPORAL_DATE_FORMAT.
-     */
-    private static final int TEMPORAL_DATE_FORMAT_LENGTH =
-            TEMPORAL_DATE_FORMAT.length();
     /** The date information for this temporal coverage. */
     private List<DateWithTypeDateFormat> dates =
             new ArrayList<DateWithTypeDateFormat>();
@@ -176,11 +164,7 @@ public class Temporal extends RIFCSElement {
      */
     public final void addDate(final Date date,
             final String type) throws RIFCSException {
-        DateFormat df = new SimpleDateFormat(TEMPORAL_DATE_FORMAT);
-        String text = df.format(date);
-        String result = text.substring(0, TEMPORAL_DATE_FORMAT_LENGTH)
-                + ":" + text.substring(TEMPORAL_DATE_FORMAT_LENGTH);
-        this.addDate(result, type);
+        this.addDate(DateCodec.formatLocal(date), type);
     }
 
 
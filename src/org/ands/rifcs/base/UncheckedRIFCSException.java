@@ -0,0 +1,48 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.base;
+
+/**
+ * Carries a RIFCSException out of code which can not throw it, such as
+ * the function of a stream, to be unwrapped and thrown by the caller.
+ *
+ */
+public final class UncheckedRIFCSException extends RuntimeException {
+    /** Serial version. */
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * Create an exception.
+     *
+     * @param cause
+     *      The exception carried
+     */
+    public UncheckedRIFCSException(final RIFCSException cause) {
+        super(cause);
+    }
+
+
+    /**
+     * Obtain the exception carried.
+     *
+     * @return
+     *      The exception
+     */
+    public RIFCSException getCause() {
+        return (RIFCSException) super.getCause();
+    }
+}
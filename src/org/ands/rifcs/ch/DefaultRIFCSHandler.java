@@ -18,13 +18,17 @@ package org.ands.rifcs.ch;
 import java.util.Stack;
 
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 
 import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.Attributes;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
 import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.StringPool;
+import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -38,18 +42,32 @@ import org.w3c.dom.Element;
  * http://xml.org/sax/features/namespace-prefixes are set to true in the
  * SAXParserFactory object
  *
+ * Attribute values and short text are taken from the shared StringPool,
+ * so that values repeated from one registry object to the next, such
+ * as types, groups and originating sources, are held once.
+ *
  * @author Scott Yeadon
  */
 public class DefaultRIFCSHandler extends DefaultHandler implements RIFCSHandler
 {
+    /** Creates the DOM documents, shared by all handlers. */
+    private static final DocumentBuilderFactory FACTORY =
+            DocumentBuilderFactory.newInstance();
+
     /** the DOM document. */
     private Document doc = null;
 
+    /** Pool of attribute values and text. */
+    private final StringPool pool = StringPool.getShared();
+
     /** Element stack to assist in building the DOM. */
     private Stack<Element> elements = new Stack<Element>();
 
-    /** Locator (for future use). */
-//    private Locator locator;
+    /** The number of registryObject elements ended. */
+    private long registryObjects = 0;
+
+    /** Locator of the parser, locating errors building the DOM. */
+    private Locator locator = null;
 
     /**
      * Set the locator.
@@ -58,7 +76,7 @@ public class DefaultRIFCSHandler extends DefaultHandler implements RIFCSHandler
      *        The Locator object used to track the parsing location
      */
     public final void setDocumentLocator(final Locator aLocator) {
-//        this.locator = aLocator;
+        this.locator = aLocator;
     }
 
 
@@ -70,9 +88,10 @@ public class DefaultRIFCSHandler extends DefaultHandler implements RIFCSHandler
      */
     public final void startDocument() throws SAXException {
         try {
-            doc = DocumentBuilderFactory.newInstance().
-                    newDocumentBuilder().newDocument();
-        } catch (Exception e) {
+            synchronized (FACTORY) {
+                doc = FACTORY.newDocumentBuilder().newDocument();
+            }
+        } catch (ParserConfigurationException e) {
             throw new SAXException(e);
         }
     }
@@ -102,6 +121,30 @@ public class DefaultRIFCSHandler extends DefaultHandler implements RIFCSHandler
                              final String localName,
                              final String qName,
                              final Attributes attributes) throws SAXException {
+        try {
+            elements.push(createElement(uri, qName, attributes));
+        } catch (DOMException de) {
+            throw located(de);
+        }
+    }
+
+
+    /**
+     * Create a DOM element.
+     *
+     * @param uri
+     *      The element namespace
+     * @param qName
+     *      The qualified element name
+     * @param attributes
+     *      Attributes associated with the element
+     *
+     * @return
+     *      The element
+     */
+    private Element createElement(final String uri,
+                                  final String qName,
+                                  final Attributes attributes) {
         Element e = null;
 
         if (uri.length() > 0) {
@@ -113,7 +156,8 @@ public class DefaultRIFCSHandler extends DefaultHandler implements RIFCSHandler
         for (int i = 0; i < attributes.getLength(); i++) {
             if (attributes.getURI(i).length() > 0) {
                 e.setAttributeNS(attributes.getURI(i),
-                        attributes.getQName(i), attributes.getValue(i));
+                        attributes.getQName(i),
+                        pool.intern(attributes.getValue(i)));
             } else {
                 // Ignore namespace declarations for the default namespace
                 // and for the XMLSchema-instance namespace.
@@ -125,12 +169,12 @@ public class DefaultRIFCSHandler extends DefaultHandler implements RIFCSHandler
                             && attributes.getValue(i).equals(
                                     Constants.NS_XML_SCHEMA_INSTANCE)))) {
                     e.setAttribute(attributes.getQName(i),
-                            attributes.getValue(i));
+                            pool.intern(attributes.getValue(i)));
                 }
             }
         }
 
-        elements.push(e);
+        return e;
     }
 
 
@@ -152,8 +196,8 @@ public class DefaultRIFCSHandler extends DefaultHandler implements RIFCSHandler
     public final void characters(final char[] chars,
                            final int start,
                            final int length) throws SAXException {
-        String s = new String(chars, start, length);
-        if (!s.matches("\\s+")) {
+        if (!isWhitespace(chars, start, length)) {
+            String s = pool.intern(chars, start, length);
             Element e = elements.peek();
 
             if (e.getTextContent().length() == 0) {
@@ -165,6 +209,41 @@ public class DefaultRIFCSHandler extends DefaultHandler implements RIFCSHandler
     }
 
 
+    /**
+     * Determine whether characters are all white space, as the regular
+     * expression \s+ matches.
+     *
+     * @param chars
+     *      An array of characters
+     * @param start
+     *      The start position of the first in the array
+     * @param length
+     *      The length of the character data
+     *
+     * @return
+     *      true if there is at least one character and all are white
+     *      space
+     */
+    private static boolean isWhitespace(final char[] chars,
+                                        final int start,
+                                        final int length) {
+        for (int i = start; i < start + length; i++) {
+            switch (chars[i]) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\r':
+            case '\f':
+            case '\u000b':
+                break;
+            default:
+                return false;
+            }
+        }
+        return length > 0;
+    }
+
+
     /**
      * Processing for skipped entities.
      *
@@ -204,31 +283,40 @@ public class DefaultRIFCSHandler extends DefaultHandler implements RIFCSHandler
                            final String localName,
                            final String qName) throws SAXException {
         Element e = elements.pop();
+        if (Constants.ELEMENT_REGISTRY_OBJECT.equals(localName)
+                && Constants.NS_RIFCS.equals(uri)) {
+            registryObjects++;
+        }
 
-        if (elements.empty()) {
-            doc.appendChild(e);
-        } else {
-            elements.peek().appendChild(e);
+        try {
+            if (elements.empty()) {
+                doc.appendChild(e);
+            } else {
+                elements.peek().appendChild(e);
+            }
+        } catch (DOMException de) {
+            throw located(de);
         }
     }
 
 
     /**
-     * Print parser location. This may be used in future for debugging
-     * purposes.
+     * Wrap an error building the DOM in an exception giving the parser
+     * location, so that it is reported as a parse error is.
      *
-     * @param s
-     *      Parser message text
+     * @param de
+     *      The error
      *
      * @return
-     *      Parser message with line/column location information
-     *
+     *      The exception, with the line and column of the parser if
+     *      the parser gave a locator
      */
-//    private String printLocation(final String s) {
-//        int line = locator.getLineNumber();
-//        int column = locator.getColumnNumber();
-//        return s + " at line " + line + "; column " + column;
-//    }
+    private SAXException located(final DOMException de) {
+        if (locator == null) {
+            return new SAXException(de);
+        }
+        return new SAXParseException(de.getMessage(), locator, de);
+    }
 
 
     /**
@@ -241,4 +329,15 @@ public class DefaultRIFCSHandler extends DefaultHandler implements RIFCSHandler
     public final Document getDocument() {
         return this.doc;
     }
+
+
+    /**
+     * Get the number of registryObject elements parsed.
+     *
+     *  @return
+     *      The number of registry objects
+     */
+    final long getRegistryObjectCount() {
+        return this.registryObjects;
+    }
 }
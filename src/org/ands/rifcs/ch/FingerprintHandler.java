@@ -0,0 +1,321 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.ands.rifcs.ch;
+
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.Fingerprint;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX Handler which computes a fingerprint for each registryObject in a
+ * document as it is parsed, without building a DOM.
+ *
+ * The fingerprints are the same as those computed from a loaded document
+ * by org.ands.rifcs.base.Fingerprint, so they can be compared against a
+ * FingerprintStore to skip unchanged records before any further
+ * processing. Events may optionally be passed on to another content
+ * handler, so fingerprints can also be computed while a DOM is built.
+ *
+ * The handler works with or without the
+ * http://xml.org/sax/features/namespace-prefixes feature, but
+ * http://xml.org/sax/features/namespaces must be set to true.
+ *
+ */
+public class FingerprintHandler extends DefaultHandler {
+    /** The listener receiving fingerprints. */
+    private FingerprintListener listener = null;
+    /** Handler to which events are forwarded, or null. */
+    private ContentHandler next = null;
+    /** Builder for the current registry object. */
+    private Fingerprint.Builder builder = new Fingerprint.Builder();
+    /** Text of the current registry object's key. */
+    private StringBuilder key = new StringBuilder();
+    /** true while inside the key element of a registry object. */
+    private boolean inKey = false;
+    /** true if the current registry object has a key element. */
+    private boolean hasKey = false;
+
+
+    /**
+     * Create a handler reporting to a listener.
+     *
+     * @param aListener
+     *      The listener receiving fingerprints
+     */
+    public FingerprintHandler(final FingerprintListener aListener) {
+        this.listener = aListener;
+    }
+
+
+    /**
+     * Create a handler reporting to a listener and forwarding all
+     * events to another handler.
+     *
+     * @param aListener
+     *      The listener receiving fingerprints
+     * @param aNext
+     *      The content handler to forward events to,
+     *      e.g. a DefaultRIFCSHandler
+     */
+    public FingerprintHandler(final FingerprintListener aListener,
+                              final ContentHandler aNext) {
+        this.listener = aListener;
+        this.next = aNext;
+    }
+
+
+    /**
+     * Set the locator.
+     *
+     * @param aLocator
+     *        The Locator object used to track the parsing location
+     */
+    public final void setDocumentLocator(final Locator aLocator) {
+        if (next != null) {
+            next.setDocumentLocator(aLocator);
+        }
+    }
+
+
+    /**
+     * Processing for the startDocument event.
+     *
+     * @exception SAXException A SAXException
+     */
+    public final void startDocument() throws SAXException {
+        if (next != null) {
+            next.startDocument();
+        }
+    }
+
+
+    /**
+     * Processing for the endDocument event.
+     *
+     * @exception SAXException A SAXException
+     */
+    public final void endDocument() throws SAXException {
+        if (next != null) {
+            next.endDocument();
+        }
+    }
+
+
+    /**
+     * Processing for the startPrefixMapping event.
+     *
+     * @param prefix
+     *      The namespace prefix
+     * @param uri
+     *      The namespace URI
+     *
+     * @exception SAXException A SAXException
+     */
+    public final void startPrefixMapping(final String prefix,
+                                         final String uri)
+            throws SAXException {
+        if (next != null) {
+            next.startPrefixMapping(prefix, uri);
+        }
+    }
+
+
+    /**
+     * Processing for the endPrefixMapping event.
+     *
+     * @param prefix
+     *      The namespace prefix
+     *
+     * @exception SAXException A SAXException
+     */
+    public final void endPrefixMapping(final String prefix)
+            throws SAXException {
+        if (next != null) {
+            next.endPrefixMapping(prefix);
+        }
+    }
+
+
+    /**
+     * Processing for the startElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     * @param attributes
+     *      Attributes associated with the element
+     *
+     * @exception SAXException A SAXException
+     */
+    public final void startElement(final String uri,
+                                   final String localName,
+                                   final String qName,
+                                   final Attributes attributes)
+            throws SAXException {
+        int depth = builder.getDepth();
+        if (depth > 0 || (Constants.NS_RIFCS.equals(uri)
+                && Constants.ELEMENT_REGISTRY_OBJECT.equals(localName))) {
+            if (depth == 0) {
+                key.setLength(0);
+                hasKey = false;
+            } else if (depth == 1
+                    && Constants.ELEMENT_KEY.equals(localName)) {
+                inKey = true;
+                hasKey = true;
+            }
+            builder.startElement(uri, localName);
+            for (int i = 0; i < attributes.getLength(); i++) {
+                String aqName = attributes.getQName(i);
+                if (!Fingerprint.isNamespaceDeclaration(
+                        attributes.getURI(i), aqName)) {
+                    builder.attribute(attributes.getURI(i),
+                            attributes.getLocalName(i),
+                            attributes.getValue(i));
+                }
+            }
+        }
+
+        if (next != null) {
+            next.startElement(uri, localName, qName, attributes);
+        }
+    }
+
+
+    /**
+     * Processing for characters.
+     *
+     * @param chars
+     *      An array of characters
+     * @param start
+     *      The start position of the first in the array
+     * @param length
+     *      The length of the character data being passed
+     *
+     * @exception SAXException A SAXException
+     */
+    public final void characters(final char[] chars,
+                                 final int start,
+                                 final int length) throws SAXException {
+        if (builder.getDepth() > 0) {
+            builder.text(chars, start, length);
+            if (inKey) {
+                key.append(chars, start, length);
+            }
+        }
+
+        if (next != null) {
+            next.characters(chars, start, length);
+        }
+    }
+
+
+    /**
+     * Processing for ignorable whitespace.
+     *
+     * @param chars
+     *      An array of characters
+     * @param start
+     *      The start position of the first in the array
+     * @param length
+     *      The length of the character data being passed
+     *
+     * @exception SAXException A SAXException
+     */
+    public final void ignorableWhitespace(final char[] chars,
+                                          final int start,
+                                          final int length)
+            throws SAXException {
+        if (next != null) {
+            next.ignorableWhitespace(chars, start, length);
+        }
+    }
+
+
+    /**
+     * Processing for the endElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     *
+     * @exception SAXException A SAXException
+     */
+    public final void endElement(final String uri,
+                                 final String localName,
+                                 final String qName) throws SAXException {
+        if (builder.getDepth() > 0) {
+            inKey = false;
+            long fingerprint = builder.endElement();
+            if (builder.getDepth() > 0) {
+                builder.child(fingerprint);
+            } else if (hasKey) {
+                listener.fingerprint(key.toString(), fingerprint);
+            } else {
+                listener.fingerprint(null, fingerprint);
+            }
+        }
+
+        if (next != null) {
+            next.endElement(uri, localName, qName);
+        }
+    }
+
+
+    /**
+     * Processing for processing instructions.
+     *
+     * @param target
+     *      The processing instruction target
+     * @param data
+     *      The processing instruction data
+     *
+     * @exception SAXException A SAXException
+     */
+    public final void processingInstruction(final String target,
+                                            final String data)
+            throws SAXException {
+        if (next != null) {
+            next.processingInstruction(target, data);
+        }
+    }
+
+
+    /**
+     * Processing for skipped entities.
+     *
+     * @param name
+     *      The entity name
+     *
+     * @exception SAXException A SAXException
+     */
+    public final void skippedEntity(final String name) throws SAXException {
+        if (next != null) {
+            next.skippedEntity(name);
+        }
+    }
+}
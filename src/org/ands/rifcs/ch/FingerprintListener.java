@@ -0,0 +1,40 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.ands.rifcs.ch;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Interface for receiving registry object fingerprints computed during
+ * a streaming parse.
+ *
+ */
+public interface FingerprintListener {
+    /**
+     * Called when a registryObject element has been parsed.
+     *
+     * @param key
+     *      The content of the registry object's key element, or null if
+     *      the registry object has no key
+     * @param fingerprint
+     *      The fingerprint of the registry object, as computed by
+     *      org.ands.rifcs.base.Fingerprint
+     *
+     * @throws SAXException to abort the parse
+     */
+    void fingerprint(String key, long fingerprint) throws SAXException;
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.ch;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Interface for receiving the registry objects which could not be read
+ * by RIFCSReader.mapRecordsToDOM(), and were skipped.
+ *
+ */
+public interface ParseErrorListener {
+    /**
+     * Called when a registryObject element could not be parsed, or
+     * was not in the RIF-CS namespace.
+     *
+     * @param offset
+     *      The byte offset of its start tag in the document, from 0
+     * @param line
+     *      The line of its start tag, from 1
+     * @param column
+     *      The column of its start tag, from 1
+     * @param e
+     *      The error, with its line and column in the document
+     *
+     * @throws SAXException to abort the parse
+     */
+    void recordFailed(long offset, int line, int column,
+            SAXParseException e) throws SAXException;
+}
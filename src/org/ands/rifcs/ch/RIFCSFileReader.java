@@ -0,0 +1,901 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.ch;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.ands.rifcs.base.Compression;
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.GzipBlockOutputStream;
+import org.ands.rifcs.base.RIFCS;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * A Reader which streams the registry objects of a RIF-CS file, each
+ * mapped to a DOM of its own.
+ *
+ * On creation the file is scanned once, without being parsed, for the
+ * byte offsets of its registryObject elements. Streams then parse each
+ * registry object separately when it is reached, so that only the
+ * registry objects being processed are held in memory, and split the
+ * file evenly at registry object boundaries, so that parallel streams
+ * keep every core busy. As each registry object has a DOM of its own,
+ * those of a parallel stream may be read and changed from several
+ * threads at once.
+ *
+ * A gzip file written in blocks, as by Compression.GZIP_BLOCKS, is not
+ * scanned but has the headers of its blocks read for their offsets and
+ * registry object counts. Streams inflate and parse each block when it
+ * is reached and split the file at block boundaries, so that parallel
+ * streams inflate and parse blocks at the same time. Other compressed
+ * files can not be split.
+ *
+ * The file must be in an encoding which is a superset of ASCII, such
+ * as UTF-8 or ISO-8859-1. Close the reader when finished with it.
+ *
+ */
+public class RIFCSFileReader implements Closeable {
+    /** Size of the buffer used when scanning. */
+    private static final int BUFFER_SIZE = 65536;
+    /** Smallest range worth splitting. */
+    private static final int MIN_SPLIT = 2;
+    /** Initial capacity of the offset arrays. */
+    private static final int INITIAL_CAPACITY = 64;
+    /** Depth of registryObject elements. */
+    private static final int DEPTH_RECORD = 2;
+    /** Error of a compressed file which is not written in blocks. */
+    private static final String NOT_BLOCKS = "Compressed files can not "
+            + "be split unless written in blocks; read them with RIFCSReader";
+    /** The first two bytes of a gzip member, little-endian. */
+    private static final int GZIP_MAGIC = 0x8b1f;
+    /** Mask of an unsigned 16 bit integer. */
+    private static final int SHORT_MASK = 0xffff;
+    /** Mask of an unsigned 32 bit integer. */
+    private static final long INT_MASK = 0xffffffffL;
+    /** Index of the flags of a gzip member header. */
+    private static final int FLAGS_INDEX = 3;
+    /** The flag of a gzip member header with an extra field. */
+    private static final int FEXTRA = 4;
+    /** Index of the extra subfield ID of a block header. */
+    private static final int SUBFIELD_INDEX = 12;
+    /** Index of the extra subfield length of a block header. */
+    private static final int SUBFIELD_LENGTH_INDEX = 14;
+    /** Index of the member length of a block header. */
+    private static final int LENGTH_INDEX = 16;
+    /** Index of the registry object count of a block header. */
+    private static final int RECORDS_INDEX = 20;
+
+    /** The file. */
+    private final FileChannel channel;
+    /** The file up to the end of the registryObjects start tag. */
+    private byte[] prolog;
+    /** The registryObjects end tag. */
+    private byte[] epilog;
+    /** Start offset of each registry object. */
+    private long[] starts = new long[INITIAL_CAPACITY];
+    /** End offset of each registry object. */
+    private long[] ends = new long[INITIAL_CAPACITY];
+    /** Number of registry objects. */
+    private int count = 0;
+    /** Registry objects in each block, or null if the file is not
+     *  written in blocks, in which case the offsets are those of
+     *  registry objects rather than of blocks. */
+    private int[] records = null;
+    /** Number of blocks, including the first and last, which hold the
+     *  prolog and epilog. */
+    private int blocks = 0;
+
+
+    /**
+     * Scan a RIF-CS file for its registry objects.
+     *
+     * @param file
+     *      The file
+     *
+     * @throws IOException if the file can not be read
+     * @throws RIFCSException if the file is not a RIF-CS document in a
+     *      supported encoding
+     */
+    public RIFCSFileReader(final File file)
+            throws IOException, RIFCSException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        int compression;
+        try {
+            compression = Compression.detect(in);
+            if (compression == Compression.NONE) {
+                new Scanner(in).scan();
+            } else if (compression != Compression.GZIP) {
+                throw new RIFCSException(NOT_BLOCKS);
+            }
+        } finally {
+            in.close();
+        }
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+        if (compression == Compression.NONE) {
+            readFully(ByteBuffer.wrap(prolog), 0);
+            return;
+        }
+        boolean done = false;
+        try {
+            scanBlocks();
+            done = true;
+        } finally {
+            if (!done) {
+                channel.close();
+            }
+        }
+    }
+
+
+    /**
+     * Obtain the number of registry objects in the file.
+     *
+     * @return
+     *      The number of registry objects
+     */
+    public final int size() {
+        return count;
+    }
+
+
+    /**
+     * Obtain a spliterator over the registry objects, in file order.
+     * Parse errors are thrown from its methods as an
+     * UncheckedIOException.
+     *
+     * @return
+     *      A Spliterator of RegistryObject objects
+     */
+    public final Spliterator<RegistryObject> spliterator() {
+        if (records != null) {
+            return new BlockSpliterator(1, blocks - 1);
+        }
+        return new FileSpliterator(0, count);
+    }
+
+
+    /**
+     * Obtain a sequential stream of the registry objects, in file order.
+     *
+     * @return
+     *      A Stream of RegistryObject objects
+     */
+    public final Stream<RegistryObject> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+
+    /**
+     * Obtain a parallel stream of the registry objects.
+     *
+     * @return
+     *      A Stream of RegistryObject objects
+     */
+    public final Stream<RegistryObject> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+
+    /**
+     * Close the file.
+     *
+     * @throws IOException An IOException
+     */
+    public final void close() throws IOException {
+        channel.close();
+    }
+
+
+    /**
+     * Fill a buffer from the file.
+     *
+     * @param buffer
+     *      The buffer
+     * @param start
+     *      The offset of the first byte
+     *
+     * @throws IOException if the file is shorter than when scanned
+     */
+    private void readFully(final ByteBuffer buffer, final long start)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new IOException("File truncated");
+            }
+        }
+    }
+
+
+    /**
+     * Read the headers of the blocks of a gzip file written in blocks,
+     * and inflate the first and last blocks as the prolog and epilog.
+     *
+     * @throws IOException if the file can not be read
+     * @throws RIFCSException if the file is not written in blocks
+     */
+    private void scanBlocks() throws IOException, RIFCSException {
+        records = new int[INITIAL_CAPACITY];
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(
+                GzipBlockOutputStream.HEADER_LENGTH)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (long offset = 0; offset < size;) {
+            if (size - offset < header.capacity()) {
+                throw new RIFCSException(NOT_BLOCKS);
+            }
+            header.clear();
+            readFully(header, offset);
+            if ((header.getShort(0) & SHORT_MASK) != GZIP_MAGIC
+                    || (header.get(FLAGS_INDEX) & FEXTRA) == 0
+                    || header.get(SUBFIELD_INDEX)
+                        != GzipBlockOutputStream.SUBFIELD_ID1
+                    || header.get(SUBFIELD_INDEX + 1)
+                        != GzipBlockOutputStream.SUBFIELD_ID2
+                    || header.getShort(SUBFIELD_LENGTH_INDEX)
+                        != GzipBlockOutputStream.SUBFIELD_LENGTH) {
+                throw new RIFCSException(NOT_BLOCKS);
+            }
+            long length = header.getInt(LENGTH_INDEX) & INT_MASK;
+            if (length < header.capacity() || length > size - offset) {
+                throw new RIFCSException("Block at offset " + offset
+                        + " has an invalid length");
+            }
+            if (blocks == starts.length) {
+                starts = Arrays.copyOf(starts, blocks * 2);
+                ends = Arrays.copyOf(ends, blocks * 2);
+                records = Arrays.copyOf(records, blocks * 2);
+            }
+            starts[blocks] = offset;
+            ends[blocks] = offset + length;
+            records[blocks] = header.getInt(RECORDS_INDEX);
+            blocks++;
+            offset += length;
+        }
+        if (blocks < 2 || records[0] != 0 || records[blocks - 1] != 0) {
+            throw new RIFCSException(NOT_BLOCKS);
+        }
+        for (int i = 1; i < blocks - 1; i++) {
+            count += records[i];
+        }
+        prolog = inflate(0);
+        epilog = inflate(blocks - 1);
+    }
+
+
+    /**
+     * Inflate one block.
+     *
+     * @param block
+     *      The index of the block
+     *
+     * @return
+     *      The uncompressed block
+     *
+     * @throws IOException if the block can not be read
+     */
+    private byte[] inflate(final int block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(
+                (int) (ends[block] - starts[block]));
+        readFully(buffer, starts[block]);
+        InputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(buffer.array()),
+                Compression.BUFFER_SIZE);
+        try {
+            return in.readAllBytes();
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Inflate and parse one block, giving each of its registry objects a
+     * DOM of its own.
+     *
+     * @param parser
+     *      The parser to use
+     * @param block
+     *      The index of the block
+     *
+     * @return
+     *      The registry objects of the block, in file order
+     */
+    private List<RegistryObject> readBlock(final SAXParser parser,
+                                           final int block) {
+        long start = starts[block];
+        try {
+            InputStream document = new SequenceInputStream(
+                    Collections.enumeration(Arrays.asList(
+                            new ByteArrayInputStream(prolog),
+                            new ByteArrayInputStream(inflate(block)),
+                            new ByteArrayInputStream(epilog))));
+            DefaultRIFCSHandler ch = new DefaultRIFCSHandler();
+            parser.reset();
+            parser.parse(new InputSource(document), ch);
+            Document doc = ch.getDocument();
+            List<RegistryObject> list =
+                    new ArrayList<RegistryObject>(records[block]);
+            Node n = doc.getDocumentElement().getFirstChild();
+            while (n != null) {
+                Node next = n.getNextSibling();
+                if (n.getNodeType() == Node.ELEMENT_NODE
+                        && Constants.ELEMENT_REGISTRY_OBJECT.equals(
+                                n.getLocalName())) {
+                    Document own = doc.getImplementation().createDocument(
+                            Constants.NS_RIFCS,
+                            Constants.ELEMENT_REGISTRY_OBJECTS, null);
+                    Element root = own.getDocumentElement();
+                    root.appendChild(own.adoptNode(n));
+                    list.add(new RIFCS(own).getRegistryObjects().values()
+                            .iterator().next());
+                }
+                n = next;
+            }
+            if (list.size() != records[block]) {
+                throw new RIFCSException("Block at offset " + start
+                        + " holds " + list.size() + " registry objects, not "
+                        + records[block]);
+            }
+            return list;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        } catch (SAXException se) {
+            throw new UncheckedIOException(new IOException(
+                    "Block at offset " + start + " could not be parsed",
+                    se));
+        } catch (RIFCSException re) {
+            throw new UncheckedIOException(new IOException(re));
+        }
+    }
+
+
+    /**
+     * Parse one registry object.
+     *
+     * @param parser
+     *      The parser to use
+     * @param index
+     *      The index of the registry object
+     *
+     * @return
+     *      The registry object
+     */
+    private RegistryObject read(final SAXParser parser, final int index) {
+        long start = starts[index];
+        int length = (int) (ends[index] - start);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            readFully(buffer, start);
+            InputStream document = new SequenceInputStream(
+                    Collections.enumeration(Arrays.asList(
+                            new ByteArrayInputStream(prolog),
+                            new ByteArrayInputStream(buffer.array()),
+                            new ByteArrayInputStream(epilog))));
+            DefaultRIFCSHandler ch = new DefaultRIFCSHandler();
+            parser.reset();
+            parser.parse(new InputSource(document), ch);
+            Iterator<RegistryObject> i = new RIFCS(ch.getDocument())
+                    .getRegistryObjects().values().iterator();
+            if (!i.hasNext()) {
+                throw new RIFCSException("No registry object at offset "
+                        + start);
+            }
+            return i.next();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        } catch (SAXException se) {
+            throw new UncheckedIOException(new IOException(
+                    "Registry object at offset " + start
+                    + " could not be parsed", se));
+        } catch (RIFCSException re) {
+            throw new UncheckedIOException(new IOException(re));
+        }
+    }
+
+
+    /**
+     * Create a SAX parser configured as RIFCSReader configures them.
+     *
+     * @return
+     *      A SAXParser
+     */
+    private static SAXParser newParser() {
+        try {
+            SAXParserFactory spf = SAXParserFactory.newInstance();
+            spf.setFeature("http://xml.org/sax/features/namespaces", true);
+            spf.setFeature("http://xml.org/sax/features/namespace-prefixes",
+                    true);
+            return spf.newSAXParser();
+        } catch (ParserConfigurationException pce) {
+            throw new IllegalStateException(pce);
+        } catch (SAXException se) {
+            throw new IllegalStateException(se);
+        }
+    }
+
+
+    /**
+     * Spliterator over a range of the registry objects.
+     */
+    private final class FileSpliterator
+            implements Spliterator<RegistryObject> {
+        /** Index of the next registry object. */
+        private int index;
+        /** Index after the last registry object. */
+        private final int end;
+        /** The parser, created when first needed. */
+        private SAXParser parser = null;
+
+        /**
+         * Create a spliterator.
+         *
+         * @param anIndex
+         *      Index of the first registry object
+         * @param anEnd
+         *      Index after the last registry object
+         */
+        FileSpliterator(final int anIndex, final int anEnd) {
+            this.index = anIndex;
+            this.end = anEnd;
+        }
+
+        /**
+         * Pass on the next registry object, if any.
+         *
+         * @param action
+         *      The action receiving it
+         *
+         * @return
+         *      false if there are none left
+         */
+        public boolean tryAdvance(
+                final Consumer<? super RegistryObject> action) {
+            if (index >= end) {
+                return false;
+            }
+            if (parser == null) {
+                parser = newParser();
+            }
+            action.accept(read(parser, index++));
+            return true;
+        }
+
+        /**
+         * Split off the first half of the remaining registry objects.
+         *
+         * @return
+         *      A spliterator over the first half, or null if too few
+         *      remain
+         */
+        public Spliterator<RegistryObject> trySplit() {
+            if (end - index < MIN_SPLIT) {
+                return null;
+            }
+            int mid = (index + end) >>> 1;
+            Spliterator<RegistryObject> first =
+                    new FileSpliterator(index, mid);
+            index = mid;
+            return first;
+        }
+
+        /**
+         * Obtain the number of registry objects remaining.
+         *
+         * @return
+         *      The number remaining
+         */
+        public long estimateSize() {
+            return end - index;
+        }
+
+        /**
+         * Obtain the characteristics of the spliterator.
+         *
+         * @return
+         *      ORDERED, NONNULL, SIZED and SUBSIZED
+         */
+        public int characteristics() {
+            return ORDERED | NONNULL | SIZED | SUBSIZED;
+        }
+    }
+
+
+    /**
+     * Spliterator over a range of the blocks of a file written in
+     * blocks. Each block is read whole by the spliterator reaching it.
+     */
+    private final class BlockSpliterator
+            implements Spliterator<RegistryObject> {
+        /** Index of the next block. */
+        private int index;
+        /** Index after the last block. */
+        private final int end;
+        /** Registry objects remaining, including those of the current
+         *  block. */
+        private long remaining = 0;
+        /** Registry objects of the current block not yet passed on. */
+        private Iterator<RegistryObject> current =
+                Collections.<RegistryObject>emptyIterator();
+        /** The parser, created when first needed. */
+        private SAXParser parser = null;
+
+        /**
+         * Create a spliterator.
+         *
+         * @param anIndex
+         *      Index of the first block
+         * @param anEnd
+         *      Index after the last block
+         */
+        BlockSpliterator(final int anIndex, final int anEnd) {
+            this.index = anIndex;
+            this.end = anEnd;
+            for (int i = anIndex; i < anEnd; i++) {
+                remaining += records[i];
+            }
+        }
+
+        /**
+         * Pass on the next registry object, if any, reading the next
+         * block when the current one has been passed on.
+         *
+         * @param action
+         *      The action receiving it
+         *
+         * @return
+         *      false if there are none left
+         */
+        public boolean tryAdvance(
+                final Consumer<? super RegistryObject> action) {
+            while (!current.hasNext()) {
+                if (index >= end) {
+                    return false;
+                }
+                if (parser == null) {
+                    parser = newParser();
+                }
+                current = readBlock(parser, index++).iterator();
+            }
+            remaining--;
+            action.accept(current.next());
+            return true;
+        }
+
+        /**
+         * Split off the first half of the remaining blocks.
+         *
+         * @return
+         *      A spliterator over the first half, or null if too few
+         *      remain or a block has been partly passed on
+         */
+        public Spliterator<RegistryObject> trySplit() {
+            if (end - index < MIN_SPLIT || current.hasNext()) {
+                return null;
+            }
+            int mid = (index + end) >>> 1;
+            BlockSpliterator first = new BlockSpliterator(index, mid);
+            index = mid;
+            remaining -= first.remaining;
+            return first;
+        }
+
+        /**
+         * Obtain the number of registry objects remaining.
+         *
+         * @return
+         *      The number remaining
+         */
+        public long estimateSize() {
+            return remaining;
+        }
+
+        /**
+         * Obtain the characteristics of the spliterator.
+         *
+         * @return
+         *      ORDERED, NONNULL, SIZED and SUBSIZED
+         */
+        public int characteristics() {
+            return ORDERED | NONNULL | SIZED | SUBSIZED;
+        }
+    }
+
+
+    /**
+     * Finds the registryObject elements of a file by tracking markup,
+     * without checking that it is well formed.
+     */
+    private final class Scanner {
+        /** The file. */
+        private final InputStream in;
+        /** Bytes read from the file. */
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        /** Index of the next byte in the buffer. */
+        private int pos = 0;
+        /** Number of bytes in the buffer. */
+        private int limit = 0;
+        /** Offset of the start of the buffer. */
+        private long base = 0;
+        /** Offset after the registryObjects start tag. */
+        private long prologEnd = -1;
+
+        /**
+         * Create a scanner.
+         *
+         * @param anIn
+         *      The file
+         */
+        Scanner(final InputStream anIn) {
+            this.in = anIn;
+        }
+
+        /**
+         * Obtain the offset of the next byte.
+         *
+         * @return
+         *      The offset
+         */
+        private long offset() {
+            return base + pos;
+        }
+
+        /**
+         * Read the next byte, if any.
+         *
+         * @return
+         *      The byte, or -1 at the end of the file
+         *
+         * @throws IOException An IOException
+         */
+        private int read() throws IOException {
+            if (pos == limit) {
+                base += limit;
+                pos = 0;
+                limit = Math.max(0, in.read(buffer));
+                if (limit == 0) {
+                    return -1;
+                }
+            }
+            return buffer[pos++] & 0xff;
+        }
+
+        /**
+         * Read the next byte.
+         *
+         * @return
+         *      The byte
+         *
+         * @throws IOException if the file ends
+         */
+        private int next() throws IOException {
+            int b = read();
+            if (b < 0) {
+                throw new IOException("Unexpected end of file at offset "
+                        + offset());
+            }
+            return b;
+        }
+
+        /**
+         * Skip to the end of a sequence of bytes.
+         *
+         * @param s
+         *      The ASCII sequence ending the markup being skipped
+         *
+         * @throws IOException if the file ends
+         */
+        private void skipPast(final String s) throws IOException {
+            int matched = 0;
+            while (matched < s.length()) {
+                int b = next();
+                if (b == s.charAt(matched)) {
+                    matched++;
+                } else if (b == s.charAt(0)) {
+                    matched = 1;
+                } else {
+                    matched = 0;
+                }
+            }
+        }
+
+        /**
+         * Skip the rest of a tag, honouring quoted attribute values.
+         *
+         * @param b
+         *      The byte after the name
+         *
+         * @return
+         *      true if the tag ends with "/>"
+         *
+         * @throws IOException if the file ends
+         */
+        private boolean skipTag(final int b) throws IOException {
+            int last = 0;
+            for (int c = b; c != '>'; c = next()) {
+                if (c == '"' || c == '\'') {
+                    skipPast(String.valueOf((char) c));
+                }
+                last = c;
+            }
+            return last == '/';
+        }
+
+        /**
+         * Skip a declaration such as DOCTYPE, including any internal
+         * subset.
+         *
+         * @throws IOException if the file ends
+         */
+        private void skipDeclaration() throws IOException {
+            int brackets = 0;
+            for (int c = next(); c != '>' || brackets > 0; c = next()) {
+                if (c == '[') {
+                    brackets++;
+                } else if (c == ']') {
+                    brackets--;
+                } else if (c == '"' || c == '\'') {
+                    skipPast(String.valueOf((char) c));
+                }
+            }
+        }
+
+        /**
+         * Scan the file.
+         *
+         * @throws IOException if the file can not be read
+         * @throws RIFCSException if the file is not a RIF-CS document in
+         *      a supported encoding
+         */
+        void scan() throws IOException, RIFCSException {
+            int depth = 0;
+            String root = null;
+            long recordStart = -1;
+            for (int b = read(); b >= 0; b = read()) {
+                if (b == 0) {
+                    throw new RIFCSException(
+                            "Only ASCII compatible encodings are supported");
+                }
+                if (b != '<') {
+                    continue;
+                }
+                long tagStart = offset() - 1;
+                int c = next();
+                if (c == '!') {
+                    c = next();
+                    if (c == '-') {
+                        skipPast("-->");
+                    } else if (c == '[') {
+                        skipPast("]]>");
+                    } else {
+                        skipDeclaration();
+                    }
+                } else if (c == '?') {
+                    skipPast("?>");
+                } else if (c == '/') {
+                    skipTag(c);
+                    depth--;
+                    if (depth == DEPTH_RECORD - 1 && recordStart >= 0) {
+                        add(recordStart, offset());
+                        recordStart = -1;
+                    }
+                } else {
+                    StringBuilder name = new StringBuilder();
+                    for (; c != '>' && c != '/' && c > ' '; c = next()) {
+                        name.append((char) c);
+                    }
+                    boolean empty = skipTag(c);
+                    depth++;
+                    if (depth == 1) {
+                        root = name.toString();
+                        prologEnd = offset();
+                        if (empty) {
+                            break;
+                        }
+                    } else if (depth == DEPTH_RECORD && isRecord(name)) {
+                        recordStart = tagStart;
+                    }
+                    if (empty) {
+                        depth--;
+                        if (depth == DEPTH_RECORD - 1 && recordStart >= 0) {
+                            add(recordStart, offset());
+                            recordStart = -1;
+                        }
+                    }
+                }
+            }
+            if (root == null) {
+                throw new RIFCSException("No root element found");
+            }
+            String localRoot = root.substring(root.indexOf(':') + 1);
+            if (!Constants.ELEMENT_REGISTRY_OBJECTS.equals(localRoot)) {
+                throw new RIFCSException("Root element " + root
+                        + " is not " + Constants.ELEMENT_REGISTRY_OBJECTS);
+            }
+            epilog = ("</" + root + ">").getBytes(StandardCharsets.UTF_8);
+            if (prologEnd > Integer.MAX_VALUE) {
+                throw new RIFCSException("Prolog too long");
+            }
+            prolog = new byte[(int) prologEnd];
+        }
+
+        /**
+         * Determine whether an element name is that of a registryObject.
+         *
+         * @param name
+         *      The qualified name
+         *
+         * @return
+         *      true for registryObject elements, whatever their prefix
+         */
+        private boolean isRecord(final CharSequence name) {
+            String s = name.toString();
+            return Constants.ELEMENT_REGISTRY_OBJECT.equals(
+                    s.substring(s.indexOf(':') + 1));
+        }
+
+        /**
+         * Record the offsets of a registry object.
+         *
+         * @param start
+         *      The offset of its start tag
+         * @param end
+         *      The offset after its end tag
+         */
+        private void add(final long start, final long end) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+    }
+}
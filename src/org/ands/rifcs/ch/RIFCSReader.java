@@ -19,19 +19,28 @@ package org.ands.rifcs.ch;
 import java.io.InputStream;
 import java.io.IOException;
 
+import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
+import org.ands.rifcs.base.Compression;
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.Instrumentation;
+import org.ands.rifcs.base.StageTimer;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
 
 /**
  * A Reader which takes an XML input stream and maps it to a DOM
- * Document.
+ * Document. Streams compressed with gzip or deflate are recognised and
+ * decompressed.
  *
  * @author Scott Yeadon
  */
@@ -67,11 +76,7 @@ public class RIFCSReader {
         SAXParser sp = spf.newSAXParser();
         DefaultRIFCSHandler ch = new DefaultRIFCSHandler();
 
-        InputSource source = new InputSource(is);
-
-        sp.parse(source, ch);
-
-        doc = ch.getDocument();
+        parse(sp, is, ch);
     }
 
 
@@ -96,9 +101,208 @@ public class RIFCSReader {
         spf.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
         SAXParser sp = spf.newSAXParser();
 
-        InputSource source = new InputSource(is);
-        sp.parse(source, ch);
-        doc = ch.getDocument();
+        parse(sp, is, ch);
+    }
+
+
+    /**
+     * Map an XML InputStream to DOM one registry object at a time, so
+     * that a registry object which is not well formed is skipped and
+     * the rest are read. The document is split at registryObject tags
+     * without parsing it, as RecordScanner describes, and each registry
+     * object is parsed alone with the namespaces declared around it.
+     * The registry objects read are gathered in the element enclosing
+     * the first of them, or in a new registryObjects element if it has
+     * none. Slower than mapToDOM(), which should be used unless errors
+     * are expected.
+     *
+     * @param is
+     *      XML InputStream, in an ASCII compatible encoding such as
+     *      UTF-8, which may be compressed
+     * @param listener
+     *      The listener receiving the position and error of each
+     *      registry object skipped
+     *
+     * @return
+     *      The number of registry objects skipped
+     *
+     * @throws SAXException if the listener aborts the parse
+     * @throws ParserConfigurationException A ParserConfigurationException
+     * @throws IOException An IOException
+     *
+     */
+    public final long mapRecordsToDOM(final InputStream is,
+                final ParseErrorListener listener) throws SAXException,
+                ParserConfigurationException, IOException {
+        SAXParserFactory spf = SAXParserFactory.newInstance();
+        spf.setFeature("http://xml.org/sax/features/namespaces", true);
+        spf.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+        SAXParser sp = spf.newSAXParser();
+        long skipped = 0;
+        Element parent = null;
+
+        StageTimer timer = Instrumentation.start(
+                Instrumentation.STAGE_PARSE);
+        try {
+            doc = null;
+            RecordScanner scanner = new RecordScanner(
+                    Compression.decode(timer.count(is)));
+            while (scanner.next()) {
+                DefaultRIFCSHandler ch = new DefaultRIFCSHandler();
+                try {
+                    sp.parse(new InputSource(scanner.getDocument()), ch);
+                } catch (SAXParseException spe) {
+                    sp.reset();
+                    skipped++;
+                    listener.recordFailed(scanner.getOffset(),
+                            scanner.getLine(), scanner.getColumn(),
+                            scanner.locate(spe));
+                    continue;
+                }
+                Element ro = registryObject(
+                        ch.getDocument().getDocumentElement());
+                if (ro == null) {
+                    // such as a registryObject of another namespace
+                    skipped++;
+                    listener.recordFailed(scanner.getOffset(),
+                            scanner.getLine(), scanner.getColumn(),
+                            new SAXParseException("No RIF-CS "
+                                    + Constants.ELEMENT_REGISTRY_OBJECT
+                                    + " element", null, null,
+                                    scanner.getLine(), scanner.getColumn()));
+                    continue;
+                }
+                if (parent == null) {
+                    parent = parentOf(ro);
+                } else {
+                    parent.appendChild(doc.adoptNode(ro));
+                }
+                timer.addRecords(1);
+            }
+            if (parent == null) {
+                parentOf(null);
+            }
+        } finally {
+            timer.stop();
+        }
+        return skipped;
+    }
+
+
+    /**
+     * Find the registry object of a document parsed by mapRecordsToDOM().
+     * The elements enclosing it hold nothing else, so it is found by
+     * following the last element child of each.
+     *
+     * @param root
+     *      The document element
+     *
+     * @return
+     *      The RIF-CS registryObject element, or null if there is none
+     */
+    private static Element registryObject(final Element root) {
+        Element e = root;
+        while (e != null && !(Constants.NS_RIFCS.equals(e.getNamespaceURI())
+                && Constants.ELEMENT_REGISTRY_OBJECT.equals(
+                        e.getLocalName()))) {
+            Node n = e.getLastChild();
+            while (n != null && n.getNodeType() != Node.ELEMENT_NODE) {
+                n = n.getPreviousSibling();
+            }
+            e = (Element) n;
+        }
+        return e;
+    }
+
+
+    /**
+     * Start the document of mapRecordsToDOM() with the first registry
+     * object read.
+     *
+     * @param ro
+     *      The registry object, in the document of its parse, or null
+     *      if there are none
+     *
+     * @return
+     *      The element to which later registry objects are added
+     *
+     * @throws ParserConfigurationException A ParserConfigurationException
+     */
+    private Element parentOf(final Element ro)
+            throws ParserConfigurationException {
+        if (ro != null && ro.getParentNode().getNodeType()
+                == Node.ELEMENT_NODE) {
+            doc = ro.getOwnerDocument();
+            return (Element) ro.getParentNode();
+        }
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        doc = dbf.newDocumentBuilder().newDocument();
+        Element root = doc.createElementNS(Constants.NS_RIFCS,
+                Constants.ELEMENT_REGISTRY_OBJECTS);
+        doc.appendChild(root);
+        if (ro != null) {
+            root.appendChild(doc.adoptNode(ro));
+        }
+        return root;
+    }
+
+
+    /**
+     * Parse an XML InputStream to DOM, timing the parse as
+     * Instrumentation.STAGE_PARSE.
+     *
+     * @param sp
+     *      The parser
+     * @param is
+     *      XML InputStream
+     * @param ch
+     *      XML SAX Content Handler
+     *
+     * @throws SAXException A SAXException
+     * @throws IOException An IOException
+     */
+    private void parse(final SAXParser sp, final InputStream is,
+                final DefaultRIFCSHandler ch) throws SAXException,
+                IOException {
+        StageTimer timer = Instrumentation.start(
+                Instrumentation.STAGE_PARSE);
+        try {
+            InputSource source = new InputSource(
+                    Compression.decode(timer.count(is)));
+            sp.parse(source, ch);
+            doc = ch.getDocument();
+        } finally {
+            timer.addRecords(ch.getRegistryObjectCount());
+            timer.stop();
+        }
+    }
+
+
+    /**
+     * Compute the fingerprint of each registry object in an XML
+     * InputStream via SAX, without mapping it to DOM.
+     *
+     * @param is
+     *      XML InputStream
+     * @param listener
+     *      The listener receiving the key and fingerprint of
+     *      each registry object
+     *
+     * @throws SAXException A SAXException
+     * @throws ParserConfigurationException A ParserConfigurationException
+     * @throws IOException An IOException
+     *
+     */
+    public final void fingerprint(final InputStream is,
+                final FingerprintListener listener) throws SAXException,
+                ParserConfigurationException, IOException {
+        SAXParserFactory spf = SAXParserFactory.newInstance();
+        spf.setFeature("http://xml.org/sax/features/namespaces", true);
+        SAXParser sp = spf.newSAXParser();
+
+        InputSource source = new InputSource(Compression.decode(is));
+        sp.parse(source, new FingerprintHandler(listener));
     }
 
 
@@ -0,0 +1,789 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.ch;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ands.rifcs.base.Constants;
+
+import org.xml.sax.SAXParseException;
+
+/**
+ * Splits an XML document into its registryObject elements by scanning
+ * its bytes, without parsing, so that each registry object can be
+ * parsed alone and one that is not well formed does not stop the rest
+ * being read.
+ *
+ * The scanner recognises tags, comments, CDATA sections and processing
+ * instructions. A registry object ends at the first registryObject end
+ * tag after its start tag, or, if that is missing, at the next
+ * registryObject start tag or the end of the document. Each is given
+ * with the XML declaration and the start tags of the elements enclosing
+ * it, so that it can be parsed with the namespaces declared outside it.
+ *
+ * Positions are of the document as read, so of the uncompressed
+ * document if it was compressed. The encoding must be ASCII compatible,
+ * such as UTF-8 or ISO-8859-1; columns count characters of UTF-8.
+ *
+ */
+final class RecordScanner {
+    /** Size of the buffer of input. */
+    private static final int BUFFER_SIZE = 8192;
+    /** Markup which is not a tag, such as a comment. */
+    private static final int OTHER = 0;
+    /** A start tag. */
+    private static final int START = 1;
+    /** An empty element tag. */
+    private static final int EMPTY = 2;
+    /** An end tag. */
+    private static final int END = 3;
+    /** A '<' which does not begin markup. */
+    private static final int TEXT = 4;
+    /** The local name of registry objects. */
+    private static final byte[] REGISTRY_OBJECT =
+            Constants.ELEMENT_REGISTRY_OBJECT.getBytes(
+                    StandardCharsets.US_ASCII);
+    /** Start of an XML declaration. */
+    private static final byte[] XML_DECLARATION =
+            "<?xml".getBytes(StandardCharsets.US_ASCII);
+    /** Bytes which begin the continuation of a UTF-8 character. */
+    private static final int UTF8_CONTINUATION = 0x80;
+    /** Mask of the bits marking a UTF-8 continuation. */
+    private static final int UTF8_MASK = 0xc0;
+    /** Mask of the bits of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** The document. */
+    private final InputStream in;
+    /** Buffer of input. */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    /** Index of the next byte in the buffer. */
+    private int next = 0;
+    /** Number of bytes in the buffer. */
+    private int limit = 0;
+    /** Offset of the next byte. */
+    private long offset = 0;
+    /** Line of the next byte. */
+    private int line = 1;
+    /** Column of the next byte. */
+    private int column = 1;
+    /** The markup being read. */
+    private final Bytes tag = new Bytes();
+    /** Index in tag of the start of the name of the element. */
+    private int nameStart;
+    /** Index in tag of the end of the name of the element. */
+    private int nameEnd;
+    /** The XML declaration, or null. */
+    private byte[] declaration = null;
+    /** Start tags of the elements enclosing the next registry object. */
+    private final List<byte[]> context = new ArrayList<byte[]>();
+    /** Names of the elements enclosing the next registry object. */
+    private final List<byte[]> contextNames = new ArrayList<byte[]>();
+    /** Whether the context has changed since the prefix was made. */
+    private boolean contextChanged = true;
+    /** The declaration and start tags preceding the registry object. */
+    private byte[] prefix = new byte[0];
+    /** The end tags following the registry object. */
+    private byte[] suffix = new byte[0];
+    /** Characters of the prefix. */
+    private int prefixColumns = 0;
+    /** The registry object. */
+    private final Bytes record = new Bytes();
+    /** Whether the start tag of the next registry object has been
+     *  read. */
+    private boolean started = false;
+    /** START or EMPTY, the kind of the start tag read. */
+    private int startKind;
+    /** Offset of the start tag read. */
+    private long startOffset;
+    /** Line of the start tag read. */
+    private int startLine;
+    /** Column of the start tag read. */
+    private int startColumn;
+    /** Offset of the registry object. */
+    private long recordOffset;
+    /** Line of the registry object. */
+    private int recordLine;
+    /** Column of the registry object. */
+    private int recordColumn;
+
+
+    /**
+     * Create a scanner.
+     *
+     * @param anIn
+     *      The document
+     */
+    RecordScanner(final InputStream anIn) {
+        this.in = anIn;
+    }
+
+
+    /**
+     * Read the next registry object.
+     *
+     * @return
+     *      false at the end of the document
+     *
+     * @throws IOException An IOException
+     */
+    boolean next() throws IOException {
+        record.reset();
+        if (started) {
+            started = false;
+        } else if (!seek()) {
+            return false;
+        }
+        recordOffset = startOffset;
+        recordLine = startLine;
+        recordColumn = startColumn;
+        record.write(tag.array(), 0, tag.size());
+        if (startKind == EMPTY) {
+            return true;
+        }
+        while (text(record)) {
+            long o = offset - 1;
+            int l = line;
+            int c = column - 1;
+            int kind = markup();
+            if ((kind == START || kind == EMPTY) && isRegistryObject()) {
+                // the end tag is missing; this begins the next one
+                started = true;
+                begin(o, l, c, kind);
+                return true;
+            }
+            record.write(tag.array(), 0, tag.size());
+            if (kind == END && isRegistryObject()) {
+                return true;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Obtain the byte offset of the registry object.
+     *
+     * @return
+     *      The offset of its start tag
+     */
+    long getOffset() {
+        return recordOffset;
+    }
+
+
+    /**
+     * Obtain the line of the registry object.
+     *
+     * @return
+     *      The line of its start tag, from 1
+     */
+    int getLine() {
+        return recordLine;
+    }
+
+
+    /**
+     * Obtain the column of the registry object.
+     *
+     * @return
+     *      The column of its start tag, from 1
+     */
+    int getColumn() {
+        return recordColumn;
+    }
+
+
+    /**
+     * Obtain the registry object as a document, preceded by the XML
+     * declaration and the start tags of its enclosing elements on one
+     * line, and followed by their end tags.
+     *
+     * @return
+     *      The document
+     */
+    InputStream getDocument() {
+        return new SequenceInputStream(new ByteArrayInputStream(prefix),
+                new SequenceInputStream(new ByteArrayInputStream(
+                        record.array(), 0, record.size()),
+                        new ByteArrayInputStream(suffix)));
+    }
+
+
+    /**
+     * Give an error in the document of getDocument() the line and
+     * column of the document scanned.
+     *
+     * @param e
+     *      The error
+     *
+     * @return
+     *      An error with the same message and cause, located in the
+     *      document scanned
+     */
+    SAXParseException locate(final SAXParseException e) {
+        int l = e.getLineNumber();
+        int c = e.getColumnNumber();
+        if (l == 1) {
+            l = recordLine;
+            c = Math.max(recordColumn, recordColumn + c - prefixColumns - 1);
+        } else if (l > 1) {
+            l = recordLine + l - 1;
+        }
+        return new SAXParseException(e.getMessage(), e.getPublicId(),
+                e.getSystemId(), l, c, e);
+    }
+
+
+    /**
+     * Read up to the start tag of the next registry object, noting the
+     * XML declaration and the elements enclosing it.
+     *
+     * @return
+     *      false at the end of the document
+     *
+     * @throws IOException An IOException
+     */
+    private boolean seek() throws IOException {
+        while (text(null)) {
+            long o = offset - 1;
+            int l = line;
+            int c = column - 1;
+            int kind = markup();
+            if ((kind == START || kind == EMPTY) && isRegistryObject()) {
+                begin(o, l, c, kind);
+                return true;
+            }
+            if (kind == START) {
+                context.add(oneLine(tag.toByteArray()));
+                contextNames.add(Arrays.copyOfRange(
+                        tag.array(), nameStart, nameEnd));
+                contextChanged = true;
+            } else if (kind == END && !context.isEmpty()) {
+                context.remove(context.size() - 1);
+                contextNames.remove(contextNames.size() - 1);
+                contextChanged = true;
+            } else if (kind == OTHER && declaration == null
+                    && context.isEmpty() && startsWith(XML_DECLARATION)) {
+                declaration = oneLine(tag.toByteArray());
+                contextChanged = true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Note the start tag of a registry object, and make its prefix and
+     * suffix if its context has changed.
+     *
+     * @param o
+     *      The offset of the start tag
+     * @param l
+     *      The line of the start tag
+     * @param c
+     *      The column of the start tag
+     * @param kind
+     *      START or EMPTY
+     */
+    private void begin(final long o, final int l, final int c,
+                       final int kind) {
+        startKind = kind;
+        startOffset = o;
+        startLine = l;
+        startColumn = c;
+        if (!contextChanged) {
+            return;
+        }
+        Bytes b = new Bytes();
+        if (declaration != null) {
+            b.write(declaration, 0, declaration.length);
+        }
+        for (byte[] t : context) {
+            b.write(t, 0, t.length);
+        }
+        prefix = b.toByteArray();
+        prefixColumns = columns(prefix);
+        b.reset();
+        for (int i = contextNames.size() - 1; i >= 0; i--) {
+            byte[] name = contextNames.get(i);
+            b.write('<');
+            b.write('/');
+            b.write(name, 0, name.length);
+            b.write('>');
+        }
+        suffix = b.toByteArray();
+        contextChanged = false;
+    }
+
+
+    /**
+     * Read markup, the '<' beginning it having been read, into tag.
+     *
+     * @return
+     *      START, EMPTY, END, OTHER or TEXT
+     *
+     * @throws IOException An IOException
+     */
+    private int markup() throws IOException {
+        tag.reset();
+        tag.write('<');
+        int b = read();
+        if (b < 0) {
+            return TEXT;
+        }
+        tag.write(b);
+        if (b == '!') {
+            b = read();
+            if (b < 0) {
+                return OTHER;
+            }
+            tag.write(b);
+            if (b == '-') {
+                skipTo("-->");
+            } else if (b == '[') {
+                skipTo("]]>");
+            } else {
+                skipDeclaration();
+            }
+            return OTHER;
+        } else if (b == '?') {
+            skipTo("?>");
+            return OTHER;
+        } else if (b == '/') {
+            nameStart = tag.size();
+            b = name();
+            while (b >= 0 && b != '>') {
+                b = read();
+                if (b >= 0) {
+                    tag.write(b);
+                }
+            }
+            return END;
+        } else if (isNameStart(b)) {
+            nameStart = tag.size() - 1;
+            return attributes(name());
+        }
+        return TEXT;
+    }
+
+
+    /**
+     * Read the rest of a name into tag.
+     *
+     * @return
+     *      The byte following the name, also written, or -1
+     *
+     * @throws IOException An IOException
+     */
+    private int name() throws IOException {
+        int b = read();
+        while (b >= 0 && b != '>' && b != '/' && !isSpace(b)) {
+            tag.write(b);
+            b = read();
+        }
+        nameEnd = tag.size();
+        if (b >= 0) {
+            tag.write(b);
+        }
+        return b;
+    }
+
+
+    /**
+     * Read the rest of a start tag into tag.
+     *
+     * @param first
+     *      The byte following the name of the element, or -1
+     *
+     * @return
+     *      START or EMPTY
+     *
+     * @throws IOException An IOException
+     */
+    private int attributes(final int first) throws IOException {
+        int last = ' ';
+        int b = first;
+        while (b >= 0 && b != '>') {
+            if ((b == '"' || b == '\'') && last == '=') {
+                int quote = b;
+                do {
+                    b = read();
+                    if (b >= 0) {
+                        tag.write(b);
+                    }
+                } while (b >= 0 && b != quote);
+            }
+            if (!isSpace(b)) {
+                last = b;
+            }
+            b = read();
+            if (b >= 0) {
+                tag.write(b);
+            }
+        }
+        if (last == '/') {
+            return EMPTY;
+        }
+        return START;
+    }
+
+
+    /**
+     * Read into tag up to and including a terminator.
+     *
+     * @param end
+     *      The terminator
+     *
+     * @throws IOException An IOException
+     */
+    private void skipTo(final String end) throws IOException {
+        int matched = 0;
+        while (matched < end.length()) {
+            int b = read();
+            if (b < 0) {
+                return;
+            }
+            tag.write(b);
+            if (b == end.charAt(matched)) {
+                matched++;
+            } else if (b == end.charAt(0)) {
+                matched = 1;
+            } else {
+                matched = 0;
+            }
+        }
+    }
+
+
+    /**
+     * Read into tag the rest of a declaration such as a DOCTYPE, which
+     * may have an internal subset in brackets.
+     *
+     * @throws IOException An IOException
+     */
+    private void skipDeclaration() throws IOException {
+        int depth = 0;
+        for (int b = read(); b >= 0; b = read()) {
+            tag.write(b);
+            if (b == '[') {
+                depth++;
+            } else if (b == ']') {
+                depth--;
+            } else if (b == '>' && depth <= 0) {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Determine whether the element of the tag read is a registry
+     * object, of whatever prefix.
+     *
+     * @return
+     *      true if its local name is registryObject
+     */
+    private boolean isRegistryObject() {
+        int start = nameEnd - REGISTRY_OBJECT.length;
+        if (start < nameStart) {
+            return false;
+        }
+        if (start > nameStart && tag.array()[start - 1] != ':') {
+            return false;
+        }
+        for (int i = 0; i < REGISTRY_OBJECT.length; i++) {
+            if (tag.array()[start + i] != REGISTRY_OBJECT[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Determine whether the markup read starts with given bytes.
+     *
+     * @param b
+     *      The bytes
+     *
+     * @return
+     *      true if it does
+     */
+    private boolean startsWith(final byte[] b) {
+        if (tag.size() <= b.length) {
+            return false;
+        }
+        for (int i = 0; i < b.length; i++) {
+            if (tag.array()[i] != b[i]) {
+                return false;
+            }
+        }
+        return isSpace(tag.array()[b.length]);
+    }
+
+
+    /**
+     * Read text up to and including the next '<', keeping the position.
+     *
+     * @param out
+     *      Receives the text, but not the '<', or null
+     *
+     * @return
+     *      false at the end of the document
+     *
+     * @throws IOException An IOException
+     */
+    private boolean text(final Bytes out) throws IOException {
+        while (true) {
+            if (next == limit && !fill()) {
+                return false;
+            }
+            int start = next;
+            int i = next;
+            while (i < limit && buffer[i] != '<') {
+                if (buffer[i] == '\n') {
+                    line++;
+                    column = 1;
+                } else if ((buffer[i] & UTF8_MASK) != UTF8_CONTINUATION) {
+                    column++;
+                }
+                i++;
+            }
+            if (out != null) {
+                out.write(buffer, start, i - start);
+            }
+            offset += i - start;
+            next = i;
+            if (i < limit) {
+                next++;
+                offset++;
+                column++;
+                return true;
+            }
+        }
+    }
+
+
+    /**
+     * Fill the buffer of input.
+     *
+     * @return
+     *      false at the end of the document
+     *
+     * @throws IOException An IOException
+     */
+    private boolean fill() throws IOException {
+        limit = in.read(buffer, 0, BUFFER_SIZE);
+        next = 0;
+        if (limit <= 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Read a byte, keeping the position.
+     *
+     * @return
+     *      The byte, or -1 at the end of the document
+     *
+     * @throws IOException An IOException
+     */
+    private int read() throws IOException {
+        if (next == limit && !fill()) {
+            return -1;
+        }
+        int b = buffer[next++] & BYTE_MASK;
+        offset++;
+        if (b == '\n') {
+            line++;
+            column = 1;
+        } else if ((b & UTF8_MASK) != UTF8_CONTINUATION) {
+            column++;
+        }
+        return b;
+    }
+
+
+    /**
+     * Replace line ends and tabs in markup with spaces, which does not
+     * change the meaning of a tag or declaration, so that it takes one
+     * line.
+     *
+     * @param b
+     *      The markup
+     *
+     * @return
+     *      The markup, changed
+     */
+    private static byte[] oneLine(final byte[] b) {
+        for (int i = 0; i < b.length; i++) {
+            if (b[i] == '\n' || b[i] == '\r' || b[i] == '\t') {
+                b[i] = ' ';
+            }
+        }
+        return b;
+    }
+
+
+    /**
+     * Count the UTF-8 characters of bytes.
+     *
+     * @param b
+     *      The bytes
+     *
+     * @return
+     *      The number of characters
+     */
+    private static int columns(final byte[] b) {
+        int n = 0;
+        for (int i = 0; i < b.length; i++) {
+            if ((b[i] & UTF8_MASK) != UTF8_CONTINUATION) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+
+    /**
+     * Determine whether a byte is XML white space.
+     *
+     * @param b
+     *      The byte
+     *
+     * @return
+     *      true for space, tab, carriage return and line feed
+     */
+    private static boolean isSpace(final int b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+
+    /**
+     * Determine whether a byte can begin an element name.
+     *
+     * @param b
+     *      The byte
+     *
+     * @return
+     *      true for letters, '_', ':' and the bytes of characters
+     *      beyond ASCII
+     */
+    private static boolean isNameStart(final int b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+                || b == '_' || b == ':' || b >= UTF8_CONTINUATION;
+    }
+
+
+    /**
+     * A growing array of bytes, which unlike ByteArrayOutputStream is
+     * not synchronized and can be read without copying.
+     */
+    private static final class Bytes {
+        /** Initial capacity. */
+        private static final int CAPACITY = 256;
+        /** The array. */
+        private byte[] buf = new byte[CAPACITY];
+        /** The number of bytes written. */
+        private int count = 0;
+
+        /**
+         * Create an empty array of bytes.
+         */
+        Bytes() {
+            // do nothing constructor
+        }
+
+        /**
+         * Write a byte.
+         *
+         * @param b
+         *      The byte
+         */
+        void write(final int b) {
+            if (count == buf.length) {
+                buf = Arrays.copyOf(buf, count * 2);
+            }
+            buf[count++] = (byte) b;
+        }
+
+        /**
+         * Write bytes.
+         *
+         * @param b
+         *      The bytes
+         * @param off
+         *      The index of the first byte
+         * @param len
+         *      The number of bytes
+         */
+        void write(final byte[] b, final int off, final int len) {
+            if (count + len > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(count + len, count * 2));
+            }
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        /**
+         * Forget the bytes written.
+         */
+        void reset() {
+            count = 0;
+        }
+
+        /**
+         * Obtain the number of bytes written.
+         *
+         * @return
+         *      The number of bytes
+         */
+        int size() {
+            return count;
+        }
+
+        /**
+         * Obtain the array holding the bytes.
+         *
+         * @return
+         *      The array, of which the first size() bytes are written
+         */
+        byte[] array() {
+            return buf;
+        }
+
+        /**
+         * Copy the bytes written.
+         *
+         * @return
+         *      A new array of the bytes
+         */
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+    }
+}
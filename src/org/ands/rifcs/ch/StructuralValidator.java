@@ -0,0 +1,362 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.ands.rifcs.ch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.ands.rifcs.base.Compression;
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.ObjectClasses;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A fast structural pre-check for RIF-CS documents.
+ *
+ * Full schema validation is the most expensive stage of processing a
+ * RIF-CS document, yet most invalid documents fail for simple reasons:
+ * a registry object without a key or originatingSource, without an
+ * object class element, or with an empty required attribute such as
+ * type. This validator checks those rules in a single streaming SAX pass
+ * without building a DOM, so malformed documents can be rejected cheaply.
+ * Documents which pass may still be validated against the schema as a
+ * second stage using RIFCSWrapper.validate().
+ *
+ * The checker stops at the first violation. A validator object reuses its
+ * parser between calls and so must not be shared between threads.
+ */
+public final class StructuralValidator {
+    /** Depth of the registryObjects root element. */
+    private static final int DEPTH_ROOT = 1;
+    /** Depth of registryObject elements. */
+    private static final int DEPTH_RECORD = 2;
+    /** Depth of the children of registryObject elements. */
+    private static final int DEPTH_RECORD_CHILD = 3;
+    /** Depth of the children of object class elements. */
+    private static final int DEPTH_CLASS_CHILD = 4;
+
+    /** Attributes which must be present and non-empty, keyed by the
+     *  local name of the RIF-CS element which carries them. */
+    private static final Map<String, String[]> REQUIRED_ATTRIBUTES =
+            new HashMap<String, String[]>();
+    /** As for REQUIRED_ATTRIBUTES, but only applied to the direct children
+     *  of an object class element. A description within a relation,
+     *  for example, has no type attribute. */
+    private static final Map<String, String[]> REQUIRED_CLASS_ATTRIBUTES =
+            new HashMap<String, String[]>();
+
+    static {
+        String[] type = new String[] {Constants.ATTRIBUTE_TYPE};
+        String[] dateFormat = new String[] {Constants.ATTRIBUTE_DATE_FORMAT};
+        REQUIRED_ATTRIBUTES.put(Constants.ELEMENT_REGISTRY_OBJECT,
+                new String[] {Constants.ATTRIBUTE_GROUP});
+        REQUIRED_ATTRIBUTES.put(Constants.ELEMENT_COLLECTION, type);
+        REQUIRED_ATTRIBUTES.put(Constants.ELEMENT_PARTY, type);
+        REQUIRED_ATTRIBUTES.put(Constants.ELEMENT_ACTIVITY, type);
+        REQUIRED_ATTRIBUTES.put(Constants.ELEMENT_SERVICE, type);
+        REQUIRED_ATTRIBUTES.put(Constants.ELEMENT_IDENTIFIER, type);
+        REQUIRED_ATTRIBUTES.put(Constants.ELEMENT_SUBJECT, type);
+        REQUIRED_ATTRIBUTES.put(Constants.ELEMENT_RELATION, type);
+        REQUIRED_ATTRIBUTES.put(Constants.ELEMENT_DATES, type);
+        REQUIRED_ATTRIBUTES.put(Constants.ELEMENT_DATE, type);
+        REQUIRED_ATTRIBUTES.put(Constants.ELEMENT_SPATIAL, type);
+        REQUIRED_ATTRIBUTES.put(Constants.ELEMENT_ADDRESSPART, type);
+        REQUIRED_ATTRIBUTES.put(Constants.ELEMENT_START_DATE, dateFormat);
+        REQUIRED_ATTRIBUTES.put(Constants.ELEMENT_END_DATE, dateFormat);
+        REQUIRED_CLASS_ATTRIBUTES.put(Constants.ELEMENT_DESCRIPTION, type);
+    }
+
+    /** The SAX parser, created on first use. */
+    private SAXParser parser = null;
+
+
+    /**
+     * Create a structural validator.
+     *
+     */
+    public StructuralValidator() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Check the structure of a RIF-CS document.
+     *
+     * @param is
+     *      XML InputStream
+     *
+     * @throws SAXParseException
+     *      if the document is not well-formed or breaks a structural rule.
+     *      The exception carries the line and column of the violation.
+     * @throws SAXException A SAXException
+     * @throws ParserConfigurationException A ParserConfigurationException
+     * @throws IOException An IOException
+     */
+    public void validate(final InputStream is) throws SAXException,
+    ParserConfigurationException, IOException {
+        if (parser == null) {
+            SAXParserFactory spf = SAXParserFactory.newInstance();
+            spf.setNamespaceAware(true);
+            parser = spf.newSAXParser();
+        } else {
+            parser.reset();
+        }
+
+        parser.parse(new InputSource(Compression.decode(is)),
+                new StructureHandler());
+    }
+
+
+    /**
+     * Determine whether a string is empty or contains only whitespace.
+     *
+     * @param s
+     *      The string to test, which may be null
+     *
+     * @return
+     *      true if the string contains no non-whitespace characters
+     */
+    private static boolean isBlank(final CharSequence s) {
+        if (s == null) {
+            return true;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isWhitespace(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * SAX handler which tracks just enough state to apply the
+     * structural rules.
+     */
+    private static final class StructureHandler extends DefaultHandler {
+        /** Locator used to report the position of violations. */
+        private Locator locator = null;
+        /** Current element depth. */
+        private int depth = 0;
+        /** Number of key elements in the current registry object. */
+        private int keys = 0;
+        /** Number of originatingSource elements in the current
+         *  registry object. */
+        private int sources = 0;
+        /** Number of object class elements in the current
+         *  registry object. */
+        private int classes = 0;
+        /** Text of the current key element. */
+        private StringBuilder key = new StringBuilder();
+        /** true while inside a key element of a registry object. */
+        private boolean inKey = false;
+
+        /**
+         * Set the locator.
+         *
+         * @param aLocator
+         *        The Locator object used to track the parsing location
+         */
+        public void setDocumentLocator(final Locator aLocator) {
+            this.locator = aLocator;
+        }
+
+        /**
+         * Apply the rules which can be checked when an element starts.
+         *
+         * @param uri
+         *      The element namespace
+         * @param localName
+         *      The unqualified element name
+         * @param qName
+         *      The qualified element name
+         * @param attributes
+         *      Attributes associated with the element
+         *
+         * @exception SAXException if a structural rule is broken
+         */
+        public void startElement(final String uri,
+                                 final String localName,
+                                 final String qName,
+                                 final Attributes attributes)
+                throws SAXException {
+            depth++;
+            boolean rifcs = Constants.NS_RIFCS.equals(uri);
+
+            if (depth == DEPTH_ROOT) {
+                if (!rifcs || !Constants.ELEMENT_REGISTRY_OBJECTS.equals(
+                        localName)) {
+                    fail("Root element must be "
+                            + Constants.ELEMENT_REGISTRY_OBJECTS
+                            + " in namespace " + Constants.NS_RIFCS
+                            + ", found: " + qName);
+                }
+                return;
+            }
+
+            if (!rifcs) {
+                // extension content such as extRif is not checked
+                return;
+            }
+
+            if (depth == DEPTH_RECORD) {
+                if (!Constants.ELEMENT_REGISTRY_OBJECT.equals(localName)) {
+                    fail("Unexpected element " + qName + ", expected: "
+                            + Constants.ELEMENT_REGISTRY_OBJECT);
+                }
+                keys = 0;
+                sources = 0;
+                classes = 0;
+            } else if (depth == DEPTH_RECORD_CHILD) {
+                if (Constants.ELEMENT_KEY.equals(localName)) {
+                    keys++;
+                    key.setLength(0);
+                    inKey = true;
+                } else if (Constants.ELEMENT_ORIG_SOURCE.equals(localName)) {
+                    sources++;
+                } else if (ObjectClasses.isObjectClass(localName)) {
+                    classes++;
+                }
+            }
+
+            checkAttributes(REQUIRED_ATTRIBUTES.get(localName),
+                    qName, attributes);
+            if (depth == DEPTH_CLASS_CHILD) {
+                checkAttributes(REQUIRED_CLASS_ATTRIBUTES.get(localName),
+                        qName, attributes);
+            }
+        }
+
+        /**
+         * Check that required attributes are present and non-empty.
+         *
+         * @param required
+         *      The names of the required attributes, or null if none
+         * @param qName
+         *      The qualified element name
+         * @param attributes
+         *      Attributes associated with the element
+         *
+         * @exception SAXException if an attribute is missing or empty
+         */
+        private void checkAttributes(final String[] required,
+                                     final String qName,
+                                     final Attributes attributes)
+                throws SAXException {
+            if (required == null) {
+                return;
+            }
+            for (int i = 0; i < required.length; i++) {
+                if (isBlank(attributes.getValue(required[i]))) {
+                    fail("Element " + qName + " requires a non-empty "
+                            + required[i] + " attribute");
+                }
+            }
+        }
+
+        /**
+         * Collect the text of key elements.
+         *
+         * @param chars
+         *      An array of characters
+         * @param start
+         *      The start position of the first in the array
+         * @param length
+         *      The length of the character data being passed
+         */
+        public void characters(final char[] chars,
+                               final int start,
+                               final int length) {
+            if (inKey) {
+                key.append(chars, start, length);
+            }
+        }
+
+        /**
+         * Apply the rules which can be checked when an element ends.
+         *
+         * @param uri
+         *      The element namespace
+         * @param localName
+         *      The unqualified element name
+         * @param qName
+         *      The qualified element name
+         *
+         * @exception SAXException if a structural rule is broken
+         */
+        public void endElement(final String uri,
+                               final String localName,
+                               final String qName) throws SAXException {
+            if (inKey) {
+                inKey = false;
+                if (isBlank(key)) {
+                    fail("Empty " + Constants.ELEMENT_KEY + " element");
+                }
+            } else if (depth == DEPTH_RECORD
+                    && Constants.NS_RIFCS.equals(uri)) {
+                checkRecord();
+            }
+            depth--;
+        }
+
+        /**
+         * Check the element counts of a completed registry object.
+         *
+         * @exception SAXException if a structural rule is broken
+         */
+        private void checkRecord() throws SAXException {
+            if (keys != 1) {
+                fail("A registryObject must have exactly one "
+                        + Constants.ELEMENT_KEY + " element, found: " + keys);
+            }
+            if (sources != 1) {
+                fail("A registryObject must have exactly one "
+                        + Constants.ELEMENT_ORIG_SOURCE
+                        + " element, found: " + sources);
+            }
+            if (classes != 1) {
+                fail("A registryObject must have exactly one collection,"
+                        + " party, activity or service element, found: "
+                        + classes);
+            }
+        }
+
+        /**
+         * Abort the parse, reporting the current location.
+         *
+         * @param message
+         *      Description of the violated rule
+         *
+         * @exception SAXParseException always
+         */
+        private void fail(final String message) throws SAXParseException {
+            throw new SAXParseException(message, locator);
+        }
+    }
+}
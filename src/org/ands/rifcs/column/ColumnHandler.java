@@ -0,0 +1,109 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.column;
+
+import org.ands.rifcs.base.Constants;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX Handler which adds a row to a store for each registryObject in a
+ * document as soon as it ends. registryObject elements are found at any
+ * depth, so that those of an envelope such as an OAI-PMH response are
+ * added.
+ *
+ */
+final class ColumnHandler extends DefaultHandler {
+    /** Builder of the current row. */
+    private final RowBuilder builder = new RowBuilder();
+    /** The store receiving rows. */
+    private final ColumnStore store;
+    /** The number of rows added. */
+    private long count = 0;
+
+
+    /**
+     * Create a handler.
+     *
+     * @param aStore
+     *      The store receiving rows
+     */
+    ColumnHandler(final ColumnStore aStore) {
+        this.store = aStore;
+    }
+
+
+    /**
+     * Obtain the number of rows added.
+     *
+     * @return
+     *      The number of rows
+     */
+    long getCount() {
+        return count;
+    }
+
+
+    /**
+     * Processing for the startElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     * @param attributes
+     *      Attributes associated with the element
+     */
+    public void startElement(final String uri,
+                             final String localName,
+                             final String qName,
+                             final Attributes attributes) {
+        if (builder.getDepth() == 0
+                && (!Constants.NS_RIFCS.equals(uri)
+                || !Constants.ELEMENT_REGISTRY_OBJECT.equals(localName))) {
+            return;
+        }
+        builder.startElement(localName);
+        for (int i = 0; i < attributes.getLength(); i++) {
+            builder.attribute(attributes.getLocalName(i),
+                    attributes.getValue(i));
+        }
+    }
+
+
+    /**
+     * Processing for the endElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     */
+    public void endElement(final String uri,
+                           final String localName,
+                           final String qName) {
+        if (builder.getDepth() == 0 || !builder.endElement()) {
+            return;
+        }
+        store.add(builder);
+        count++;
+    }
+}
@@ -0,0 +1,525 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.column;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BinaryOperator;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.ands.rifcs.base.Compression;
+import org.ands.rifcs.base.Fingerprint;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * A columnar store of the fields of registry objects used for
+ * reporting, for statistics over millions of registry objects without
+ * keeping their DOMs.
+ *
+ * Each registry object is a row of int columns held outside the Java
+ * heap in direct buffers: the group, object class, object class type
+ * and first licence type, each encoded as a code in a dictionary of the
+ * column's distinct values, and the number of related objects. A
+ * registry object costs four bytes a column, so ten million take about
+ * 200MB outside the heap and little inside it.
+ *
+ * Rows are added from a parse, without building a DOM, or from
+ * registry objects already held. Counts and histograms are computed by
+ * scanning the columns a chunk at a time, chunks in parallel, each
+ * chunk copied into an array so that the inner loops run over
+ * primitive arrays.
+ *
+ * Rows may be added while others are counted; a count sees the rows
+ * added before it began.
+ *
+ */
+public final class ColumnStore {
+    /** The group column. */
+    public static final String COLUMN_GROUP = "group";
+    /** The object class column. */
+    public static final String COLUMN_CLASS = "class";
+    /** The object class type column. */
+    public static final String COLUMN_TYPE = "type";
+    /** The licence type column, from the first licence. */
+    public static final String COLUMN_LICENCE = "licence";
+    /** The column of the number of relatedObject elements. */
+    public static final String COLUMN_RELATED_OBJECTS = "relatedObjects";
+
+    /** Depth below a registry object read from a DOM. */
+    private static final int MAX_DEPTH = 4;
+
+    /** The names of the dictionary encoded columns. */
+    private static final List<String> ENCODED = Collections.unmodifiableList(
+            Arrays.asList(COLUMN_GROUP, COLUMN_CLASS, COLUMN_TYPE,
+                    COLUMN_LICENCE));
+    /** The names of the numeric columns. */
+    private static final List<String> NUMERIC = Collections.unmodifiableList(
+            Arrays.asList(COLUMN_RELATED_OBJECTS));
+
+    /** Adds the counts of two chunks. */
+    private static final BinaryOperator<long[]> SUM =
+            new BinaryOperator<long[]>() {
+        public long[] apply(final long[] a, final long[] b) {
+            long[] sum = new long[Math.max(a.length, b.length)];
+            for (int i = 0; i < a.length; i++) {
+                sum[i] = a[i];
+            }
+            for (int i = 0; i < b.length; i++) {
+                sum[i] += b[i];
+            }
+            return sum;
+        }
+    };
+
+    /** The dictionary encoded columns, in the order of ENCODED. */
+    private final IntColumn[] encoded = new IntColumn[ENCODED.size()];
+    /** The dictionaries of the encoded columns. */
+    private final Dictionary[] dictionaries =
+            new Dictionary[ENCODED.size()];
+    /** The numeric columns, in the order of NUMERIC. */
+    private final IntColumn[] numeric = new IntColumn[NUMERIC.size()];
+    /** The number of rows. */
+    private int size = 0;
+    /** Lock guarding all the above. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+    /**
+     * Create an empty store.
+     */
+    public ColumnStore() {
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = new IntColumn();
+            dictionaries[i] = new Dictionary();
+        }
+        for (int i = 0; i < numeric.length; i++) {
+            numeric[i] = new IntColumn();
+        }
+    }
+
+
+    /**
+     * Obtain the names of the columns.
+     *
+     * @return
+     *      The dictionary encoded columns, then the numeric columns
+     */
+    public List<String> getColumns() {
+        List<String> l = new ArrayList<String>(ENCODED);
+        l.addAll(NUMERIC);
+        return l;
+    }
+
+
+    /**
+     * Add a row for each registry object of a RIF-CS document, which
+     * may be compressed, as it is parsed.
+     *
+     * @param in
+     *      The document, which is not closed
+     *
+     * @return
+     *      The number of rows added
+     *
+     * @throws RIFCSException if the document can not be parsed
+     */
+    public long load(final InputStream in) throws RIFCSException {
+        ColumnHandler handler = new ColumnHandler(this);
+        try {
+            SAXParserFactory spf = SAXParserFactory.newInstance();
+            spf.setNamespaceAware(true);
+            spf.newSAXParser().parse(
+                    new InputSource(Compression.decode(in)), handler);
+        } catch (SAXException se) {
+            throw new RIFCSException(se);
+        } catch (IOException ioe) {
+            throw new RIFCSException(ioe);
+        } catch (ParserConfigurationException pce) {
+            throw new RIFCSException(pce);
+        }
+        return handler.getCount();
+    }
+
+
+    /**
+     * Add a row for a registry object.
+     *
+     * @param ro
+     *      The registry object
+     */
+    public void add(final RegistryObject ro) {
+        RowBuilder b = new RowBuilder();
+        add(b, ro.getDOMElement());
+        b.endElement();
+        add(b);
+    }
+
+
+    /**
+     * Add a row.
+     *
+     * @param b
+     *      The builder of the row
+     */
+    void add(final RowBuilder b) {
+        String[] values = {b.getGroup(), b.getObjectClass(), b.getType(),
+            b.getLicence()};
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i].add(dictionaries[i].encode(values[i]));
+            }
+            numeric[0].add(b.getRelatedObjects());
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Obtain the number of rows.
+     *
+     * @return
+     *      The number of rows
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Obtain the number of bytes held outside the heap.
+     *
+     * @return
+     *      The number of bytes
+     */
+    public long getOffHeapBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (int i = 0; i < encoded.length; i++) {
+                bytes += encoded[i].bytes();
+            }
+            for (int i = 0; i < numeric.length; i++) {
+                bytes += numeric[i].bytes();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Count the rows with each value of a dictionary encoded column.
+     *
+     * @param column
+     *      COLUMN_GROUP, COLUMN_CLASS, COLUMN_TYPE or COLUMN_LICENCE
+     *
+     * @return
+     *      Map from value to number of rows, in descending order of
+     *      count. Rows without a value are left out.
+     */
+    public Map<String, Long> counts(final String column) {
+        return counts(column, null, null);
+    }
+
+
+    /**
+     * Count the rows with each value of a dictionary encoded column,
+     * among the rows with a value of another.
+     *
+     * @param column
+     *      COLUMN_GROUP, COLUMN_CLASS, COLUMN_TYPE or COLUMN_LICENCE
+     * @param whereColumn
+     *      The dictionary encoded column selected on, or null for all
+     *      rows
+     * @param whereValue
+     *      The value selected
+     *
+     * @return
+     *      Map from value to number of rows, in descending order of
+     *      count. Rows without a value are left out.
+     */
+    public Map<String, Long> counts(final String column,
+                                    final String whereColumn,
+                                    final String whereValue) {
+        int c = encodedColumn(column);
+        lock.readLock().lock();
+        try {
+            long[] counts = scan(encoded[c], dictionaries[c].codes(),
+                    whereColumn, whereValue);
+            Integer[] order = new Integer[counts.length - 1];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = Integer.valueOf(i + 1);
+            }
+            final long[] byCode = counts;
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(final Integer a, final Integer b) {
+                    return Long.compare(byCode[b.intValue()],
+                            byCode[a.intValue()]);
+                }
+            });
+            Map<String, Long> m = new LinkedHashMap<String, Long>();
+            for (int i = 0; i < order.length; i++) {
+                int code = order[i].intValue();
+                if (counts[code] > 0) {
+                    m.put(dictionaries[c].decode(code),
+                            Long.valueOf(counts[code]));
+                }
+            }
+            return m;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Count the rows with a value of a dictionary encoded column.
+     *
+     * @param whereColumn
+     *      COLUMN_GROUP, COLUMN_CLASS, COLUMN_TYPE or COLUMN_LICENCE
+     * @param whereValue
+     *      The value
+     *
+     * @return
+     *      The number of rows
+     */
+    public long count(final String whereColumn, final String whereValue) {
+        Long n = counts(whereColumn, whereColumn, whereValue).get(
+                whereValue.trim());
+        if (n == null) {
+            return 0;
+        }
+        return n.longValue();
+    }
+
+
+    /**
+     * Count the rows with each value of a numeric column, for example
+     * the distribution of related object fan-out.
+     *
+     * @param column
+     *      COLUMN_RELATED_OBJECTS
+     *
+     * @return
+     *      The number of rows with each value, indexed by value
+     */
+    public long[] histogram(final String column) {
+        return histogram(column, null, null);
+    }
+
+
+    /**
+     * Count the rows with each value of a numeric column, among the
+     * rows with a value of a dictionary encoded column.
+     *
+     * @param column
+     *      COLUMN_RELATED_OBJECTS
+     * @param whereColumn
+     *      The dictionary encoded column selected on, or null for all
+     *      rows
+     * @param whereValue
+     *      The value selected
+     *
+     * @return
+     *      The number of rows with each value, indexed by value
+     */
+    public long[] histogram(final String column, final String whereColumn,
+                            final String whereValue) {
+        int c = numericColumn(column);
+        lock.readLock().lock();
+        try {
+            return scan(numeric[c], numeric[c].max() + 1, whereColumn,
+                    whereValue);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Sum a numeric column.
+     *
+     * @param column
+     *      COLUMN_RELATED_OBJECTS
+     *
+     * @return
+     *      The sum over all rows
+     */
+    public long sum(final String column) {
+        long[] h = histogram(column);
+        long sum = 0;
+        for (int v = 1; v < h.length; v++) {
+            sum += v * h[v];
+        }
+        return sum;
+    }
+
+
+    /**
+     * Count the rows with each value of a column, among those selected.
+     * The read lock must be held.
+     *
+     * @param values
+     *      The column counted
+     * @param buckets
+     *      One more than the greatest value of the column
+     * @param whereColumn
+     *      The dictionary encoded column selected on, or null for all
+     *      rows
+     * @param whereValue
+     *      The value selected
+     *
+     * @return
+     *      The number of rows with each value, indexed by value
+     */
+    private long[] scan(final IntColumn values, final int buckets,
+                        final String whereColumn, final String whereValue) {
+        final int rows = size;
+        IntColumn selected = null;
+        int code = -1;
+        if (whereColumn != null) {
+            int w = encodedColumn(whereColumn);
+            selected = encoded[w];
+            code = dictionaries[w].lookup(whereValue);
+            if (code < 0) {
+                return new long[buckets];
+            }
+        }
+        final IntColumn where = selected;
+        final int whereCode = code;
+        int chunks = (rows + IntColumn.CHUNK_SIZE - 1)
+                >>> IntColumn.CHUNK_SHIFT;
+        return IntStream.range(0, chunks).parallel().mapToObj(
+                new IntFunction<long[]>() {
+            public long[] apply(final int chunk) {
+                int n = Math.min(IntColumn.CHUNK_SIZE,
+                        rows - (chunk << IntColumn.CHUNK_SHIFT));
+                long[] counts = new long[buckets];
+                int[] v = new int[n];
+                values.read(chunk, v, n);
+                if (where == null) {
+                    for (int i = 0; i < n; i++) {
+                        counts[v[i]]++;
+                    }
+                } else {
+                    int[] w = new int[n];
+                    where.read(chunk, w, n);
+                    for (int i = 0; i < n; i++) {
+                        if (w[i] == whereCode) {
+                            counts[v[i]]++;
+                        }
+                    }
+                }
+                return counts;
+            }
+        }).reduce(new long[buckets], SUM);
+    }
+
+
+    /**
+     * Obtain the position of a dictionary encoded column.
+     *
+     * @param column
+     *      The column name
+     *
+     * @return
+     *      The position in ENCODED
+     */
+    private static int encodedColumn(final String column) {
+        int c = ENCODED.indexOf(column);
+        if (c < 0) {
+            throw new IllegalArgumentException(
+                    "Not a dictionary encoded column: " + column);
+        }
+        return c;
+    }
+
+
+    /**
+     * Obtain the position of a numeric column.
+     *
+     * @param column
+     *      The column name
+     *
+     * @return
+     *      The position in NUMERIC
+     */
+    private static int numericColumn(final String column) {
+        int c = NUMERIC.indexOf(column);
+        if (c < 0) {
+            throw new IllegalArgumentException(
+                    "Not a numeric column: " + column);
+        }
+        return c;
+    }
+
+
+    /**
+     * Feed an element and its descendants, to the depth of the fields,
+     * to a builder.
+     *
+     * @param b
+     *      The builder
+     * @param e
+     *      The element
+     */
+    private static void add(final RowBuilder b, final Element e) {
+        b.startElement(Fingerprint.localName(e));
+        NamedNodeMap attrs = e.getAttributes();
+        for (int i = 0; i < attrs.getLength(); i++) {
+            Attr a = (Attr) attrs.item(i);
+            b.attribute(Fingerprint.localName(a), a.getValue());
+        }
+        if (b.getDepth() == MAX_DEPTH) {
+            return;
+        }
+        for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() == Node.ELEMENT_NODE) {
+                add(b, (Element) n);
+                b.endElement();
+            }
+        }
+    }
+}
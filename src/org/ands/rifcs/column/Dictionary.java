@@ -0,0 +1,113 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.column;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The distinct values of a column, each given a code from 1 in the
+ * order first seen; 0 is the code of a missing value.
+ *
+ * Not thread safe; the store guards its dictionaries with its own lock.
+ *
+ */
+final class Dictionary {
+    /** The code of a missing value. */
+    static final int NONE = 0;
+
+    /** Map from value to code. */
+    private final Map<String, Integer> codes = new HashMap<String, Integer>();
+    /** The values, by code less one. */
+    private final List<String> values = new ArrayList<String>();
+
+
+    /**
+     * Create an empty dictionary.
+     */
+    Dictionary() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Obtain the code of a value, adding it if it is new.
+     *
+     * @param value
+     *      The value, or null
+     *
+     * @return
+     *      The code, NONE for a null or blank value
+     */
+    int encode(final String value) {
+        if (value == null || value.trim().length() == 0) {
+            return NONE;
+        }
+        String v = value.trim();
+        Integer code = codes.get(v);
+        if (code == null) {
+            values.add(v);
+            code = Integer.valueOf(values.size());
+            codes.put(v, code);
+        }
+        return code.intValue();
+    }
+
+
+    /**
+     * Obtain the code of a value without adding it.
+     *
+     * @param value
+     *      The value
+     *
+     * @return
+     *      The code, or -1 if the value has not been seen
+     */
+    int lookup(final String value) {
+        Integer code = codes.get(value.trim());
+        if (code == null) {
+            return -1;
+        }
+        return code.intValue();
+    }
+
+
+    /**
+     * Obtain the value of a code.
+     *
+     * @param code
+     *      The code, not NONE
+     *
+     * @return
+     *      The value
+     */
+    String decode(final int code) {
+        return values.get(code - 1);
+    }
+
+
+    /**
+     * Obtain the number of codes, including NONE.
+     *
+     * @return
+     *      One more than the number of distinct values
+     */
+    int codes() {
+        return values.size() + 1;
+    }
+}
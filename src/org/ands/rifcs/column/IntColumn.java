@@ -0,0 +1,135 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.column;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A column of non-negative ints held outside the Java heap, in direct
+ * buffers of CHUNK_SIZE values each, so that it grows without copying
+ * and adds nothing for the garbage collector to trace.
+ *
+ * Not thread safe; the store guards its columns with its own lock.
+ * Chunks may be read from several threads at once.
+ *
+ */
+final class IntColumn {
+    /** Log2 of the number of values in a chunk. */
+    static final int CHUNK_SHIFT = 16;
+    /** The number of values in a chunk. */
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    /** Mask of the position of a row within its chunk. */
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /** The chunks. */
+    private final List<IntBuffer> chunks = new ArrayList<IntBuffer>();
+    /** The number of values. */
+    private int size = 0;
+    /** The greatest value. */
+    private int max = 0;
+
+
+    /**
+     * Create an empty column.
+     */
+    IntColumn() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Append a value.
+     *
+     * @param value
+     *      The value, not negative
+     */
+    void add(final int value) {
+        int c = size >>> CHUNK_SHIFT;
+        if (c == chunks.size()) {
+            chunks.add(ByteBuffer.allocateDirect(CHUNK_SIZE * Integer.BYTES)
+                    .order(ByteOrder.nativeOrder()).asIntBuffer());
+        }
+        chunks.get(c).put(size & CHUNK_MASK, value);
+        max = Math.max(max, value);
+        size++;
+    }
+
+
+    /**
+     * Obtain a value.
+     *
+     * @param row
+     *      The row
+     *
+     * @return
+     *      The value
+     */
+    int get(final int row) {
+        return chunks.get(row >>> CHUNK_SHIFT).get(row & CHUNK_MASK);
+    }
+
+
+    /**
+     * Copy the values of a chunk to an array.
+     *
+     * @param c
+     *      The chunk
+     * @param dst
+     *      The array, of at least CHUNK_SIZE values
+     * @param n
+     *      The number of values to copy
+     */
+    void read(final int c, final int[] dst, final int n) {
+        chunks.get(c).duplicate().get(dst, 0, n);
+    }
+
+
+    /**
+     * Obtain the number of values.
+     *
+     * @return
+     *      The number of values
+     */
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * Obtain the greatest value.
+     *
+     * @return
+     *      The greatest value, 0 if there are none
+     */
+    int max() {
+        return max;
+    }
+
+
+    /**
+     * Obtain the number of bytes held outside the heap.
+     *
+     * @return
+     *      The number of bytes
+     */
+    long bytes() {
+        return (long) chunks.size() * CHUNK_SIZE * Integer.BYTES;
+    }
+}
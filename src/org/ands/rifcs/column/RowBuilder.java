@@ -0,0 +1,211 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.column;
+
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.ObjectClasses;
+
+/**
+ * Gathers the fields of a row from the elements of a registry object,
+ * given as start, attribute and end events whether they come from a
+ * parse or from a DOM. Elements below the depth of the fields are
+ * counted but otherwise ignored.
+ *
+ */
+final class RowBuilder {
+    /** Depth of the object class element. */
+    private static final int CLASS_DEPTH = 2;
+    /** Depth of the children of the object class element. */
+    private static final int CLASS_CHILD_DEPTH = 3;
+    /** Depth of the children of rights. */
+    private static final int RIGHTS_CHILD_DEPTH = 4;
+    /** Attributes are not wanted. */
+    private static final int NO_ATTRIBUTES = 0;
+    /** The group attribute is wanted. */
+    private static final int GROUP = 1;
+    /** The class type attribute is wanted. */
+    private static final int CLASS_TYPE = 2;
+    /** The licence type attribute is wanted. */
+    private static final int LICENCE_TYPE = 3;
+
+    /** Depth of the current element, 1 for registryObject. */
+    private int depth = 0;
+    /** Name of the current element at depth 3, or null. */
+    private String classChild = null;
+    /** The attribute wanted of the current element, GROUP etc. */
+    private int attributes = NO_ATTRIBUTES;
+    /** The group. */
+    private String group;
+    /** The object class. */
+    private String objectClass;
+    /** The object class type. */
+    private String type;
+    /** The first licence type. */
+    private String licence;
+    /** Whether a licence has been seen. */
+    private boolean licensed;
+    /** The number of related objects. */
+    private int relatedObjects;
+
+
+    /**
+     * Create a builder.
+     */
+    RowBuilder() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Obtain the depth of the current element.
+     *
+     * @return
+     *      The depth, 0 outside a registry object
+     */
+    int getDepth() {
+        return depth;
+    }
+
+
+    /**
+     * Start an element.
+     *
+     * @param localName
+     *      The unqualified element name
+     */
+    void startElement(final String localName) {
+        depth++;
+        attributes = NO_ATTRIBUTES;
+        if (depth == 1) {
+            group = null;
+            objectClass = null;
+            type = null;
+            licence = null;
+            licensed = false;
+            relatedObjects = 0;
+            attributes = GROUP;
+        } else if (depth == CLASS_DEPTH
+                && ObjectClasses.isObjectClass(localName)) {
+            objectClass = localName;
+            attributes = CLASS_TYPE;
+        } else if (depth == CLASS_CHILD_DEPTH && objectClass != null) {
+            classChild = localName;
+            if (Constants.ELEMENT_RELATED_OBJECT.equals(localName)) {
+                relatedObjects++;
+            }
+        } else if (depth == RIGHTS_CHILD_DEPTH && !licensed
+                && Constants.ELEMENT_RIGHTS.equals(classChild)
+                && Constants.ELEMENT_LICENCE.equals(localName)) {
+            licensed = true;
+            attributes = LICENCE_TYPE;
+        }
+    }
+
+
+    /**
+     * Give an attribute of the element just started.
+     *
+     * @param localName
+     *      The unqualified attribute name
+     * @param value
+     *      The value
+     */
+    void attribute(final String localName, final String value) {
+        if (attributes == GROUP) {
+            if (Constants.ATTRIBUTE_GROUP.equals(localName)) {
+                group = value;
+            }
+        } else if (attributes != NO_ATTRIBUTES
+                && Constants.ATTRIBUTE_TYPE.equals(localName)) {
+            if (attributes == CLASS_TYPE) {
+                type = value;
+            } else {
+                licence = value;
+            }
+        }
+    }
+
+
+    /**
+     * End an element.
+     *
+     * @return
+     *      true if the registry object has ended
+     */
+    boolean endElement() {
+        if (depth == CLASS_CHILD_DEPTH) {
+            classChild = null;
+        }
+        attributes = NO_ATTRIBUTES;
+        depth--;
+        return depth == 0;
+    }
+
+
+    /**
+     * Obtain the group of the registry object.
+     *
+     * @return
+     *      The group, or null
+     */
+    String getGroup() {
+        return group;
+    }
+
+
+    /**
+     * Obtain the object class of the registry object.
+     *
+     * @return
+     *      The object class, or null
+     */
+    String getObjectClass() {
+        return objectClass;
+    }
+
+
+    /**
+     * Obtain the type of the object class element.
+     *
+     * @return
+     *      The type, or null
+     */
+    String getType() {
+        return type;
+    }
+
+
+    /**
+     * Obtain the type of the first licence.
+     *
+     * @return
+     *      The licence type, or null
+     */
+    String getLicence() {
+        return licence;
+    }
+
+
+    /**
+     * Obtain the number of related objects.
+     *
+     * @return
+     *      The number of relatedObject elements of the object class
+     */
+    int getRelatedObjects() {
+        return relatedObjects;
+    }
+}
@@ -0,0 +1,2 @@
+/** Columnar stores of registry object fields for reporting. */
+package org.ands.rifcs.column;
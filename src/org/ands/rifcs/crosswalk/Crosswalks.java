@@ -0,0 +1,391 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.crosswalk;
+
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.RIFCS;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.ands.rifcs.base.UncheckedRIFCSException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Runs XSLT crosswalks over RIF-CS documents and registry objects.
+ *
+ * Each stylesheet, identified by its system ID (a URL, or a path for
+ * a file), is compiled once into Templates, which are cached up to a
+ * capacity, the least recently used being evicted beyond it. Each
+ * thread is given a Transformer of its own for each cached stylesheet,
+ * reused from one transform to the next, so that any number of threads
+ * may run crosswalks at once. The Transformers are held by the cache
+ * entry of their stylesheet, and so are released with it when it is
+ * evicted.
+ *
+ * A registry object is transformed as a RIF-CS document holding only
+ * itself, so that a stylesheet written for whole documents applies to
+ * it unchanged. A registry object sharing its document with others is
+ * copied first.
+ *
+ * <pre>
+ * Crosswalks crosswalks = new Crosswalks();
+ * Map&lt;String, String&gt; dc = crosswalks.transform(
+ *         "file:rifcs2dc.xsl", rifcs);
+ * </pre>
+ *
+ */
+public final class Crosswalks {
+    /** The default number of stylesheets cached. */
+    public static final int DEFAULT_CAPACITY = 32;
+
+    /** Load factor of the cache. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Compiles stylesheets, one at a time. */
+    private final TransformerFactory factory =
+            TransformerFactory.newInstance();
+    /** The compiled stylesheets, least recently used first. */
+    private final Map<String, Stylesheet> cache;
+
+
+    /**
+     * Create a cache of the default capacity.
+     */
+    public Crosswalks() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * Create a cache.
+     *
+     * @param capacity
+     *      The number of stylesheets cached
+     */
+    public Crosswalks(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                    "Capacity must be positive");
+        }
+        this.cache = new LinkedHashMap<String, Stylesheet>(
+                capacity, LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(
+                    final Map.Entry<String, Stylesheet> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+
+    /**
+     * Obtain the compiled form of a stylesheet, compiling it if it is
+     * not cached.
+     *
+     * @param systemId
+     *      The system ID of the stylesheet
+     *
+     * @return
+     *      The Templates, which are thread safe
+     *
+     * @throws RIFCSException if the stylesheet can not be compiled
+     */
+    public Templates getTemplates(final String systemId)
+            throws RIFCSException {
+        return stylesheet(systemId).templates;
+    }
+
+
+    /**
+     * Obtain the cache entry of a stylesheet, compiling it if it is not
+     * cached.
+     *
+     * @param systemId
+     *      The system ID of the stylesheet
+     *
+     * @return
+     *      The cache entry
+     *
+     * @throws RIFCSException if the stylesheet can not be compiled
+     */
+    private Stylesheet stylesheet(final String systemId)
+            throws RIFCSException {
+        synchronized (cache) {
+            Stylesheet s = cache.get(systemId);
+            if (s != null) {
+                return s;
+            }
+        }
+        Templates t;
+        try {
+            synchronized (factory) {
+                t = factory.newTemplates(new StreamSource(systemId));
+            }
+        } catch (TransformerConfigurationException tce) {
+            throw new RIFCSException(tce);
+        }
+        synchronized (cache) {
+            Stylesheet s = cache.get(systemId);
+            if (s == null) {
+                s = new Stylesheet(t);
+                cache.put(systemId, s);
+            }
+            return s;
+        }
+    }
+
+
+    /**
+     * Remove a stylesheet from the cache, with the Transformers of every
+     * thread for it, so that it is compiled again when next used, for
+     * example after it has changed.
+     *
+     * @param systemId
+     *      The system ID of the stylesheet
+     */
+    public void evict(final String systemId) {
+        synchronized (cache) {
+            cache.remove(systemId);
+        }
+    }
+
+
+    /**
+     * Obtain the calling thread's Transformer for a stylesheet, reset
+     * to its initial state. It must only be used by the calling
+     * thread.
+     *
+     * @param systemId
+     *      The system ID of the stylesheet
+     *
+     * @return
+     *      The Transformer
+     *
+     * @throws RIFCSException if the stylesheet can not be compiled
+     */
+    public Transformer getTransformer(final String systemId)
+            throws RIFCSException {
+        Stylesheet s = stylesheet(systemId);
+        Transformer t = s.transformers.get();
+        if (t == null) {
+            try {
+                t = s.templates.newTransformer();
+            } catch (TransformerConfigurationException tce) {
+                throw new RIFCSException(tce);
+            }
+            s.transformers.set(t);
+        } else {
+            t.reset();
+        }
+        return t;
+    }
+
+
+    /**
+     * Transform a document.
+     *
+     * @param systemId
+     *      The system ID of the stylesheet
+     * @param doc
+     *      The document, for example RIFCSWrapper.getRIFCSDocument()
+     * @param result
+     *      The result
+     *
+     * @throws RIFCSException if the transform fails
+     */
+    public void transform(final String systemId, final Document doc,
+                          final Result result) throws RIFCSException {
+        Transformer transformer = getTransformer(systemId);
+        try {
+            transformer.transform(new DOMSource(doc), result);
+        } catch (TransformerException te) {
+            throw new RIFCSException(te);
+        }
+    }
+
+
+    /**
+     * Transform a registry object.
+     *
+     * @param systemId
+     *      The system ID of the stylesheet
+     * @param ro
+     *      The registry object
+     * @param result
+     *      The result
+     *
+     * @throws RIFCSException if the transform fails
+     */
+    public void transform(final String systemId, final RegistryObject ro,
+                          final Result result) throws RIFCSException {
+        transform(systemId, documentOf(ro), result);
+    }
+
+
+    /**
+     * Transform a registry object to text.
+     *
+     * @param systemId
+     *      The system ID of the stylesheet
+     * @param ro
+     *      The registry object
+     *
+     * @return
+     *      The output of the stylesheet
+     *
+     * @throws RIFCSException if the transform fails
+     */
+    public String transform(final String systemId, final RegistryObject ro)
+            throws RIFCSException {
+        StringWriter sw = new StringWriter();
+        transform(systemId, ro, new StreamResult(sw));
+        return sw.toString();
+    }
+
+
+    /**
+     * Transform each registry object of a document to text, several at
+     * once. Each is copied into a document of its own first; see
+     * RIFCS.parallelStream().
+     *
+     * @param systemId
+     *      The system ID of the stylesheet
+     * @param rifcs
+     *      The document
+     *
+     * @return
+     *      The output of the stylesheet for each registry object, by
+     *      key, in the order of RIFCS.stream()
+     *
+     * @throws RIFCSException if a transform fails
+     */
+    public Map<String, String> transform(final String systemId,
+                                         final RIFCS rifcs)
+            throws RIFCSException {
+        getTemplates(systemId);
+        Object[] outputs;
+        try {
+            outputs = rifcs.parallelStream().map(
+                    new Function<RegistryObject, String[]>() {
+                public String[] apply(final RegistryObject ro) {
+                    try {
+                        return new String[] {ro.getKey(),
+                            transform(systemId, ro)};
+                    } catch (RIFCSException re) {
+                        throw new UncheckedRIFCSException(re);
+                    }
+                }
+            }).toArray();
+        } catch (UncheckedRIFCSException ure) {
+            throw ure.getCause();
+        }
+        Map<String, String> results = new LinkedHashMap<String, String>();
+        for (Object o : outputs) {
+            String[] output = (String[]) o;
+            results.put(output[0], output[1]);
+        }
+        return results;
+    }
+
+
+    /**
+     * Obtain a document holding only a registry object, copying it if
+     * its document holds others.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @return
+     *      The document
+     */
+    private static Document documentOf(final RegistryObject ro) {
+        Element e = ro.getDOMElement();
+        Document source = e.getOwnerDocument();
+        if (e.getParentNode() == source.getDocumentElement()
+                && onlyElement(e)) {
+            return source;
+        }
+        synchronized (source) {
+            Document d = source.getImplementation().createDocument(
+                    Constants.NS_RIFCS, Constants.ELEMENT_REGISTRY_OBJECTS,
+                    null);
+            d.getDocumentElement().appendChild(d.importNode(e, true));
+            return d;
+        }
+    }
+
+
+    /**
+     * Determine whether an element has no element siblings.
+     *
+     * @param e
+     *      The element
+     *
+     * @return
+     *      true if the element is the only element of its parent
+     */
+    private static boolean onlyElement(final Element e) {
+        for (Node n = e.getParentNode().getFirstChild(); n != null;
+                n = n.getNextSibling()) {
+            if (n != e && n.getNodeType() == Node.ELEMENT_NODE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * A cached stylesheet: its Templates and the Transformer of each
+     * thread using it. Once the entry is evicted and no longer used, its
+     * ThreadLocal can be collected, as threads refer to it only weakly,
+     * and each thread then drops its Transformer as a stale value.
+     */
+    private static final class Stylesheet {
+        /** The Templates. */
+        private final Templates templates;
+        /** The Transformer of each thread. */
+        private final ThreadLocal<Transformer> transformers =
+                new ThreadLocal<Transformer>();
+
+        /**
+         * Create a cache entry.
+         *
+         * @param aTemplates
+         *      The Templates
+         */
+        Stylesheet(final Templates aTemplates) {
+            this.templates = aTemplates;
+        }
+    }
+}
@@ -0,0 +1,601 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.crosswalk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.ands.rifcs.base.CitationDate;
+import org.ands.rifcs.base.CitationMetadata;
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.Contributor;
+import org.ands.rifcs.base.DateWithTypeDateFormat;
+import org.ands.rifcs.base.Dates;
+import org.ands.rifcs.base.Description;
+import org.ands.rifcs.base.Identifier;
+import org.ands.rifcs.base.Name;
+import org.ands.rifcs.base.NamePart;
+import org.ands.rifcs.base.ObjectClasses;
+import org.ands.rifcs.base.RIFCSElement;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.ands.rifcs.base.Rights;
+import org.ands.rifcs.base.RightsInfo;
+import org.ands.rifcs.base.RightsTypedInfo;
+import org.ands.rifcs.base.Subject;
+
+/**
+ * Crosswalk from RIF-CS to the DataCite Metadata Schema, kernel 4.
+ *
+ * <ul>
+ *   <li>identifier: the citation metadata identifier if it is a DOI,
+ *   otherwise the first DOI identifier, otherwise the first identifier
+ *   with its RIF-CS type; the others become alternateIdentifiers.</li>
+ *   <li>creators: the citation metadata contributors in sequence
+ *   order.</li>
+ *   <li>titles: the citation title, then the names, primary first, the
+ *   others as AlternativeTitle.</li>
+ *   <li>publisher, version: from the citation metadata.</li>
+ *   <li>publicationYear: the year of the citation's publication or
+ *   issued date, otherwise of a dc.issued date.</li>
+ *   <li>resourceType: the object class type, with a general type of
+ *   Dataset, Software, Service or Other.</li>
+ *   <li>subjects: the subjects, with their type as scheme and term
+ *   identifier as value URI.</li>
+ *   <li>dates: the dates elements, "dc.created" becoming Created,
+ *   "dc.dateAccepted" Accepted, "dc.modified" Updated and so on, other
+ *   types becoming Other, a range being written as start/end.</li>
+ *   <li>rightsList: the rights statements, licences and access
+ *   rights.</li>
+ *   <li>descriptions: brief and full descriptions as Abstract, the
+ *   others as Other.</li>
+ * </ul>
+ *
+ * A registry object lacking a DOI, creators or a publisher gives a
+ * resource which does not satisfy the schema's mandatory properties.
+ *
+ */
+public final class DataCiteWriter extends StreamingCrosswalk {
+    /** The DataCite namespace. */
+    public static final String NS_DATACITE =
+            "http://datacite.org/schema/kernel-4";
+    /** The DataCite schema. */
+    public static final String SCHEMA_DATACITE =
+            "http://schema.datacite.org/meta/kernel-4/metadata.xsd";
+
+    /** Identifier type of a DOI. */
+    private static final String DOI = "DOI";
+    /** RIF-CS date type of an issued date. */
+    private static final String DC_ISSUED = "dc.issued";
+    /** RIF-CS date type of the start of a range. */
+    private static final String DATE_FROM = "dateFrom";
+    /** RIF-CS date type of the end of a range. */
+    private static final String DATE_TO = "dateTo";
+    /** Citation date types giving the publication year. */
+    private static final Pattern PUBLICATION =
+            Pattern.compile("publicationDate|issued|dc\\.issued");
+    /** A year at the start of a date. */
+    private static final Pattern YEAR = Pattern.compile("^\\s*(\\d{4})");
+    /** Description types written as abstracts. */
+    private static final Pattern ABSTRACT = Pattern.compile("brief|full");
+    /** DataCite date type of a date of no other type. */
+    private static final String OTHER_DATE = "Other";
+    /** DataCite date types, keyed by RIF-CS dates type. */
+    private static final Map<String, String> DATE_TYPES =
+            new HashMap<String, String>();
+
+    static {
+        DATE_TYPES.put("dc.available", "Available");
+        DATE_TYPES.put("dc.created", "Created");
+        DATE_TYPES.put("dc.dateAccepted", "Accepted");
+        DATE_TYPES.put("dc.dateSubmitted", "Submitted");
+        DATE_TYPES.put(DC_ISSUED, "Issued");
+        DATE_TYPES.put("dc.valid", "Valid");
+        DATE_TYPES.put("dc.modified", "Updated");
+    }
+
+
+    /**
+     * Create a crosswalk.
+     */
+    public DataCiteWriter() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Write a registry object as a DataCite resource element.
+     *
+     * @param ro
+     *      The registry object
+     * @param w
+     *      The writer
+     *
+     * @throws RIFCSException if the registry object can not be read
+     * @throws XMLStreamException if the writer fails
+     */
+    public void write(final RegistryObject ro, final XMLStreamWriter w)
+            throws RIFCSException, XMLStreamException {
+        RIFCSElement c = ro.getClassObject();
+        CitationMetadata cm = citation(c);
+
+        w.setDefaultNamespace(NS_DATACITE);
+        w.writeStartElement(NS_DATACITE, "resource");
+        w.writeDefaultNamespace(NS_DATACITE);
+        schemaLocation(w, NS_DATACITE, SCHEMA_DATACITE);
+
+        List<Identifier> ids = new ArrayList<Identifier>();
+        if (cm != null && cm.getIdentifier() != null) {
+            ids.add(cm.getIdentifier());
+        }
+        ids.addAll(children(ObjectClasses.getIdentifiers(c), c));
+        Identifier id = null;
+        for (Identifier i : ids) {
+            if (DOI.equalsIgnoreCase(i.getType())) {
+                id = i;
+                break;
+            }
+        }
+        if (id == null && !ids.isEmpty()) {
+            id = ids.get(0);
+        }
+        if (id != null) {
+            w.writeStartElement(NS_DATACITE, "identifier");
+            attribute(w, "identifierType", identifierType(id));
+            w.writeCharacters(trim(id.getValue()));
+            w.writeEndElement();
+        }
+
+        writeCreators(w, cm);
+        writeTitles(w, c, cm);
+        if (cm != null) {
+            element(w, NS_DATACITE, "publisher", cm.getPublisher());
+        }
+        element(w, NS_DATACITE, "publicationYear", publicationYear(c, cm));
+
+        w.writeStartElement(NS_DATACITE, "resourceType");
+        w.writeAttribute("resourceTypeGeneral",
+                resourceTypeGeneral(ro.getObjectClassName(),
+                        ObjectClasses.getType(c)));
+        w.writeCharacters(trim(ObjectClasses.getType(c)));
+        w.writeEndElement();
+
+        writeSubjects(w, children(ObjectClasses.getSubjects(c), c));
+        writeDates(w, children(ObjectClasses.getDates(c), c));
+
+        if (ids.size() > 1) {
+            w.writeStartElement(NS_DATACITE, "alternateIdentifiers");
+            for (Identifier i : ids) {
+                if (i != id) {
+                    w.writeStartElement(NS_DATACITE,
+                            "alternateIdentifier");
+                    attribute(w, "alternateIdentifierType",
+                            identifierType(i));
+                    w.writeCharacters(trim(i.getValue()));
+                    w.writeEndElement();
+                }
+            }
+            w.writeEndElement();
+        }
+
+        if (cm != null) {
+            element(w, NS_DATACITE, "version", cm.getVersion());
+        }
+        writeRights(w, children(ObjectClasses.getRights(c), c));
+        writeDescriptions(w, children(ObjectClasses.getDescriptions(c), c));
+        w.writeEndElement();
+    }
+
+
+    /**
+     * Write the creators.
+     *
+     * @param w
+     *      The writer
+     * @param cm
+     *      The citation metadata, or null
+     *
+     * @throws XMLStreamException if the writer fails
+     */
+    private void writeCreators(final XMLStreamWriter w,
+                               final CitationMetadata cm)
+            throws XMLStreamException {
+        List<Contributor> contributors = contributors(cm);
+        if (contributors.isEmpty()) {
+            return;
+        }
+        w.writeStartElement(NS_DATACITE, "creators");
+        for (Contributor con : contributors) {
+            List<NamePart> parts = con.getNameParts();
+            w.writeStartElement(NS_DATACITE, "creator");
+            element(w, NS_DATACITE, "creatorName", fullName(parts));
+            element(w, NS_DATACITE, "givenName", givenName(parts));
+            element(w, NS_DATACITE, "familyName", familyName(parts));
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+    }
+
+
+    /**
+     * Write the titles.
+     *
+     * @param w
+     *      The writer
+     * @param c
+     *      The object class element
+     * @param cm
+     *      The citation metadata, or null
+     *
+     * @throws XMLStreamException if the writer fails
+     */
+    private void writeTitles(final XMLStreamWriter w, final RIFCSElement c,
+                             final CitationMetadata cm)
+            throws XMLStreamException {
+        List<Name> names = names(c);
+        if (names.isEmpty() && (cm == null || isEmpty(cm.getTitle()))) {
+            return;
+        }
+        w.writeStartElement(NS_DATACITE, "titles");
+        boolean first = true;
+        if (cm != null && !isEmpty(cm.getTitle())) {
+            element(w, NS_DATACITE, "title", cm.getTitle());
+            first = false;
+        }
+        for (Name n : names) {
+            String title = fullName(n.getNameParts());
+            if (isEmpty(title)) {
+                continue;
+            }
+            w.writeStartElement(NS_DATACITE, "title");
+            if (!first) {
+                w.writeAttribute("titleType", "AlternativeTitle");
+            }
+            w.writeCharacters(title);
+            w.writeEndElement();
+            first = false;
+        }
+        w.writeEndElement();
+    }
+
+
+    /**
+     * Write the subjects.
+     *
+     * @param w
+     *      The writer
+     * @param subjects
+     *      The subjects
+     *
+     * @throws XMLStreamException if the writer fails
+     */
+    private void writeSubjects(final XMLStreamWriter w,
+                               final List<Subject> subjects)
+            throws XMLStreamException {
+        if (subjects.isEmpty()) {
+            return;
+        }
+        w.writeStartElement(NS_DATACITE, "subjects");
+        for (Subject s : subjects) {
+            w.writeStartElement(NS_DATACITE, "subject");
+            attribute(w, "subjectScheme", s.getType());
+            attribute(w, "valueURI", s.getTermIdentifier());
+            if (!isEmpty(s.getLanguage())) {
+                w.writeAttribute(XMLConstants.XML_NS_PREFIX,
+                        XMLConstants.XML_NS_URI, "lang",
+                        s.getLanguage().trim());
+            }
+            w.writeCharacters(trim(s.getValue()));
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+    }
+
+
+    /**
+     * Write the dates. A dateFrom and dateTo of a dates element are
+     * written as one range, after each of its other dates. Nothing is
+     * written if no date has a value.
+     *
+     * @param w
+     *      The writer
+     * @param datesList
+     *      The dates elements
+     *
+     * @throws XMLStreamException if the writer fails
+     */
+    private void writeDates(final XMLStreamWriter w,
+                            final List<Dates> datesList)
+            throws XMLStreamException {
+        // date types and values, so that an empty list is not written
+        List<String[]> dates = new ArrayList<String[]>();
+        for (Dates d : datesList) {
+            String dateType = dateType(d.getType());
+            String from = null;
+            String to = null;
+            for (DateWithTypeDateFormat dt : d.getDates()) {
+                if (DATE_TO.equals(dt.getType())) {
+                    to = dt.getValue();
+                } else if (DATE_FROM.equals(dt.getType())) {
+                    from = dt.getValue();
+                } else {
+                    addDate(dates, dateType, trim(dt.getValue()));
+                }
+            }
+            String value = trim(from);
+            if (!isEmpty(to)) {
+                value = value + "/" + to.trim();
+            }
+            addDate(dates, dateType, value);
+        }
+        if (dates.isEmpty()) {
+            return;
+        }
+        w.writeStartElement(NS_DATACITE, "dates");
+        for (String[] date : dates) {
+            w.writeStartElement(NS_DATACITE, "date");
+            w.writeAttribute("dateType", date[0]);
+            w.writeCharacters(date[1]);
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+    }
+
+
+    /**
+     * Add a date to those to be written, unless it is empty.
+     *
+     * @param dates
+     *      The date types and values to be written
+     * @param dateType
+     *      The DataCite date type
+     * @param value
+     *      The date or range, trimmed
+     */
+    private static void addDate(final List<String[]> dates,
+                                final String dateType,
+                                final String value) {
+        if (value.length() > 0) {
+            dates.add(new String[] {dateType, value});
+        }
+    }
+
+
+    /**
+     * Write the rights. Nothing is written if no rights have a URI or
+     * a statement.
+     *
+     * @param w
+     *      The writer
+     * @param rightsList
+     *      The rights elements
+     *
+     * @throws XMLStreamException if the writer fails
+     */
+    private void writeRights(final XMLStreamWriter w,
+                             final List<Rights> rightsList)
+            throws XMLStreamException {
+        // URIs and statements, so that an empty list is not written
+        List<String[]> rights = new ArrayList<String[]>();
+        for (Rights r : rightsList) {
+            RightsInfo statement = r.getRightsStatement();
+            if (statement != null) {
+                addRights(rights, statement.getRightsUri(),
+                        statement.getValue());
+            }
+            RightsTypedInfo licence = r.getLicence();
+            if (licence != null) {
+                addRights(rights, licence.getRightsUri(),
+                        licence.getValue());
+            }
+            RightsTypedInfo access = r.getAccessRights();
+            if (access != null) {
+                addRights(rights, access.getRightsUri(), access.getValue());
+            }
+        }
+        if (rights.isEmpty()) {
+            return;
+        }
+        w.writeStartElement(NS_DATACITE, "rightsList");
+        for (String[] right : rights) {
+            w.writeStartElement(NS_DATACITE, "rights");
+            attribute(w, "rightsURI", right[0]);
+            w.writeCharacters(trim(right[1]));
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+    }
+
+
+    /**
+     * Add rights to those to be written, unless they have neither a URI
+     * nor a statement.
+     *
+     * @param rights
+     *      The URIs and statements to be written
+     * @param uri
+     *      The URI of the rights, or null
+     * @param text
+     *      The statement of the rights, or null
+     */
+    private static void addRights(final List<String[]> rights,
+                                  final String uri, final String text) {
+        if (!isEmpty(uri) || !isEmpty(text)) {
+            rights.add(new String[] {uri, text});
+        }
+    }
+
+
+    /**
+     * Write the descriptions.
+     *
+     * @param w
+     *      The writer
+     * @param descriptions
+     *      The descriptions
+     *
+     * @throws XMLStreamException if the writer fails
+     */
+    private void writeDescriptions(final XMLStreamWriter w,
+                                   final List<Description> descriptions)
+            throws XMLStreamException {
+        if (descriptions.isEmpty()) {
+            return;
+        }
+        w.writeStartElement(NS_DATACITE, "descriptions");
+        for (Description d : descriptions) {
+            w.writeStartElement(NS_DATACITE, "description");
+            if (d.getType() != null
+                    && ABSTRACT.matcher(d.getType()).matches()) {
+                w.writeAttribute("descriptionType", "Abstract");
+            } else {
+                w.writeAttribute("descriptionType", "Other");
+            }
+            w.writeCharacters(trim(d.getValue()));
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+    }
+
+
+    /**
+     * Obtain the publication year.
+     *
+     * @param c
+     *      The object class element
+     * @param cm
+     *      The citation metadata, or null
+     *
+     * @return
+     *      The year, or null
+     */
+    private static String publicationYear(final RIFCSElement c,
+                                          final CitationMetadata cm) {
+        if (cm != null) {
+            for (CitationDate cd : cm.getDates()) {
+                if (cd.getType() != null
+                        && PUBLICATION.matcher(cd.getType()).matches()) {
+                    String year = year(cd.getValue());
+                    if (year != null) {
+                        return year;
+                    }
+                }
+            }
+        }
+        for (Dates d : children(ObjectClasses.getDates(c), c)) {
+            if (DC_ISSUED.equals(d.getType())) {
+                for (DateWithTypeDateFormat dt : d.getDates()) {
+                    String year = year(dt.getValue());
+                    if (year != null) {
+                        return year;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Obtain the year at the start of a date.
+     *
+     * @param date
+     *      The date, or null
+     *
+     * @return
+     *      The year, or null
+     */
+    private static String year(final String date) {
+        if (date == null) {
+            return null;
+        }
+        Matcher m = YEAR.matcher(date);
+        if (m.find()) {
+            return m.group(1);
+        }
+        return null;
+    }
+
+
+    /**
+     * Obtain the DataCite type of an identifier.
+     *
+     * @param id
+     *      The identifier
+     *
+     * @return
+     *      "DOI" for a DOI, otherwise the RIF-CS type
+     */
+    private static String identifierType(final Identifier id) {
+        if (DOI.equalsIgnoreCase(id.getType())) {
+            return DOI;
+        }
+        return id.getType();
+    }
+
+
+    /**
+     * Obtain the DataCite date type of a RIF-CS dates type, such as
+     * Created for "dc.created" or Updated for "dc.modified".
+     *
+     * @param type
+     *      The RIF-CS type, or null
+     *
+     * @return
+     *      The DataCite type, or Other if it has none
+     */
+    private static String dateType(final String type) {
+        String dateType = DATE_TYPES.get(type);
+        if (dateType == null) {
+            return OTHER_DATE;
+        }
+        return dateType;
+    }
+
+
+    /**
+     * Obtain the DataCite general resource type of an object class.
+     *
+     * @param objectClass
+     *      The object class element name
+     * @param type
+     *      The object class type, or null
+     *
+     * @return
+     *      The general resource type
+     */
+    private static String resourceTypeGeneral(final String objectClass,
+                                              final String type) {
+        if (Constants.ELEMENT_SERVICE.equals(objectClass)) {
+            return "Service";
+        } else if (Constants.ELEMENT_COLLECTION.equals(objectClass)) {
+            if ("software".equalsIgnoreCase(type)) {
+                return "Software";
+            }
+            return "Dataset";
+        }
+        return "Other";
+    }
+
+}
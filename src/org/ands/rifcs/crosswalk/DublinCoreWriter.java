@@ -0,0 +1,178 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.crosswalk;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.ands.rifcs.base.CitationDate;
+import org.ands.rifcs.base.CitationMetadata;
+import org.ands.rifcs.base.Contributor;
+import org.ands.rifcs.base.DateWithTypeDateFormat;
+import org.ands.rifcs.base.Dates;
+import org.ands.rifcs.base.Description;
+import org.ands.rifcs.base.Identifier;
+import org.ands.rifcs.base.Name;
+import org.ands.rifcs.base.ObjectClasses;
+import org.ands.rifcs.base.RIFCSElement;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.ands.rifcs.base.Rights;
+import org.ands.rifcs.base.RightsInfo;
+import org.ands.rifcs.base.RightsTypedInfo;
+import org.ands.rifcs.base.Subject;
+
+/**
+ * Crosswalk from RIF-CS to the OAI-PMH Dublin Core format, oai_dc.
+ *
+ * <ul>
+ *   <li>dc:title: the names, primary first, then the citation
+ *   title.</li>
+ *   <li>dc:creator: the citation metadata contributors in sequence
+ *   order.</li>
+ *   <li>dc:subject: the subjects.</li>
+ *   <li>dc:description: the descriptions.</li>
+ *   <li>dc:publisher: the citation publisher.</li>
+ *   <li>dc:date: the dates of the dates elements and the citation.</li>
+ *   <li>dc:type: the object class type.</li>
+ *   <li>dc:identifier: the identifiers and the citation
+ *   identifier.</li>
+ *   <li>dc:rights: the rights statements, licences and access rights,
+ *   or their URIs if they have no text.</li>
+ * </ul>
+ *
+ */
+public final class DublinCoreWriter extends StreamingCrosswalk {
+    /** The oai_dc namespace. */
+    public static final String NS_OAI_DC =
+            "http://www.openarchives.org/OAI/2.0/oai_dc/";
+    /** The oai_dc schema. */
+    public static final String SCHEMA_OAI_DC =
+            "http://www.openarchives.org/OAI/2.0/oai_dc.xsd";
+    /** The Dublin Core elements namespace. */
+    public static final String NS_DC = "http://purl.org/dc/elements/1.1/";
+
+    /** Prefix of the oai_dc namespace. */
+    private static final String OAI_DC_PREFIX = "oai_dc";
+    /** Prefix of the Dublin Core namespace. */
+    private static final String DC_PREFIX = "dc";
+
+
+    /**
+     * Create a crosswalk.
+     */
+    public DublinCoreWriter() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Write a registry object as an oai_dc:dc element.
+     *
+     * @param ro
+     *      The registry object
+     * @param w
+     *      The writer
+     *
+     * @throws RIFCSException if the registry object can not be read
+     * @throws XMLStreamException if the writer fails
+     */
+    public void write(final RegistryObject ro, final XMLStreamWriter w)
+            throws RIFCSException, XMLStreamException {
+        RIFCSElement c = ro.getClassObject();
+        CitationMetadata cm = citation(c);
+
+        w.setPrefix(OAI_DC_PREFIX, NS_OAI_DC);
+        w.setPrefix(DC_PREFIX, NS_DC);
+        w.writeStartElement(OAI_DC_PREFIX, "dc", NS_OAI_DC);
+        w.writeNamespace(OAI_DC_PREFIX, NS_OAI_DC);
+        w.writeNamespace(DC_PREFIX, NS_DC);
+        schemaLocation(w, NS_OAI_DC, SCHEMA_OAI_DC);
+
+        for (Name n : names(c)) {
+            element(w, NS_DC, "title", fullName(n.getNameParts()));
+        }
+        if (cm != null) {
+            element(w, NS_DC, "title", cm.getTitle());
+        }
+        for (Contributor con : contributors(cm)) {
+            element(w, NS_DC, "creator", fullName(con.getNameParts()));
+        }
+        for (Subject s : children(ObjectClasses.getSubjects(c), c)) {
+            element(w, NS_DC, "subject", s.getValue());
+        }
+        for (Description d : children(ObjectClasses.getDescriptions(c), c)) {
+            element(w, NS_DC, "description", d.getValue());
+        }
+        if (cm != null) {
+            element(w, NS_DC, "publisher", cm.getPublisher());
+        }
+        for (Dates d : children(ObjectClasses.getDates(c), c)) {
+            for (DateWithTypeDateFormat dt : d.getDates()) {
+                element(w, NS_DC, "date", dt.getValue());
+            }
+        }
+        if (cm != null) {
+            for (CitationDate cd : cm.getDates()) {
+                element(w, NS_DC, "date", cd.getValue());
+            }
+        }
+        element(w, NS_DC, "type", ObjectClasses.getType(c));
+        for (Identifier i : children(ObjectClasses.getIdentifiers(c), c)) {
+            element(w, NS_DC, "identifier", i.getValue());
+        }
+        if (cm != null && cm.getIdentifier() != null) {
+            element(w, NS_DC, "identifier", cm.getIdentifier().getValue());
+        }
+        for (Rights r : children(ObjectClasses.getRights(c), c)) {
+            RightsInfo statement = r.getRightsStatement();
+            if (statement != null) {
+                rights(w, statement.getRightsUri(), statement.getValue());
+            }
+            RightsTypedInfo licence = r.getLicence();
+            if (licence != null) {
+                rights(w, licence.getRightsUri(), licence.getValue());
+            }
+            RightsTypedInfo access = r.getAccessRights();
+            if (access != null) {
+                rights(w, access.getRightsUri(), access.getValue());
+            }
+        }
+        w.writeEndElement();
+    }
+
+
+    /**
+     * Write a dc:rights element.
+     *
+     * @param w
+     *      The writer
+     * @param uri
+     *      The URI of the rights, or null
+     * @param text
+     *      The statement of the rights, or null
+     *
+     * @throws XMLStreamException if the writer fails
+     */
+    private void rights(final XMLStreamWriter w, final String uri,
+                        final String text) throws XMLStreamException {
+        if (isEmpty(text)) {
+            element(w, NS_DC, "rights", uri);
+        } else {
+            element(w, NS_DC, "rights", text);
+        }
+    }
+}
@@ -0,0 +1,478 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.crosswalk;
+
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.ands.rifcs.base.CitationInfo;
+import org.ands.rifcs.base.CitationMetadata;
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.Contributor;
+import org.ands.rifcs.base.Name;
+import org.ands.rifcs.base.NamePart;
+import org.ands.rifcs.base.ObjectClasses;
+import org.ands.rifcs.base.RIFCSElement;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.w3c.dom.Node;
+
+/**
+ * A crosswalk written in Java rather than XSLT, which reads a registry
+ * object through the org.ands.rifcs.base classes and writes the target
+ * format straight to an XMLStreamWriter, without building a result
+ * tree. Thread safe, so that the registry objects of a parallel stream,
+ * such as RIFCSFileReader.parallelStream(), can be converted at once.
+ *
+ */
+public abstract class StreamingCrosswalk {
+    /** Creates writers. */
+    private static final XMLOutputFactory FACTORY =
+            XMLOutputFactory.newInstance();
+    /** Encoding of documents written. */
+    private static final String ENCODING = "UTF-8";
+    /** Prefix of the XML Schema instance namespace. */
+    private static final String XSI_PREFIX = "xsi";
+    /** Name of the schema location attribute. */
+    private static final String SCHEMA_LOCATION = "schemaLocation";
+    /** Type of a primary name. */
+    private static final String PRIMARY = "primary";
+    /** Name part types giving a family name. */
+    private static final List<String> FAMILY_TYPES =
+            Arrays.asList("family", "surname");
+    /** Name part types giving a given name. */
+    private static final List<String> GIVEN_TYPES =
+            Arrays.asList("given", "initial");
+
+
+    /**
+     * Create a crosswalk.
+     */
+    protected StreamingCrosswalk() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Write a registry object as the root element of the target format,
+     * declaring the namespaces it uses.
+     *
+     * @param ro
+     *      The registry object
+     * @param w
+     *      The writer
+     *
+     * @throws RIFCSException if the registry object can not be read
+     * @throws XMLStreamException if the writer fails
+     */
+    public abstract void write(RegistryObject ro, XMLStreamWriter w)
+            throws RIFCSException, XMLStreamException;
+
+
+    /**
+     * Write a registry object as a document in UTF-8.
+     *
+     * @param ro
+     *      The registry object
+     * @param out
+     *      The stream, which is flushed but not closed
+     *
+     * @throws RIFCSException if the registry object can not be read or
+     *      the document written
+     */
+    public final void write(final RegistryObject ro,
+                            final OutputStream out) throws RIFCSException {
+        try {
+            XMLStreamWriter w;
+            synchronized (FACTORY) {
+                w = FACTORY.createXMLStreamWriter(out, ENCODING);
+            }
+            document(ro, w);
+        } catch (XMLStreamException xse) {
+            throw new RIFCSException(xse);
+        }
+    }
+
+
+    /**
+     * Convert a registry object to a document.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @return
+     *      The document
+     *
+     * @throws RIFCSException if the registry object can not be read
+     */
+    public final String toXML(final RegistryObject ro)
+            throws RIFCSException {
+        Writer sw = new StringWriter();
+        try {
+            XMLStreamWriter w;
+            synchronized (FACTORY) {
+                w = FACTORY.createXMLStreamWriter(sw);
+            }
+            document(ro, w);
+        } catch (XMLStreamException xse) {
+            throw new RIFCSException(xse);
+        }
+        return sw.toString();
+    }
+
+
+    /**
+     * Write a registry object as a document and close the writer.
+     *
+     * @param ro
+     *      The registry object
+     * @param w
+     *      The writer
+     *
+     * @throws RIFCSException if the registry object can not be read
+     * @throws XMLStreamException if the writer fails
+     */
+    private void document(final RegistryObject ro, final XMLStreamWriter w)
+            throws RIFCSException, XMLStreamException {
+        w.writeStartDocument(ENCODING, "1.0");
+        write(ro, w);
+        w.writeEndDocument();
+        w.flush();
+        w.close();
+    }
+
+
+    /**
+     * Write the xsi:schemaLocation attribute and declare its namespace.
+     *
+     * @param w
+     *      The writer, just after a start tag
+     * @param namespace
+     *      The namespace of the schema
+     * @param schema
+     *      The location of the schema
+     *
+     * @throws XMLStreamException if the writer fails
+     */
+    protected final void schemaLocation(final XMLStreamWriter w,
+                                        final String namespace,
+                                        final String schema)
+            throws XMLStreamException {
+        w.writeNamespace(XSI_PREFIX, Constants.NS_SCHEMA);
+        w.writeAttribute(XSI_PREFIX, Constants.NS_SCHEMA, SCHEMA_LOCATION,
+                namespace + " " + schema);
+    }
+
+
+    /**
+     * Write an element holding text, unless the text is empty.
+     *
+     * @param w
+     *      The writer
+     * @param namespace
+     *      The namespace of the element
+     * @param localName
+     *      The unqualified element name
+     * @param text
+     *      The text, or null
+     *
+     * @throws XMLStreamException if the writer fails
+     */
+    protected final void element(final XMLStreamWriter w,
+                                 final String namespace,
+                                 final String localName,
+                                 final String text)
+            throws XMLStreamException {
+        if (isEmpty(text)) {
+            return;
+        }
+        w.writeStartElement(namespace, localName);
+        w.writeCharacters(text.trim());
+        w.writeEndElement();
+    }
+
+
+    /**
+     * Write an attribute, unless its value is empty.
+     *
+     * @param w
+     *      The writer, just after a start tag
+     * @param localName
+     *      The unqualified attribute name
+     * @param value
+     *      The value, or null
+     *
+     * @throws XMLStreamException if the writer fails
+     */
+    protected final void attribute(final XMLStreamWriter w,
+                                   final String localName,
+                                   final String value)
+            throws XMLStreamException {
+        if (!isEmpty(value)) {
+            w.writeAttribute(localName, value.trim());
+        }
+    }
+
+
+    /**
+     * Determine whether text is null or blank.
+     *
+     * @param text
+     *      The text, or null
+     *
+     * @return
+     *      true if the text is null or blank
+     */
+    protected static boolean isEmpty(final String text) {
+        return text == null || text.trim().length() == 0;
+    }
+
+
+    /**
+     * Obtain text to write, treating null as empty.
+     *
+     * @param text
+     *      The text, or null
+     *
+     * @return
+     *      The text without leading and trailing white space
+     */
+    protected static String trim(final String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.trim();
+    }
+
+
+    /**
+     * Keep only the elements that are children of an element. The
+     * getters of the base classes return descendants at any depth, so
+     * that, for example, the identifiers of a collection include those
+     * of its related info.
+     *
+     * @param <T>
+     *      The type of element
+     * @param elements
+     *      The elements
+     * @param parent
+     *      The parent element
+     *
+     * @return
+     *      The children of the parent, in document order
+     */
+    protected static <T extends RIFCSElement> List<T> children(
+            final List<T> elements, final RIFCSElement parent) {
+        Node p = parent.getDOMElement();
+        List<T> l = new ArrayList<T>(elements.size());
+        for (T t : elements) {
+            if (t.getDOMElement().getParentNode() == p) {
+                l.add(t);
+            }
+        }
+        return l;
+    }
+
+
+    /**
+     * Obtain the citation metadata of an object class element, if any.
+     *
+     * @param c
+     *      A Collection, Party, Activity or Service
+     *
+     * @return
+     *      The first citation metadata, or null
+     */
+    protected static CitationMetadata citation(final RIFCSElement c) {
+        for (CitationInfo ci : children(ObjectClasses.getCitationInfos(c), c)) {
+            if (ci.getCitationMetadata() != null) {
+                return ci.getCitationMetadata();
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Obtain the contributors of a citation in sequence order.
+     * Contributors without a seq, or whose seq is not a number, follow
+     * the others; contributors with equal seqs keep document order.
+     *
+     * @param cm
+     *      The citation metadata, or null
+     *
+     * @return
+     *      The contributors
+     */
+    protected static List<Contributor> contributors(
+            final CitationMetadata cm) {
+        if (cm == null) {
+            return Collections.emptyList();
+        }
+        List<Contributor> l = new ArrayList<Contributor>(
+                cm.getContributors());
+        // Collections.sort() is stable
+        Collections.sort(l, new Comparator<Contributor>() {
+            public int compare(final Contributor a, final Contributor b) {
+                return Integer.compare(seq(a), seq(b));
+            }
+        });
+        return l;
+    }
+
+
+    /**
+     * Obtain the position of a contributor for sorting.
+     *
+     * @param c
+     *      The contributor
+     *
+     * @return
+     *      Its seq, or Integer.MAX_VALUE if it has none or it is not a
+     *      number
+     */
+    private static int seq(final Contributor c) {
+        try {
+            int seq = c.getSeq();
+            if (seq >= 0) {
+                return seq;
+            }
+        } catch (NumberFormatException nfe) {
+            // sorted with those without a seq
+        }
+        return Integer.MAX_VALUE;
+    }
+
+
+    /**
+     * Obtain the names of an object class element, primary names
+     * first.
+     *
+     * @param c
+     *      A Collection, Party, Activity or Service
+     *
+     * @return
+     *      The names
+     */
+    protected static List<Name> names(final RIFCSElement c) {
+        List<Name> l = new ArrayList<Name>();
+        for (Name n : children(ObjectClasses.getNames(c), c)) {
+            if (PRIMARY.equals(n.getType())) {
+                l.add(0, n);
+            } else {
+                l.add(n);
+            }
+        }
+        return l;
+    }
+
+
+    /**
+     * Obtain the family name of name parts.
+     *
+     * @param parts
+     *      The name parts
+     *
+     * @return
+     *      The family name, or null
+     */
+    protected static String familyName(final List<NamePart> parts) {
+        return part(parts, FAMILY_TYPES);
+    }
+
+
+    /**
+     * Obtain the given names of name parts.
+     *
+     * @param parts
+     *      The name parts
+     *
+     * @return
+     *      The given names, or null
+     */
+    protected static String givenName(final List<NamePart> parts) {
+        return part(parts, GIVEN_TYPES);
+    }
+
+
+    /**
+     * Obtain the text of name parts as a single name: "family, given"
+     * if there is a family name, otherwise the parts in order.
+     *
+     * @param parts
+     *      The name parts
+     *
+     * @return
+     *      The name
+     */
+    protected static String fullName(final List<NamePart> parts) {
+        String family = familyName(parts);
+        String given = givenName(parts);
+        if (family != null && given != null) {
+            return family + ", " + given;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (NamePart np : parts) {
+            if (!isEmpty(np.getValue())) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(np.getValue().trim());
+            }
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Join the values of the name parts of the given types.
+     *
+     * @param parts
+     *      The name parts
+     * @param types
+     *      The types, compared ignoring case
+     *
+     * @return
+     *      The values joined with spaces, or null if there are none
+     */
+    private static String part(final List<NamePart> parts,
+                               final List<String> types) {
+        StringBuilder sb = new StringBuilder();
+        for (NamePart np : parts) {
+            if (np.getType() != null && !isEmpty(np.getValue())
+                    && types.contains(np.getType().toLowerCase())) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(np.getValue().trim());
+            }
+        }
+        if (sb.length() == 0) {
+            return null;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,2 @@
+/** XSLT crosswalks from RIF-CS to other formats. */
+package org.ands.rifcs.crosswalk;
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.diff;
+
+import java.util.List;
+
+/**
+ * Interface for receiving the differences between two RIF-CS documents.
+ *
+ * Differences are reported in ascending key order from a single thread.
+ *
+ */
+public interface DiffListener {
+    /**
+     * Called for a registry object which is only in the later document.
+     *
+     * @param key
+     *      The registry object key
+     */
+    void added(String key);
+
+    /**
+     * Called for a registry object which is only in the earlier document.
+     *
+     * @param key
+     *      The registry object key
+     */
+    void removed(String key);
+
+    /**
+     * Called for a registry object whose content differs between the
+     * documents.
+     *
+     * @param key
+     *      The registry object key
+     * @param fields
+     *      The names of the changed fields, in ascending order. See
+     *      RIFCSDiff for how fields are named.
+     */
+    void changed(String key, List<String> fields);
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.diff;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The differences between two RIF-CS documents, collected in memory.
+ *
+ * For very large documents with many changes pass a DiffListener to
+ * RIFCSDiff instead, so that changes can be processed as they are found.
+ *
+ */
+public class DiffResult implements DiffListener {
+    /** Keys of added registry objects. */
+    private Set<String> added = new LinkedHashSet<String>();
+    /** Keys of removed registry objects. */
+    private Set<String> removed = new LinkedHashSet<String>();
+    /** Map from the keys of changed registry objects to the names of
+     *  their changed fields. */
+    private Map<String, List<String>> changed =
+            new LinkedHashMap<String, List<String>>();
+
+
+    /**
+     * Create an empty result.
+     */
+    public DiffResult() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Record an added registry object.
+     *
+     * @param key
+     *      The registry object key
+     */
+    public final void added(final String key) {
+        added.add(key);
+    }
+
+
+    /**
+     * Record a removed registry object.
+     *
+     * @param key
+     *      The registry object key
+     */
+    public final void removed(final String key) {
+        removed.add(key);
+    }
+
+
+    /**
+     * Record a changed registry object.
+     *
+     * @param key
+     *      The registry object key
+     * @param fields
+     *      The names of the changed fields
+     */
+    public final void changed(final String key, final List<String> fields) {
+        changed.put(key, fields);
+    }
+
+
+    /**
+     * Obtain the keys of added registry objects.
+     *
+     * @return
+     *      A Set of keys in ascending order
+     */
+    public final Set<String> getAdded() {
+        return added;
+    }
+
+
+    /**
+     * Obtain the keys of removed registry objects.
+     *
+     * @return
+     *      A Set of keys in ascending order
+     */
+    public final Set<String> getRemoved() {
+        return removed;
+    }
+
+
+    /**
+     * Obtain the changed registry objects.
+     *
+     * @return
+     *      A Map, in ascending key order, from the key of each changed
+     *      registry object to the names of its changed fields
+     */
+    public final Map<String, List<String>> getChanged() {
+        return changed;
+    }
+
+
+    /**
+     * Determine whether any differences were found.
+     *
+     * @return
+     *      true if no registry object was added, removed or changed
+     */
+    public final boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+}
@@ -0,0 +1,402 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.ands.rifcs.base.Compression;
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.RIFCS;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Compares two RIF-CS documents, reporting which registry objects were
+ * added, removed or changed.
+ *
+ * Documents may be compared as loaded RIFCS objects or as streams. In
+ * both cases each registry object is first reduced to its key, its
+ * fingerprint and a hash of each of its fields; the two sets of
+ * summaries are sorted by key and then merged. The two documents are
+ * summarised in parallel, and summaries beyond the run size are sorted
+ * and spilled to temporary files, so streams of any size can be compared
+ * in bounded memory.
+ *
+ * Changed registry objects are reported with the names of their changed
+ * fields. Fields are named as follows:
+ * <ul>
+ *   <li><code>@group</code> for attributes of the registryObject
+ *   element;</li>
+ *   <li><code>originatingSource</code> for other child elements of the
+ *   registryObject element;</li>
+ *   <li><code>collection/@type</code> for attributes of the object class
+ *   element;</li>
+ *   <li><code>collection/name</code> for child elements of the object
+ *   class element, all elements with the same name forming one
+ *   field.</li>
+ * </ul>
+ * A registry object whose class changes is reported with the fields
+ * of both classes.
+ *
+ */
+public class RIFCSDiff {
+    /** Default maximum number of summaries per document held in memory. */
+    public static final int DEFAULT_RUN_SIZE = 1000000;
+
+    /** Maximum number of summaries per document held in memory. */
+    private int runSize = DEFAULT_RUN_SIZE;
+    /** Directory for temporary files, or null for the default. */
+    private File tempDirectory = null;
+
+
+    /**
+     * Create a RIF-CS comparison.
+     */
+    public RIFCSDiff() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Set the maximum number of registry object summaries per document
+     * held in memory. Larger documents are sorted in runs of this size
+     * which are written to temporary files.
+     *
+     * @param size
+     *      The run size
+     */
+    public final void setRunSize(final int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Run size must be positive");
+        }
+        this.runSize = size;
+    }
+
+
+    /**
+     * Set the directory used for temporary files.
+     *
+     * @param directory
+     *      The directory, or null for the system default
+     */
+    public final void setTempDirectory(final File directory) {
+        this.tempDirectory = directory;
+    }
+
+
+    /**
+     * Compare two RIF-CS documents.
+     *
+     * @param before
+     *      The earlier document
+     * @param after
+     *      The later document
+     *
+     * @return
+     *      The differences
+     *
+     * @throws IOException if temporary files can not be written
+     */
+    public final DiffResult compare(final RIFCS before, final RIFCS after)
+            throws IOException {
+        DiffResult result = new DiffResult();
+        compare(before, after, result);
+        return result;
+    }
+
+
+    /**
+     * Compare two RIF-CS documents, reporting the differences to a
+     * listener.
+     *
+     * @param before
+     *      The earlier document
+     * @param after
+     *      The later document
+     * @param listener
+     *      The listener receiving the differences
+     *
+     * @throws IOException if temporary files can not be written
+     */
+    public final void compare(final RIFCS before, final RIFCS after,
+                              final DiffListener listener)
+            throws IOException {
+        final SummarySorter sb = new SummarySorter(runSize, tempDirectory);
+        final SummarySorter sa = new SummarySorter(runSize, tempDirectory);
+        try {
+            if (before == after) {
+                // a DOM may not be read from two threads at once
+                summarise(before, sb);
+                summarise(after, sa);
+            } else {
+                runBoth(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        summarise(before, sb);
+                        return null;
+                    }
+                }, new Callable<Void>() {
+                    public Void call() throws IOException {
+                        summarise(after, sa);
+                        return null;
+                    }
+                });
+            }
+            join(sb.sorted(), sa.sorted(), listener);
+        } catch (SAXException se) {
+            // not thrown when summarising a DOM
+            throw new IOException(se);
+        } catch (ParserConfigurationException pce) {
+            // not thrown when summarising a DOM
+            throw new IOException(pce);
+        } finally {
+            sb.close();
+            sa.close();
+        }
+    }
+
+
+    /**
+     * Compare two RIF-CS XML streams.
+     *
+     * @param before
+     *      The earlier document
+     * @param after
+     *      The later document
+     *
+     * @return
+     *      The differences
+     *
+     * @throws SAXException A SAXException
+     * @throws ParserConfigurationException A ParserConfigurationException
+     * @throws IOException An IOException
+     */
+    public final DiffResult compare(final InputStream before,
+                                    final InputStream after)
+            throws SAXException, ParserConfigurationException, IOException {
+        DiffResult result = new DiffResult();
+        compare(before, after, result);
+        return result;
+    }
+
+
+    /**
+     * Compare two RIF-CS XML streams, reporting the differences to a
+     * listener. The streams are parsed in parallel.
+     *
+     * @param before
+     *      The earlier document
+     * @param after
+     *      The later document
+     * @param listener
+     *      The listener receiving the differences
+     *
+     * @throws SAXException A SAXException
+     * @throws ParserConfigurationException A ParserConfigurationException
+     * @throws IOException An IOException
+     */
+    public final void compare(final InputStream before,
+                              final InputStream after,
+                              final DiffListener listener)
+            throws SAXException, ParserConfigurationException, IOException {
+        final SummarySorter sb = new SummarySorter(runSize, tempDirectory);
+        final SummarySorter sa = new SummarySorter(runSize, tempDirectory);
+        try {
+            runBoth(new Callable<Void>() {
+                public Void call() throws SAXException,
+                ParserConfigurationException, IOException {
+                    summarise(before, sb);
+                    return null;
+                }
+            }, new Callable<Void>() {
+                public Void call() throws SAXException,
+                ParserConfigurationException, IOException {
+                    summarise(after, sa);
+                    return null;
+                }
+            });
+            join(sb.sorted(), sa.sorted(), listener);
+        } finally {
+            sb.close();
+            sa.close();
+        }
+    }
+
+
+    /**
+     * Summarise the registry objects of a loaded document.
+     *
+     * @param rifcs
+     *      The document
+     * @param sorter
+     *      The sorter receiving the summaries
+     *
+     * @throws IOException if temporary files can not be written
+     */
+    private static void summarise(final RIFCS rifcs,
+                                  final SummarySorter sorter)
+            throws IOException {
+        NodeList nl = rifcs.getDocument().getElementsByTagNameNS(
+                Constants.NS_RIFCS, Constants.ELEMENT_REGISTRY_OBJECT);
+        for (int i = 0; i < nl.getLength(); i++) {
+            RecordSummary s = RecordSummary.of((Element) nl.item(i));
+            if (s != null) {
+                sorter.add(s);
+            }
+        }
+    }
+
+
+    /**
+     * Summarise the registry objects of an XML stream.
+     *
+     * @param is
+     *      The stream
+     * @param sorter
+     *      The sorter receiving the summaries
+     *
+     * @throws SAXException A SAXException
+     * @throws ParserConfigurationException A ParserConfigurationException
+     * @throws IOException An IOException
+     */
+    private static void summarise(final InputStream is,
+                                  final SummarySorter sorter)
+            throws SAXException, ParserConfigurationException, IOException {
+        SAXParserFactory spf = SAXParserFactory.newInstance();
+        spf.setNamespaceAware(true);
+        spf.newSAXParser().parse(new InputSource(Compression.decode(is)),
+                new SummaryHandler(sorter));
+    }
+
+
+    /**
+     * Run two tasks in parallel and wait for both to finish.
+     *
+     * @param first
+     *      The first task
+     * @param second
+     *      The second task, run on the calling thread
+     *
+     * @throws SAXException if a task throws one
+     * @throws ParserConfigurationException if a task throws one
+     * @throws IOException if a task throws one
+     */
+    private static void runBoth(final Callable<Void> first,
+                                final Callable<Void> second)
+            throws SAXException, ParserConfigurationException, IOException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Void> f = executor.submit(first);
+            Exception failure = null;
+            try {
+                second.call();
+            } catch (Exception e) {
+                failure = e;
+            }
+            // wait for the first task even if the second failed, as it
+            // may still be using the sorter which is about to be closed
+            try {
+                f.get();
+            } catch (ExecutionException ee) {
+                if (failure == null && ee.getCause() instanceof Exception) {
+                    failure = (Exception) ee.getCause();
+                } else if (failure == null) {
+                    throw new IllegalStateException(ee.getCause());
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted comparing");
+            }
+
+            if (failure instanceof SAXException) {
+                throw (SAXException) failure;
+            } else if (failure instanceof ParserConfigurationException) {
+                throw (ParserConfigurationException) failure;
+            } else if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure != null) {
+                throw new IllegalStateException(failure);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Merge two sorted sequences of summaries, reporting differences.
+     * Each sequence must give each key once: SummarySorter.sorted()
+     * keeps only the last registry object with a key in each document,
+     * as RIFCS does, so that a duplicate is not reported as added or
+     * removed.
+     *
+     * @param before
+     *      Summaries of the earlier document in key order, keys unique
+     * @param after
+     *      Summaries of the later document in key order, keys unique
+     * @param listener
+     *      The listener receiving the differences
+     *
+     * @throws IOException if temporary files can not be read
+     */
+    private static void join(final SummarySorter.Cursor before,
+                             final SummarySorter.Cursor after,
+                             final DiffListener listener)
+            throws IOException {
+        RecordSummary b = before.next();
+        RecordSummary a = after.next();
+        while (b != null || a != null) {
+            int c;
+            if (b == null) {
+                c = 1;
+            } else if (a == null) {
+                c = -1;
+            } else {
+                c = b.compareTo(a);
+            }
+
+            if (c < 0) {
+                listener.removed(b.getKey());
+                b = before.next();
+            } else if (c > 0) {
+                listener.added(a.getKey());
+                a = after.next();
+            } else {
+                if (b.getFingerprint() != a.getFingerprint()) {
+                    listener.changed(b.getKey(), b.changedFields(a));
+                }
+                b = before.next();
+                a = after.next();
+            }
+        }
+    }
+}
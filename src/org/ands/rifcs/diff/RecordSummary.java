@@ -0,0 +1,374 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.diff;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.Fingerprint;
+import org.ands.rifcs.base.ObjectClasses;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * The key, fingerprint and per-field hashes of one registry object.
+ *
+ * A summary holds just enough to decide whether and where a registry
+ * object changed, so that large documents can be compared without
+ * keeping their content in memory.
+ *
+ */
+final class RecordSummary implements Comparable<RecordSummary> {
+    /** Prefix of attribute field names. */
+    private static final String ATTRIBUTE_PREFIX = "@";
+    /** Separator between an object class and its field names. */
+    private static final String SEPARATOR = "/";
+
+    /** The registry object key. */
+    private final String key;
+    /** The registry object fingerprint. */
+    private final long fingerprint;
+    /** Field names in ascending order. */
+    private final String[] names;
+    /** Field hashes, parallel to names. */
+    private final long[] hashes;
+
+
+    /**
+     * Construct a summary.
+     *
+     * @param aKey
+     *      The registry object key
+     * @param aFingerprint
+     *      The registry object fingerprint
+     * @param fields
+     *      Map from field name to field hash
+     */
+    RecordSummary(final String aKey, final long aFingerprint,
+                  final Map<String, Long> fields) {
+        this.key = aKey;
+        this.fingerprint = aFingerprint;
+        TreeMap<String, Long> sorted = new TreeMap<String, Long>(fields);
+        this.names = new String[sorted.size()];
+        this.hashes = new long[sorted.size()];
+        int n = 0;
+        for (Iterator<Map.Entry<String, Long>> i =
+                sorted.entrySet().iterator(); i.hasNext(); n++) {
+            Map.Entry<String, Long> entry = i.next();
+            names[n] = entry.getKey();
+            hashes[n] = entry.getValue().longValue();
+        }
+    }
+
+
+    /**
+     * Construct a summary from arrays which are already sorted.
+     *
+     * @param aKey
+     *      The registry object key
+     * @param aFingerprint
+     *      The registry object fingerprint
+     * @param someNames
+     *      Field names in ascending order
+     * @param someHashes
+     *      Field hashes, parallel to someNames
+     */
+    private RecordSummary(final String aKey, final long aFingerprint,
+                          final String[] someNames,
+                          final long[] someHashes) {
+        this.key = aKey;
+        this.fingerprint = aFingerprint;
+        this.names = someNames;
+        this.hashes = someHashes;
+    }
+
+
+    /**
+     * Summarise a registryObject element of a DOM.
+     *
+     * @param ro
+     *      A registryObject element
+     *
+     * @return
+     *      The summary, or null if the registry object has no key
+     */
+    static RecordSummary of(final Element ro) {
+        Map<String, Long> fields = new TreeMap<String, Long>();
+        String key = null;
+
+        addAttributes(fields, null, ro);
+        for (Node n = ro.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            Element child = (Element) n;
+            String name = Fingerprint.localName(child);
+            if (ObjectClasses.isObjectClass(child.getNamespaceURI(), name)) {
+                addAttributes(fields, name, child);
+                for (Node m = child.getFirstChild(); m != null;
+                        m = m.getNextSibling()) {
+                    if (m.getNodeType() == Node.ELEMENT_NODE) {
+                        add(fields,
+                                elementField(name, Fingerprint.localName(m)),
+                                Fingerprint.of((Element) m));
+                    }
+                }
+            } else {
+                if (key == null && Constants.ELEMENT_KEY.equals(name)) {
+                    key = child.getTextContent();
+                }
+                add(fields, elementField(null, name), Fingerprint.of(child));
+            }
+        }
+
+        if (key == null) {
+            return null;
+        }
+        return new RecordSummary(key, Fingerprint.of(ro), fields);
+    }
+
+
+    /**
+     * Add the attributes of an element as fields.
+     *
+     * @param fields
+     *      Map from field name to field hash
+     * @param objectClass
+     *      The object class element name, or null for attributes of the
+     *      registryObject element
+     * @param e
+     *      The element
+     */
+    private static void addAttributes(final Map<String, Long> fields,
+                                      final String objectClass,
+                                      final Element e) {
+        NamedNodeMap attrs = e.getAttributes();
+        for (int i = 0; i < attrs.getLength(); i++) {
+            Attr a = (Attr) attrs.item(i);
+            if (!Fingerprint.isNamespaceDeclaration(a.getNamespaceURI(),
+                    a.getName())) {
+                add(fields,
+                        attributeField(objectClass, Fingerprint.localName(a)),
+                        Fingerprint.hash(a.getValue()));
+            }
+        }
+    }
+
+
+    /**
+     * Add a hash to a field. Repeated fields are combined independently
+     * of their order.
+     *
+     * @param fields
+     *      Map from field name to field hash
+     * @param name
+     *      The field name
+     * @param hash
+     *      The hash to add
+     */
+    static void add(final Map<String, Long> fields, final String name,
+                    final long hash) {
+        Long previous = fields.get(name);
+        if (previous == null) {
+            fields.put(name, Long.valueOf(hash));
+        } else {
+            fields.put(name, Long.valueOf(previous.longValue() + hash));
+        }
+    }
+
+
+    /**
+     * Obtain the name of an attribute field.
+     *
+     * @param objectClass
+     *      The object class element name, or null for attributes of the
+     *      registryObject element
+     * @param localName
+     *      The unqualified attribute name
+     *
+     * @return
+     *      The field name
+     */
+    static String attributeField(final String objectClass,
+                                 final String localName) {
+        if (objectClass == null) {
+            return ATTRIBUTE_PREFIX + localName;
+        }
+        return objectClass + SEPARATOR + ATTRIBUTE_PREFIX + localName;
+    }
+
+
+    /**
+     * Obtain the name of an element field.
+     *
+     * @param objectClass
+     *      The object class element name, or null for children of the
+     *      registryObject element
+     * @param localName
+     *      The unqualified element name
+     *
+     * @return
+     *      The field name
+     */
+    static String elementField(final String objectClass,
+                               final String localName) {
+        if (objectClass == null) {
+            return localName;
+        }
+        return objectClass + SEPARATOR + localName;
+    }
+
+
+    /**
+     * Obtain the registry object key.
+     *
+     * @return
+     *      The key
+     */
+    String getKey() {
+        return key;
+    }
+
+
+    /**
+     * Obtain the registry object fingerprint.
+     *
+     * @return
+     *      The fingerprint
+     */
+    long getFingerprint() {
+        return fingerprint;
+    }
+
+
+    /**
+     * List the fields which differ from those of another summary.
+     *
+     * @param other
+     *      The summary of the same registry object in another document
+     *
+     * @return
+     *      The names of the fields which differ or are present in only
+     *      one of the summaries, in ascending order
+     */
+    List<String> changedFields(final RecordSummary other) {
+        List<String> changed = new ArrayList<String>();
+        int i = 0;
+        int j = 0;
+        while (i < names.length || j < other.names.length) {
+            int c;
+            if (i == names.length) {
+                c = 1;
+            } else if (j == other.names.length) {
+                c = -1;
+            } else {
+                c = names[i].compareTo(other.names[j]);
+            }
+
+            if (c < 0) {
+                changed.add(names[i++]);
+            } else if (c > 0) {
+                changed.add(other.names[j++]);
+            } else {
+                if (hashes[i] != other.hashes[j]) {
+                    changed.add(names[i]);
+                }
+                i++;
+                j++;
+            }
+        }
+        return changed;
+    }
+
+
+    /**
+     * Order summaries by key.
+     *
+     * @param other
+     *      Another summary
+     *
+     * @return
+     *      The result of comparing the keys
+     */
+    public int compareTo(final RecordSummary other) {
+        return key.compareTo(other.key);
+    }
+
+
+    /**
+     * Write the summary to a stream.
+     *
+     * @param out
+     *      The stream
+     *
+     * @throws IOException An IOException
+     */
+    void write(final DataOutputStream out) throws IOException {
+        out.writeUTF(key);
+        out.writeLong(fingerprint);
+        out.writeInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            out.writeUTF(names[i]);
+            out.writeLong(hashes[i]);
+        }
+    }
+
+
+    /**
+     * Read a summary written by {@link #write(DataOutputStream)}.
+     *
+     * @param in
+     *      The stream
+     * @param fieldNames
+     *      Field names read so far, used to share one instance of
+     *      each name between summaries
+     *
+     * @return
+     *      The summary
+     *
+     * @throws IOException An IOException
+     */
+    static RecordSummary read(final DataInputStream in,
+                              final Map<String, String> fieldNames)
+            throws IOException {
+        String key = in.readUTF();
+        long fingerprint = in.readLong();
+        int n = in.readInt();
+        String[] names = new String[n];
+        long[] hashes = new long[n];
+        for (int i = 0; i < n; i++) {
+            String name = in.readUTF();
+            String shared = fieldNames.get(name);
+            if (shared == null) {
+                fieldNames.put(name, name);
+                shared = name;
+            }
+            names[i] = shared;
+            hashes[i] = in.readLong();
+        }
+        return new RecordSummary(key, fingerprint, names, hashes);
+    }
+}
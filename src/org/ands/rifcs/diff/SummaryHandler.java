@@ -0,0 +1,208 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.diff;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.Fingerprint;
+import org.ands.rifcs.base.ObjectClasses;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX Handler which summarises each registryObject in a document and
+ * adds the summaries to a sorter. The summaries are the same as those
+ * produced by RecordSummary.of() from a DOM.
+ *
+ */
+final class SummaryHandler extends DefaultHandler {
+    /** Builder depth inside a registryObject element. */
+    private static final int DEPTH_RECORD = 1;
+    /** Builder depth inside an object class element. */
+    private static final int DEPTH_CLASS = 2;
+
+    /** The sorter receiving summaries. */
+    private final SummarySorter sorter;
+    /** Builder for the current registry object. */
+    private final Fingerprint.Builder builder = new Fingerprint.Builder();
+    /** Fields of the current registry object. */
+    private final Map<String, Long> fields = new HashMap<String, Long>();
+    /** Text of the current registry object's key. */
+    private final StringBuilder key = new StringBuilder();
+    /** true while inside the key element of a registry object. */
+    private boolean inKey = false;
+    /** true if the current registry object has a key element. */
+    private boolean hasKey = false;
+    /** Name of the current object class element, or null. */
+    private String objectClass = null;
+
+
+    /**
+     * Create a handler.
+     *
+     * @param aSorter
+     *      The sorter receiving summaries
+     */
+    SummaryHandler(final SummarySorter aSorter) {
+        this.sorter = aSorter;
+    }
+
+
+    /**
+     * Processing for the startElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     * @param attributes
+     *      Attributes associated with the element
+     */
+    public void startElement(final String uri,
+                             final String localName,
+                             final String qName,
+                             final Attributes attributes) {
+        int depth = builder.getDepth();
+        if (depth == 0) {
+            if (!Constants.NS_RIFCS.equals(uri)
+                    || !Constants.ELEMENT_REGISTRY_OBJECT.equals(localName)) {
+                return;
+            }
+            fields.clear();
+            key.setLength(0);
+            hasKey = false;
+            objectClass = null;
+            addAttributes(null, attributes);
+        } else if (depth == DEPTH_RECORD) {
+            if (ObjectClasses.isObjectClass(uri, localName)) {
+                objectClass = localName;
+                addAttributes(objectClass, attributes);
+            } else if (!hasKey && Constants.ELEMENT_KEY.equals(localName)) {
+                inKey = true;
+                hasKey = true;
+            }
+        }
+
+        builder.startElement(uri, localName);
+        for (int i = 0; i < attributes.getLength(); i++) {
+            if (!Fingerprint.isNamespaceDeclaration(attributes.getURI(i),
+                    attributes.getQName(i))) {
+                builder.attribute(attributes.getURI(i),
+                        attributes.getLocalName(i), attributes.getValue(i));
+            }
+        }
+    }
+
+
+    /**
+     * Add the attributes of a registryObject or object class element
+     * as fields.
+     *
+     * @param aClass
+     *      The object class element name, or null
+     * @param attributes
+     *      The attributes
+     */
+    private void addAttributes(final String aClass,
+                               final Attributes attributes) {
+        for (int i = 0; i < attributes.getLength(); i++) {
+            if (!Fingerprint.isNamespaceDeclaration(attributes.getURI(i),
+                    attributes.getQName(i))) {
+                RecordSummary.add(fields, RecordSummary.attributeField(
+                        aClass, attributes.getLocalName(i)),
+                        Fingerprint.hash(attributes.getValue(i)));
+            }
+        }
+    }
+
+
+    /**
+     * Processing for characters.
+     *
+     * @param chars
+     *      An array of characters
+     * @param start
+     *      The start position of the first in the array
+     * @param length
+     *      The length of the character data being passed
+     */
+    public void characters(final char[] chars,
+                           final int start,
+                           final int length) {
+        if (builder.getDepth() > 0) {
+            builder.text(chars, start, length);
+            if (inKey) {
+                key.append(chars, start, length);
+            }
+        }
+    }
+
+
+    /**
+     * Processing for the endElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     *
+     * @exception SAXException if the summary can not be stored
+     */
+    public void endElement(final String uri,
+                           final String localName,
+                           final String qName) throws SAXException {
+        if (builder.getDepth() == 0) {
+            return;
+        }
+
+        inKey = false;
+        long fingerprint = builder.endElement();
+        int depth = builder.getDepth();
+        if (depth > 0) {
+            builder.child(fingerprint);
+        }
+
+        if (depth == DEPTH_CLASS && objectClass != null) {
+            RecordSummary.add(fields,
+                    RecordSummary.elementField(objectClass, localName),
+                    fingerprint);
+        } else if (depth == DEPTH_RECORD) {
+            if (ObjectClasses.isObjectClass(uri, localName)) {
+                objectClass = null;
+            } else {
+                RecordSummary.add(fields,
+                        RecordSummary.elementField(null, localName),
+                        fingerprint);
+            }
+        } else if (depth == 0 && hasKey) {
+            try {
+                sorter.add(new RecordSummary(key.toString(), fingerprint,
+                        fields));
+            } catch (IOException ioe) {
+                throw new SAXException(ioe);
+            }
+        }
+    }
+}
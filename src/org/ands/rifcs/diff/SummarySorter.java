@@ -0,0 +1,428 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.diff;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * External sort of record summaries by key.
+ *
+ * Summaries are held in memory until a run is full, then sorted and
+ * written to a temporary file, so memory use is bounded by the run size
+ * however many records are added. Sorted summaries are read back by
+ * merging the runs. Where a key was added more than once only the last
+ * summary added is returned.
+ *
+ */
+final class SummarySorter {
+    /** Buffer size for temporary run files. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Maximum number of summaries held in memory. */
+    private final int runSize;
+    /** Directory for temporary files, or null for the default. */
+    private final File tempDirectory;
+    /** Summaries of the current run. */
+    private List<RecordSummary> run = new ArrayList<RecordSummary>();
+    /** Temporary files holding completed runs. */
+    private List<File> runFiles = new ArrayList<File>();
+    /** Streams reading the run files, opened by sorted(). */
+    private List<DataInputStream> readers = new ArrayList<DataInputStream>();
+
+
+    /**
+     * Create a sorter.
+     *
+     * @param aRunSize
+     *      Maximum number of summaries held in memory
+     * @param aTempDirectory
+     *      Directory for temporary files, or null for the default
+     */
+    SummarySorter(final int aRunSize, final File aTempDirectory) {
+        this.runSize = aRunSize;
+        this.tempDirectory = aTempDirectory;
+    }
+
+
+    /**
+     * Add a summary.
+     *
+     * @param s
+     *      The summary
+     *
+     * @throws IOException if a run can not be written
+     */
+    void add(final RecordSummary s) throws IOException {
+        run.add(s);
+        if (run.size() >= runSize) {
+            spill();
+        }
+    }
+
+
+    /**
+     * Sort the current run and write it to a temporary file.
+     *
+     * @throws IOException if the run can not be written
+     */
+    private void spill() throws IOException {
+        sortRun();
+        File f = File.createTempFile("rifcs-diff", ".run", tempDirectory);
+        f.deleteOnExit();
+        runFiles.add(f);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(f), BUFFER_SIZE));
+        try {
+            for (int i = 0; i < run.size(); i++) {
+                run.get(i).write(out);
+            }
+        } finally {
+            out.close();
+        }
+        run.clear();
+    }
+
+
+    /**
+     * Sort the current run by key, using all available processors. The
+     * sort is stable so later summaries for a key stay after earlier ones.
+     */
+    private void sortRun() {
+        RecordSummary[] a = run.toArray(new RecordSummary[run.size()]);
+        Arrays.parallelSort(a);
+        run = new ArrayList<RecordSummary>(Arrays.asList(a));
+    }
+
+
+    /**
+     * Obtain the summaries in ascending key order. No more summaries
+     * may be added.
+     *
+     * @return
+     *      A cursor over the sorted summaries
+     *
+     * @throws IOException if the runs can not be read
+     */
+    Cursor sorted() throws IOException {
+        sortRun();
+        List<Cursor> cursors = new ArrayList<Cursor>();
+        Map<String, String> fieldNames = new HashMap<String, String>();
+        for (int i = 0; i < runFiles.size(); i++) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(runFiles.get(i)), BUFFER_SIZE));
+            readers.add(in);
+            cursors.add(new FileCursor(in, fieldNames));
+        }
+        // the in-memory run was added last, so it comes last among equals
+        cursors.add(new ListCursor(run));
+        return new UniqueCursor(new MergeCursor(cursors));
+    }
+
+
+    /**
+     * Close and delete the temporary files.
+     */
+    void close() {
+        for (int i = 0; i < readers.size(); i++) {
+            try {
+                readers.get(i).close();
+            } catch (IOException ioe) {
+                // nothing more can be done with the file
+            }
+        }
+        for (int i = 0; i < runFiles.size(); i++) {
+            if (!runFiles.get(i).delete()) {
+                runFiles.get(i).deleteOnExit();
+            }
+        }
+        readers.clear();
+        runFiles.clear();
+        run.clear();
+    }
+
+
+    /**
+     * A sequence of summaries.
+     */
+    interface Cursor {
+        /**
+         * Obtain the next summary.
+         *
+         * @return
+         *      The next summary, or null at the end of the sequence
+         *
+         * @throws IOException An IOException
+         */
+        RecordSummary next() throws IOException;
+    }
+
+
+    /**
+     * Cursor over a sorted list.
+     */
+    static final class ListCursor implements Cursor {
+        /** The list. */
+        private final List<RecordSummary> list;
+        /** Index of the next summary. */
+        private int index = 0;
+
+        /**
+         * Create a cursor.
+         *
+         * @param aList
+         *      The sorted list
+         */
+        ListCursor(final List<RecordSummary> aList) {
+            this.list = aList;
+        }
+
+        /**
+         * Obtain the next summary.
+         *
+         * @return
+         *      The next summary, or null at the end of the list
+         */
+        public RecordSummary next() {
+            if (index == list.size()) {
+                return null;
+            }
+            return list.get(index++);
+        }
+    }
+
+
+    /**
+     * Cursor over a run file.
+     */
+    private static final class FileCursor implements Cursor {
+        /** The run file stream. */
+        private final DataInputStream in;
+        /** Field names read so far. */
+        private final Map<String, String> fieldNames;
+
+        /**
+         * Create a cursor.
+         *
+         * @param anIn
+         *      The run file stream
+         * @param someFieldNames
+         *      Field names read so far
+         */
+        FileCursor(final DataInputStream anIn,
+                   final Map<String, String> someFieldNames) {
+            this.in = anIn;
+            this.fieldNames = someFieldNames;
+        }
+
+        /**
+         * Obtain the next summary.
+         *
+         * @return
+         *      The next summary, or null at the end of the file
+         *
+         * @throws IOException An IOException
+         */
+        public RecordSummary next() throws IOException {
+            try {
+                return RecordSummary.read(in, fieldNames);
+            } catch (EOFException eof) {
+                return null;
+            }
+        }
+    }
+
+
+    /**
+     * Cursor merging sorted cursors. Among summaries with equal keys,
+     * those from earlier cursors are returned first.
+     */
+    private static final class MergeCursor implements Cursor {
+        /** The head summary of each cursor with more summaries. */
+        private final PriorityQueue<Head> heads = new PriorityQueue<Head>();
+        /** true once the heads have been read. */
+        private boolean started = false;
+        /** The cursors being merged. */
+        private final List<Cursor> cursors;
+
+        /**
+         * Create a cursor.
+         *
+         * @param someCursors
+         *      The sorted cursors
+         */
+        MergeCursor(final List<Cursor> someCursors) {
+            this.cursors = someCursors;
+        }
+
+        /**
+         * Obtain the next summary.
+         *
+         * @return
+         *      The next summary, or null when all cursors are exhausted
+         *
+         * @throws IOException An IOException
+         */
+        public RecordSummary next() throws IOException {
+            if (!started) {
+                started = true;
+                for (int i = 0; i < cursors.size(); i++) {
+                    RecordSummary s = cursors.get(i).next();
+                    if (s != null) {
+                        heads.add(new Head(s, i));
+                    }
+                }
+            }
+
+            Head h = heads.poll();
+            if (h == null) {
+                return null;
+            }
+            RecordSummary result = h.summary;
+            RecordSummary s = cursors.get(h.cursor).next();
+            if (s != null) {
+                heads.add(new Head(s, h.cursor));
+            }
+            return result;
+        }
+    }
+
+
+    /**
+     * The current summary of one of the merged cursors.
+     */
+    private static final class Head implements Comparable<Head> {
+        /** The summary. */
+        private final RecordSummary summary;
+        /** Index of the cursor it came from. */
+        private final int cursor;
+
+        /**
+         * Create a head.
+         *
+         * @param aSummary
+         *      The summary
+         * @param aCursor
+         *      Index of the cursor it came from
+         */
+        Head(final RecordSummary aSummary, final int aCursor) {
+            this.summary = aSummary;
+            this.cursor = aCursor;
+        }
+
+        /**
+         * Order by key, then by cursor.
+         *
+         * @param other
+         *      Another head
+         *
+         * @return
+         *      The comparison result
+         */
+        public int compareTo(final Head other) {
+            int c = summary.compareTo(other.summary);
+            if (c == 0) {
+                c = Integer.compare(cursor, other.cursor);
+            }
+            return c;
+        }
+
+        /**
+         * Heads are equal if they compare equal.
+         *
+         * @param o
+         *      Another object
+         *
+         * @return
+         *      true if o is a head with the same key and cursor
+         */
+        public boolean equals(final Object o) {
+            return o instanceof Head && compareTo((Head) o) == 0;
+        }
+
+        /**
+         * Hash code consistent with equals().
+         *
+         * @return
+         *      The hash code
+         */
+        public int hashCode() {
+            return summary.getKey().hashCode() + cursor;
+        }
+    }
+
+
+    /**
+     * Cursor which returns only the last of each run of summaries
+     * with equal keys.
+     */
+    static final class UniqueCursor implements Cursor {
+        /** The underlying sorted cursor. */
+        private final Cursor cursor;
+        /** The summary read ahead of the one returned. */
+        private RecordSummary pending = null;
+        /** true once the first summary has been read. */
+        private boolean started = false;
+
+        /**
+         * Create a cursor.
+         *
+         * @param aCursor
+         *      The underlying sorted cursor
+         */
+        UniqueCursor(final Cursor aCursor) {
+            this.cursor = aCursor;
+        }
+
+        /**
+         * Obtain the next summary.
+         *
+         * @return
+         *      The next summary, or null at the end
+         *
+         * @throws IOException An IOException
+         */
+        public RecordSummary next() throws IOException {
+            if (!started) {
+                started = true;
+                pending = cursor.next();
+            }
+            RecordSummary result = pending;
+            if (result == null) {
+                return null;
+            }
+            pending = cursor.next();
+            while (pending != null && pending.compareTo(result) == 0) {
+                result = pending;
+                pending = cursor.next();
+            }
+            return result;
+        }
+    }
+}
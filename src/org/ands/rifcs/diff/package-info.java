@@ -0,0 +1,2 @@
+/** Comparison of RIF-CS documents. */
+package org.ands.rifcs.diff;
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.example;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.DateCodec;
+
+/** Benchmark that formats and parses RIF-CS dates with DateCodec, and
+ *  formats them as was done before it with a SimpleDateFormat per
+ *  call, reporting the time and bytes allocated per call so that the
+ *  two can be compared across releases and JVMs. */
+public final class DateCodecBenchmark {
+    /** The default number of calls of each operation. */
+    private static final int DEFAULT_CALLS = 1000000;
+    /** Dates are drawn from 1900 to 2100, in milliseconds since the
+     *  epoch. */
+    private static final long FIRST = -2208988800000L;
+    /** Length of the range of dates, in milliseconds. */
+    private static final long RANGE = 6311433600000L;
+    /** Number of distinct dates used. */
+    private static final int DATES = 1024;
+    /** Pattern of the W3CDTF date-times formatted before DateCodec. */
+    private static final String LOCAL_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
+    /** Length of LOCAL_FORMAT, before which a colon was inserted into
+     *  the offset. */
+    private static final int LOCAL_FORMAT_LENGTH = LOCAL_FORMAT.length();
+
+    /** Results of the operations, kept so that the calls are not
+     *  optimised away. */
+    private static volatile long sink;
+
+    /** This class can not be instantiated. */
+    private DateCodecBenchmark() {
+    }
+
+    /** An operation timed by the benchmark. */
+    private interface Operation {
+        /** Run the operation once.
+         *  @param date The date to format
+         *  @param text A W3CDTF form of the date, to parse
+         *  @return A result, so that the call is not optimised away
+         */
+        long run(Date date, String text);
+    }
+
+    /** The main method.
+     *  @param args The command-line arguments. args[0], if given, is
+     *          the number of calls of each operation.
+     */
+    public static void main(final String[] args) {
+        int calls = DEFAULT_CALLS;
+        if (args.length > 0) {
+            calls = Integer.parseInt(args[0]);
+        }
+        Random random = new Random(1);
+        Date[] dates = new Date[DATES];
+        String[] texts = new String[DATES];
+        for (int i = 0; i < DATES; i++) {
+            dates[i] = new Date(FIRST
+                    + (long) (random.nextDouble() * RANGE));
+            texts[i] = DateCodec.formatLocal(dates[i]);
+        }
+        System.out.println("JVM: " + System.getProperty("java.vm.name")
+                + " " + System.getProperty("java.version")
+                + ", time zone " + TimeZone.getDefault().getID()
+                + ", " + calls + " calls");
+
+        time("formatUTC SimpleDateFormat", new Operation() {
+            public long run(final Date date, final String text) {
+                SimpleDateFormat df =
+                        new SimpleDateFormat(Constants.TIMESTAMP_UTC_FORMAT);
+                Calendar cal = Calendar.getInstance(
+                        TimeZone.getTimeZone("UTC"));
+                cal.setTime(date);
+                df.setCalendar(cal);
+                return df.format(cal.getTime()).length();
+            }
+        }, dates, texts, calls);
+        time("formatUTC DateCodec", new Operation() {
+            public long run(final Date date, final String text) {
+                return DateCodec.formatUTC(date).length();
+            }
+        }, dates, texts, calls);
+        time("formatLocal SimpleDateFormat", new Operation() {
+            public long run(final Date date, final String text) {
+                String s = new SimpleDateFormat(LOCAL_FORMAT).format(date);
+                return (s.substring(0, LOCAL_FORMAT_LENGTH) + ":"
+                        + s.substring(LOCAL_FORMAT_LENGTH)).length();
+            }
+        }, dates, texts, calls);
+        time("formatLocal DateCodec", new Operation() {
+            public long run(final Date date, final String text) {
+                return DateCodec.formatLocal(date).length();
+            }
+        }, dates, texts, calls);
+        time("parseStart DateCodec", new Operation() {
+            public long run(final Date date, final String text) {
+                return DateCodec.parseStart(text, 0);
+            }
+        }, dates, texts, calls);
+        time("parseEnd DateCodec", new Operation() {
+            public long run(final Date date, final String text) {
+                return DateCodec.parseEnd(text, 0);
+            }
+        }, dates, texts, calls);
+    }
+
+    /** Run an operation once to warm up and again to be timed, and
+     *  report the time and bytes allocated per call.
+     *  @param name The name of the operation
+     *  @param op The operation
+     *  @param dates The dates to format
+     *  @param texts The dates to parse
+     *  @param calls The number of calls
+     */
+    private static void time(final String name, final Operation op,
+                             final Date[] dates, final String[] texts,
+                             final int calls) {
+        long total = 0;
+        for (int round = 0; round < 2; round++) {
+            long bytes = allocated();
+            long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                int d = i & (DATES - 1);
+                total += op.run(dates[d], texts[d]);
+            }
+            long nanos = System.nanoTime() - start;
+            bytes = allocated() - bytes;
+            if (round == 1) {
+                System.out.println(name + ": " + nanos / calls
+                        + " ns/call, " + bytes / calls + " bytes/call");
+            }
+        }
+        sink = total;
+    }
+
+    /** Obtain the bytes allocated by this thread so far, where the JVM
+     *  reports them.
+     *  @return The number of bytes, or 0 if not known
+     */
+    private static long allocated() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(
+                            Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
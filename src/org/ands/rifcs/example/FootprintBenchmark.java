@@ -0,0 +1,99 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.example;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.ands.rifcs.base.Footprint;
+import org.ands.rifcs.base.RIFCS;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RIFCSWrapper;
+
+import org.ands.rifcs.ch.RIFCSReader;
+
+import org.xml.sax.SAXException;
+
+/** Benchmark that reads RIF-CS data from a file and reports the
+ *  approximate bytes retained for each registry object, so that the
+ *  footprint can be compared across releases. */
+public final class FootprintBenchmark {
+    /** Nanoseconds in a millisecond. */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /** This class can not be instantiated. */
+    private FootprintBenchmark() {
+    }
+
+    /** The main method.
+     *  @param args The command-line arguments. args[0] is the name
+     *          of a file to be read. args[1], if given, measures one
+     *          registry object in that many.
+     *  @throws RIFCSException A RIFCSException
+     *  @throws SAXException A SAXException
+     *  @throws ParserConfigurationException A ParserConfigurationException
+     *  @throws IOException An IOException
+     */
+    public static void main(final String[] args) throws RIFCSException,
+    SAXException, ParserConfigurationException, IOException {
+        int every = 1;
+        if (args.length > 1) {
+            every = Integer.parseInt(args[1]);
+        }
+
+        long start = System.nanoTime();
+        RIFCSReader rr = new RIFCSReader();
+        FileInputStream in = new FileInputStream(args[0]);
+        try {
+            rr.mapToDOM(in);
+        } finally {
+            in.close();
+        }
+        RIFCS rifcs = new RIFCSWrapper(rr.getDocument()).getRIFCSObject();
+        long read = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Footprint f = Footprint.sample(rifcs, every);
+        long measure = System.nanoTime() - start;
+
+        System.out.println("read: " + read / NANOS_PER_MILLI + " ms");
+        System.out.println("measured: " + f.getMeasured() + " of "
+                + f.getRegistryObjects() + " registry objects in "
+                + measure / NANOS_PER_MILLI + " ms");
+        System.out.println("bytes: " + f.getBytes());
+        System.out.println("nodes: " + f.getNodes() + " ("
+                + f.getElements() + " elements, " + f.getAttributes()
+                + " attributes, " + f.getTextNodes() + " other)");
+        Map<String, Long> counts = f.getObjectClassCounts();
+        for (Map.Entry<String, Long> e
+                : f.getObjectClassBytes().entrySet()) {
+            System.out.println("class " + e.getKey() + ": "
+                    + counts.get(e.getKey()) + " registry objects, "
+                    + e.getValue() + " bytes");
+        }
+        counts = f.getElementCounts();
+        for (Map.Entry<String, Long> e : f.getElementBytes().entrySet()) {
+            System.out.println("element " + e.getKey() + ": "
+                    + counts.get(e.getKey()) + " elements, "
+                    + e.getValue() + " bytes");
+        }
+        System.out.println("bytes/record: "
+                + f.getBytesPerRegistryObject());
+    }
+}
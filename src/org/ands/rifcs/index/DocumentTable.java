@@ -0,0 +1,272 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The document numbers of an index. Each registry object added to an
+ * index is given the next document number; when it is removed or
+ * replaced its number is marked deleted, and numbers are reassigned
+ * once deleted numbers outnumber live ones.
+ *
+ * Not thread safe; indexes guard their table with their own lock.
+ *
+ */
+final class DocumentTable {
+    /** Minimum number of deleted documents before compaction. */
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    /** Key of each document number. */
+    private List<String> keys = new ArrayList<String>();
+    /** Map from key to document number. */
+    private final Map<String, Integer> docs = new HashMap<String, Integer>();
+    /** Document numbers which have not been deleted. */
+    private BitSet live = new BitSet();
+
+
+    /**
+     * Create an empty table.
+     */
+    DocumentTable() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Give a key the next document number. Any existing number for the
+     * key must already have been deleted.
+     *
+     * @param key
+     *      The registry object key
+     *
+     * @return
+     *      The document number
+     */
+    int add(final String key) {
+        int doc = keys.size();
+        keys.add(key);
+        docs.put(key, Integer.valueOf(doc));
+        live.set(doc);
+        return doc;
+    }
+
+
+    /**
+     * Delete the document number of a key.
+     *
+     * @param key
+     *      The registry object key
+     *
+     * @return
+     *      The deleted document number, or -1 if the key has none
+     */
+    int delete(final String key) {
+        Integer doc = docs.remove(key);
+        if (doc == null) {
+            return -1;
+        }
+        live.clear(doc.intValue());
+        return doc.intValue();
+    }
+
+
+    /**
+     * Obtain the document number of a key.
+     *
+     * @param key
+     *      The registry object key
+     *
+     * @return
+     *      The document number, or -1 if the key has none
+     */
+    int get(final String key) {
+        Integer doc = docs.get(key);
+        if (doc == null) {
+            return -1;
+        }
+        return doc.intValue();
+    }
+
+
+    /**
+     * Obtain the key of a document.
+     *
+     * @param doc
+     *      The document number
+     *
+     * @return
+     *      The registry object key
+     */
+    String getKey(final int doc) {
+        return keys.get(doc);
+    }
+
+
+    /**
+     * Determine whether a document has not been deleted.
+     *
+     * @param doc
+     *      The document number
+     *
+     * @return
+     *      true if the document is live
+     */
+    boolean isLive(final int doc) {
+        return live.get(doc);
+    }
+
+
+    /**
+     * Obtain the live documents. The set must not be changed.
+     *
+     * @return
+     *      The live document numbers
+     */
+    BitSet getLive() {
+        return live;
+    }
+
+
+    /**
+     * Obtain the number of live documents.
+     *
+     * @return
+     *      The number of documents
+     */
+    int size() {
+        return docs.size();
+    }
+
+
+    /**
+     * Obtain the number of document numbers assigned, live or deleted.
+     *
+     * @return
+     *      One more than the highest document number
+     */
+    int capacity() {
+        return keys.size();
+    }
+
+
+    /**
+     * Obtain the keys of the live documents among some documents.
+     *
+     * @param result
+     *      Document numbers in ascending order
+     *
+     * @return
+     *      The keys of those which have not been deleted
+     */
+    List<String> toKeys(final int[] result) {
+        List<String> l = new ArrayList<String>(result.length);
+        for (int i = 0; i < result.length; i++) {
+            if (live.get(result[i])) {
+                l.add(keys.get(result[i]));
+            }
+        }
+        return l;
+    }
+
+
+    /**
+     * Obtain the keys of some documents.
+     *
+     * @param result
+     *      Document numbers
+     *
+     * @return
+     *      The keys of those which have not been deleted, in document
+     *      order
+     */
+    List<String> toKeys(final BitSet result) {
+        List<String> l = new ArrayList<String>(result.cardinality());
+        for (int i = result.nextSetBit(0); i >= 0;
+                i = result.nextSetBit(i + 1)) {
+            if (live.get(i)) {
+                l.add(keys.get(i));
+            }
+        }
+        return l;
+    }
+
+
+    /**
+     * Determine whether enough documents have been deleted for
+     * compaction to be worthwhile.
+     *
+     * @return
+     *      true if compact() should be called
+     */
+    boolean needsCompaction() {
+        int deleted = keys.size() - docs.size();
+        return deleted >= COMPACT_THRESHOLD && deleted > docs.size();
+    }
+
+
+    /**
+     * Renumber the live documents consecutively from zero, keeping their
+     * order.
+     *
+     * @return
+     *      The new number of each old document number, or -1 for
+     *      deleted documents
+     */
+    int[] compact() {
+        int[] remap = new int[keys.size()];
+        List<String> newKeys = new ArrayList<String>(docs.size());
+        for (int i = 0; i < keys.size(); i++) {
+            if (live.get(i)) {
+                remap[i] = newKeys.size();
+                docs.put(keys.get(i), Integer.valueOf(newKeys.size()));
+                newKeys.add(keys.get(i));
+            } else {
+                remap[i] = -1;
+            }
+        }
+        keys = newKeys;
+        live = new BitSet(newKeys.size());
+        live.set(0, newKeys.size());
+        return remap;
+    }
+
+
+    /**
+     * Renumber the documents in a set.
+     *
+     * @param set
+     *      Old document numbers
+     * @param remap
+     *      The result of compact()
+     *
+     * @return
+     *      The new numbers of the live documents in the set
+     */
+    static BitSet remap(final BitSet set, final int[] remap) {
+        BitSet result = new BitSet();
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            if (i < remap.length && remap[i] >= 0) {
+                result.set(remap[i]);
+            }
+        }
+        return result;
+    }
+}
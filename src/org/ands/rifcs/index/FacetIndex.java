@@ -0,0 +1,775 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.ands.rifcs.base.ObjectClasses;
+import org.ands.rifcs.base.RIFCS;
+import org.ands.rifcs.base.RIFCSElement;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.ands.rifcs.base.RegistryObjectListener;
+import org.ands.rifcs.base.Rights;
+import org.ands.rifcs.base.Subject;
+
+/**
+ * Facet counts over registry objects, for faceted browsing.
+ *
+ * The facets are the object class, the object class type attribute,
+ * the registry object group, subject types, the subject values and
+ * term identifiers of each subject type, and licence types. Each facet
+ * holds its distinct values in a dictionary, a count of registry
+ * objects for each value, and the set of registry objects with each
+ * value, so counts for all registry objects are read directly and
+ * counts within a selection are computed from the sets.
+ *
+ * An index attached to a RIFCS object is updated as registry objects
+ * are added to it. Indexes built separately, for example from parts of
+ * a harvest read in parallel, may be combined with merge(). Queries may
+ * run concurrently with updates.
+ *
+ */
+public class FacetIndex implements RegistryObjectListener {
+    /** The object class facet: collection, party, activity or
+     *  service. */
+    public static final String FACET_CLASS = "class";
+    /** The object class type facet, for example dataset. */
+    public static final String FACET_TYPE = "type";
+    /** The subject type facet, for example anzsrc-for. */
+    public static final String FACET_SUBJECT_TYPE = "subjectType";
+    /** The licence type facet. */
+    public static final String FACET_LICENCE = "licence";
+    /** The registry object group facet. */
+    public static final String FACET_GROUP = "group";
+
+    /** Prefix of the subject value facet of each subject type. */
+    private static final String SUBJECT_PREFIX = "subject/";
+    /** Prefix of the term identifier facet of each subject type. */
+    private static final String TERM_IDENTIFIER_PREFIX = "termIdentifier/";
+    /** Bits in each word of a BitSet. */
+    private static final int BITS_PER_WORD = 64;
+
+    /** The document numbers of registry objects. */
+    private final DocumentTable table = new DocumentTable();
+    /** The facets, in the order they were first seen. */
+    private final List<Facet> facets = new ArrayList<Facet>();
+    /** Map from facet name to index in facets. */
+    private final Map<String, Integer> facetIds =
+            new HashMap<String, Integer>();
+    /** For each document, its facet and value numbers in pairs, or null
+     *  for deleted documents. */
+    private List<int[]> docValues = new ArrayList<int[]>();
+    /** Lock guarding all the above. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+    /**
+     * Create an empty index.
+     */
+    public FacetIndex() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Obtain the name of the facet of subject values of a subject type.
+     *
+     * @param subjectType
+     *      The subject type, for example anzsrc-for
+     *
+     * @return
+     *      The facet name
+     */
+    public static String subjectFacet(final String subjectType) {
+        return SUBJECT_PREFIX + subjectType;
+    }
+
+
+    /**
+     * Obtain the name of the facet of term identifiers of a subject
+     * type.
+     *
+     * @param subjectType
+     *      The subject type, for example anzsrc-for
+     *
+     * @return
+     *      The facet name
+     */
+    public static String termIdentifierFacet(final String subjectType) {
+        return TERM_IDENTIFIER_PREFIX + subjectType;
+    }
+
+
+    /**
+     * Index all the registry objects of a RIF-CS document, and keep the
+     * index up to date as registry objects are added to it.
+     *
+     * @param rifcs
+     *      A RIFCS object
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void attach(final RIFCS rifcs) throws RIFCSException {
+        for (Iterator<RegistryObject> i =
+                rifcs.getRegistryObjects().values().iterator();
+                i.hasNext();) {
+            add(i.next());
+        }
+        rifcs.addRegistryObjectListener(this);
+    }
+
+
+    /**
+     * Add a registry object to the index, replacing any registry object
+     * with the same key.
+     *
+     * @param ro
+     *      A RegistryObject
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void add(final RegistryObject ro) throws RIFCSException {
+        List<String> values = values(ro);
+        lock.writeLock().lock();
+        try {
+            delete(ro.getKey());
+            int doc = table.add(ro.getKey());
+            int[] pairs = new int[values.size()];
+            int n = 0;
+            for (int i = 0; i < values.size(); i += 2) {
+                Facet f = facet(values.get(i));
+                n = addPair(pairs, n, f.index, f.add(values.get(i + 1), doc));
+            }
+            setDocValues(doc, Arrays.copyOf(pairs, n));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Obtain the facet values of a registry object.
+     *
+     * @param ro
+     *      A RegistryObject
+     *
+     * @return
+     *      Facet names and values in pairs
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    static List<String> values(final RegistryObject ro)
+            throws RIFCSException {
+        RIFCSElement c = ro.getClassObject();
+        List<String> values = new ArrayList<String>();
+        addValue(values, FACET_CLASS, ro.getObjectClassName());
+        addValue(values, FACET_GROUP, ro.getGroup());
+        addValue(values, FACET_TYPE, ObjectClasses.getType(c));
+
+        List<Subject> subjects = ObjectClasses.getSubjects(c);
+        for (int i = 0; i < subjects.size(); i++) {
+            Subject s = subjects.get(i);
+            addValue(values, FACET_SUBJECT_TYPE, s.getType());
+            addValue(values, subjectFacet(s.getType()), s.getValue());
+            addValue(values, termIdentifierFacet(s.getType()),
+                    s.getTermIdentifier());
+        }
+
+        List<Rights> rights = ObjectClasses.getRights(c);
+        for (int i = 0; i < rights.size(); i++) {
+            if (rights.get(i).getLicence() != null) {
+                addValue(values, FACET_LICENCE,
+                        rights.get(i).getLicence().getType());
+            }
+        }
+        return values;
+    }
+
+
+    /**
+     * Add a facet value to a list of names and values, leaving out
+     * empty values.
+     *
+     * @param values
+     *      Facet names and values in pairs
+     * @param facet
+     *      The facet name
+     * @param value
+     *      The value, or null
+     */
+    private static void addValue(final List<String> values,
+                                 final String facet,
+                                 final String value) {
+        if (value != null && value.trim().length() > 0) {
+            values.add(facet);
+            values.add(value.trim());
+        }
+    }
+
+
+    /**
+     * Remove a registry object from the index.
+     *
+     * @param key
+     *      The registry object key
+     */
+    public final void remove(final String key) {
+        lock.writeLock().lock();
+        try {
+            delete(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Add a registry object added to an attached document.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void registryObjectAdded(final RegistryObject ro)
+            throws RIFCSException {
+        add(ro);
+    }
+
+
+    /**
+     * Remove a registry object removed from an attached document.
+     *
+     * @param ro
+     *      The registry object
+     */
+    public final void registryObjectRemoved(final RegistryObject ro) {
+        remove(ro.getKey());
+    }
+
+
+    /**
+     * Add the registry objects of another index to this one, replacing
+     * any with the same keys. The other index is not changed.
+     *
+     * The other index is copied under its read lock, which is released
+     * before this index is locked, so that indexes may be merged into
+     * each other at the same time without deadlock.
+     *
+     * @param other
+     *      Another index
+     */
+    public final void merge(final FacetIndex other) {
+        if (other == this) {
+            return;
+        }
+        // the keys of the other index's documents, and their facet
+        // names and values in pairs
+        List<String> keys = new ArrayList<String>();
+        List<String[]> values = new ArrayList<String[]>();
+        other.lock.readLock().lock();
+        try {
+            BitSet live = other.table.getLive();
+            for (int d = live.nextSetBit(0); d >= 0;
+                    d = live.nextSetBit(d + 1)) {
+                int[] theirs = other.docValues.get(d);
+                String[] pairs = new String[theirs.length];
+                for (int i = 0; i < theirs.length; i += 2) {
+                    Facet f = other.facets.get(theirs[i]);
+                    pairs[i] = f.name;
+                    pairs[i + 1] = f.values.get(theirs[i + 1]);
+                }
+                keys.add(other.table.getKey(d));
+                values.add(pairs);
+            }
+        } finally {
+            other.lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (int k = 0; k < keys.size(); k++) {
+                String key = keys.get(k);
+                delete(key);
+                int doc = table.add(key);
+                String[] theirs = values.get(k);
+                int[] pairs = new int[theirs.length];
+                for (int i = 0; i < theirs.length; i += 2) {
+                    Facet f = facet(theirs[i]);
+                    pairs[i] = f.index;
+                    pairs[i + 1] = f.add(theirs[i + 1], doc);
+                }
+                setDocValues(doc, pairs);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Obtain the names of the facets with at least one value.
+     *
+     * @return
+     *      The facet names
+     */
+    public final Set<String> getFacets() {
+        lock.readLock().lock();
+        try {
+            Set<String> names = new LinkedHashSet<String>();
+            for (int i = 0; i < facets.size(); i++) {
+                if (facets.get(i).hasValues()) {
+                    names.add(facets.get(i).name);
+                }
+            }
+            return names;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Obtain the number of registry objects with each value of a facet.
+     *
+     * @param facet
+     *      The facet name
+     *
+     * @return
+     *      Map from value to number of registry objects, in descending
+     *      order of count. Values with no registry objects are left out.
+     */
+    public final Map<String, Integer> counts(final String facet) {
+        Map<String, String> none = Collections.emptyMap();
+        return counts(facet, none);
+    }
+
+
+    /**
+     * Obtain the number of registry objects with each value of a facet,
+     * among the registry objects with the selected values of other
+     * facets.
+     *
+     * @param facet
+     *      The facet name
+     * @param selected
+     *      Map from facet name to the value selected in that facet
+     *
+     * @return
+     *      Map from value to number of registry objects, in descending
+     *      order of count. Values with no registry objects are left out.
+     */
+    public final Map<String, Integer> counts(final String facet,
+            final Map<String, String> selected) {
+        lock.readLock().lock();
+        try {
+            Integer id = facetIds.get(facet);
+            if (id == null) {
+                return new LinkedHashMap<String, Integer>();
+            }
+            Facet f = facets.get(id.intValue());
+            if (selected.isEmpty()) {
+                return f.toMap(f.counts);
+            }
+
+            BitSet filter = filter(selected);
+            int[] counts = new int[f.values.size()];
+            int matches = filter.cardinality();
+            int words = table.capacity() / BITS_PER_WORD + 1;
+            if (matches < (long) counts.length * words) {
+                // few matches: read the values of each matching document
+                for (int d = filter.nextSetBit(0); d >= 0;
+                        d = filter.nextSetBit(d + 1)) {
+                    int[] pairs = docValues.get(d);
+                    for (int i = 0; i < pairs.length; i += 2) {
+                        if (pairs[i] == f.index) {
+                            counts[pairs[i + 1]]++;
+                        }
+                    }
+                }
+            } else {
+                for (int v = 0; v < counts.length; v++) {
+                    if (f.counts[v] > 0) {
+                        BitSet b = (BitSet) f.docs.get(v).clone();
+                        b.and(filter);
+                        counts[v] = b.cardinality();
+                    }
+                }
+            }
+            return f.toMap(counts);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Find the registry objects with the selected facet values.
+     *
+     * @param selected
+     *      Map from facet name to the value selected in that facet
+     *
+     * @return
+     *      The keys of the registry objects with all the selected values
+     */
+    public final List<String> select(final Map<String, String> selected) {
+        lock.readLock().lock();
+        try {
+            return table.toKeys(filter(selected));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Estimate the number of registry objects with the selected facet
+     * values, from the counts of each value alone, without reading the
+     * documents.
+     *
+     * @param selected
+     *      Map from facet name to the value selected in that facet
+     *
+     * @return
+     *      The least count of any selected value, at least the number of
+     *      registry objects select() finds
+     */
+    final int estimate(final Map<String, String> selected) {
+        lock.readLock().lock();
+        try {
+            int least = table.size();
+            for (Map.Entry<String, String> e : selected.entrySet()) {
+                Integer id = facetIds.get(e.getKey());
+                Integer value = null;
+                if (id != null) {
+                    value = facets.get(id.intValue()).ids.get(e.getValue());
+                }
+                if (value == null) {
+                    return 0;
+                }
+                least = Math.min(least,
+                        facets.get(id.intValue()).counts[value.intValue()]);
+            }
+            return least;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Obtain the number of registry objects in the index.
+     *
+     * @return
+     *      The number of registry objects
+     */
+    public final int size() {
+        lock.readLock().lock();
+        try {
+            return table.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Obtain the documents with all the selected facet values. The read
+     * lock must be held.
+     *
+     * @param selected
+     *      Map from facet name to the value selected in that facet
+     *
+     * @return
+     *      The live matching documents
+     */
+    private BitSet filter(final Map<String, String> selected) {
+        BitSet filter = (BitSet) table.getLive().clone();
+        for (Iterator<Map.Entry<String, String>> i =
+                selected.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<String, String> entry = i.next();
+            Integer id = facetIds.get(entry.getKey());
+            Integer value = null;
+            if (id != null) {
+                value = facets.get(id.intValue()).ids.get(entry.getValue());
+            }
+            if (value == null) {
+                return new BitSet();
+            }
+            filter.and(facets.get(id.intValue()).docs.get(value.intValue()));
+        }
+        return filter;
+    }
+
+
+    /**
+     * Obtain a facet, creating it if necessary. The write lock must be
+     * held.
+     *
+     * @param name
+     *      The facet name
+     *
+     * @return
+     *      The facet
+     */
+    private Facet facet(final String name) {
+        Integer id = facetIds.get(name);
+        if (id != null) {
+            return facets.get(id.intValue());
+        }
+        Facet f = new Facet(name, facets.size());
+        facetIds.put(name, Integer.valueOf(f.index));
+        facets.add(f);
+        return f;
+    }
+
+
+    /**
+     * Append a facet and value number pair unless it is already present.
+     *
+     * @param pairs
+     *      Facet and value numbers in pairs
+     * @param n
+     *      The number of elements of pairs used
+     * @param facet
+     *      The facet number
+     * @param value
+     *      The value number
+     *
+     * @return
+     *      The new number of elements used
+     */
+    private static int addPair(final int[] pairs, final int n,
+                               final int facet, final int value) {
+        for (int i = 0; i < n; i += 2) {
+            if (pairs[i] == facet && pairs[i + 1] == value) {
+                return n;
+            }
+        }
+        pairs[n] = facet;
+        pairs[n + 1] = value;
+        return n + 2;
+    }
+
+
+    /**
+     * Record the facet values of a new document. The write lock must be
+     * held.
+     *
+     * @param doc
+     *      The document number
+     * @param pairs
+     *      Facet and value numbers in pairs
+     */
+    private void setDocValues(final int doc, final int[] pairs) {
+        while (docValues.size() <= doc) {
+            docValues.add(null);
+        }
+        docValues.set(doc, pairs);
+    }
+
+
+    /**
+     * Remove a document from its facet values, compacting the index if
+     * many documents have been removed. The write lock must be held.
+     *
+     * @param key
+     *      The registry object key
+     */
+    private void delete(final String key) {
+        int doc = table.delete(key);
+        if (doc < 0) {
+            return;
+        }
+        int[] pairs = docValues.get(doc);
+        for (int i = 0; i < pairs.length; i += 2) {
+            facets.get(pairs[i]).remove(pairs[i + 1], doc);
+        }
+        docValues.set(doc, null);
+
+        if (table.needsCompaction()) {
+            int[] remap = table.compact();
+            List<int[]> compacted = new ArrayList<int[]>(table.size());
+            for (int d = 0; d < remap.length; d++) {
+                if (remap[d] >= 0) {
+                    compacted.add(docValues.get(d));
+                }
+            }
+            docValues = compacted;
+            for (int i = 0; i < facets.size(); i++) {
+                facets.get(i).remap(remap);
+            }
+        }
+    }
+
+
+    /**
+     * The dictionary, counts and document sets of one facet.
+     */
+    private static final class Facet {
+        /** Initial capacity of the counts array. */
+        private static final int INITIAL_CAPACITY = 16;
+
+        /** The facet name. */
+        private final String name;
+        /** Index of the facet in the facet list. */
+        private final int index;
+        /** Map from value to value number. */
+        private final Map<String, Integer> ids =
+                new HashMap<String, Integer>();
+        /** The value of each value number. */
+        private final List<String> values = new ArrayList<String>();
+        /** Number of live documents with each value number. */
+        private int[] counts = new int[INITIAL_CAPACITY];
+        /** The documents with each value number. */
+        private final List<BitSet> docs = new ArrayList<BitSet>();
+
+        /**
+         * Create a facet.
+         *
+         * @param aName
+         *      The facet name
+         * @param anIndex
+         *      Index of the facet in the facet list
+         */
+        Facet(final String aName, final int anIndex) {
+            this.name = aName;
+            this.index = anIndex;
+        }
+
+        /**
+         * Add a value to a document.
+         *
+         * @param value
+         *      The value
+         * @param doc
+         *      The document number
+         *
+         * @return
+         *      The value number
+         */
+        int add(final String value, final int doc) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = Integer.valueOf(values.size());
+                ids.put(value, id);
+                values.add(value);
+                docs.add(new BitSet());
+                if (counts.length < values.size()) {
+                    counts = Arrays.copyOf(counts, counts.length * 2);
+                }
+            }
+            BitSet b = docs.get(id.intValue());
+            if (!b.get(doc)) {
+                b.set(doc);
+                counts[id.intValue()]++;
+            }
+            return id.intValue();
+        }
+
+        /**
+         * Remove a value from a document.
+         *
+         * @param value
+         *      The value number
+         * @param doc
+         *      The document number
+         */
+        void remove(final int value, final int doc) {
+            BitSet b = docs.get(value);
+            if (b.get(doc)) {
+                b.clear(doc);
+                counts[value]--;
+            }
+        }
+
+        /**
+         * Renumber the documents after compaction.
+         *
+         * @param remap
+         *      The new number of each old document number
+         */
+        void remap(final int[] remap) {
+            for (int v = 0; v < docs.size(); v++) {
+                docs.set(v, DocumentTable.remap(docs.get(v), remap));
+            }
+        }
+
+        /**
+         * Determine whether any document has a value of this facet.
+         *
+         * @return
+         *      true if some value has a non-zero count
+         */
+        boolean hasValues() {
+            for (int v = 0; v < values.size(); v++) {
+                if (counts[v] > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Convert counts to a map in descending order of count.
+         *
+         * @param someCounts
+         *      The count of each value number
+         *
+         * @return
+         *      Map from value to count, leaving out zero counts
+         */
+        Map<String, Integer> toMap(final int[] someCounts) {
+            List<Integer> order = new ArrayList<Integer>();
+            for (int v = 0; v < values.size(); v++) {
+                if (someCounts[v] > 0) {
+                    order.add(Integer.valueOf(v));
+                }
+            }
+            Collections.sort(order, new Comparator<Integer>() {
+                public int compare(final Integer a, final Integer b) {
+                    int c = Integer.compare(someCounts[b.intValue()],
+                            someCounts[a.intValue()]);
+                    if (c == 0) {
+                        c = values.get(a.intValue()).compareTo(
+                                values.get(b.intValue()));
+                    }
+                    return c;
+                }
+            });
+            Map<String, Integer> m = new LinkedHashMap<String, Integer>();
+            for (int i = 0; i < order.size(); i++) {
+                int v = order.get(i).intValue();
+                m.put(values.get(v), Integer.valueOf(someCounts[v]));
+            }
+            return m;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A point, box or polygon parsed from the value of a spatial element.
+ *
+ * Coordinates are longitude (x) and latitude (y) in decimal degrees.
+ * The spatial types understood are:
+ * <ul>
+ *   <li><code>kmlPolyCoords</code> and <code>gmlKmlPolyCoords</code>:
+ *   space separated <code>longitude,latitude[,altitude]</code>
+ *   tuples;</li>
+ *   <li><code>iso19139dcmiBox</code> and <code>dcmiBox</code>:
+ *   <code>northlimit=...; southlimit=...; westlimit=...;
+ *   eastlimit=...</code>;</li>
+ *   <li><code>dcmiPoint</code>: <code>east=...; north=...</code>.</li>
+ * </ul>
+ *
+ */
+public final class Geometry {
+    /** A single point. */
+    public static final int POINT = 0;
+    /** A box aligned with the axes. */
+    public static final int BOX = 1;
+    /** A polygon. */
+    public static final int POLYGON = 2;
+
+    /** The kmlPolyCoords spatial type. */
+    public static final String TYPE_KML_POLY_COORDS = "kmlPolyCoords";
+    /** The gmlKmlPolyCoords spatial type. */
+    public static final String TYPE_GML_KML_POLY_COORDS = "gmlKmlPolyCoords";
+    /** The iso19139dcmiBox spatial type. */
+    public static final String TYPE_ISO19139_DCMI_BOX = "iso19139dcmiBox";
+    /** The dcmiBox spatial type. */
+    public static final String TYPE_DCMI_BOX = "dcmiBox";
+    /** The dcmiPoint spatial type. */
+    public static final String TYPE_DCMI_POINT = "dcmiPoint";
+
+    /** Longitude of the antimeridian. */
+    static final double ANTIMERIDIAN = 180.0;
+
+    /** The kind of geometry: POINT, BOX or POLYGON. */
+    private final int kind;
+    /** Coordinates as x and y pairs. */
+    private final double[] coordinates;
+    /** Least x. */
+    private final double minX;
+    /** Least y. */
+    private final double minY;
+    /** Greatest x. */
+    private final double maxX;
+    /** Greatest y. */
+    private final double maxY;
+
+
+    /**
+     * Construct a geometry.
+     *
+     * @param aKind
+     *      POINT, BOX or POLYGON
+     * @param someCoordinates
+     *      Coordinates as x and y pairs, at least one pair
+     */
+    Geometry(final int aKind, final double[] someCoordinates) {
+        this.kind = aKind;
+        this.coordinates = someCoordinates;
+        double x0 = Double.POSITIVE_INFINITY;
+        double y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY;
+        double y1 = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < someCoordinates.length; i += 2) {
+            x0 = Math.min(x0, someCoordinates[i]);
+            y0 = Math.min(y0, someCoordinates[i + 1]);
+            x1 = Math.max(x1, someCoordinates[i]);
+            y1 = Math.max(y1, someCoordinates[i + 1]);
+        }
+        this.minX = x0;
+        this.minY = y0;
+        this.maxX = x1;
+        this.maxY = y1;
+    }
+
+
+    /**
+     * Parse the value of a spatial element.
+     *
+     * @param type
+     *      The spatial type attribute
+     * @param value
+     *      The spatial element content
+     *
+     * @return
+     *      The geometries described, usually one. Boxes crossing the
+     *      antimeridian are split in two. Empty if the type is not
+     *      understood or the value can not be parsed.
+     */
+    public static List<Geometry> parse(final String type,
+                                       final String value) {
+        List<Geometry> result = new ArrayList<Geometry>();
+        if (type == null || value == null) {
+            return result;
+        }
+        try {
+            if (TYPE_KML_POLY_COORDS.equals(type)
+                    || TYPE_GML_KML_POLY_COORDS.equals(type)) {
+                double[] c = parseTuples(value);
+                if (c.length == 2) {
+                    result.add(new Geometry(POINT, c));
+                } else if (c.length > 2) {
+                    result.add(new Geometry(POLYGON, c));
+                }
+            } else if (TYPE_ISO19139_DCMI_BOX.equals(type)
+                    || TYPE_DCMI_BOX.equals(type)) {
+                parseBox(parseComponents(value), result);
+            } else if (TYPE_DCMI_POINT.equals(type)) {
+                Map<String, Double> m = parseComponents(value);
+                Double east = m.get("east");
+                Double north = m.get("north");
+                if (east != null && north != null) {
+                    result.add(new Geometry(POINT, new double[] {
+                        east.doubleValue(), north.doubleValue()}));
+                }
+            }
+        } catch (NumberFormatException nfe) {
+            result.clear();
+        }
+        return result;
+    }
+
+
+    /**
+     * Parse space separated coordinate tuples.
+     *
+     * @param value
+     *      The tuples
+     *
+     * @return
+     *      Coordinates as x and y pairs
+     */
+    private static double[] parseTuples(final String value) {
+        String[] tuples = value.trim().split("\\s+");
+        double[] c = new double[tuples.length * 2];
+        int n = 0;
+        for (int i = 0; i < tuples.length; i++) {
+            if (tuples[i].length() == 0) {
+                continue;
+            }
+            String[] parts = tuples[i].split(",");
+            if (parts.length < 2) {
+                throw new NumberFormatException("Bad tuple: " + tuples[i]);
+            }
+            c[n++] = Double.parseDouble(parts[0]);
+            c[n++] = Double.parseDouble(parts[1]);
+        }
+        return Arrays.copyOf(c, n);
+    }
+
+
+    /**
+     * Parse semicolon separated name=value components, as used by DCMI
+     * boxes and points. Names are converted to lower case and components
+     * which are not numbers are left out.
+     *
+     * @param value
+     *      The components
+     *
+     * @return
+     *      Map from name to number
+     */
+    private static Map<String, Double> parseComponents(final String value) {
+        Map<String, Double> m = new HashMap<String, Double>();
+        String[] components = value.split(";");
+        for (int i = 0; i < components.length; i++) {
+            int eq = components[i].indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            String name = components[i].substring(0, eq).trim()
+                    .toLowerCase(Locale.ROOT);
+            try {
+                m.put(name, Double.valueOf(
+                        components[i].substring(eq + 1).trim()));
+            } catch (NumberFormatException nfe) {
+                // names, projections and units are not needed
+            }
+        }
+        return m;
+    }
+
+
+    /**
+     * Create the geometries of a DCMI box.
+     *
+     * @param m
+     *      The box components
+     * @param result
+     *      The list receiving the geometries
+     */
+    private static void parseBox(final Map<String, Double> m,
+                                 final List<Geometry> result) {
+        Double north = m.get("northlimit");
+        Double south = m.get("southlimit");
+        Double west = m.get("westlimit");
+        Double east = m.get("eastlimit");
+        if (north == null || south == null || west == null || east == null) {
+            return;
+        }
+        double n = north.doubleValue();
+        double s = south.doubleValue();
+        double w = west.doubleValue();
+        double e = east.doubleValue();
+        if (w <= e) {
+            result.add(box(w, s, e, n));
+        } else {
+            result.add(box(w, s, ANTIMERIDIAN, n));
+            result.add(box(-ANTIMERIDIAN, s, e, n));
+        }
+    }
+
+
+    /**
+     * Create a box.
+     *
+     * @param x0
+     *      Least x
+     * @param y0
+     *      Least y
+     * @param x1
+     *      Greatest x
+     * @param y1
+     *      Greatest y
+     *
+     * @return
+     *      The box
+     */
+    private static Geometry box(final double x0, final double y0,
+                                final double x1, final double y1) {
+        return new Geometry(BOX, new double[] {x0, y0, x1, y1});
+    }
+
+
+    /**
+     * Obtain the kind of geometry.
+     *
+     * @return
+     *      POINT, BOX or POLYGON
+     */
+    public int getKind() {
+        return kind;
+    }
+
+
+    /**
+     * Obtain the coordinates. For a box these are two opposite corners.
+     *
+     * @return
+     *      A copy of the coordinates as x and y pairs
+     */
+    public double[] getCoordinates() {
+        return coordinates.clone();
+    }
+
+
+    /**
+     * Obtain the least x of the bounding box.
+     *
+     * @return
+     *      The west limit
+     */
+    public double getMinX() {
+        return minX;
+    }
+
+
+    /**
+     * Obtain the least y of the bounding box.
+     *
+     * @return
+     *      The south limit
+     */
+    public double getMinY() {
+        return minY;
+    }
+
+
+    /**
+     * Obtain the greatest x of the bounding box.
+     *
+     * @return
+     *      The east limit
+     */
+    public double getMaxX() {
+        return maxX;
+    }
+
+
+    /**
+     * Obtain the greatest y of the bounding box.
+     *
+     * @return
+     *      The north limit
+     */
+    public double getMaxY() {
+        return maxY;
+    }
+
+
+    /**
+     * Determine whether the geometry contains a point. Points on the
+     * boundary of a box are contained; polygons use the even-odd rule.
+     *
+     * @param x
+     *      The longitude
+     * @param y
+     *      The latitude
+     *
+     * @return
+     *      true if the point is within the geometry
+     */
+    public boolean contains(final double x, final double y) {
+        if (x < minX || x > maxX || y < minY || y > maxY) {
+            return false;
+        }
+        if (kind != POLYGON) {
+            return true;
+        }
+        return polygonContains(coordinates, 0, coordinates.length, x, y);
+    }
+
+
+    /**
+     * Determine whether a polygon contains a point, by the even-odd rule.
+     *
+     * @param c
+     *      An array holding the polygon vertices as x and y pairs
+     * @param start
+     *      Offset of the first vertex
+     * @param end
+     *      Offset after the last vertex
+     * @param x
+     *      The point's x
+     * @param y
+     *      The point's y
+     *
+     * @return
+     *      true if the point is inside the polygon
+     */
+    static boolean polygonContains(final double[] c, final int start,
+                                   final int end, final double x,
+                                   final double y) {
+        boolean inside = false;
+        for (int i = start, j = end - 2; i < end; j = i, i += 2) {
+            double xi = c[i];
+            double yi = c[i + 1];
+            double xj = c[j];
+            double yj = c[j + 1];
+            if ((yi > y) != (yj > y)
+                    && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
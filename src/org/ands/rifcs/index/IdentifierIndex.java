@@ -0,0 +1,325 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.ands.rifcs.base.Identifier;
+import org.ands.rifcs.base.ObjectClasses;
+import org.ands.rifcs.base.RIFCS;
+import org.ands.rifcs.base.RIFCSElement;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.ands.rifcs.base.RegistryObjectListener;
+import org.w3c.dom.Node;
+
+/**
+ * Index of the identifiers of registry objects, such as DOIs and
+ * handles, for finding the registry objects with an identifier.
+ *
+ * Only the identifiers of the object class element itself are indexed,
+ * not those of related info or citations. Values are compared with
+ * leading and trailing white space removed.
+ *
+ * An index attached to a RIFCS object is updated as registry objects
+ * are added to it. Queries may run concurrently with updates.
+ *
+ */
+public class IdentifierIndex implements RegistryObjectListener {
+    /** Map from identifier value to the keys and types of the registry
+     *  objects with it, in pairs. */
+    private final Map<String, List<String>> byValue =
+            new HashMap<String, List<String>>();
+    /** Map from key to the identifier values of the registry object. */
+    private final Map<String, List<String>> byKey =
+            new HashMap<String, List<String>>();
+    /** Lock guarding all the above. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+    /**
+     * Create an empty index.
+     */
+    public IdentifierIndex() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Index all the registry objects of a RIF-CS document, and keep the
+     * index up to date as registry objects are added to it.
+     *
+     * @param rifcs
+     *      A RIFCS object
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void attach(final RIFCS rifcs) throws RIFCSException {
+        for (Iterator<RegistryObject> i =
+                rifcs.getRegistryObjects().values().iterator();
+                i.hasNext();) {
+            add(i.next());
+        }
+        rifcs.addRegistryObjectListener(this);
+    }
+
+
+    /**
+     * Add a registry object to the index, replacing any registry object
+     * with the same key.
+     *
+     * @param ro
+     *      A RegistryObject
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void add(final RegistryObject ro) throws RIFCSException {
+        List<Identifier> ids = identifiers(ro);
+        String key = ro.getKey();
+        lock.writeLock().lock();
+        try {
+            delete(key);
+            List<String> values = new ArrayList<String>(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                String value = value(ids.get(i));
+                if (value == null) {
+                    continue;
+                }
+                List<String> l = byValue.get(value);
+                if (l == null) {
+                    l = new ArrayList<String>(2);
+                    byValue.put(value, l);
+                }
+                l.add(key);
+                l.add(ids.get(i).getType());
+                values.add(value);
+            }
+            byKey.put(key, values);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Remove a registry object from the index.
+     *
+     * @param key
+     *      The registry object key
+     */
+    public final void remove(final String key) {
+        lock.writeLock().lock();
+        try {
+            delete(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Add a registry object added to an attached document.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void registryObjectAdded(final RegistryObject ro)
+            throws RIFCSException {
+        add(ro);
+    }
+
+
+    /**
+     * Remove a registry object removed from an attached document.
+     *
+     * @param ro
+     *      The registry object
+     */
+    public final void registryObjectRemoved(final RegistryObject ro) {
+        remove(ro.getKey());
+    }
+
+
+    /**
+     * Find the registry objects with an identifier of any type.
+     *
+     * @param value
+     *      The identifier value
+     *
+     * @return
+     *      The keys of the registry objects with the identifier
+     */
+    public final List<String> find(final String value) {
+        return find(value, null);
+    }
+
+
+    /**
+     * Find the registry objects with an identifier of a type.
+     *
+     * @param value
+     *      The identifier value
+     * @param type
+     *      The identifier type, for example doi, or null for any type
+     *
+     * @return
+     *      The keys of the registry objects with the identifier
+     */
+    public final List<String> find(final String value, final String type) {
+        Set<String> keys = new LinkedHashSet<String>();
+        lock.readLock().lock();
+        try {
+            List<String> l = byValue.get(value.trim());
+            if (l != null) {
+                for (int i = 0; i < l.size(); i += 2) {
+                    if (type == null || type.equals(l.get(i + 1))) {
+                        keys.add(l.get(i));
+                    }
+                }
+            }
+            return new ArrayList<String>(keys);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Estimate the number of registry objects with an identifier,
+     * without collecting their keys.
+     *
+     * @param value
+     *      The identifier value
+     *
+     * @return
+     *      The number of times the value is indexed, at least the number
+     *      of registry objects find() finds
+     */
+    final int estimate(final String value) {
+        lock.readLock().lock();
+        try {
+            List<String> l = byValue.get(value.trim());
+            if (l == null) {
+                return 0;
+            }
+            return l.size() / 2;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Obtain the number of registry objects in the index, with or
+     * without identifiers.
+     *
+     * @return
+     *      The number of registry objects
+     */
+    public final int size() {
+        lock.readLock().lock();
+        try {
+            return byKey.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Obtain the identifiers indexed of a registry object: those of its
+     * object class element itself.
+     *
+     * @param ro
+     *      A RegistryObject
+     *
+     * @return
+     *      The identifiers, in document order
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    static List<Identifier> identifiers(final RegistryObject ro)
+            throws RIFCSException {
+        RIFCSElement c = ro.getClassObject();
+        Node parent = c.getDOMElement();
+        List<Identifier> all = ObjectClasses.getIdentifiers(c);
+        List<Identifier> ids = new ArrayList<Identifier>(all.size());
+        for (int i = 0; i < all.size(); i++) {
+            if (all.get(i).getDOMElement().getParentNode() == parent) {
+                ids.add(all.get(i));
+            }
+        }
+        return ids;
+    }
+
+
+    /**
+     * Obtain the value of an identifier as indexed.
+     *
+     * @param id
+     *      The identifier
+     *
+     * @return
+     *      The value without leading and trailing white space, or null
+     *      if it is blank
+     */
+    static String value(final Identifier id) {
+        String value = id.getValue();
+        if (value == null || value.trim().length() == 0) {
+            return null;
+        }
+        return value.trim();
+    }
+
+
+    /**
+     * Remove a registry object. The write lock must be held.
+     *
+     * @param key
+     *      The registry object key
+     */
+    private void delete(final String key) {
+        List<String> values = byKey.remove(key);
+        if (values == null) {
+            return;
+        }
+        for (int i = 0; i < values.size(); i++) {
+            List<String> l = byValue.get(values.get(i));
+            if (l == null) {
+                continue;
+            }
+            for (int j = l.size() - 2; j >= 0; j -= 2) {
+                if (key.equals(l.get(j))) {
+                    l.remove(j + 1);
+                    l.remove(j);
+                }
+            }
+            if (l.isEmpty()) {
+                byValue.remove(values.get(i));
+            }
+        }
+    }
+}
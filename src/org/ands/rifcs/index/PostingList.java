@@ -0,0 +1,304 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.index;
+
+import java.util.Arrays;
+
+/**
+ * The documents and positions at which one term occurs in one field,
+ * compressed into a byte array.
+ *
+ * Each document is stored as the difference from the previous document
+ * number, followed by the number of positions and the differences
+ * between successive positions, all as variable length integers of
+ * seven bits per byte. Documents must be added in ascending order.
+ *
+ */
+final class PostingList {
+    /** Initial capacity in bytes. */
+    private static final int INITIAL_CAPACITY = 8;
+    /** Bits of an integer stored in each byte. */
+    private static final int SHIFT = 7;
+    /** Mask of the bits stored in each byte. */
+    private static final int LOW_BITS = 0x7f;
+    /** Flag marking a byte which is followed by more of the integer. */
+    private static final int MORE = 0x80;
+
+    /** The encoded postings. */
+    private byte[] data = new byte[INITIAL_CAPACITY];
+    /** Number of bytes used. */
+    private int length = 0;
+    /** The last document added, or -1. */
+    private int lastDoc = -1;
+    /** The number of documents. */
+    private int docCount = 0;
+
+
+    /**
+     * Create an empty posting list.
+     */
+    PostingList() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Add a document.
+     *
+     * @param doc
+     *      The document number, greater than any already added
+     * @param positions
+     *      The positions of the term in the document, in ascending order
+     * @param count
+     *      The number of positions
+     */
+    void add(final int doc, final int[] positions, final int count) {
+        write(doc - lastDoc);
+        write(count);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            write(positions[i] - previous);
+            previous = positions[i];
+        }
+        lastDoc = doc;
+        docCount++;
+    }
+
+
+    /**
+     * Append a variable length integer.
+     *
+     * @param value
+     *      A non-negative integer
+     */
+    private void write(final int value) {
+        if (length + SHIFT > data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        int v = value;
+        while ((v & ~LOW_BITS) != 0) {
+            data[length++] = (byte) ((v & LOW_BITS) | MORE);
+            v >>>= SHIFT;
+        }
+        data[length++] = (byte) v;
+    }
+
+
+    /**
+     * Obtain the number of documents.
+     *
+     * @return
+     *      The number of documents containing the term
+     */
+    int getDocCount() {
+        return docCount;
+    }
+
+
+    /**
+     * Obtain the number of bytes used by the encoded postings.
+     *
+     * @return
+     *      The size in bytes
+     */
+    int getSize() {
+        return length;
+    }
+
+
+    /**
+     * Decode the document numbers.
+     *
+     * @return
+     *      The documents containing the term, in ascending order
+     */
+    int[] docs() {
+        int[] docs = new int[docCount];
+        Reader r = reader();
+        for (int i = 0; r.next(); i++) {
+            docs[i] = r.doc();
+        }
+        return docs;
+    }
+
+
+    /**
+     * Obtain a reader of the postings.
+     *
+     * @return
+     *      A reader positioned before the first document
+     */
+    Reader reader() {
+        return new Reader();
+    }
+
+
+    /**
+     * Copy the postings, renumbering documents and leaving out deleted
+     * documents.
+     *
+     * @param remap
+     *      The new number of each document, or -1 for deleted documents.
+     *      New numbers must be in the same order as the old ones.
+     *
+     * @return
+     *      The new posting list, or null if no documents remain
+     */
+    PostingList compact(final int[] remap) {
+        PostingList result = new PostingList();
+        Reader r = reader();
+        while (r.next()) {
+            if (remap[r.doc()] >= 0) {
+                result.add(remap[r.doc()], r.positions(), r.freq());
+            }
+        }
+        if (result.docCount == 0) {
+            return null;
+        }
+        result.data = Arrays.copyOf(result.data, result.length);
+        return result;
+    }
+
+
+    /**
+     * Sequential reader of a posting list.
+     */
+    final class Reader {
+        /** Offset of the next byte to read. */
+        private int offset = 0;
+        /** The current document, or -1 before the first. */
+        private int doc = -1;
+        /** Number of positions in the current document. */
+        private int freq = 0;
+        /** Positions of the current document, once decoded. */
+        private int[] positions = null;
+        /** true once the positions of the current document are read. */
+        private boolean positionsRead = true;
+
+
+        /**
+         * Create a reader.
+         */
+        private Reader() {
+            // do nothing constructor
+        }
+
+
+        /**
+         * Read a variable length integer.
+         *
+         * @return
+         *      The integer
+         */
+        private int read() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (b & LOW_BITS) << shift;
+                shift += SHIFT;
+            } while ((b & MORE) != 0);
+            return value;
+        }
+
+
+        /**
+         * Move to the next document.
+         *
+         * @return
+         *      true if there is another document
+         */
+        boolean next() {
+            if (!positionsRead) {
+                for (int i = 0; i < freq; i++) {
+                    read();
+                }
+            }
+            if (offset >= length) {
+                return false;
+            }
+            doc += read();
+            freq = read();
+            positionsRead = false;
+            return true;
+        }
+
+
+        /**
+         * Move to the first document at or after a target.
+         *
+         * @param target
+         *      The document sought
+         *
+         * @return
+         *      true if there is such a document
+         */
+        boolean advance(final int target) {
+            while (doc < target) {
+                if (!next()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+
+        /**
+         * Obtain the current document.
+         *
+         * @return
+         *      The document number
+         */
+        int doc() {
+            return doc;
+        }
+
+
+        /**
+         * Obtain the number of positions in the current document.
+         *
+         * @return
+         *      The number of positions
+         */
+        int freq() {
+            return freq;
+        }
+
+
+        /**
+         * Decode the positions of the current document. The array
+         * returned is reused by later calls.
+         *
+         * @return
+         *      An array whose first freq() elements are the positions
+         */
+        int[] positions() {
+            if (!positionsRead) {
+                if (positions == null || positions.length < freq) {
+                    positions = new int[freq];
+                }
+                int p = 0;
+                for (int i = 0; i < freq; i++) {
+                    p += read();
+                    positions[i] = p;
+                }
+                positionsRead = true;
+            }
+            return positions;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.index;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.ands.rifcs.base.RIFCS;
+import org.ands.rifcs.base.RegistryObject;
+
+/**
+ * How a RegistryQuery is answered: the indexes giving the candidate
+ * registry objects, and the conditions left to test on each candidate,
+ * or on every registry object if no index applies.
+ *
+ */
+public final class QueryPlan {
+    /** Candidates looked up by key. */
+    public static final String INDEX_KEY = "key";
+    /** Candidates from an IdentifierIndex. */
+    public static final String INDEX_IDENTIFIER = "identifier";
+    /** Candidates from a FacetIndex. */
+    public static final String INDEX_FACET = "facet";
+    /** Candidates from a TemporalIndex. */
+    public static final String INDEX_TEMPORAL = "temporal";
+
+    /** Obtains the key of a registry object. */
+    private static final Function<RegistryObject, String> KEY =
+            new Function<RegistryObject, String>() {
+        public String apply(final RegistryObject ro) {
+            return ro.getKey();
+        }
+    };
+
+    /** The document queried. */
+    private final RIFCS rifcs;
+    /** The indexes used, in the order they were read. */
+    private final List<String> indexes;
+    /** The keys of the candidates, or null to scan. */
+    private final List<String> candidates;
+    /** The conditions left to test, or null if there are none. */
+    private final Predicate<RegistryObject> residual;
+    /** The number of conditions left to test. */
+    private final int residualCount;
+
+
+    /**
+     * Create a plan.
+     *
+     * @param aRifcs
+     *      The document queried
+     * @param someIndexes
+     *      The indexes used
+     * @param someCandidates
+     *      The keys of the candidates, or null to scan
+     * @param conditions
+     *      The conditions left to test
+     */
+    QueryPlan(final RIFCS aRifcs, final List<String> someIndexes,
+              final List<String> someCandidates,
+              final List<Predicate<RegistryObject>> conditions) {
+        this.rifcs = aRifcs;
+        this.indexes = Collections.unmodifiableList(someIndexes);
+        this.candidates = someCandidates;
+        this.residualCount = conditions.size();
+        Predicate<RegistryObject> p = null;
+        for (int i = 0; i < conditions.size(); i++) {
+            if (p == null) {
+                p = conditions.get(i);
+            } else {
+                p = p.and(conditions.get(i));
+            }
+        }
+        this.residual = p;
+    }
+
+
+    /**
+     * Obtain the indexes giving the candidates.
+     *
+     * @return
+     *      INDEX_KEY etc., in the order they were read, empty for a scan
+     */
+    public List<String> getIndexes() {
+        return indexes;
+    }
+
+
+    /**
+     * Determine whether every registry object is tested.
+     *
+     * @return
+     *      true if no index applies
+     */
+    public boolean isScan() {
+        return candidates == null;
+    }
+
+
+    /**
+     * Obtain the number of candidates given by the indexes.
+     *
+     * @return
+     *      The number of candidates, or -1 for a scan
+     */
+    public int getCandidates() {
+        if (candidates == null) {
+            return -1;
+        }
+        return candidates.size();
+    }
+
+
+    /**
+     * Obtain the number of conditions tested on each candidate.
+     *
+     * @return
+     *      The number of conditions
+     */
+    public int getResidualConditions() {
+        return residualCount;
+    }
+
+
+    /**
+     * Obtain the keys of the matching registry objects. Registry
+     * objects are read only as the stream is consumed, and only those
+     * that are candidates; a scan reads every registry object of the
+     * document in turn, without copying it, see RIFCS.stream(), so the
+     * stream must not be made parallel. Exceptions reading a registry
+     * object are thrown from the stream as IllegalStateException.
+     *
+     * @return
+     *      The keys, in the order of the first index used, or of
+     *      RIFCS.stream() for a scan
+     */
+    public Stream<String> keys() {
+        if (candidates == null) {
+            Stream<RegistryObject> all = rifcs.stream();
+            if (residual != null) {
+                all = all.filter(residual);
+            }
+            return all.map(KEY);
+        }
+        final Map<String, RegistryObject> ros = rifcs.getRegistryObjects();
+        if (residual == null) {
+            return candidates.stream().filter(new Predicate<String>() {
+                public boolean test(final String key) {
+                    return ros.containsKey(key);
+                }
+            });
+        }
+        return candidates.stream().map(
+                new Function<String, RegistryObject>() {
+            public RegistryObject apply(final String key) {
+                return ros.get(key);
+            }
+        }).filter(new Predicate<RegistryObject>() {
+            public boolean test(final RegistryObject ro) {
+                return ro != null && residual.test(ro);
+            }
+        }).map(KEY);
+    }
+
+
+    /**
+     * Describe the plan, for example "facet+temporal: 12 candidates, 1
+     * residual condition".
+     *
+     * @return
+     *      A description of the plan
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (candidates == null) {
+            sb.append("scan");
+        } else {
+            for (int i = 0; i < indexes.size(); i++) {
+                if (i > 0) {
+                    sb.append('+');
+                }
+                sb.append(indexes.get(i));
+            }
+            sb.append(": ").append(candidates.size()).append(" candidates");
+        }
+        if (residualCount > 0) {
+            if (candidates == null) {
+                sb.append(": ");
+            } else {
+                sb.append(", ");
+            }
+            sb.append(residualCount).append(" residual condition");
+            if (residualCount > 1) {
+                sb.append('s');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,787 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.ands.rifcs.base.Identifier;
+import org.ands.rifcs.base.RIFCS;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+
+/**
+ * A query for the registry objects of a document meeting all of a set
+ * of conditions, answered from whichever indexes are given.
+ *
+ * Each condition is answered by an index if one is given for it: the
+ * key by the document itself, an identifier by an IdentifierIndex,
+ * the object class, type, group and other facet values by a
+ * FacetIndex, and dates by a TemporalIndex. The candidates are the
+ * registry objects found by every index used, and the conditions
+ * without an index, including those given by where(), are tested on
+ * each candidate. The indexes are read in order of the number of
+ * candidates each is estimated to give, fewest first, and once the
+ * candidates are few the remaining conditions are tested on them
+ * rather than looked up. With no index, every registry object of the
+ * document is tested in turn.
+ *
+ * Indexes must be attached to the document queried, so that they are
+ * up to date. Conditions are tested as they would be indexed, so that
+ * the results are the same with or without indexes.
+ *
+ * <pre>
+ * List&lt;String&gt; keys = new RegistryQuery(rifcs)
+ *         .use(facets).use(dates)
+ *         .objectClass("collection").type("dataset").group("ANDS")
+ *         .subject("anzsrc-for", "0801")
+ *         .overlapping(TemporalIndex.startOf("1990"),
+ *                 TemporalIndex.endOf("1999"), TemporalIndex.SOURCES_ALL)
+ *         .keys().collect(Collectors.toList());
+ * </pre>
+ *
+ */
+public final class RegistryQuery {
+    /** Candidates at or below which remaining conditions are tested
+     *  rather than looked up. */
+    public static final int FEW_CANDIDATES = 16;
+
+    /** Orders lookups by their estimated candidates, fewest first. */
+    private static final Comparator<Lookup> BY_ESTIMATE =
+            new Comparator<Lookup>() {
+        public int compare(final Lookup a, final Lookup b) {
+            return Integer.compare(a.estimate, b.estimate);
+        }
+    };
+
+    /** The document queried. */
+    private final RIFCS rifcs;
+    /** The facet index, or null. */
+    private FacetIndex facetIndex = null;
+    /** The temporal index, or null. */
+    private TemporalIndex temporalIndex = null;
+    /** The identifier index, or null. */
+    private IdentifierIndex identifierIndex = null;
+    /** The key selected, or null. */
+    private String key = null;
+    /** The identifier selected, or null. */
+    private String identifier = null;
+    /** The type of the identifier selected, or null for any. */
+    private String identifierType = null;
+    /** Map from facet name to the value selected in that facet. */
+    private final Map<String, String> facets =
+            new LinkedHashMap<String, String>();
+    /** The date ranges selected, each a further condition. */
+    private final List<DateRange> dateRanges = new ArrayList<DateRange>();
+    /** Conditions without an index. */
+    private final List<Predicate<RegistryObject>> predicates =
+            new ArrayList<Predicate<RegistryObject>>();
+
+
+    /**
+     * Create a query matching every registry object of a document.
+     *
+     * @param aRifcs
+     *      The document
+     */
+    public RegistryQuery(final RIFCS aRifcs) {
+        this.rifcs = aRifcs;
+    }
+
+
+    /**
+     * Answer facet conditions from an index.
+     *
+     * @param index
+     *      A FacetIndex attached to the document
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery use(final FacetIndex index) {
+        this.facetIndex = index;
+        return this;
+    }
+
+
+    /**
+     * Answer date conditions from an index.
+     *
+     * @param index
+     *      A TemporalIndex attached to the document
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery use(final TemporalIndex index) {
+        this.temporalIndex = index;
+        return this;
+    }
+
+
+    /**
+     * Answer identifier conditions from an index.
+     *
+     * @param index
+     *      An IdentifierIndex attached to the document
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery use(final IdentifierIndex index) {
+        this.identifierIndex = index;
+        return this;
+    }
+
+
+    /**
+     * Select the registry object with a key.
+     *
+     * @param aKey
+     *      The key
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery key(final String aKey) {
+        this.key = aKey;
+        return this;
+    }
+
+
+    /**
+     * Select the registry objects with an identifier of any type.
+     *
+     * @param value
+     *      The identifier value
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery identifier(final String value) {
+        return identifier(value, null);
+    }
+
+
+    /**
+     * Select the registry objects with an identifier of a type.
+     *
+     * @param value
+     *      The identifier value
+     * @param type
+     *      The identifier type, for example doi, or null for any type
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery identifier(final String value, final String type) {
+        this.identifier = value.trim();
+        this.identifierType = type;
+        return this;
+    }
+
+
+    /**
+     * Select the registry objects of an object class.
+     *
+     * @param objectClass
+     *      collection, party, activity or service
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery objectClass(final String objectClass) {
+        return facet(FacetIndex.FACET_CLASS, objectClass);
+    }
+
+
+    /**
+     * Select the registry objects whose object class element has a
+     * type.
+     *
+     * @param type
+     *      The type, for example dataset
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery type(final String type) {
+        return facet(FacetIndex.FACET_TYPE, type);
+    }
+
+
+    /**
+     * Select the registry objects of a group.
+     *
+     * @param group
+     *      The group
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery group(final String group) {
+        return facet(FacetIndex.FACET_GROUP, group);
+    }
+
+
+    /**
+     * Select the registry objects with a subject.
+     *
+     * @param subjectType
+     *      The subject type, for example anzsrc-for
+     * @param value
+     *      The subject value
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery subject(final String subjectType,
+                                 final String value) {
+        return facet(FacetIndex.subjectFacet(subjectType), value);
+    }
+
+
+    /**
+     * Select the registry objects with a value of any facet of a
+     * FacetIndex, replacing any value selected before in that facet.
+     *
+     * @param facet
+     *      The facet name, for example FacetIndex.FACET_LICENCE
+     * @param value
+     *      The value
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery facet(final String facet, final String value) {
+        facets.put(facet, value.trim());
+        return this;
+    }
+
+
+    /**
+     * Select the registry objects with a date sharing at least one
+     * instant with a range; see TemporalIndex.overlapping(). Each date
+     * range selected by this, covering() or within() is a further
+     * condition, which may be met by a different date.
+     *
+     * @param from
+     *      Start of the range, inclusive, or TemporalIndex.OPEN_START
+     * @param to
+     *      End of the range, inclusive, or TemporalIndex.OPEN_END
+     * @param someSources
+     *      The sources of dates, TemporalIndex.SOURCE_COVERAGE etc.
+     *      or'd together
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery overlapping(final long from, final long to,
+                                     final int someSources) {
+        return dates(to, from, TemporalIndex.OPEN_START,
+                TemporalIndex.OPEN_END, someSources);
+    }
+
+
+    /**
+     * Select the registry objects with a date covering the whole of a
+     * range; see TemporalIndex.covering(). The range is a further
+     * condition, as for overlapping().
+     *
+     * @param from
+     *      Start of the range, inclusive, or TemporalIndex.OPEN_START
+     * @param to
+     *      End of the range, inclusive, or TemporalIndex.OPEN_END
+     * @param someSources
+     *      The sources of dates, TemporalIndex.SOURCE_COVERAGE etc.
+     *      or'd together
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery covering(final long from, final long to,
+                                  final int someSources) {
+        return dates(from, to, TemporalIndex.OPEN_START,
+                TemporalIndex.OPEN_END, someSources);
+    }
+
+
+    /**
+     * Select the registry objects with a date lying within a range; see
+     * TemporalIndex.within(). The range is a further condition, as for
+     * overlapping().
+     *
+     * @param from
+     *      Start of the range, inclusive, or TemporalIndex.OPEN_START
+     * @param to
+     *      End of the range, inclusive, or TemporalIndex.OPEN_END
+     * @param someSources
+     *      The sources of dates, TemporalIndex.SOURCE_COVERAGE etc.
+     *      or'd together
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery within(final long from, final long to,
+                                final int someSources) {
+        return dates(to, from, from, to, someSources);
+    }
+
+
+    /**
+     * Select the registry objects meeting a condition of any kind. The
+     * condition is tested on each candidate, one at a time, as it is
+     * in the document.
+     *
+     * @param condition
+     *      The condition
+     *
+     * @return
+     *      This query
+     */
+    public RegistryQuery where(final Predicate<RegistryObject> condition) {
+        predicates.add(condition);
+        return this;
+    }
+
+
+    /**
+     * Choose how to answer the query, reading the indexes for the
+     * candidates, those estimated to give the fewest first.
+     *
+     * @return
+     *      The plan
+     */
+    public QueryPlan plan() {
+        List<Lookup> lookups = new ArrayList<Lookup>();
+        List<Predicate<RegistryObject>> residual =
+                new ArrayList<Predicate<RegistryObject>>();
+
+        if (key != null) {
+            lookups.add(keyLookup());
+        }
+
+        if (identifier != null) {
+            if (identifierIndex != null) {
+                lookups.add(identifierLookup());
+            } else {
+                residual.add(identifierCondition());
+            }
+        }
+
+        if (!facets.isEmpty()) {
+            if (facetIndex != null) {
+                lookups.add(facetLookup());
+            } else {
+                residual.add(facetCondition());
+            }
+        }
+
+        for (int i = 0; i < dateRanges.size(); i++) {
+            if (temporalIndex != null) {
+                lookups.add(dateLookup(dateRanges.get(i)));
+            } else {
+                residual.add(dateCondition(dateRanges.get(i)));
+            }
+        }
+
+        // Collections.sort() is stable, so equal estimates keep the
+        // order above
+        Collections.sort(lookups, BY_ESTIMATE);
+        List<String> used = new ArrayList<String>();
+        List<String> candidates = null;
+        for (int i = 0; i < lookups.size(); i++) {
+            Lookup l = lookups.get(i);
+            if (few(candidates)) {
+                residual.add(l.condition);
+            } else {
+                candidates = intersect(candidates, l.find());
+                used.add(l.index);
+            }
+        }
+
+        residual.addAll(predicates);
+        return new QueryPlan(rifcs, used, candidates, residual);
+    }
+
+
+    /**
+     * Obtain the keys of the matching registry objects, as
+     * plan().keys().
+     *
+     * @return
+     *      The keys
+     */
+    public Stream<String> keys() {
+        return plan().keys();
+    }
+
+
+    /**
+     * Add a date range to those selected.
+     *
+     * @param aMaxStart
+     *      Greatest start of a matching interval
+     * @param aMinEnd
+     *      Least end of a matching interval
+     * @param aMinStart
+     *      Least start of a matching interval
+     * @param aMaxEnd
+     *      Greatest end of a matching interval
+     * @param someSources
+     *      The sources of intervals to search
+     *
+     * @return
+     *      This query
+     */
+    private RegistryQuery dates(final long aMaxStart, final long aMinEnd,
+                                final long aMinStart, final long aMaxEnd,
+                                final int someSources) {
+        dateRanges.add(new DateRange(aMaxStart, aMinEnd, aMinStart,
+                aMaxEnd, someSources));
+        return this;
+    }
+
+
+    /**
+     * Determine whether candidates are few enough to test the remaining
+     * conditions on.
+     *
+     * @param candidates
+     *      The candidates, or null if none have been looked up
+     *
+     * @return
+     *      true if there are few candidates
+     */
+    private static boolean few(final List<String> candidates) {
+        return candidates != null && candidates.size() <= FEW_CANDIDATES;
+    }
+
+
+    /**
+     * Keep the candidates also found by another index.
+     *
+     * @param candidates
+     *      The candidates, or null if none have been looked up
+     * @param found
+     *      The keys found by the other index
+     *
+     * @return
+     *      The candidates in both, in the order of the candidates
+     */
+    private static List<String> intersect(final List<String> candidates,
+                                          final List<String> found) {
+        if (candidates == null) {
+            return found;
+        }
+        if (candidates.isEmpty() || found.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Set<String> s = new HashSet<String>(found);
+        List<String> l = new ArrayList<String>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (s.contains(candidates.get(i))) {
+                l.add(candidates.get(i));
+            }
+        }
+        return l;
+    }
+
+
+    /**
+     * Obtain the identifier condition, tested as IdentifierIndex finds.
+     *
+     * @return
+     *      The condition
+     */
+    private Predicate<RegistryObject> identifierCondition() {
+        final String value = identifier;
+        final String type = identifierType;
+        return new Predicate<RegistryObject>() {
+            public boolean test(final RegistryObject ro) {
+                try {
+                    List<Identifier> ids = IdentifierIndex.identifiers(ro);
+                    for (int i = 0; i < ids.size(); i++) {
+                        if (value.equals(IdentifierIndex.value(ids.get(i)))
+                                && (type == null
+                                || type.equals(ids.get(i).getType()))) {
+                            return true;
+                        }
+                    }
+                    return false;
+                } catch (RIFCSException re) {
+                    throw new IllegalStateException(re);
+                }
+            }
+        };
+    }
+
+
+    /**
+     * Obtain the facet condition, tested as FacetIndex selects.
+     *
+     * @return
+     *      The condition
+     */
+    private Predicate<RegistryObject> facetCondition() {
+        final Map<String, String> selected =
+                new LinkedHashMap<String, String>(facets);
+        return new Predicate<RegistryObject>() {
+            public boolean test(final RegistryObject ro) {
+                List<String> values;
+                try {
+                    values = FacetIndex.values(ro);
+                } catch (RIFCSException re) {
+                    throw new IllegalStateException(re);
+                }
+                for (Map.Entry<String, String> e : selected.entrySet()) {
+                    if (!hasValue(values, e.getKey(), e.getValue())) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+
+    /**
+     * Determine whether facet values include a value.
+     *
+     * @param values
+     *      Facet names and values in pairs
+     * @param facet
+     *      The facet name
+     * @param value
+     *      The value
+     *
+     * @return
+     *      true if the facet has the value
+     */
+    private static boolean hasValue(final List<String> values,
+                                    final String facet,
+                                    final String value) {
+        for (int i = 0; i < values.size(); i += 2) {
+            if (facet.equals(values.get(i))
+                    && value.equals(values.get(i + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Obtain the date condition of a range, tested as TemporalIndex
+     * searches.
+     *
+     * @param r
+     *      The date range
+     *
+     * @return
+     *      The condition
+     */
+    private static Predicate<RegistryObject> dateCondition(
+            final DateRange r) {
+        return new Predicate<RegistryObject>() {
+            public boolean test(final RegistryObject ro) {
+                try {
+                    return TemporalIndex.matches(ro, r.maxStart, r.minEnd,
+                            r.minStart, r.maxEnd, r.sources);
+                } catch (RIFCSException re) {
+                    throw new IllegalStateException(re);
+                }
+            }
+        };
+    }
+
+
+    /**
+     * Obtain the lookup of the key.
+     *
+     * @return
+     *      The lookup, estimating one candidate if the key is present
+     */
+    private Lookup keyLookup() {
+        final String k = key;
+        int estimate = 0;
+        if (rifcs.getRegistryObjects().containsKey(k)) {
+            estimate = 1;
+        }
+        Predicate<RegistryObject> condition =
+                new Predicate<RegistryObject>() {
+            public boolean test(final RegistryObject ro) {
+                return k.equals(ro.getKey());
+            }
+        };
+        return new Lookup(QueryPlan.INDEX_KEY, estimate, condition) {
+            List<String> find() {
+                if (rifcs.getRegistryObjects().containsKey(k)) {
+                    return Collections.singletonList(k);
+                }
+                return Collections.emptyList();
+            }
+        };
+    }
+
+
+    /**
+     * Obtain the lookup of the identifier in the identifier index.
+     *
+     * @return
+     *      The lookup
+     */
+    private Lookup identifierLookup() {
+        final IdentifierIndex index = identifierIndex;
+        final String value = identifier;
+        final String type = identifierType;
+        return new Lookup(QueryPlan.INDEX_IDENTIFIER, index.estimate(value),
+                identifierCondition()) {
+            List<String> find() {
+                return index.find(value, type);
+            }
+        };
+    }
+
+
+    /**
+     * Obtain the lookup of the facet values in the facet index.
+     *
+     * @return
+     *      The lookup
+     */
+    private Lookup facetLookup() {
+        final FacetIndex index = facetIndex;
+        final Map<String, String> selected =
+                new LinkedHashMap<String, String>(facets);
+        return new Lookup(QueryPlan.INDEX_FACET, index.estimate(selected),
+                facetCondition()) {
+            List<String> find() {
+                return index.select(selected);
+            }
+        };
+    }
+
+
+    /**
+     * Obtain the lookup of a date range in the temporal index.
+     *
+     * @param r
+     *      The date range
+     *
+     * @return
+     *      The lookup
+     */
+    private Lookup dateLookup(final DateRange r) {
+        final TemporalIndex index = temporalIndex;
+        return new Lookup(QueryPlan.INDEX_TEMPORAL,
+                index.estimate(r.maxStart, r.minStart), dateCondition(r)) {
+            List<String> find() {
+                return index.search(r.maxStart, r.minEnd, r.minStart,
+                        r.maxEnd, r.sources);
+            }
+        };
+    }
+
+
+    /**
+     * A condition which an index can answer: the index, the estimated
+     * number of candidates it gives, and the condition to test instead
+     * once the candidates are few.
+     */
+    private abstract static class Lookup {
+        /** The index, QueryPlan.INDEX_KEY etc. */
+        private final String index;
+        /** The estimated number of candidates. */
+        private final int estimate;
+        /** The condition, tested as the index finds. */
+        private final Predicate<RegistryObject> condition;
+
+        /**
+         * Create a lookup.
+         *
+         * @param anIndex
+         *      The index, QueryPlan.INDEX_KEY etc.
+         * @param anEstimate
+         *      The estimated number of candidates
+         * @param aCondition
+         *      The condition, tested as the index finds
+         */
+        Lookup(final String anIndex, final int anEstimate,
+               final Predicate<RegistryObject> aCondition) {
+            this.index = anIndex;
+            this.estimate = anEstimate;
+            this.condition = aCondition;
+        }
+
+        /**
+         * Read the candidates from the index.
+         *
+         * @return
+         *      The keys of the candidates
+         */
+        abstract List<String> find();
+    }
+
+
+    /**
+     * The bounds of a selected date range, as TemporalIndex searches.
+     */
+    private static final class DateRange {
+        /** Greatest start of a matching interval. */
+        private final long maxStart;
+        /** Least end of a matching interval. */
+        private final long minEnd;
+        /** Least start of a matching interval. */
+        private final long minStart;
+        /** Greatest end of a matching interval. */
+        private final long maxEnd;
+        /** The sources of intervals to search. */
+        private final int sources;
+
+        /**
+         * Create a date range.
+         *
+         * @param aMaxStart
+         *      Greatest start of a matching interval
+         * @param aMinEnd
+         *      Least end of a matching interval
+         * @param aMinStart
+         *      Least start of a matching interval
+         * @param aMaxEnd
+         *      Greatest end of a matching interval
+         * @param someSources
+         *      The sources of intervals to search
+         */
+        DateRange(final long aMaxStart, final long aMinEnd,
+                  final long aMinStart, final long aMaxEnd,
+                  final int someSources) {
+            this.maxStart = aMaxStart;
+            this.minEnd = aMinEnd;
+            this.minStart = aMinStart;
+            this.maxEnd = aMaxEnd;
+            this.sources = someSources;
+        }
+    }
+}
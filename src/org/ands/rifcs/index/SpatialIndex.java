@@ -0,0 +1,649 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.ands.rifcs.base.Coverage;
+import org.ands.rifcs.base.Location;
+import org.ands.rifcs.base.ObjectClasses;
+import org.ands.rifcs.base.RIFCS;
+import org.ands.rifcs.base.RIFCSElement;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.ands.rifcs.base.RegistryObjectListener;
+import org.ands.rifcs.base.Spatial;
+
+/**
+ * Spatial index of the coverage and location spatial elements of
+ * registry objects.
+ *
+ * Spatial values are parsed once into Geometry objects, whose bounding
+ * boxes and coordinates are held in primitive arrays. The bounding boxes
+ * are indexed by an R-tree packed by the Sort-Tile-Recursive method.
+ * Registry objects added after the tree was built are searched linearly
+ * until enough have been added to make rebuilding the tree worthwhile.
+ *
+ * An index attached to a RIFCS object is updated as registry objects
+ * are added to it. Queries may run concurrently with updates.
+ *
+ */
+public class SpatialIndex implements RegistryObjectListener {
+    /** Maximum number of children of a tree node. */
+    private static final int NODE_CAPACITY = 16;
+    /** Minimum number of entries outside the tree before a rebuild. */
+    private static final int MIN_PENDING = 256;
+    /** The tree is rebuilt when entries outside it exceed this fraction
+     *  of those in it. */
+    private static final int PENDING_FRACTION = 8;
+    /** Number of values in a box. */
+    private static final int BOX = 4;
+    /** Offset of the greatest x in a box. */
+    private static final int MAX_X = 2;
+    /** Offset of the greatest y in a box. */
+    private static final int MAX_Y = 3;
+    /** Initial capacity of the entry arrays. */
+    private static final int INITIAL_CAPACITY = 64;
+    /** Bits to shift a sort key into the high half of a long. */
+    private static final int HIGH_HALF = 32;
+    /** Mask of the low half of a long. */
+    private static final long LOW_HALF = 0xffffffffL;
+
+    /** The document numbers of registry objects. */
+    private final DocumentTable table = new DocumentTable();
+    /** Number of entries, each being one geometry. */
+    private int count = 0;
+    /** Bounding box of each entry: least x and y, greatest x and y. */
+    private double[] boxes = new double[INITIAL_CAPACITY * BOX];
+    /** Document of each entry. */
+    private int[] docs = new int[INITIAL_CAPACITY];
+    /** Kind of each entry: Geometry.POINT, BOX or POLYGON. */
+    private int[] kinds = new int[INITIAL_CAPACITY];
+    /** Offset of each entry's coordinates in coordinates. */
+    private int[] starts = new int[INITIAL_CAPACITY];
+    /** Offset after each entry's coordinates in coordinates. */
+    private int[] ends = new int[INITIAL_CAPACITY];
+    /** The coordinates of all entries as x and y pairs. */
+    private double[] coordinates = new double[INITIAL_CAPACITY * BOX];
+    /** Number of coordinate values used. */
+    private int coordinateCount = 0;
+    /** Number of entries, from the first, covered by the tree. */
+    private int treeSize = 0;
+    /** Bounding boxes of the tree nodes at each level, leaves first. */
+    private List<double[]> levels = new ArrayList<double[]>();
+    /** Lock guarding all the above. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+    /**
+     * Create an empty index.
+     */
+    public SpatialIndex() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Index all the registry objects of a RIF-CS document, and keep the
+     * index up to date as registry objects are added to it.
+     *
+     * @param rifcs
+     *      A RIFCS object
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void attach(final RIFCS rifcs) throws RIFCSException {
+        lock.writeLock().lock();
+        try {
+            for (Iterator<RegistryObject> i =
+                    rifcs.getRegistryObjects().values().iterator();
+                    i.hasNext();) {
+                RegistryObject ro = i.next();
+                insert(ro.getKey(), geometries(ro));
+            }
+            rebuild();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        rifcs.addRegistryObjectListener(this);
+    }
+
+
+    /**
+     * Add a registry object to the index, replacing any registry object
+     * with the same key.
+     *
+     * @param ro
+     *      A RegistryObject
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void add(final RegistryObject ro) throws RIFCSException {
+        List<Geometry> geometries = geometries(ro);
+        lock.writeLock().lock();
+        try {
+            insert(ro.getKey(), geometries);
+            int pending = count - treeSize;
+            if (pending > Math.max(MIN_PENDING, treeSize / PENDING_FRACTION)
+                    || table.needsCompaction()) {
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Remove a registry object from the index.
+     *
+     * @param key
+     *      The registry object key
+     */
+    public final void remove(final String key) {
+        lock.writeLock().lock();
+        try {
+            table.delete(key);
+            if (table.needsCompaction()) {
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Add a registry object added to an attached document.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void registryObjectAdded(final RegistryObject ro)
+            throws RIFCSException {
+        add(ro);
+    }
+
+
+    /**
+     * Remove a registry object removed from an attached document.
+     *
+     * @param ro
+     *      The registry object
+     */
+    public final void registryObjectRemoved(final RegistryObject ro) {
+        remove(ro.getKey());
+    }
+
+
+    /**
+     * Find the registry objects with a spatial extent whose bounding box
+     * intersects a box. A box whose western limit is greater than its
+     * eastern limit crosses the antimeridian, and is searched as two
+     * boxes either side of it, as such boxes are indexed.
+     *
+     * @param west
+     *      The western limit
+     * @param south
+     *      The least latitude
+     * @param east
+     *      The eastern limit
+     * @param north
+     *      The greatest latitude
+     *
+     * @return
+     *      The keys of the matching registry objects
+     */
+    public final List<String> intersecting(final double west,
+                                           final double south,
+                                           final double east,
+                                           final double north) {
+        lock.readLock().lock();
+        try {
+            BitSet found = new BitSet();
+            if (west <= east) {
+                search(new double[] {west, south, east, north}, false,
+                        found);
+            } else {
+                search(new double[] {
+                    west, south, Geometry.ANTIMERIDIAN, north}, false, found);
+                search(new double[] {
+                    -Geometry.ANTIMERIDIAN, south, east, north}, false, found);
+            }
+            return table.toKeys(found);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Find the registry objects with a spatial extent containing a point.
+     * Polygons are tested exactly, by the even-odd rule.
+     *
+     * @param longitude
+     *      The longitude of the point
+     * @param latitude
+     *      The latitude of the point
+     *
+     * @return
+     *      The keys of the matching registry objects
+     */
+    public final List<String> containing(final double longitude,
+                                         final double latitude) {
+        double[] query = {longitude, latitude, longitude, latitude};
+        lock.readLock().lock();
+        try {
+            BitSet found = new BitSet();
+            search(query, true, found);
+            return table.toKeys(found);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Obtain the number of registry objects in the index, with or
+     * without a spatial extent.
+     *
+     * @return
+     *      The number of registry objects
+     */
+    public final int size() {
+        lock.readLock().lock();
+        try {
+            return table.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Parse the spatial elements of a registry object.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @return
+     *      The geometries of its coverage and locations
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    private static List<Geometry> geometries(final RegistryObject ro)
+            throws RIFCSException {
+        RIFCSElement c = ro.getClassObject();
+        List<Geometry> result = new ArrayList<Geometry>();
+        List<Coverage> coverage = ObjectClasses.getCoverage(c);
+        for (int i = 0; i < coverage.size(); i++) {
+            addAll(coverage.get(i).getSpatials(), result);
+        }
+        List<Location> locations = ObjectClasses.getLocations(c);
+        for (int i = 0; i < locations.size(); i++) {
+            addAll(locations.get(i).getSpatials(), result);
+        }
+        return result;
+    }
+
+
+    /**
+     * Parse spatial elements.
+     *
+     * @param spatials
+     *      The spatial elements
+     * @param result
+     *      The list receiving the geometries
+     */
+    private static void addAll(final List<Spatial> spatials,
+                               final List<Geometry> result) {
+        for (int i = 0; i < spatials.size(); i++) {
+            result.addAll(Geometry.parse(spatials.get(i).getType(),
+                    spatials.get(i).getValue()));
+        }
+    }
+
+
+    /**
+     * Add the geometries of a registry object as entries outside the
+     * tree. The write lock must be held.
+     *
+     * @param key
+     *      The registry object key
+     * @param geometries
+     *      Its geometries
+     */
+    private void insert(final String key, final List<Geometry> geometries) {
+        table.delete(key);
+        int doc = table.add(key);
+        for (int i = 0; i < geometries.size(); i++) {
+            Geometry g = geometries.get(i);
+            ensureCapacity(count + 1);
+            boxes[count * BOX] = g.getMinX();
+            boxes[count * BOX + 1] = g.getMinY();
+            boxes[count * BOX + MAX_X] = g.getMaxX();
+            boxes[count * BOX + MAX_Y] = g.getMaxY();
+            docs[count] = doc;
+            kinds[count] = g.getKind();
+            double[] c = g.getCoordinates();
+            if (coordinateCount + c.length > coordinates.length) {
+                coordinates = Arrays.copyOf(coordinates, Math.max(
+                        coordinates.length * 2, coordinateCount + c.length));
+            }
+            starts[count] = coordinateCount;
+            System.arraycopy(c, 0, coordinates, coordinateCount, c.length);
+            coordinateCount += c.length;
+            ends[count] = coordinateCount;
+            count++;
+        }
+    }
+
+
+    /**
+     * Grow the entry arrays.
+     *
+     * @param capacity
+     *      The number of entries needed
+     */
+    private void ensureCapacity(final int capacity) {
+        if (capacity > docs.length) {
+            int n = Math.max(capacity, docs.length * 2);
+            boxes = Arrays.copyOf(boxes, n * BOX);
+            docs = Arrays.copyOf(docs, n);
+            kinds = Arrays.copyOf(kinds, n);
+            starts = Arrays.copyOf(starts, n);
+            ends = Arrays.copyOf(ends, n);
+        }
+    }
+
+
+    /**
+     * Drop the entries of deleted registry objects and rebuild the tree
+     * over all entries. The write lock must be held.
+     */
+    private void rebuild() {
+        // find the live entries, then renumber the documents
+        int[] live = new int[count];
+        int n = 0;
+        for (int e = 0; e < count; e++) {
+            if (table.isLive(docs[e])) {
+                live[n++] = e;
+            }
+        }
+        int[] remap = null;
+        if (table.needsCompaction()) {
+            remap = table.compact();
+        }
+
+        // Sort-Tile-Recursive: sort by x centre, cut into vertical
+        // slices, and sort each slice by y centre
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = sortKey(centre(live[i], 0), live[i]);
+        }
+        Arrays.sort(order);
+        int leaves = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int slices = (int) Math.ceil(Math.sqrt(leaves));
+        int sliceSize = Math.max(1, slices * NODE_CAPACITY);
+        for (int from = 0; from < n; from += sliceSize) {
+            int to = Math.min(n, from + sliceSize);
+            for (int i = from; i < to; i++) {
+                int e = (int) (order[i] & LOW_HALF);
+                order[i] = sortKey(centre(e, 1), e);
+            }
+            Arrays.sort(order, from, to);
+        }
+
+        // copy the entries into their new order
+        double[] newBoxes = new double[Math.max(n, 1) * BOX];
+        int[] newDocs = new int[Math.max(n, 1)];
+        int[] newKinds = new int[newDocs.length];
+        int[] newStarts = new int[newDocs.length];
+        int[] newEnds = new int[newDocs.length];
+        int coordinateTotal = 0;
+        for (int i = 0; i < n; i++) {
+            int e = (int) (order[i] & LOW_HALF);
+            coordinateTotal += ends[e] - starts[e];
+        }
+        double[] newCoordinates = new double[Math.max(coordinateTotal, 2)];
+        int c = 0;
+        for (int i = 0; i < n; i++) {
+            int e = (int) (order[i] & LOW_HALF);
+            System.arraycopy(boxes, e * BOX, newBoxes, i * BOX, BOX);
+            newDocs[i] = docs[e];
+            if (remap != null) {
+                newDocs[i] = remap[docs[e]];
+            }
+            newKinds[i] = kinds[e];
+            newStarts[i] = c;
+            System.arraycopy(coordinates, starts[e], newCoordinates, c,
+                    ends[e] - starts[e]);
+            c += ends[e] - starts[e];
+            newEnds[i] = c;
+        }
+        boxes = newBoxes;
+        docs = newDocs;
+        kinds = newKinds;
+        starts = newStarts;
+        ends = newEnds;
+        coordinates = newCoordinates;
+        coordinateCount = c;
+        count = n;
+        treeSize = n;
+
+        // pack each level into nodes of consecutive children
+        levels = new ArrayList<double[]>();
+        double[] below = boxes;
+        int belowCount = n;
+        while (belowCount > 1 || levels.isEmpty()) {
+            int nodes = (belowCount + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            double[] level = new double[Math.max(nodes, 1) * BOX];
+            for (int node = 0; node < nodes; node++) {
+                int first = node * NODE_CAPACITY;
+                int last = Math.min(belowCount, first + NODE_CAPACITY);
+                union(below, first, last, level, node);
+            }
+            levels.add(level);
+            below = level;
+            belowCount = nodes;
+            if (nodes == 0) {
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * Obtain the centre of an entry's bounding box on one axis.
+     *
+     * @param e
+     *      The entry
+     * @param axis
+     *      0 for x, 1 for y
+     *
+     * @return
+     *      The centre
+     */
+    private double centre(final int e, final int axis) {
+        return (boxes[e * BOX + axis] + boxes[e * BOX + 2 + axis]) / 2;
+    }
+
+
+    /**
+     * Make a sort key of a coordinate and an entry number, ordered by
+     * the coordinate at single precision.
+     *
+     * @param value
+     *      The coordinate
+     * @param e
+     *      The entry
+     *
+     * @return
+     *      A long which sorts in coordinate order
+     */
+    private static long sortKey(final double value, final int e) {
+        int bits = Float.floatToIntBits((float) value);
+        // make negative floats sort below positive ones as signed ints
+        bits ^= (bits >> (HIGH_HALF - 1)) & Integer.MAX_VALUE;
+        return ((long) bits << HIGH_HALF) | (e & LOW_HALF);
+    }
+
+
+    /**
+     * Compute the bounding box of a run of boxes.
+     *
+     * @param from
+     *      The boxes
+     * @param first
+     *      The first box
+     * @param last
+     *      One after the last box
+     * @param to
+     *      The array receiving the bounding box
+     * @param node
+     *      The index of the bounding box in to
+     */
+    private static void union(final double[] from, final int first,
+                              final int last, final double[] to,
+                              final int node) {
+        double x0 = Double.POSITIVE_INFINITY;
+        double y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY;
+        double y1 = Double.NEGATIVE_INFINITY;
+        for (int i = first; i < last; i++) {
+            x0 = Math.min(x0, from[i * BOX]);
+            y0 = Math.min(y0, from[i * BOX + 1]);
+            x1 = Math.max(x1, from[i * BOX + MAX_X]);
+            y1 = Math.max(y1, from[i * BOX + MAX_Y]);
+        }
+        to[node * BOX] = x0;
+        to[node * BOX + 1] = y0;
+        to[node * BOX + MAX_X] = x1;
+        to[node * BOX + MAX_Y] = y1;
+    }
+
+
+    /**
+     * Determine whether two boxes intersect.
+     *
+     * @param a
+     *      An array of boxes
+     * @param i
+     *      Index of a box in a
+     * @param q
+     *      The query box
+     *
+     * @return
+     *      true if the boxes share at least one point
+     */
+    private static boolean intersects(final double[] a, final int i,
+                                      final double[] q) {
+        return a[i * BOX] <= q[MAX_X] && a[i * BOX + MAX_X] >= q[0]
+                && a[i * BOX + 1] <= q[MAX_Y] && a[i * BOX + MAX_Y] >= q[1];
+    }
+
+
+    /**
+     * Search the tree and the entries outside it. The read lock must be
+     * held.
+     *
+     * @param query
+     *      The query box
+     * @param point
+     *      true to test that each entry contains the query point
+     * @param found
+     *      Receives the matching documents
+     */
+    private void search(final double[] query, final boolean point,
+                        final BitSet found) {
+        if (treeSize > 0) {
+            searchNode(levels.size() - 1, 0, query, point, found);
+        }
+        for (int e = treeSize; e < count; e++) {
+            test(e, query, point, found);
+        }
+    }
+
+
+    /**
+     * Search a subtree.
+     *
+     * @param level
+     *      The level of the node, 0 for leaves
+     * @param node
+     *      The index of the node in its level
+     * @param query
+     *      The query box
+     * @param point
+     *      true to test that each entry contains the query point
+     * @param found
+     *      Receives the matching documents
+     */
+    private void searchNode(final int level, final int node,
+                            final double[] query, final boolean point,
+                            final BitSet found) {
+        if (!intersects(levels.get(level), node, query)) {
+            return;
+        }
+        int first = node * NODE_CAPACITY;
+        if (level == 0) {
+            int last = Math.min(treeSize, first + NODE_CAPACITY);
+            for (int e = first; e < last; e++) {
+                test(e, query, point, found);
+            }
+        } else {
+            int last = Math.min(levels.get(level - 1).length / BOX,
+                    first + NODE_CAPACITY);
+            for (int child = first; child < last; child++) {
+                searchNode(level - 1, child, query, point, found);
+            }
+        }
+    }
+
+
+    /**
+     * Test an entry against the query.
+     *
+     * @param e
+     *      The entry
+     * @param query
+     *      The query box
+     * @param point
+     *      true to test that the entry contains the query point
+     * @param found
+     *      Receives the document if the entry matches
+     */
+    private void test(final int e, final double[] query,
+                      final boolean point, final BitSet found) {
+        if (!intersects(boxes, e, query) || !table.isLive(docs[e])) {
+            return;
+        }
+        if (point && kinds[e] == Geometry.POLYGON
+                && !Geometry.polygonContains(coordinates, starts[e],
+                        ends[e], query[0], query[1])) {
+            return;
+        }
+        found.set(docs[e]);
+    }
+}
@@ -0,0 +1,850 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.index;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.ands.rifcs.base.CommonDateElement;
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.Coverage;
+import org.ands.rifcs.base.DateCodec;
+import org.ands.rifcs.base.DateWithTypeDateFormat;
+import org.ands.rifcs.base.Dates;
+import org.ands.rifcs.base.ExistenceDates;
+import org.ands.rifcs.base.ObjectClasses;
+import org.ands.rifcs.base.RIFCS;
+import org.ands.rifcs.base.RIFCSElement;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.ands.rifcs.base.RegistryObjectListener;
+import org.ands.rifcs.base.Temporal;
+
+/**
+ * Temporal index of the coverage temporal dates, collection dates and
+ * existence dates of registry objects.
+ *
+ * W3CDTF values are parsed once into intervals of milliseconds since
+ * the epoch, UTC being assumed where no offset is given. A date covers
+ * the whole of its period, so that "1990" is the interval from the
+ * start to the end of 1990. A dateFrom is paired with the dateTo which
+ * follows it; an interval missing either end is open on that side.
+ *
+ * The intervals are held in primitive arrays, sorted by start, with the
+ * greatest end of each subtree of the implicit binary tree over the
+ * sorted arrays, so that overlap and containment queries visit only the
+ * subtrees which can match. Intervals added after the arrays were
+ * sorted are searched linearly until enough have been added to make
+ * sorting them again worthwhile.
+ *
+ * An index attached to a RIFCS object is updated as registry objects
+ * are added to it. Queries may run concurrently with updates.
+ *
+ */
+public class TemporalIndex implements RegistryObjectListener {
+    /** Intervals from coverage temporal dates. */
+    public static final int SOURCE_COVERAGE = 1;
+    /** Intervals from collection dates. */
+    public static final int SOURCE_DATES = 2;
+    /** Intervals from existence dates. */
+    public static final int SOURCE_EXISTENCE = 4;
+    /** Intervals from all sources. */
+    public static final int SOURCES_ALL =
+            SOURCE_COVERAGE | SOURCE_DATES | SOURCE_EXISTENCE;
+
+    /** Start of an interval with no start. */
+    public static final long OPEN_START = Long.MIN_VALUE;
+    /** End of an interval with no end. */
+    public static final long OPEN_END = Long.MAX_VALUE;
+
+    /** Result of parsing a date which can not be parsed. */
+    private static final long NO_DATE = Long.MIN_VALUE;
+    /** Minimum number of intervals outside the tree before a rebuild. */
+    private static final int MIN_PENDING = 256;
+    /** The tree is rebuilt when intervals outside it exceed this
+     *  fraction of those in it. */
+    private static final int PENDING_FRACTION = 8;
+    /** Initial capacity of the interval arrays. */
+    private static final int INITIAL_CAPACITY = 64;
+    /** Insertion sort is used for runs no longer than this. */
+    private static final int INSERTION_SORT = 16;
+
+    /** The document numbers of registry objects. */
+    private final DocumentTable table = new DocumentTable();
+    /** Number of intervals. */
+    private int count = 0;
+    /** Start of each interval, inclusive. */
+    private long[] starts = new long[INITIAL_CAPACITY];
+    /** End of each interval, inclusive. */
+    private long[] ends = new long[INITIAL_CAPACITY];
+    /** Document of each interval. */
+    private int[] docs = new int[INITIAL_CAPACITY];
+    /** Source of each interval: SOURCE_COVERAGE, DATES or EXISTENCE. */
+    private int[] sources = new int[INITIAL_CAPACITY];
+    /** Number of intervals, from the first, sorted into the tree. */
+    private int treeSize = 0;
+    /** Greatest end in the subtree rooted at each sorted interval. */
+    private long[] maxEnds = new long[0];
+    /** Lock guarding all the above. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+    /**
+     * Create an empty index.
+     */
+    public TemporalIndex() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Index all the registry objects of a RIF-CS document, and keep the
+     * index up to date as registry objects are added to it.
+     *
+     * @param rifcs
+     *      A RIFCS object
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void attach(final RIFCS rifcs) throws RIFCSException {
+        lock.writeLock().lock();
+        try {
+            for (Iterator<RegistryObject> i =
+                    rifcs.getRegistryObjects().values().iterator();
+                    i.hasNext();) {
+                RegistryObject ro = i.next();
+                insert(ro.getKey(), new Intervals(ro));
+            }
+            rebuild();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        rifcs.addRegistryObjectListener(this);
+    }
+
+
+    /**
+     * Add a registry object to the index, replacing any registry object
+     * with the same key.
+     *
+     * @param ro
+     *      A RegistryObject
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void add(final RegistryObject ro) throws RIFCSException {
+        Intervals intervals = new Intervals(ro);
+        lock.writeLock().lock();
+        try {
+            insert(ro.getKey(), intervals);
+            int pending = count - treeSize;
+            if (pending > Math.max(MIN_PENDING, treeSize / PENDING_FRACTION)
+                    || table.needsCompaction()) {
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Remove a registry object from the index.
+     *
+     * @param key
+     *      The registry object key
+     */
+    public final void remove(final String key) {
+        lock.writeLock().lock();
+        try {
+            table.delete(key);
+            if (table.needsCompaction()) {
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Add a registry object added to an attached document.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void registryObjectAdded(final RegistryObject ro)
+            throws RIFCSException {
+        add(ro);
+    }
+
+
+    /**
+     * Remove a registry object removed from an attached document.
+     *
+     * @param ro
+     *      The registry object
+     */
+    public final void registryObjectRemoved(final RegistryObject ro) {
+        remove(ro.getKey());
+    }
+
+
+    /**
+     * Find the registry objects with an interval sharing at least one
+     * instant with a range.
+     *
+     * @param from
+     *      Start of the range, inclusive, or OPEN_START
+     * @param to
+     *      End of the range, inclusive, or OPEN_END
+     * @param someSources
+     *      The sources of intervals to search, SOURCE_COVERAGE etc. or'd
+     *      together
+     *
+     * @return
+     *      The keys of the matching registry objects
+     */
+    public final List<String> overlapping(final long from, final long to,
+                                          final int someSources) {
+        return search(to, from, OPEN_START, OPEN_END, someSources);
+    }
+
+
+    /**
+     * Find the registry objects with an interval covering the whole of
+     * a range.
+     *
+     * @param from
+     *      Start of the range, inclusive, or OPEN_START
+     * @param to
+     *      End of the range, inclusive, or OPEN_END
+     * @param someSources
+     *      The sources of intervals to search, SOURCE_COVERAGE etc. or'd
+     *      together
+     *
+     * @return
+     *      The keys of the matching registry objects
+     */
+    public final List<String> covering(final long from, final long to,
+                                       final int someSources) {
+        return search(from, to, OPEN_START, OPEN_END, someSources);
+    }
+
+
+    /**
+     * Find the registry objects with an interval lying within a range.
+     *
+     * @param from
+     *      Start of the range, inclusive, or OPEN_START
+     * @param to
+     *      End of the range, inclusive, or OPEN_END
+     * @param someSources
+     *      The sources of intervals to search, SOURCE_COVERAGE etc. or'd
+     *      together
+     *
+     * @return
+     *      The keys of the matching registry objects
+     */
+    public final List<String> within(final long from, final long to,
+                                     final int someSources) {
+        return search(to, from, from, to, someSources);
+    }
+
+
+    /**
+     * Obtain the number of registry objects in the index, with or
+     * without dates.
+     *
+     * @return
+     *      The number of registry objects
+     */
+    public final int size() {
+        lock.readLock().lock();
+        try {
+            return table.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Obtain the first instant of a W3CDTF date, for use as the start
+     * of a query range.
+     *
+     * @param date
+     *      A W3CDTF date, such as "1990", "1990-06" or
+     *      "1990-06-30T12:00:00+10:00"
+     *
+     * @return
+     *      Milliseconds since the epoch
+     *
+     * @throws IllegalArgumentException if the date can not be parsed
+     */
+    public static long startOf(final String date) {
+        Long l = parse(date, false);
+        if (l == null) {
+            throw new IllegalArgumentException("Not a W3CDTF date: " + date);
+        }
+        return l.longValue();
+    }
+
+
+    /**
+     * Obtain the last instant of a W3CDTF date, for use as the end of a
+     * query range.
+     *
+     * @param date
+     *      A W3CDTF date, such as "2000", "2000-12" or
+     *      "2000-12-31T23:59:59Z"
+     *
+     * @return
+     *      Milliseconds since the epoch
+     *
+     * @throws IllegalArgumentException if the date can not be parsed
+     */
+    public static long endOf(final String date) {
+        Long l = parse(date, true);
+        if (l == null) {
+            throw new IllegalArgumentException("Not a W3CDTF date: " + date);
+        }
+        return l.longValue();
+    }
+
+
+    /**
+     * Parse a W3CDTF date to its first or last instant.
+     *
+     * @param s
+     *      The date
+     * @param end
+     *      true for the last instant of the period given
+     *
+     * @return
+     *      Milliseconds since the epoch, or null if the date is missing
+     *      or can not be parsed
+     */
+    private static Long parse(final String s, final boolean end) {
+        long l;
+        if (end) {
+            l = DateCodec.parseEnd(s, NO_DATE);
+        } else {
+            l = DateCodec.parseStart(s, NO_DATE);
+        }
+        if (l == NO_DATE) {
+            return null;
+        }
+        return Long.valueOf(l);
+    }
+
+
+    /**
+     * Add the intervals of a registry object outside the tree. The
+     * write lock must be held.
+     *
+     * @param key
+     *      The registry object key
+     * @param intervals
+     *      Its intervals
+     */
+    private void insert(final String key, final Intervals intervals) {
+        table.delete(key);
+        int doc = table.add(key);
+        if (count + intervals.size > docs.length) {
+            int n = Math.max(count + intervals.size, docs.length * 2);
+            starts = Arrays.copyOf(starts, n);
+            ends = Arrays.copyOf(ends, n);
+            docs = Arrays.copyOf(docs, n);
+            sources = Arrays.copyOf(sources, n);
+        }
+        System.arraycopy(intervals.starts, 0, starts, count, intervals.size);
+        System.arraycopy(intervals.ends, 0, ends, count, intervals.size);
+        System.arraycopy(intervals.sources, 0, sources, count,
+                intervals.size);
+        Arrays.fill(docs, count, count + intervals.size, doc);
+        count += intervals.size;
+    }
+
+
+    /**
+     * Drop the intervals of deleted registry objects, sort the rest by
+     * start and compute the subtree ends. The write lock must be held.
+     */
+    private void rebuild() {
+        int[] order = new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (table.isLive(docs[i])) {
+                order[n++] = i;
+            }
+        }
+        int[] remap = null;
+        if (table.needsCompaction()) {
+            remap = table.compact();
+        }
+        order = Arrays.copyOf(order, n);
+        sort(order, new int[n], 0, n);
+
+        int capacity = Math.max(n, INITIAL_CAPACITY);
+        long[] newStarts = new long[capacity];
+        long[] newEnds = new long[capacity];
+        int[] newDocs = new int[capacity];
+        int[] newSources = new int[capacity];
+        for (int i = 0; i < n; i++) {
+            newStarts[i] = starts[order[i]];
+            newEnds[i] = ends[order[i]];
+            newDocs[i] = docs[order[i]];
+            if (remap != null) {
+                newDocs[i] = remap[newDocs[i]];
+            }
+            newSources[i] = sources[order[i]];
+        }
+        starts = newStarts;
+        ends = newEnds;
+        docs = newDocs;
+        sources = newSources;
+        count = n;
+        treeSize = n;
+        maxEnds = new long[n];
+        computeMaxEnds(0, n);
+    }
+
+
+    /**
+     * Sort interval numbers by start, stably, by merge sort.
+     *
+     * @param order
+     *      The interval numbers
+     * @param work
+     *      Work space at least as long as order
+     * @param lo
+     *      First position to sort
+     * @param hi
+     *      One after the last position to sort
+     */
+    private void sort(final int[] order, final int[] work, final int lo,
+                      final int hi) {
+        if (hi - lo <= INSERTION_SORT) {
+            for (int i = lo + 1; i < hi; i++) {
+                int e = order[i];
+                int j = i;
+                while (j > lo && starts[order[j - 1]] > starts[e]) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = e;
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        sort(order, work, lo, mid);
+        sort(order, work, mid, hi);
+        if (starts[order[mid - 1]] <= starts[order[mid]]) {
+            return;
+        }
+        System.arraycopy(order, lo, work, lo, hi - lo);
+        int a = lo;
+        int b = mid;
+        for (int i = lo; i < hi; i++) {
+            if (b >= hi || (a < mid && starts[work[a]] <= starts[work[b]])) {
+                order[i] = work[a++];
+            } else {
+                order[i] = work[b++];
+            }
+        }
+    }
+
+
+    /**
+     * Compute the greatest end in each subtree of the implicit tree over
+     * the sorted intervals from lo to hi, whose root is their midpoint.
+     *
+     * @param lo
+     *      First interval of the subtree
+     * @param hi
+     *      One after the last interval of the subtree
+     *
+     * @return
+     *      The greatest end in the subtree
+     */
+    private long computeMaxEnds(final int lo, final int hi) {
+        if (lo >= hi) {
+            return OPEN_START;
+        }
+        int mid = (lo + hi) >>> 1;
+        long max = Math.max(ends[mid], Math.max(computeMaxEnds(lo, mid),
+                computeMaxEnds(mid + 1, hi)));
+        maxEnds[mid] = max;
+        return max;
+    }
+
+
+    /**
+     * Find the registry objects with an interval matching bounds on its
+     * start and end.
+     *
+     * @param maxStart
+     *      Greatest start matched
+     * @param minEnd
+     *      Least end matched
+     * @param minStart
+     *      Least start matched
+     * @param maxEnd
+     *      Greatest end matched
+     * @param someSources
+     *      The sources of intervals to search
+     *
+     * @return
+     *      The keys of the matching registry objects
+     */
+    List<String> search(final long maxStart, final long minEnd,
+                        final long minStart, final long maxEnd,
+                        final int someSources) {
+        Query q = new Query(maxStart, minEnd, minStart, maxEnd, someSources);
+        lock.readLock().lock();
+        try {
+            searchTree(0, treeSize, q);
+            for (int i = treeSize; i < count; i++) {
+                test(i, q);
+            }
+            return table.toKeys(q.found);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Estimate the number of registry objects search() finds, from the
+     * starts of the intervals alone, without searching the tree.
+     *
+     * @param maxStart
+     *      Greatest start matched
+     * @param minStart
+     *      Least start matched
+     *
+     * @return
+     *      The number of intervals starting within the bounds, including
+     *      any not yet sorted into the tree, and at most the number of
+     *      registry objects in the index
+     */
+    int estimate(final long maxStart, final long minStart) {
+        lock.readLock().lock();
+        try {
+            int n = startsBefore(maxStart, true)
+                    - startsBefore(minStart, false) + count - treeSize;
+            return Math.min(n, table.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Count the intervals of the tree starting before an instant, by
+     * binary search of the sorted starts. The read lock must be held.
+     *
+     * @param instant
+     *      The instant
+     * @param inclusive
+     *      Whether to count intervals starting at the instant
+     *
+     * @return
+     *      The number of intervals
+     */
+    private int startsBefore(final long instant, final boolean inclusive) {
+        int lo = 0;
+        int hi = treeSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < instant
+                    || (inclusive && starts[mid] == instant)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+
+    /**
+     * Determine whether a registry object, indexed or not, has an
+     * interval matching a query, as search() would find it.
+     *
+     * @param ro
+     *      The registry object
+     * @param maxStart
+     *      Greatest start matched
+     * @param minEnd
+     *      Least end matched
+     * @param minStart
+     *      Least start matched
+     * @param maxEnd
+     *      Greatest end matched
+     * @param someSources
+     *      The sources of intervals to search
+     *
+     * @return
+     *      true if an interval matches
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    static boolean matches(final RegistryObject ro, final long maxStart,
+                           final long minEnd, final long minStart,
+                           final long maxEnd, final int someSources)
+            throws RIFCSException {
+        Intervals iv = new Intervals(ro);
+        for (int i = 0; i < iv.size; i++) {
+            if (iv.starts[i] <= maxStart && iv.ends[i] >= minEnd
+                    && iv.starts[i] >= minStart && iv.ends[i] <= maxEnd
+                    && (iv.sources[i] & someSources) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Search a subtree of the sorted intervals.
+     *
+     * @param lo
+     *      First interval of the subtree
+     * @param hi
+     *      One after the last interval of the subtree
+     * @param q
+     *      The query
+     */
+    private void searchTree(final int lo, final int hi, final Query q) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (maxEnds[mid] < q.minEnd) {
+            return;
+        }
+        searchTree(lo, mid, q);
+        if (starts[mid] > q.maxStart) {
+            // the right subtree starts later still
+            return;
+        }
+        test(mid, q);
+        searchTree(mid + 1, hi, q);
+    }
+
+
+    /**
+     * Test an interval against a query.
+     *
+     * @param i
+     *      The interval
+     * @param q
+     *      The query, whose found set receives the document if the
+     *      interval matches
+     */
+    private void test(final int i, final Query q) {
+        if (starts[i] <= q.maxStart && ends[i] >= q.minEnd
+                && starts[i] >= q.minStart && ends[i] <= q.maxEnd
+                && (sources[i] & q.sources) != 0
+                && table.isLive(docs[i])) {
+            q.found.set(docs[i]);
+        }
+    }
+
+
+    /**
+     * The bounds of a query, and the documents found.
+     */
+    private static final class Query {
+        /** Greatest start matched. */
+        private final long maxStart;
+        /** Least end matched. */
+        private final long minEnd;
+        /** Least start matched. */
+        private final long minStart;
+        /** Greatest end matched. */
+        private final long maxEnd;
+        /** The sources of intervals to search. */
+        private final int sources;
+        /** The documents found. */
+        private final BitSet found = new BitSet();
+
+        /**
+         * Create a query.
+         *
+         * @param aMaxStart
+         *      Greatest start matched
+         * @param aMinEnd
+         *      Least end matched
+         * @param aMinStart
+         *      Least start matched
+         * @param aMaxEnd
+         *      Greatest end matched
+         * @param someSources
+         *      The sources of intervals to search
+         */
+        Query(final long aMaxStart, final long aMinEnd,
+              final long aMinStart, final long aMaxEnd,
+              final int someSources) {
+            this.maxStart = aMaxStart;
+            this.minEnd = aMinEnd;
+            this.minStart = aMinStart;
+            this.maxEnd = aMaxEnd;
+            this.sources = someSources;
+        }
+    }
+
+
+    /**
+     * The intervals of one registry object, parsed before the index is
+     * locked.
+     */
+    private static final class Intervals {
+        /** Start of each interval. */
+        private long[] starts = new long[2];
+        /** End of each interval. */
+        private long[] ends = new long[2];
+        /** Source of each interval. */
+        private int[] sources = new int[2];
+        /** Number of intervals. */
+        private int size = 0;
+
+        /**
+         * Parse the intervals of a registry object.
+         *
+         * @param ro
+         *      The registry object
+         *
+         * @throws RIFCSException A RIFCSException
+         */
+        Intervals(final RegistryObject ro) throws RIFCSException {
+            RIFCSElement c = ro.getClassObject();
+            List<Coverage> coverage = ObjectClasses.getCoverage(c);
+            for (int i = 0; i < coverage.size(); i++) {
+                List<Temporal> temporals = coverage.get(i).getTemporals();
+                for (int j = 0; j < temporals.size(); j++) {
+                    addDates(temporals.get(j).getDates(), SOURCE_COVERAGE);
+                }
+            }
+            List<Dates> dates = ObjectClasses.getDates(c);
+            for (int i = 0; i < dates.size(); i++) {
+                addDates(dates.get(i).getDates(), SOURCE_DATES);
+            }
+            List<ExistenceDates> existence =
+                    ObjectClasses.getExistenceDates(c);
+            for (int i = 0; i < existence.size(); i++) {
+                Long start = parse(value(existence.get(i).getStartDate()),
+                        false);
+                Long end = parse(value(existence.get(i).getEndDate()), true);
+                if (start != null || end != null) {
+                    add(start, end, SOURCE_EXISTENCE);
+                }
+            }
+        }
+
+        /**
+         * Obtain the value of an optional date element.
+         *
+         * @param e
+         *      The element, or null
+         *
+         * @return
+         *      Its value, or null
+         */
+        private static String value(final CommonDateElement e) {
+            if (e == null) {
+                return null;
+            }
+            return e.getValue();
+        }
+
+        /**
+         * Pair each dateFrom with the dateTo following it. Dates of other
+         * types are intervals by themselves.
+         *
+         * @param dates
+         *      The date elements
+         * @param source
+         *      The source of the dates
+         */
+        private void addDates(final List<DateWithTypeDateFormat> dates,
+                              final int source) {
+            Long from = null;
+            for (int i = 0; i < dates.size(); i++) {
+                DateWithTypeDateFormat d = dates.get(i);
+                if (Constants.ATTRIBUTE_DATE_FROM.equals(d.getType())) {
+                    Long start = parse(d.getValue(), false);
+                    if (start != null) {
+                        if (from != null) {
+                            add(from, null, source);
+                        }
+                        from = start;
+                    }
+                } else if (Constants.ATTRIBUTE_DATE_TO.equals(d.getType())) {
+                    Long end = parse(d.getValue(), true);
+                    if (end != null) {
+                        add(from, end, source);
+                        from = null;
+                    }
+                } else {
+                    Long start = parse(d.getValue(), false);
+                    if (start != null) {
+                        add(start, parse(d.getValue(), true), source);
+                    }
+                }
+            }
+            if (from != null) {
+                add(from, null, source);
+            }
+        }
+
+        /**
+         * Add an interval.
+         *
+         * @param start
+         *      The start, or null if open
+         * @param end
+         *      The end, or null if open
+         * @param source
+         *      The source of the interval
+         */
+        private void add(final Long start, final Long end, final int source) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                sources = Arrays.copyOf(sources, size * 2);
+            }
+            starts[size] = OPEN_START;
+            if (start != null) {
+                starts[size] = start.longValue();
+            }
+            ends[size] = OPEN_END;
+            if (end != null) {
+                ends[size] = end.longValue();
+            }
+            sources[size] = source;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,594 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.ands.rifcs.base.Description;
+import org.ands.rifcs.base.Name;
+import org.ands.rifcs.base.NamePart;
+import org.ands.rifcs.base.ObjectClasses;
+import org.ands.rifcs.base.RIFCS;
+import org.ands.rifcs.base.RIFCSElement;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.ands.rifcs.base.RegistryObjectListener;
+import org.ands.rifcs.base.Subject;
+
+/**
+ * Full-text index of the names, descriptions, subjects and citation
+ * titles of registry objects.
+ *
+ * Text is split into lower case terms of letters and digits. For each
+ * field and term the index holds a compressed list of the registry
+ * objects containing the term and the positions at which it occurs, so
+ * that queries need only read the lists of the terms they contain.
+ *
+ * An index attached to a RIFCS object is updated as registry objects
+ * are added to it by RIFCS.addRegistryObject(). Changes made to a
+ * registry object after it has been added are not seen by the index
+ * unless it is added again. Queries may run concurrently with updates.
+ *
+ */
+public class TextIndex implements RegistryObjectListener {
+    /** The name field: the name parts of all names, those of each name
+     *  forming one value in document order. */
+    public static final String FIELD_NAME = "name";
+    /** The description field. */
+    public static final String FIELD_DESCRIPTION = "description";
+    /** The subject field. */
+    public static final String FIELD_SUBJECT = "subject";
+    /** The citation title field. */
+    public static final String FIELD_CITATION_TITLE = "citationTitle";
+
+    /** Index of the name field. */
+    private static final int NAME = 0;
+    /** Index of the description field. */
+    private static final int DESCRIPTION = 1;
+    /** Index of the subject field. */
+    private static final int SUBJECT = 2;
+    /** Index of the citation title field. */
+    private static final int CITATION_TITLE = 3;
+    /** The fields, in index order. */
+    private static final String[] FIELDS = {FIELD_NAME, FIELD_DESCRIPTION,
+        FIELD_SUBJECT, FIELD_CITATION_TITLE};
+    /** Gap between the positions of separate values of a field, so that
+     *  phrases do not match across values. */
+    private static final int POSITION_GAP = 100;
+
+    /** For each field, map from term to postings. */
+    private final List<Map<String, PostingList>> terms =
+            new ArrayList<Map<String, PostingList>>();
+    /** The document numbers of registry objects. */
+    private final DocumentTable table = new DocumentTable();
+    /** Lock guarding all the above. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+    /**
+     * Create an empty index.
+     */
+    public TextIndex() {
+        for (int i = 0; i < FIELDS.length; i++) {
+            terms.add(new HashMap<String, PostingList>());
+        }
+    }
+
+
+    /**
+     * Index all the registry objects of a RIF-CS document, and keep the
+     * index up to date as registry objects are added to it.
+     *
+     * @param rifcs
+     *      A RIFCS object
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void attach(final RIFCS rifcs) throws RIFCSException {
+        for (Iterator<RegistryObject> i =
+                rifcs.getRegistryObjects().values().iterator();
+                i.hasNext();) {
+            add(i.next());
+        }
+        rifcs.addRegistryObjectListener(this);
+    }
+
+
+    /**
+     * Add a registry object to the index, replacing any registry object
+     * with the same key.
+     *
+     * @param ro
+     *      A RegistryObject
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void add(final RegistryObject ro) throws RIFCSException {
+        List<Map<String, Positions>> fields = analyse(ro.getClassObject());
+
+        lock.writeLock().lock();
+        try {
+            delete(ro.getKey());
+            int doc = table.add(ro.getKey());
+            for (int f = 0; f < FIELDS.length; f++) {
+                Map<String, PostingList> dictionary = terms.get(f);
+                for (Iterator<Map.Entry<String, Positions>> i =
+                        fields.get(f).entrySet().iterator(); i.hasNext();) {
+                    Map.Entry<String, Positions> entry = i.next();
+                    PostingList postings = dictionary.get(entry.getKey());
+                    if (postings == null) {
+                        postings = new PostingList();
+                        dictionary.put(entry.getKey(), postings);
+                    }
+                    postings.add(doc, entry.getValue().positions,
+                            entry.getValue().count);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Remove a registry object from the index.
+     *
+     * @param key
+     *      The registry object key
+     */
+    public final void remove(final String key) {
+        lock.writeLock().lock();
+        try {
+            delete(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Add a registry object added to an attached document.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final void registryObjectAdded(final RegistryObject ro)
+            throws RIFCSException {
+        add(ro);
+    }
+
+
+    /**
+     * Remove a registry object removed from an attached document.
+     *
+     * @param ro
+     *      The registry object
+     */
+    public final void registryObjectRemoved(final RegistryObject ro) {
+        remove(ro.getKey());
+    }
+
+
+    /**
+     * Find the registry objects containing all the terms of a query.
+     *
+     * @param field
+     *      The field to search, or null to search all fields. When all
+     *      fields are searched each term may be in a different field.
+     * @param query
+     *      The query text
+     *
+     * @return
+     *      The keys of the matching registry objects
+     */
+    public final List<String> search(final String field, final String query) {
+        Set<String> unique = new LinkedHashSet<String>(
+                Tokenizer.tokenize(query));
+        if (unique.isEmpty()) {
+            return new ArrayList<String>();
+        }
+
+        lock.readLock().lock();
+        try {
+            int[][] lists = new int[unique.size()][];
+            int n = 0;
+            for (Iterator<String> i = unique.iterator(); i.hasNext(); n++) {
+                lists[n] = docs(field, i.next());
+            }
+            // intersect the shortest lists first
+            Arrays.sort(lists, new Comparator<int[]>() {
+                public int compare(final int[] a, final int[] b) {
+                    return Integer.compare(a.length, b.length);
+                }
+            });
+            int[] result = lists[0];
+            for (int i = 1; i < lists.length && result.length > 0; i++) {
+                result = intersect(result, lists[i]);
+            }
+            return table.toKeys(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Find the registry objects containing a phrase.
+     *
+     * @param field
+     *      The field to search, or null to search all fields. The whole
+     *      phrase must occur in one value of one field.
+     * @param phrase
+     *      The phrase
+     *
+     * @return
+     *      The keys of the matching registry objects
+     */
+    public final List<String> searchPhrase(final String field,
+                                           final String phrase) {
+        List<String> words = Tokenizer.tokenize(phrase);
+        if (words.isEmpty()) {
+            return new ArrayList<String>();
+        }
+
+        lock.readLock().lock();
+        try {
+            if (field != null) {
+                return table.toKeys(phrase(fieldIndex(field), words));
+            }
+            int[] result = new int[0];
+            for (int f = 0; f < FIELDS.length; f++) {
+                result = union(result, phrase(f, words));
+            }
+            return table.toKeys(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Obtain the number of registry objects in the index.
+     *
+     * @return
+     *      The number of registry objects
+     */
+    public final int size() {
+        lock.readLock().lock();
+        try {
+            return table.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Extract the terms of each field of an object class element.
+     *
+     * @param c
+     *      The object class element, or null
+     *
+     * @return
+     *      For each field, a map from term to positions
+     */
+    private static List<Map<String, Positions>> analyse(
+            final RIFCSElement c) {
+        List<List<String>> values = new ArrayList<List<String>>();
+        for (int f = 0; f < FIELDS.length; f++) {
+            values.add(new ArrayList<String>());
+        }
+
+        List<Name> names = ObjectClasses.getNames(c);
+        for (int i = 0; i < names.size(); i++) {
+            // the parts of a name are one value, so phrases span them
+            List<NamePart> parts = names.get(i).getNameParts();
+            StringBuilder name = new StringBuilder();
+            for (int j = 0; j < parts.size(); j++) {
+                if (parts.get(j).getValue() != null) {
+                    name.append(parts.get(j).getValue()).append(' ');
+                }
+            }
+            values.get(NAME).add(name.toString());
+        }
+        List<Description> descriptions = ObjectClasses.getDescriptions(c);
+        for (int i = 0; i < descriptions.size(); i++) {
+            values.get(DESCRIPTION).add(descriptions.get(i).getValue());
+        }
+        List<Subject> subjects = ObjectClasses.getSubjects(c);
+        for (int i = 0; i < subjects.size(); i++) {
+            values.get(SUBJECT).add(subjects.get(i).getValue());
+        }
+        values.get(CITATION_TITLE).addAll(
+                ObjectClasses.getCitationTitles(c));
+
+        List<Map<String, Positions>> fields =
+                new ArrayList<Map<String, Positions>>();
+        for (int f = 0; f < FIELDS.length; f++) {
+            Map<String, Positions> m = new HashMap<String, Positions>();
+            int position = 0;
+            for (int i = 0; i < values.get(f).size(); i++) {
+                List<String> words = Tokenizer.tokenize(values.get(f).get(i));
+                for (int j = 0; j < words.size(); j++) {
+                    Positions p = m.get(words.get(j));
+                    if (p == null) {
+                        p = new Positions();
+                        m.put(words.get(j), p);
+                    }
+                    p.add(position++);
+                }
+                position += POSITION_GAP;
+            }
+            fields.add(m);
+        }
+        return fields;
+    }
+
+
+    /**
+     * Obtain the index of a field.
+     *
+     * @param field
+     *      The field name
+     *
+     * @return
+     *      The index of the field in FIELDS
+     */
+    private static int fieldIndex(final String field) {
+        for (int f = 0; f < FIELDS.length; f++) {
+            if (FIELDS[f].equals(field)) {
+                return f;
+            }
+        }
+        throw new IllegalArgumentException("Unknown field: " + field);
+    }
+
+
+    /**
+     * Mark a document deleted, compacting the index if many are.
+     * The write lock must be held.
+     *
+     * @param key
+     *      The registry object key
+     */
+    private void delete(final String key) {
+        if (table.delete(key) >= 0 && table.needsCompaction()) {
+            compact();
+        }
+    }
+
+
+    /**
+     * Renumber the documents, dropping deleted ones from every posting
+     * list. The write lock must be held.
+     */
+    private void compact() {
+        int[] remap = table.compact();
+        for (int f = 0; f < FIELDS.length; f++) {
+            for (Iterator<Map.Entry<String, PostingList>> i =
+                    terms.get(f).entrySet().iterator(); i.hasNext();) {
+                Map.Entry<String, PostingList> entry = i.next();
+                PostingList compacted = entry.getValue().compact(remap);
+                if (compacted == null) {
+                    i.remove();
+                } else {
+                    entry.setValue(compacted);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Obtain the documents containing a term. The read lock must be held.
+     *
+     * @param field
+     *      The field, or null for all fields
+     * @param term
+     *      The term
+     *
+     * @return
+     *      The documents in ascending order
+     */
+    private int[] docs(final String field, final String term) {
+        if (field != null) {
+            PostingList p = terms.get(fieldIndex(field)).get(term);
+            if (p == null) {
+                return new int[0];
+            }
+            return p.docs();
+        }
+        int[] result = new int[0];
+        for (int f = 0; f < FIELDS.length; f++) {
+            PostingList p = terms.get(f).get(term);
+            if (p != null) {
+                result = union(result, p.docs());
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Find the documents containing a phrase in one field. The read lock
+     * must be held.
+     *
+     * @param f
+     *      The field index
+     * @param words
+     *      The terms of the phrase
+     *
+     * @return
+     *      The documents in ascending order
+     */
+    private int[] phrase(final int f, final List<String> words) {
+        PostingList[] postings = new PostingList[words.size()];
+        int[] candidates = null;
+        for (int i = 0; i < postings.length; i++) {
+            postings[i] = terms.get(f).get(words.get(i));
+            if (postings[i] == null) {
+                return new int[0];
+            }
+            if (candidates == null) {
+                candidates = postings[i].docs();
+            } else {
+                candidates = intersect(candidates, postings[i].docs());
+            }
+        }
+
+        PostingList.Reader[] readers = new PostingList.Reader[words.size()];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = postings[i].reader();
+        }
+        int[] result = new int[candidates.length];
+        int n = 0;
+        for (int c = 0; c < candidates.length; c++) {
+            for (int i = 0; i < readers.length; i++) {
+                readers[i].advance(candidates[c]);
+            }
+            if (phraseAt(readers)) {
+                result[n++] = candidates[c];
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+
+    /**
+     * Determine whether the terms occur consecutively in the document
+     * on which all the readers are positioned.
+     *
+     * @param readers
+     *      Readers of each term of the phrase, in order
+     *
+     * @return
+     *      true if the phrase occurs
+     */
+    private static boolean phraseAt(final PostingList.Reader[] readers) {
+        int[] first = readers[0].positions();
+        for (int p = 0; p < readers[0].freq(); p++) {
+            boolean found = true;
+            for (int i = 1; i < readers.length && found; i++) {
+                found = Arrays.binarySearch(readers[i].positions(), 0,
+                        readers[i].freq(), first[p] + i) >= 0;
+            }
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Intersect two sorted arrays.
+     *
+     * @param a
+     *      A sorted array
+     * @param b
+     *      Another sorted array
+     *
+     * @return
+     *      The values in both, in ascending order
+     */
+    private static int[] intersect(final int[] a, final int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+
+    /**
+     * Merge two sorted arrays.
+     *
+     * @param a
+     *      A sorted array
+     * @param b
+     *      Another sorted array
+     *
+     * @return
+     *      The values in either, in ascending order without repeats
+     */
+    private static int[] union(final int[] a, final int[] b) {
+        int[] result = new int[a.length + b.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[n++] = a[i++];
+            } else if (i == a.length || a[i] > b[j]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+
+    /**
+     * Growable list of the positions of one term in one document.
+     */
+    private static final class Positions {
+        /** Initial capacity. */
+        private static final int INITIAL_CAPACITY = 4;
+        /** The positions. */
+        private int[] positions = new int[INITIAL_CAPACITY];
+        /** The number of positions. */
+        private int count = 0;
+
+        /**
+         * Add a position.
+         *
+         * @param position
+         *      The position, greater than any already added
+         */
+        void add(final int position) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            positions[count++] = position;
+        }
+    }
+}
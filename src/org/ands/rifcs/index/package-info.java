@@ -0,0 +1,2 @@
+/** Indexes over RIF-CS documents. */
+package org.ands.rifcs.index;
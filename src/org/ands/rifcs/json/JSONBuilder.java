@@ -0,0 +1,457 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ands.rifcs.base.Constants;
+
+/**
+ * Builds the JSON of a registry object from the events of a walk over
+ * it, with the mapping described by JSONExporter. The registryObject
+ * element is the first element started.
+ *
+ * The children of each element are gathered by name as they end, so
+ * that each name appears once in the object, and the buffers doing so
+ * are reused from one registry object to the next. Not thread safe.
+ *
+ */
+final class JSONBuilder {
+    /** Name of the field holding the text of an element. */
+    static final String FIELD_VALUE = "value";
+    /** Name of the field holding the object class. */
+    static final String FIELD_CLASS = "class";
+    /** Name of the field holding the originating source type. */
+    static final String FIELD_SOURCE_TYPE = "originatingSourceType";
+
+    /** Elements which are mapped to strings. */
+    private static final Set<String> SIMPLE = new HashSet<String>(
+            Arrays.asList(Constants.ELEMENT_KEY, Constants.ELEMENT_TITLE,
+                    Constants.ELEMENT_VERSION, Constants.ELEMENT_EDITION,
+                    Constants.ELEMENT_PUBLISHER,
+                    Constants.ELEMENT_PLACE_PUBLISHED,
+                    Constants.ELEMENT_CONTEXT, Constants.ELEMENT_URL,
+                    Constants.ELEMENT_URI, Constants.ELEMENT_VALUE,
+                    Constants.ELEMENT_TEXT, Constants.ELEMENT_MEDIATYPE,
+                    Constants.ELEMENT_BYTESIZE));
+    /** The object class elements. */
+    private static final Set<String> CLASSES = new HashSet<String>(
+            Arrays.asList(Constants.ELEMENT_ACTIVITY,
+                    Constants.ELEMENT_COLLECTION, Constants.ELEMENT_PARTY,
+                    Constants.ELEMENT_SERVICE));
+
+    /** Hexadecimal digits. */
+    private static final String HEX = "0123456789abcdef";
+    /** Hexadecimal digits of a \\u escape. */
+    private static final int HEX_DIGITS = 4;
+    /** Bits of a hexadecimal digit. */
+    private static final int HEX_BITS = 4;
+    /** Mask of a hexadecimal digit. */
+    private static final int HEX_MASK = 0xf;
+    /** Size of the chunks in which a registry object is written. */
+    private static final int CHUNK_SIZE = 8192;
+
+    /** The open elements, and those reused for deeper elements. */
+    private final List<Frame> frames = new ArrayList<Frame>();
+    /** Number of open elements. */
+    private int depth = 0;
+    /** Buffers for the children of elements, reused. */
+    private final List<StringBuilder> free = new ArrayList<StringBuilder>();
+    /** The JSON of the last registry object. */
+    private final StringBuilder record = new StringBuilder();
+    /** Buffer for writing the registry object. */
+    private final char[] chunk = new char[CHUNK_SIZE];
+
+
+    /**
+     * Create a builder.
+     */
+    JSONBuilder() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Obtain the number of open elements.
+     *
+     * @return
+     *      The number of open elements, 0 outside a registry object
+     */
+    int getDepth() {
+        return depth;
+    }
+
+
+    /**
+     * Start an element.
+     *
+     * @param localName
+     *      The unqualified element name
+     */
+    void startElement(final String localName) {
+        Frame f;
+        if (depth == frames.size()) {
+            f = new Frame();
+            frames.add(f);
+        } else {
+            f = frames.get(depth);
+        }
+        f.name = localName;
+        depth++;
+    }
+
+
+    /**
+     * Add an attribute to the current element.
+     *
+     * @param localName
+     *      The unqualified attribute name
+     * @param value
+     *      The attribute value
+     */
+    void attribute(final String localName, final String value) {
+        Frame f = frames.get(depth - 1);
+        f.attributes.add(localName);
+        f.attributes.add(value);
+    }
+
+
+    /**
+     * Add text to the current element.
+     *
+     * @param ch
+     *      The characters
+     * @param start
+     *      The index of the first character
+     * @param length
+     *      The number of characters
+     */
+    void text(final char[] ch, final int start, final int length) {
+        frames.get(depth - 1).text.append(ch, start, length);
+    }
+
+
+    /**
+     * Add text to the current element.
+     *
+     * @param s
+     *      The text
+     */
+    void text(final String s) {
+        frames.get(depth - 1).text.append(s);
+    }
+
+
+    /**
+     * End the current element.
+     *
+     * @return
+     *      true if the registry object has ended, its JSON being
+     *      available from getRecord()
+     */
+    boolean endElement() {
+        Frame f = frames.get(--depth);
+        if (depth == 0) {
+            record.setLength(0);
+            render(f, record);
+            release(f);
+            return true;
+        }
+        Frame parent = frames.get(depth - 1);
+        if (depth == 1 && CLASSES.contains(f.name)) {
+            separate(parent.fields, 0);
+            name(FIELD_CLASS, parent.fields);
+            quote(f.name, 0, f.name.length(), parent.fields);
+            body(f, parent.fields, 0);
+        } else if (depth == 1 && Constants.ELEMENT_KEY.equals(f.name)) {
+            separate(parent.fields, 0);
+            name(f.name, parent.fields);
+            render(f, parent.fields);
+        } else if (depth == 1
+                && Constants.ELEMENT_ORIG_SOURCE.equals(f.name)) {
+            separate(parent.fields, 0);
+            name(f.name, parent.fields);
+            string(f.text, parent.fields);
+            for (int i = 0; i < f.attributes.size(); i += 2) {
+                if (Constants.ATTRIBUTE_TYPE.equals(
+                        f.attributes.get(i))) {
+                    parent.fields.append(',');
+                    name(FIELD_SOURCE_TYPE, parent.fields);
+                    String type = f.attributes.get(i + 1);
+                    quote(type, 0, type.length(), parent.fields);
+                }
+            }
+        } else {
+            StringBuilder group = parent.children.get(f.name);
+            if (group == null) {
+                if (free.isEmpty()) {
+                    group = new StringBuilder();
+                } else {
+                    group = free.remove(free.size() - 1);
+                }
+                parent.children.put(f.name, group);
+            } else {
+                group.append(',');
+            }
+            render(f, group);
+        }
+        release(f);
+        return false;
+    }
+
+
+    /**
+     * Obtain the JSON of the last registry object.
+     *
+     * @return
+     *      The JSON, which is overwritten by the next registry object
+     */
+    CharSequence getRecord() {
+        return record;
+    }
+
+
+    /**
+     * Write the JSON of the last registry object.
+     *
+     * @param w
+     *      The writer
+     *
+     * @throws IOException An IOException
+     */
+    void writeTo(final Writer w) throws IOException {
+        int length = record.length();
+        for (int i = 0; i < length; i += chunk.length) {
+            int n = Math.min(chunk.length, length - i);
+            record.getChars(i, i + n, chunk, 0);
+            w.write(chunk, 0, n);
+        }
+    }
+
+
+    /**
+     * Append the JSON of an element.
+     *
+     * @param f
+     *      The element
+     * @param sb
+     *      The buffer appended to
+     */
+    private void render(final Frame f, final StringBuilder sb) {
+        if (SIMPLE.contains(f.name)) {
+            string(f.text, sb);
+            return;
+        }
+        sb.append('{');
+        body(f, sb, sb.length());
+        sb.append('}');
+    }
+
+
+    /**
+     * Append the fields of an element: its attributes, the fields
+     * taken from its children, its text, and its other children.
+     *
+     * @param f
+     *      The element
+     * @param sb
+     *      The buffer appended to
+     * @param start
+     *      The length of the buffer at the start of the object
+     */
+    private static void body(final Frame f, final StringBuilder sb,
+                             final int start) {
+        for (int i = 0; i < f.attributes.size(); i += 2) {
+            separate(sb, start);
+            name(f.attributes.get(i), sb);
+            String value = f.attributes.get(i + 1);
+            quote(value, 0, value.length(), sb);
+        }
+        if (f.fields.length() > 0) {
+            separate(sb, start);
+            sb.append(f.fields);
+        }
+        if (trimmedStart(f.text) < f.text.length()) {
+            separate(sb, start);
+            name(FIELD_VALUE, sb);
+            string(f.text, sb);
+        }
+        for (Map.Entry<String, StringBuilder> e : f.children.entrySet()) {
+            separate(sb, start);
+            name(e.getKey(), sb);
+            sb.append('[').append(e.getValue()).append(']');
+        }
+    }
+
+
+    /**
+     * Clear an element for reuse.
+     *
+     * @param f
+     *      The element
+     */
+    private void release(final Frame f) {
+        for (StringBuilder group : f.children.values()) {
+            group.setLength(0);
+            free.add(group);
+        }
+        f.children.clear();
+        f.attributes.clear();
+        f.text.setLength(0);
+        f.fields.setLength(0);
+    }
+
+
+    /**
+     * Append a comma unless at the start of an object.
+     *
+     * @param sb
+     *      The buffer appended to
+     * @param start
+     *      The length of the buffer at the start of the object
+     */
+    private static void separate(final StringBuilder sb, final int start) {
+        if (sb.length() > start) {
+            sb.append(',');
+        }
+    }
+
+
+    /**
+     * Append the name of a field.
+     *
+     * @param name
+     *      The name
+     * @param sb
+     *      The buffer appended to
+     */
+    private static void name(final String name, final StringBuilder sb) {
+        quote(name, 0, name.length(), sb);
+        sb.append(':');
+    }
+
+
+    /**
+     * Append text as a JSON string, without leading and trailing white
+     * space.
+     *
+     * @param text
+     *      The text
+     * @param sb
+     *      The buffer appended to
+     */
+    private static void string(final StringBuilder text,
+                               final StringBuilder sb) {
+        int end = text.length();
+        while (end > 0 && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        quote(text, Math.min(trimmedStart(text), end), end, sb);
+    }
+
+
+    /**
+     * Find the first character of text which is not white space.
+     *
+     * @param text
+     *      The text
+     *
+     * @return
+     *      The index of the character, or the length of the text
+     */
+    private static int trimmedStart(final CharSequence text) {
+        int start = 0;
+        while (start < text.length()
+                && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+
+    /**
+     * Append characters as a JSON string.
+     *
+     * @param s
+     *      The characters
+     * @param start
+     *      The index of the first character
+     * @param end
+     *      The index after the last character
+     * @param sb
+     *      The buffer appended to
+     */
+    private static void quote(final CharSequence s, final int start,
+                              final int end, final StringBuilder sb) {
+        sb.append('"');
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+            case '\\':
+                sb.append('\\').append(c);
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < ' ') {
+                    sb.append("\\u");
+                    for (int d = HEX_DIGITS - 1; d >= 0; d--) {
+                        sb.append(HEX.charAt(
+                                (c >> (d * HEX_BITS)) & HEX_MASK));
+                    }
+                } else {
+                    sb.append(c);
+                }
+                break;
+            }
+        }
+        sb.append('"');
+    }
+
+
+    /**
+     * An open element.
+     */
+    private static final class Frame {
+        /** The unqualified element name. */
+        private String name;
+        /** Names and values of the attributes, alternately. */
+        private final List<String> attributes = new ArrayList<String>();
+        /** The text. */
+        private final StringBuilder text = new StringBuilder();
+        /** Fields taken from children, of a registryObject element. */
+        private final StringBuilder fields = new StringBuilder();
+        /** JSON of the children, comma separated, by name. */
+        private final Map<String, StringBuilder> children =
+                new LinkedHashMap<String, StringBuilder>();
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.ands.rifcs.base.Compression;
+import org.ands.rifcs.base.Fingerprint;
+import org.ands.rifcs.base.RIFCS;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Exports registry objects as JSON, one object per line (NDJSON), for
+ * loading into search indexes.
+ *
+ * A document is exported straight from the events of its parse,
+ * without building a DOM, so that a document of any size can be
+ * exported; registry objects already held as DOMs are converted one at
+ * a time, in parallel for a parallel stream.
+ *
+ * The mapping is the same for every registry object:
+ * <ul>
+ *   <li>A registry object is an object with the fields "group",
+ *   "key", "originatingSource" and, if given, "originatingSourceType",
+ *   and "class", the name of its object class element, followed by
+ *   the fields of the object class element.</li>
+ *   <li>Elements with text content only, namely key, title, version,
+ *   edition, publisher, placePublished, context, url, uri, value, text,
+ *   mediaType and byteSize, are strings.</li>
+ *   <li>Other elements are objects, with a string field for each
+ *   attribute, named by its local name, a "value" field holding the
+ *   text of the element if it is not blank, and a field for each name
+ *   of child element holding an array of the children of that name in
+ *   document order, even if there is only one.</li>
+ *   <li>Text has leading and trailing white space removed.</li>
+ * </ul>
+ *
+ * For example:
+ * <pre>
+ * {"group":"ANDS","key":"k1","originatingSource":"http://example.org",
+ *  "class":"collection","type":"dataset","name":[{"type":"primary",
+ *  "namePart":[{"value":"A collection"}]}],"relatedObject":[{"key":
+ *  ["k2"],"relation":[{"type":"hasCollector"}]}]}
+ * </pre>
+ *
+ */
+public final class JSONExporter {
+    /** The default number of registry objects in a batch. */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /** Builder of each thread, reused for every registry object. */
+    private static final ThreadLocal<JSONBuilder> BUILDER =
+            new ThreadLocal<JSONBuilder>() {
+        protected JSONBuilder initialValue() {
+            return new JSONBuilder();
+        }
+    };
+
+    /** Registry objects written between flushes of the stream. */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+
+    /**
+     * Create an exporter.
+     */
+    public JSONExporter() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Set the number of registry objects written between flushes of the
+     * stream. Defaults to DEFAULT_BATCH_SIZE.
+     *
+     * @param aBatchSize
+     *      The number of registry objects
+     */
+    public void setBatchSize(final int aBatchSize) {
+        if (aBatchSize < 1) {
+            throw new IllegalArgumentException(
+                    "Batch size must be positive");
+        }
+        this.batchSize = aBatchSize;
+    }
+
+
+    /**
+     * Export the registry objects of a RIF-CS document, which may be
+     * compressed, as they are parsed.
+     *
+     * @param in
+     *      The document, which is not closed
+     * @param out
+     *      The stream written, which is flushed but not closed
+     *
+     * @return
+     *      The number of registry objects exported
+     *
+     * @throws RIFCSException if the document can not be parsed or the
+     *      stream written
+     */
+    public long export(final InputStream in, final OutputStream out)
+            throws RIFCSException {
+        NDJSONWriter writer = new NDJSONWriter(out, batchSize);
+        try {
+            SAXParserFactory spf = SAXParserFactory.newInstance();
+            spf.setNamespaceAware(true);
+            spf.newSAXParser().parse(
+                    new InputSource(Compression.decode(in)),
+                    new JSONHandler(writer));
+            writer.flush();
+        } catch (SAXException se) {
+            throw new RIFCSException(se);
+        } catch (IOException ioe) {
+            throw new RIFCSException(ioe);
+        } catch (ParserConfigurationException pce) {
+            throw new RIFCSException(pce);
+        }
+        return writer.getCount();
+    }
+
+
+    /**
+     * Export the registry objects of a document, converting several at
+     * once. Each is copied into a document of its own first; see
+     * RIFCS.parallelStream().
+     *
+     * @param rifcs
+     *      The document
+     * @param out
+     *      The stream written, which is flushed but not closed
+     *
+     * @return
+     *      The number of registry objects exported
+     *
+     * @throws RIFCSException if the stream can not be written
+     */
+    public long export(final RIFCS rifcs, final OutputStream out)
+            throws RIFCSException {
+        return export(rifcs.parallelStream(), out);
+    }
+
+
+    /**
+     * Export the registry objects of a stream in its order. Those of a
+     * parallel stream are converted in parallel, and so must not share
+     * a DOM.
+     *
+     * @param ros
+     *      The registry objects
+     * @param out
+     *      The stream written, which is flushed but not closed
+     *
+     * @return
+     *      The number of registry objects exported
+     *
+     * @throws RIFCSException if the stream can not be written
+     */
+    public long export(final Stream<RegistryObject> ros,
+                       final OutputStream out) throws RIFCSException {
+        final NDJSONWriter writer = new NDJSONWriter(out, batchSize);
+        try {
+            ros.map(new Function<RegistryObject, String>() {
+                public String apply(final RegistryObject ro) {
+                    return toJSON(ro);
+                }
+            }).forEachOrdered(new Consumer<String>() {
+                public void accept(final String json) {
+                    try {
+                        writer.write(json);
+                    } catch (IOException ioe) {
+                        throw new UncheckedIOException(ioe);
+                    }
+                }
+            });
+            writer.flush();
+        } catch (UncheckedIOException uioe) {
+            throw new RIFCSException(uioe.getCause());
+        } catch (IOException ioe) {
+            throw new RIFCSException(ioe);
+        }
+        return writer.getCount();
+    }
+
+
+    /**
+     * Convert a registry object to JSON.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @return
+     *      The JSON, on a single line
+     */
+    public static String toJSON(final RegistryObject ro) {
+        JSONBuilder b = BUILDER.get();
+        add(b, ro.getDOMElement());
+        b.endElement();
+        return b.getRecord().toString();
+    }
+
+
+    /**
+     * Feed an element and its descendants to a builder.
+     *
+     * @param b
+     *      The builder
+     * @param e
+     *      The element
+     */
+    private static void add(final JSONBuilder b, final Element e) {
+        b.startElement(Fingerprint.localName(e));
+
+        NamedNodeMap attrs = e.getAttributes();
+        for (int i = 0; i < attrs.getLength(); i++) {
+            Attr a = (Attr) attrs.item(i);
+            if (!Fingerprint.isNamespaceDeclaration(a.getNamespaceURI(),
+                    a.getName())) {
+                b.attribute(Fingerprint.localName(a), a.getValue());
+            }
+        }
+
+        for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
+            switch (n.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                add(b, (Element) n);
+                b.endElement();
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                b.text(n.getNodeValue());
+                break;
+            default:
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.json;
+
+import java.io.IOException;
+
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.Fingerprint;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX Handler which writes each registryObject in a document as a line
+ * of JSON as soon as it ends. registryObject elements are found at any
+ * depth, so that those of an envelope such as an OAI-PMH response are
+ * exported.
+ *
+ */
+final class JSONHandler extends DefaultHandler {
+    /** Builder of the current registry object. */
+    private final JSONBuilder builder = new JSONBuilder();
+    /** The writer receiving registry objects. */
+    private final NDJSONWriter writer;
+
+
+    /**
+     * Create a handler.
+     *
+     * @param aWriter
+     *      The writer receiving registry objects
+     */
+    JSONHandler(final NDJSONWriter aWriter) {
+        this.writer = aWriter;
+    }
+
+
+    /**
+     * Processing for the startElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     * @param attributes
+     *      Attributes associated with the element
+     */
+    public void startElement(final String uri,
+                             final String localName,
+                             final String qName,
+                             final Attributes attributes) {
+        if (builder.getDepth() == 0
+                && (!Constants.NS_RIFCS.equals(uri)
+                || !Constants.ELEMENT_REGISTRY_OBJECT.equals(localName))) {
+            return;
+        }
+        builder.startElement(localName);
+        for (int i = 0; i < attributes.getLength(); i++) {
+            if (!Fingerprint.isNamespaceDeclaration(attributes.getURI(i),
+                    attributes.getQName(i))) {
+                builder.attribute(attributes.getLocalName(i),
+                        attributes.getValue(i));
+            }
+        }
+    }
+
+
+    /**
+     * Processing for characters.
+     *
+     * @param ch
+     *      The characters
+     * @param start
+     *      The index of the first character
+     * @param length
+     *      The number of characters
+     */
+    public void characters(final char[] ch,
+                           final int start,
+                           final int length) {
+        if (builder.getDepth() > 0) {
+            builder.text(ch, start, length);
+        }
+    }
+
+
+    /**
+     * Processing for the endElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     *
+     * @throws SAXException if the registry object can not be written
+     */
+    public void endElement(final String uri,
+                           final String localName,
+                           final String qName) throws SAXException {
+        if (builder.getDepth() == 0 || !builder.endElement()) {
+            return;
+        }
+        try {
+            writer.write(builder);
+        } catch (IOException ioe) {
+            throw new SAXException(ioe);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.json;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.ands.rifcs.base.Compression;
+
+/**
+ * Writes registry objects as lines of JSON in UTF-8, flushing the
+ * stream after each batch so that a reader receives whole batches.
+ *
+ */
+final class NDJSONWriter {
+    /** The stream being written. */
+    private final Writer out;
+    /** Registry objects in a batch. */
+    private final int batchSize;
+    /** Registry objects written. */
+    private long count = 0;
+
+
+    /**
+     * Create a writer.
+     *
+     * @param os
+     *      The stream, which is flushed but not closed
+     * @param aBatchSize
+     *      Registry objects in a batch
+     */
+    NDJSONWriter(final OutputStream os, final int aBatchSize) {
+        this.out = new BufferedWriter(new OutputStreamWriter(os,
+                StandardCharsets.UTF_8), Compression.BUFFER_SIZE);
+        this.batchSize = aBatchSize;
+    }
+
+
+    /**
+     * Write the last registry object of a builder.
+     *
+     * @param builder
+     *      The builder
+     *
+     * @throws IOException An IOException
+     */
+    void write(final JSONBuilder builder) throws IOException {
+        builder.writeTo(out);
+        endLine();
+    }
+
+
+    /**
+     * Write the JSON of a registry object.
+     *
+     * @param json
+     *      The JSON
+     *
+     * @throws IOException An IOException
+     */
+    void write(final String json) throws IOException {
+        out.write(json);
+        endLine();
+    }
+
+
+    /**
+     * End the line of a registry object, and flush at the end of a
+     * batch.
+     *
+     * @throws IOException An IOException
+     */
+    private void endLine() throws IOException {
+        out.write('\n');
+        if (++count % batchSize == 0) {
+            out.flush();
+        }
+    }
+
+
+    /**
+     * Flush the last batch.
+     *
+     * @throws IOException An IOException
+     */
+    void flush() throws IOException {
+        out.flush();
+    }
+
+
+    /**
+     * Obtain the number of registry objects written.
+     *
+     * @return
+     *      The number of registry objects
+     */
+    long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,2 @@
+/** Export of RIF-CS documents as JSON. */
+package org.ands.rifcs.json;
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.merge;
+
+import org.ands.rifcs.base.Constants;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX Handler which offers each registry object of a document to a
+ * CandidateTable.
+ *
+ */
+final class CandidateHandler extends DefaultHandler {
+    /** Depth of registryObject elements. */
+    private static final int DEPTH_RECORD = 2;
+    /** Depth of the children of registryObject elements. */
+    private static final int DEPTH_RECORD_CHILD = 3;
+
+    /** The table receiving candidates. */
+    private final CandidateTable table;
+    /** Index of the document being read. */
+    private final int document;
+    /** Current element depth. */
+    private int depth = 0;
+    /** Index of the current registry object. */
+    private int position = -1;
+    /** true while inside a registryObject element. */
+    private boolean inRecord = false;
+    /** Text of the current key or originatingSource element, or null. */
+    private StringBuilder text = null;
+    /** The key of the current registry object, or null. */
+    private String key = null;
+    /** The originating source of the current registry object, or null. */
+    private String originatingSource = null;
+    /** The dateModified attribute of the current registry object, or
+     *  null. */
+    private String dateModified = null;
+
+
+    /**
+     * Create a handler.
+     *
+     * @param aTable
+     *      The table receiving candidates
+     * @param aDocument
+     *      Index of the document being read
+     */
+    CandidateHandler(final CandidateTable aTable, final int aDocument) {
+        this.table = aTable;
+        this.document = aDocument;
+    }
+
+
+    /**
+     * Determine whether an element is a registryObject element.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     *
+     * @return
+     *      true for registryObject elements
+     */
+    static boolean isRegistryObject(final String uri,
+                                    final String localName) {
+        return Constants.NS_RIFCS.equals(uri)
+                && Constants.ELEMENT_REGISTRY_OBJECT.equals(localName);
+    }
+
+
+    /**
+     * Processing for the startElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     * @param attributes
+     *      Attributes associated with the element
+     */
+    public void startElement(final String uri,
+                             final String localName,
+                             final String qName,
+                             final Attributes attributes) {
+        depth++;
+        if (depth == DEPTH_RECORD && isRegistryObject(uri, localName)) {
+            inRecord = true;
+            position++;
+            key = null;
+            originatingSource = null;
+            dateModified = null;
+        } else if (inRecord && depth == DEPTH_RECORD_CHILD) {
+            if ((key == null && Constants.ELEMENT_KEY.equals(localName))
+                    || (originatingSource == null
+                    && Constants.ELEMENT_ORIG_SOURCE.equals(localName))) {
+                text = new StringBuilder();
+            } else if (dateModified == null) {
+                dateModified = attributes.getValue("",
+                        Constants.ATTRIBUTE_DATE_MODIFIED);
+            }
+        }
+    }
+
+
+    /**
+     * Processing for characters.
+     *
+     * @param chars
+     *      An array of characters
+     * @param start
+     *      The start position of the first in the array
+     * @param length
+     *      The length of the character data being passed
+     */
+    public void characters(final char[] chars,
+                           final int start,
+                           final int length) {
+        if (text != null) {
+            text.append(chars, start, length);
+        }
+    }
+
+
+    /**
+     * Processing for the endElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     */
+    public void endElement(final String uri,
+                           final String localName,
+                           final String qName) {
+        if (text != null && depth == DEPTH_RECORD_CHILD) {
+            if (Constants.ELEMENT_KEY.equals(localName)) {
+                key = text.toString();
+            } else {
+                originatingSource = text.toString().trim();
+            }
+            text = null;
+        } else if (inRecord && depth == DEPTH_RECORD) {
+            table.offer(key, originatingSource, dateModified, document,
+                    position);
+            inRecord = false;
+        }
+        depth--;
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.merge;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ands.rifcs.base.StringPool;
+
+/**
+ * The registry objects kept by a merge, chosen in a single pass over
+ * the registry objects of all documents.
+ *
+ * Candidates from different documents may be offered concurrently.
+ * Candidates from one document must all be offered by the same thread.
+ * Originating sources, held by every candidate, are taken from the
+ * shared StringPool.
+ *
+ */
+final class CandidateTable {
+    /** The conflict policy. */
+    private final ConflictPolicy policy;
+    /** Map from each key to the candidate currently kept. */
+    private final ConcurrentMap<String, MergeCandidate> winners =
+            new ConcurrentHashMap<String, MergeCandidate>();
+    /** Keys seen more than once. */
+    private final Set<String> duplicates = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
+    /** Positions of the registry objects kept from each document. */
+    private final BitSet[] kept;
+
+
+    /**
+     * Create a table.
+     *
+     * @param aPolicy
+     *      The conflict policy
+     * @param documents
+     *      The number of documents being merged
+     */
+    CandidateTable(final ConflictPolicy aPolicy, final int documents) {
+        this.policy = aPolicy;
+        this.kept = new BitSet[documents];
+        for (int i = 0; i < documents; i++) {
+            kept[i] = new BitSet();
+        }
+    }
+
+
+    /**
+     * Offer a registry object.
+     *
+     * @param key
+     *      The registry object key, or null if it has none
+     * @param originatingSource
+     *      The originating source, or null
+     * @param dateModified
+     *      The dateModified attribute, or null
+     * @param document
+     *      Index of the document
+     * @param position
+     *      Index of the registry object in its document
+     */
+    void offer(final String key, final String originatingSource,
+               final String dateModified, final int document,
+               final int position) {
+        if (key == null) {
+            // registry objects without keys can not conflict
+            kept[document].set(position);
+            return;
+        }
+
+        MergeCandidate candidate = new MergeCandidate(key,
+                StringPool.getShared().intern(originatingSource),
+                dateModified, document, position);
+
+        MergeCandidate current = winners.putIfAbsent(key, candidate);
+        while (current != null) {
+            duplicates.add(key);
+            if (choose(current, candidate) == current
+                    || winners.replace(key, current, candidate)) {
+                return;
+            }
+            current = winners.get(key);
+        }
+    }
+
+
+    /**
+     * Choose between two candidates with the same key.
+     *
+     * @param first
+     *      A candidate
+     * @param second
+     *      Another candidate with the same key
+     *
+     * @return
+     *      The candidate to keep
+     */
+    private MergeCandidate choose(final MergeCandidate first,
+                                  final MergeCandidate second) {
+        int c = policy.prefer(first, second);
+        if (c == 0) {
+            c = first.comparePlace(second);
+        }
+        if (c > 0) {
+            return first;
+        }
+        return second;
+    }
+
+
+    /**
+     * Obtain the registry objects to keep, once every candidate has been
+     * offered.
+     *
+     * @return
+     *      For each document, the positions of its registry objects which
+     *      are kept
+     */
+    BitSet[] kept() {
+        for (Iterator<MergeCandidate> i = winners.values().iterator();
+                i.hasNext();) {
+            MergeCandidate c = i.next();
+            kept[c.getDocument()].set(c.getPosition());
+        }
+        winners.clear();
+        return kept;
+    }
+
+
+    /**
+     * Obtain the keys of registry objects found more than once.
+     *
+     * @return
+     *      A Set of keys
+     */
+    Set<String> getDuplicates() {
+        return duplicates;
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.merge;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The standard conflict policies.
+ *
+ */
+public final class ConflictPolicies {
+    /** Keep the registry object which comes last in the merged input. */
+    public static final ConflictPolicy LAST_WINS = new ConflictPolicy() {
+        public int prefer(final MergeCandidate first,
+                          final MergeCandidate second) {
+            return 0;
+        }
+    };
+
+    /** Keep the registry object with the latest dateModified attribute.
+     *  Registry objects without the attribute are older than those with
+     *  it; otherwise the one which comes last is kept. */
+    public static final ConflictPolicy DATE_MODIFIED = new ConflictPolicy() {
+        public int prefer(final MergeCandidate first,
+                          final MergeCandidate second) {
+            return Long.compare(first.getDateModified(),
+                    second.getDateModified());
+        }
+    };
+
+
+    /**
+     * Prevent instantiation.
+     */
+    private ConflictPolicies() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Obtain a policy which keeps the registry object from the
+     * originating source with the highest priority. Registry objects
+     * from sources not listed have the lowest priority. Where the
+     * priorities are equal the one which comes last is kept.
+     *
+     * @param sources
+     *      Originating sources, highest priority first
+     *
+     * @return
+     *      The policy
+     */
+    public static ConflictPolicy sourcePriority(final List<String> sources) {
+        final Map<String, Integer> ranks = new HashMap<String, Integer>();
+        for (int i = sources.size() - 1; i >= 0; i--) {
+            ranks.put(sources.get(i), Integer.valueOf(sources.size() - i));
+        }
+
+        return new ConflictPolicy() {
+            public int prefer(final MergeCandidate first,
+                              final MergeCandidate second) {
+                return Integer.compare(rank(first), rank(second));
+            }
+
+            private int rank(final MergeCandidate c) {
+                Integer r = ranks.get(c.getOriginatingSource());
+                if (r == null) {
+                    return 0;
+                }
+                return r.intValue();
+            }
+        };
+    }
+}
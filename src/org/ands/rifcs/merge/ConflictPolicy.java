@@ -0,0 +1,43 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.merge;
+
+/**
+ * Decides which of two registry objects with the same key is kept by
+ * a merge. Where the policy has no preference, the registry object which
+ * comes later in the merged input is kept.
+ *
+ * Policies may be called from several threads at once, and must give
+ * the same answer for the same candidates whatever order they are
+ * compared in, so that the result of a merge does not depend on the
+ * order in which documents are read.
+ *
+ */
+public interface ConflictPolicy {
+    /**
+     * Compare two registry objects with the same key.
+     *
+     * @param first
+     *      A registry object
+     * @param second
+     *      Another registry object with the same key
+     *
+     * @return
+     *      A positive number to keep first, a negative number to keep
+     *      second, or zero to keep the one which comes later
+     */
+    int prefer(MergeCandidate first, MergeCandidate second);
+}
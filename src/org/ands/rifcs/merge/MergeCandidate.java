@@ -0,0 +1,146 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.merge;
+
+import org.ands.rifcs.base.DateCodec;
+
+/**
+ * The properties of a registry object which are used to decide which
+ * of several registry objects with the same key is kept by a merge.
+ *
+ * A candidate holds only a few values, not the registry object itself,
+ * so that the candidates of many large documents can be held in memory.
+ *
+ */
+public final class MergeCandidate {
+    /** Value of getDateModified() when there is no usable date. */
+    public static final long NO_DATE = Long.MIN_VALUE;
+
+    /** The registry object key. */
+    private final String key;
+    /** The originating source, or null. */
+    private final String originatingSource;
+    /** The modification time in milliseconds since the epoch. */
+    private final long dateModified;
+    /** Index of the document in the merge. */
+    private final int document;
+    /** Index of the registry object in its document. */
+    private final int position;
+
+
+    /**
+     * Construct a candidate.
+     *
+     * @param aKey
+     *      The registry object key
+     * @param anOriginatingSource
+     *      The originating source, or null
+     * @param aDateModified
+     *      The dateModified attribute of the object class element,
+     *      or null
+     * @param aDocument
+     *      Index of the document in the merge
+     * @param aPosition
+     *      Index of the registry object in its document
+     */
+    MergeCandidate(final String aKey, final String anOriginatingSource,
+                   final String aDateModified, final int aDocument,
+                   final int aPosition) {
+        this.key = aKey;
+        this.originatingSource = anOriginatingSource;
+        this.dateModified = DateCodec.parseStart(aDateModified, NO_DATE);
+        this.document = aDocument;
+        this.position = aPosition;
+    }
+
+
+    /**
+     * Obtain the registry object key.
+     *
+     * @return
+     *      The key
+     */
+    public String getKey() {
+        return key;
+    }
+
+
+    /**
+     * Obtain the originating source of the registry object.
+     *
+     * @return
+     *      The originating source, or null if there is none
+     */
+    public String getOriginatingSource() {
+        return originatingSource;
+    }
+
+
+    /**
+     * Obtain the modification time of the registry object, from the
+     * dateModified attribute of its object class element.
+     *
+     * @return
+     *      Milliseconds since the epoch, or NO_DATE if the attribute is
+     *      missing or can not be parsed
+     */
+    public long getDateModified() {
+        return dateModified;
+    }
+
+
+    /**
+     * Obtain the index of the document containing the registry object,
+     * in the order the documents were given to the merge.
+     *
+     * @return
+     *      The document index
+     */
+    public int getDocument() {
+        return document;
+    }
+
+
+    /**
+     * Obtain the index of the registry object within its document.
+     *
+     * @return
+     *      The position of the registry object
+     */
+    public int getPosition() {
+        return position;
+    }
+
+
+    /**
+     * Compare the places of two candidates in the merged input.
+     *
+     * @param other
+     *      Another candidate
+     *
+     * @return
+     *      A positive number if this candidate comes later than the
+     *      other, a negative number if it comes earlier, or zero if
+     *      they are the same registry object
+     */
+    int comparePlace(final MergeCandidate other) {
+        int c = Integer.compare(document, other.document);
+        if (c == 0) {
+            c = Integer.compare(position, other.position);
+        }
+        return c;
+    }
+}
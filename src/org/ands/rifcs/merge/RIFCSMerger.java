@@ -0,0 +1,402 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.merge;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.ands.rifcs.base.Compression;
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.RIFCS;
+import org.ands.rifcs.base.RIFCSException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Merges many RIF-CS documents into one, keeping one registry object
+ * for each key.
+ *
+ * Where several registry objects have the same key a ConflictPolicy
+ * decides which is kept; by default the last one wins. Duplicates are
+ * found in a single pass over all the documents, which are read in
+ * parallel, holding only the key, originating source and modification
+ * date of each registry object. The kept registry objects are then
+ * copied to the result in document order.
+ *
+ * Files are merged in two streaming passes, so the memory used depends
+ * on the number of distinct keys rather than the size of the documents.
+ *
+ */
+public class RIFCSMerger {
+    /** Size of the buffer used when reading files. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The conflict policy. */
+    private ConflictPolicy policy = ConflictPolicies.LAST_WINS;
+    /** Number of documents read at once. */
+    private int threads = Runtime.getRuntime().availableProcessors();
+    /** Keys found more than once by the last merge. */
+    private Set<String> duplicates = Collections.emptySet();
+
+
+    /**
+     * Create a merger.
+     */
+    public RIFCSMerger() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Set the policy deciding which of several registry objects with
+     * the same key is kept.
+     *
+     * @param aPolicy
+     *      The conflict policy
+     */
+    public final void setConflictPolicy(final ConflictPolicy aPolicy) {
+        this.policy = aPolicy;
+    }
+
+
+    /**
+     * Set the number of documents read at once. The default is the
+     * number of available processors.
+     *
+     * @param count
+     *      The number of threads
+     */
+    public final void setThreads(final int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException(
+                    "Thread count must be positive");
+        }
+        this.threads = count;
+    }
+
+
+    /**
+     * Obtain the keys found more than once by the last merge.
+     *
+     * @return
+     *      A Set of keys
+     */
+    public final Set<String> getDuplicates() {
+        return duplicates;
+    }
+
+
+    /**
+     * Merge RIF-CS documents. The documents are not changed.
+     *
+     * @param documents
+     *      The documents, in order
+     *
+     * @return
+     *      A new RIF-CS document containing the kept registry objects
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public final RIFCS merge(final List<RIFCS> documents)
+            throws RIFCSException {
+        final CandidateTable table = new CandidateTable(policy,
+                documents.size());
+
+        // a DOM may not be read from two threads at once, so each
+        // distinct document is read by one task
+        Map<RIFCS, List<Integer>> indexes =
+                new IdentityHashMap<RIFCS, List<Integer>>();
+        for (int i = 0; i < documents.size(); i++) {
+            List<Integer> l = indexes.get(documents.get(i));
+            if (l == null) {
+                l = new ArrayList<Integer>();
+                indexes.put(documents.get(i), l);
+            }
+            l.add(Integer.valueOf(i));
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (Iterator<Map.Entry<RIFCS, List<Integer>>> i =
+                indexes.entrySet().iterator(); i.hasNext();) {
+            final Map.Entry<RIFCS, List<Integer>> entry = i.next();
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    for (int j = 0; j < entry.getValue().size(); j++) {
+                        scan(entry.getKey().getDocument(), table,
+                                entry.getValue().get(j).intValue());
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            runAll(tasks);
+        } catch (SAXException se) {
+            throw new RIFCSException(se);
+        } catch (ParserConfigurationException pce) {
+            throw new RIFCSException(pce);
+        } catch (IOException ioe) {
+            throw new RIFCSException(ioe);
+        }
+
+        BitSet[] kept = table.kept();
+        duplicates = table.getDuplicates();
+        Document result = new RIFCS().getDocument();
+        Element root = result.getDocumentElement();
+        for (int i = 0; i < documents.size(); i++) {
+            int position = 0;
+            for (Node n = documents.get(i).getDocument()
+                    .getDocumentElement().getFirstChild();
+                    n != null; n = n.getNextSibling()) {
+                if (isRegistryObject(n)) {
+                    if (kept[i].get(position)) {
+                        root.appendChild(result.importNode(n, true));
+                    }
+                    position++;
+                }
+            }
+        }
+        return new RIFCS(result);
+    }
+
+
+    /**
+     * Merge RIF-CS files, writing the result to a stream. Each file is
+     * read twice.
+     *
+     * @param files
+     *      The files, in order
+     * @param out
+     *      The stream receiving the merged document
+     *
+     * @throws SAXException A SAXException
+     * @throws ParserConfigurationException A ParserConfigurationException
+     * @throws IOException An IOException
+     */
+    public final void merge(final List<File> files, final OutputStream out)
+            throws SAXException, ParserConfigurationException, IOException {
+        final CandidateTable table = new CandidateTable(policy,
+                files.size());
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < files.size(); i++) {
+            final File f = files.get(i);
+            final int document = i;
+            tasks.add(new Callable<Void>() {
+                public Void call() throws SAXException,
+                ParserConfigurationException, IOException {
+                    parse(f, new CandidateHandler(table, document));
+                    return null;
+                }
+            });
+        }
+        runAll(tasks);
+
+        BitSet[] kept = table.kept();
+        duplicates = table.getDuplicates();
+        TransformerHandler th;
+        try {
+            th = ((SAXTransformerFactory) TransformerFactory.newInstance())
+                    .newTransformerHandler();
+        } catch (TransformerConfigurationException tce) {
+            throw new SAXException(tce);
+        }
+        th.setResult(new StreamResult(out));
+
+        AttributesImpl attributes = new AttributesImpl();
+        attributes.addAttribute(Constants.NS_SCHEMA, "schemaLocation",
+                Constants.ATTRIBUTE_SCHEMA_LOCATION, "CDATA",
+                Constants.NS_RIFCS + " " + Constants.SCHEMA_REGISTRY_OBJECTS);
+        th.startDocument();
+        th.startPrefixMapping("", Constants.NS_RIFCS);
+        th.startPrefixMapping("xsi", Constants.NS_SCHEMA);
+        th.startElement(Constants.NS_RIFCS,
+                Constants.ELEMENT_REGISTRY_OBJECTS,
+                Constants.ELEMENT_REGISTRY_OBJECTS, attributes);
+        for (int i = 0; i < files.size(); i++) {
+            parse(files.get(i), new RecordFilter(th, kept[i]));
+        }
+        th.characters(new char[] {'\n'}, 0, 1);
+        th.endElement(Constants.NS_RIFCS,
+                Constants.ELEMENT_REGISTRY_OBJECTS,
+                Constants.ELEMENT_REGISTRY_OBJECTS);
+        th.endPrefixMapping("xsi");
+        th.endPrefixMapping("");
+        th.endDocument();
+    }
+
+
+    /**
+     * Offer the registry objects of a DOM to a table.
+     *
+     * @param doc
+     *      The RIF-CS DOM
+     * @param table
+     *      The table
+     * @param document
+     *      Index of the document in the merge
+     */
+    private static void scan(final Document doc, final CandidateTable table,
+                             final int document) {
+        int position = 0;
+        for (Node n = doc.getDocumentElement().getFirstChild(); n != null;
+                n = n.getNextSibling()) {
+            if (!isRegistryObject(n)) {
+                continue;
+            }
+            String key = null;
+            String source = null;
+            String date = null;
+            for (Node c = n.getFirstChild(); c != null;
+                    c = c.getNextSibling()) {
+                if (c.getNodeType() != Node.ELEMENT_NODE) {
+                    continue;
+                }
+                Element e = (Element) c;
+                if (key == null
+                        && Constants.ELEMENT_KEY.equals(e.getLocalName())) {
+                    key = e.getTextContent();
+                } else if (source == null && Constants.ELEMENT_ORIG_SOURCE
+                        .equals(e.getLocalName())) {
+                    source = e.getTextContent().trim();
+                } else if (date == null && e.hasAttribute(
+                        Constants.ATTRIBUTE_DATE_MODIFIED)) {
+                    date = e.getAttribute(Constants.ATTRIBUTE_DATE_MODIFIED);
+                }
+            }
+            table.offer(key, source, date, document, position++);
+        }
+    }
+
+
+    /**
+     * Determine whether a node is a registryObject element.
+     *
+     * @param n
+     *      A node
+     *
+     * @return
+     *      true for registryObject elements
+     */
+    private static boolean isRegistryObject(final Node n) {
+        return n.getNodeType() == Node.ELEMENT_NODE
+                && CandidateHandler.isRegistryObject(n.getNamespaceURI(),
+                        n.getLocalName());
+    }
+
+
+    /**
+     * Parse a file.
+     *
+     * @param f
+     *      The file
+     * @param handler
+     *      The handler receiving the parse events
+     *
+     * @throws SAXException A SAXException
+     * @throws ParserConfigurationException A ParserConfigurationException
+     * @throws IOException An IOException
+     */
+    private static void parse(final File f, final DefaultHandler handler)
+            throws SAXException, ParserConfigurationException, IOException {
+        SAXParserFactory spf = SAXParserFactory.newInstance();
+        spf.setNamespaceAware(true);
+        InputStream is = Compression.decode(new BufferedInputStream(
+                new FileInputStream(f), BUFFER_SIZE));
+        try {
+            InputSource source = new InputSource(is);
+            source.setSystemId(f.toURI().toString());
+            spf.newSAXParser().parse(source, handler);
+        } finally {
+            is.close();
+        }
+    }
+
+
+    /**
+     * Run tasks in parallel and wait for all of them to finish.
+     *
+     * @param tasks
+     *      The tasks
+     *
+     * @throws SAXException if a task throws one
+     * @throws ParserConfigurationException if a task throws one
+     * @throws IOException if a task throws one
+     */
+    private void runAll(final List<Callable<Void>> tasks)
+            throws SAXException, ParserConfigurationException, IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(threads, Math.max(1, tasks.size())));
+        try {
+            List<Future<Void>> futures = executor.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof SAXException) {
+                        throw (SAXException) cause;
+                    } else if (cause instanceof
+                            ParserConfigurationException) {
+                        throw (ParserConfigurationException) cause;
+                    } else if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted merging");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.merge;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * SAX Handler which passes the kept registry objects of a document on
+ * to another ContentHandler, leaving out everything else.
+ *
+ * Namespace declarations made outside a kept registry object but in
+ * scope within it are repeated on the registry object, so that it can
+ * be written into another document unchanged.
+ *
+ */
+final class RecordFilter extends DefaultHandler {
+    /** Depth of registryObject elements. */
+    private static final int DEPTH_RECORD = 2;
+    /** Written before each registry object. */
+    private static final char[] NEWLINE = {'\n'};
+
+    /** The handler receiving kept registry objects. */
+    private final ContentHandler target;
+    /** Positions of the registry objects to keep. */
+    private final BitSet kept;
+    /** Namespace declarations outside kept registry objects. */
+    private final NamespaceSupport namespaces = new NamespaceSupport();
+    /** Prefixes and URIs declared on the next element, in pairs. */
+    private final List<String> pending = new ArrayList<String>();
+    /** Prefixes declared to the target for the current registry
+     *  object. */
+    private final List<String> declared = new ArrayList<String>();
+    /** Current element depth. */
+    private int depth = 0;
+    /** Index of the current registry object. */
+    private int position = -1;
+    /** true while inside a kept registry object. */
+    private boolean forwarding = false;
+
+
+    /**
+     * Create a filter.
+     *
+     * @param aTarget
+     *      The handler receiving kept registry objects
+     * @param someKept
+     *      Positions of the registry objects to keep
+     */
+    RecordFilter(final ContentHandler aTarget, final BitSet someKept) {
+        this.target = aTarget;
+        this.kept = someKept;
+    }
+
+
+    /**
+     * Processing for the startPrefixMapping event.
+     *
+     * @param prefix
+     *      The namespace prefix
+     * @param uri
+     *      The namespace URI
+     *
+     * @exception SAXException if the target handler fails
+     */
+    public void startPrefixMapping(final String prefix, final String uri)
+            throws SAXException {
+        if (forwarding) {
+            target.startPrefixMapping(prefix, uri);
+        } else {
+            pending.add(prefix);
+            pending.add(uri);
+        }
+    }
+
+
+    /**
+     * Processing for the endPrefixMapping event.
+     *
+     * @param prefix
+     *      The namespace prefix
+     *
+     * @exception SAXException if the target handler fails
+     */
+    public void endPrefixMapping(final String prefix) throws SAXException {
+        if (forwarding) {
+            target.endPrefixMapping(prefix);
+        }
+    }
+
+
+    /**
+     * Processing for the startElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     * @param attributes
+     *      Attributes associated with the element
+     *
+     * @exception SAXException if the target handler fails
+     */
+    public void startElement(final String uri,
+                             final String localName,
+                             final String qName,
+                             final Attributes attributes)
+            throws SAXException {
+        depth++;
+        if (forwarding) {
+            target.startElement(uri, localName, qName, attributes);
+            return;
+        }
+
+        namespaces.pushContext();
+        for (int i = 0; i < pending.size(); i += 2) {
+            namespaces.declarePrefix(pending.get(i), pending.get(i + 1));
+        }
+        pending.clear();
+
+        if (depth == DEPTH_RECORD
+                && CandidateHandler.isRegistryObject(uri, localName)) {
+            position++;
+            if (kept.get(position)) {
+                forwarding = true;
+                declareNamespaces();
+                target.characters(NEWLINE, 0, NEWLINE.length);
+                target.startElement(uri, localName, qName, attributes);
+            }
+        }
+    }
+
+
+    /**
+     * Declare to the target every namespace in scope.
+     *
+     * @exception SAXException if the target handler fails
+     */
+    private void declareNamespaces() throws SAXException {
+        for (Enumeration<?> e = namespaces.getPrefixes();
+                e.hasMoreElements();) {
+            String prefix = (String) e.nextElement();
+            if (!XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+                declared.add(prefix);
+            }
+        }
+        if (namespaces.getURI("") != null) {
+            declared.add("");
+        }
+        for (int i = 0; i < declared.size(); i++) {
+            target.startPrefixMapping(declared.get(i),
+                    namespaces.getURI(declared.get(i)));
+        }
+    }
+
+
+    /**
+     * Processing for characters.
+     *
+     * @param chars
+     *      An array of characters
+     * @param start
+     *      The start position of the first in the array
+     * @param length
+     *      The length of the character data being passed
+     *
+     * @exception SAXException if the target handler fails
+     */
+    public void characters(final char[] chars,
+                           final int start,
+                           final int length) throws SAXException {
+        if (forwarding) {
+            target.characters(chars, start, length);
+        }
+    }
+
+
+    /**
+     * Processing for ignorable whitespace.
+     *
+     * @param chars
+     *      An array of characters
+     * @param start
+     *      The start position of the first in the array
+     * @param length
+     *      The length of the character data being passed
+     *
+     * @exception SAXException if the target handler fails
+     */
+    public void ignorableWhitespace(final char[] chars,
+                                    final int start,
+                                    final int length) throws SAXException {
+        if (forwarding) {
+            target.ignorableWhitespace(chars, start, length);
+        }
+    }
+
+
+    /**
+     * Processing for a processing instruction.
+     *
+     * @param piTarget
+     *      The processing instruction target
+     * @param data
+     *      The processing instruction data
+     *
+     * @exception SAXException if the target handler fails
+     */
+    public void processingInstruction(final String piTarget,
+                                      final String data)
+            throws SAXException {
+        if (forwarding) {
+            target.processingInstruction(piTarget, data);
+        }
+    }
+
+
+    /**
+     * Processing for the endElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     *
+     * @exception SAXException if the target handler fails
+     */
+    public void endElement(final String uri,
+                           final String localName,
+                           final String qName) throws SAXException {
+        if (forwarding) {
+            target.endElement(uri, localName, qName);
+            if (depth == DEPTH_RECORD) {
+                forwarding = false;
+                for (int i = 0; i < declared.size(); i++) {
+                    target.endPrefixMapping(declared.get(i));
+                }
+                declared.clear();
+                namespaces.popContext();
+            }
+        } else {
+            namespaces.popContext();
+        }
+        depth--;
+    }
+}
@@ -0,0 +1,2 @@
+/** Merging of RIF-CS documents. */
+package org.ands.rifcs.merge;
@@ -0,0 +1,587 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.pipeline;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.ands.rifcs.base.Compression;
+import org.ands.rifcs.base.RIFCSException;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Harvests registry objects from OAI-PMH endpoints with ListRecords,
+ * following resumption tokens, and passes each to a stage as a
+ * PipelineRecord whose input is the index of its endpoint.
+ *
+ * Endpoints are harvested at the same time, up to the configured
+ * number of threads. The pages of an endpoint must be fetched in turn,
+ * but the next page is fetched while the registry objects of the
+ * current one are being passed on. Records of deleted registry objects
+ * are ignored.
+ *
+ * Each page is read in a single pass, and its registry objects are
+ * held until it has been read. A failure is given to the error
+ * handler, under the base URL of the endpoint: with the record if the
+ * stage failed to process it; with no record if a registry object of a
+ * page could not be read, in which case the rest of the page and the
+ * following pages are harvested; or with no record if a page could not
+ * be fetched or read, in which case the harvest of that endpoint ends.
+ *
+ * <pre>
+ * OAIHarvester h = new OAIHarvester();
+ * h.setErrorHandler(RecordErrorHandlers.SKIP);
+ * h.harvest(endpoints, writer);
+ * writer.finish();
+ * </pre>
+ *
+ */
+public class OAIHarvester {
+    /** The default metadata prefix of RIF-CS. */
+    public static final String DEFAULT_METADATA_PREFIX = "rif";
+    /** The default connect and read timeout, in milliseconds. */
+    public static final int DEFAULT_TIMEOUT = 60000;
+    /** The default number of retries of an unavailable endpoint. */
+    public static final int DEFAULT_RETRIES = 3;
+    /** The default number of endpoints harvested at once. */
+    public static final int DEFAULT_THREADS = 4;
+
+    /** Wait before a retry when the endpoint does not say, in seconds. */
+    private static final int DEFAULT_RETRY_AFTER = 10;
+    /** Longest wait before a retry, in seconds. */
+    private static final int MAX_RETRY_AFTER = 300;
+    /** Milliseconds per second. */
+    private static final long MILLIS = 1000L;
+
+    /** Number of endpoints harvested at once. */
+    private int threads = DEFAULT_THREADS;
+    /** The metadata prefix requested. */
+    private String metadataPrefix = DEFAULT_METADATA_PREFIX;
+    /** The set requested, or null. */
+    private String set = null;
+    /** The earliest datestamp requested, or null. */
+    private String from = null;
+    /** The latest datestamp requested, or null. */
+    private String until = null;
+    /** Connect and read timeout, in milliseconds. */
+    private int timeout = DEFAULT_TIMEOUT;
+    /** Number of retries of an unavailable endpoint. */
+    private int retries = DEFAULT_RETRIES;
+    /** Handler of failures. */
+    private RecordErrorHandler errorHandler = RecordErrorHandlers.FAIL;
+
+
+    /**
+     * Create a harvester.
+     */
+    public OAIHarvester() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Set the number of endpoints harvested at once.
+     *
+     * @param count
+     *      The number of threads, at least one
+     */
+    public final void setThreads(final int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException(
+                    "Thread count must be positive");
+        }
+        this.threads = count;
+    }
+
+
+    /**
+     * Set the metadata prefix requested; the default is "rif".
+     *
+     * @param prefix
+     *      The metadata prefix
+     */
+    public final void setMetadataPrefix(final String prefix) {
+        this.metadataPrefix = prefix;
+    }
+
+
+    /**
+     * Set the set to harvest.
+     *
+     * @param setSpec
+     *      The set, or null for all records
+     */
+    public final void setSet(final String setSpec) {
+        this.set = setSpec;
+    }
+
+
+    /**
+     * Set the range of datestamps to harvest.
+     *
+     * @param fromDate
+     *      The earliest datestamp, or null
+     * @param untilDate
+     *      The latest datestamp, or null
+     */
+    public final void setDateRange(final String fromDate,
+                                   final String untilDate) {
+        this.from = fromDate;
+        this.until = untilDate;
+    }
+
+
+    /**
+     * Set the connect and read timeout.
+     *
+     * @param millis
+     *      The timeout in milliseconds, or 0 for none
+     */
+    public final void setTimeout(final int millis) {
+        this.timeout = millis;
+    }
+
+
+    /**
+     * Set the number of times a request answered with 503 (Service
+     * Unavailable) is retried, after the wait given by Retry-After.
+     *
+     * @param count
+     *      The number of retries
+     */
+    public final void setRetries(final int count) {
+        this.retries = count;
+    }
+
+
+    /**
+     * Set the handler of failures. The default is
+     * RecordErrorHandlers.FAIL.
+     *
+     * @param handler
+     *      The handler
+     */
+    public final void setErrorHandler(final RecordErrorHandler handler) {
+        this.errorHandler = handler;
+    }
+
+
+    /**
+     * Harvest endpoints, passing each registry object to a stage.
+     *
+     * @param baseURLs
+     *      The base URLs of the endpoints
+     * @param stage
+     *      The stage receiving the registry objects, called from
+     *      several threads at once; what it returns is ignored
+     *
+     * @return
+     *      The number of registry objects passed to the stage
+     *
+     * @throws RIFCSException the exception of the error handler, if it
+     *      stopped the harvest
+     */
+    public final long harvest(final List<String> baseURLs, final Stage stage)
+            throws RIFCSException {
+        final AtomicLong count = new AtomicLong();
+        int size = Math.min(threads, Math.max(1, baseURLs.size()));
+        final ExecutorService fetcher = Executors.newFixedThreadPool(size);
+        ExecutorService executor = Executors.newFixedThreadPool(size);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < baseURLs.size(); i++) {
+                final int input = i;
+                final String baseURL = baseURLs.get(i);
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws RIFCSException,
+                            InterruptedException {
+                        harvest(input, baseURL, stage, fetcher, count);
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof RIFCSException) {
+                        throw (RIFCSException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new RIFCSException(cause);
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RIFCSException("Interrupted harvesting", ie);
+        } finally {
+            executor.shutdownNow();
+            fetcher.shutdownNow();
+        }
+        return count.get();
+    }
+
+
+    /**
+     * Harvest one endpoint.
+     *
+     * @param input
+     *      The index of the endpoint
+     * @param baseURL
+     *      The base URL of the endpoint
+     * @param stage
+     *      The stage receiving the registry objects
+     * @param fetcher
+     *      Fetches the next page
+     * @param count
+     *      The number of registry objects passed on, incremented
+     *
+     * @throws RIFCSException if the error handler stops the harvest
+     * @throws InterruptedException if the harvest is stopped elsewhere
+     */
+    private void harvest(final int input, final String baseURL,
+                         final Stage stage, final ExecutorService fetcher,
+                         final AtomicLong count)
+            throws RIFCSException, InterruptedException {
+        Future<byte[]> next = null;
+        try {
+            next = fetcher.submit(fetch(firstURL(baseURL)));
+            int position = 0;
+            while (next != null) {
+                Page page = new Page();
+                OAIResponse response = read(get(next), input, position,
+                        page);
+                if (response.getErrorCode() != null) {
+                    throw new RIFCSException("OAI-PMH error "
+                            + response.getErrorCode() + ": "
+                            + response.getErrorMessage());
+                }
+                next = null;
+                if (response.getResumptionToken() != null) {
+                    next = fetcher.submit(fetch(baseURL
+                            + "?verb=ListRecords&resumptionToken="
+                            + encode(response.getResumptionToken())));
+                }
+                position += page.size();
+                pass(page, baseURL, stage, count);
+            }
+        } catch (IOException ioe) {
+            errorHandler.recordFailed(baseURL, null,
+                    new RIFCSException(ioe));
+        } catch (RecordSplitter.Stopped s) {
+            throw s.getCause();
+        } catch (SAXException se) {
+            errorHandler.recordFailed(baseURL, null,
+                    new RIFCSException(se));
+        } catch (RIFCSException re) {
+            errorHandler.recordFailed(baseURL, null, re);
+        } finally {
+            if (next != null) {
+                next.cancel(true);
+            }
+        }
+    }
+
+
+    /**
+     * Read a page in a single pass, finding its resumption token and
+     * error and splitting its registry objects.
+     *
+     * @param page
+     *      The page
+     * @param input
+     *      The index of the endpoint
+     * @param position
+     *      The index within the endpoint of the page's first registry
+     *      object
+     * @param target
+     *      Receives the registry objects of the page
+     *
+     * @return
+     *      The response, giving the resumption token and error
+     *
+     * @throws SAXException if the page can not be read
+     * @throws IOException An IOException
+     */
+    private static OAIResponse read(final byte[] page, final int input,
+                                    final int position,
+                                    final RecordSplitter.Target target)
+            throws SAXException, IOException {
+        SAXParserFactory spf = SAXParserFactory.newInstance();
+        spf.setNamespaceAware(true);
+        try {
+            OAIResponse response = new OAIResponse(
+                    new RecordSplitter(input, position, target));
+            spf.newSAXParser().parse(new InputSource(Compression.decode(
+                    new ByteArrayInputStream(page))), response);
+            return response;
+        } catch (ParserConfigurationException pce) {
+            throw new SAXException(pce);
+        }
+    }
+
+
+    /**
+     * Pass the registry objects of a page to the stage, and those which
+     * could not be read to the error handler.
+     *
+     * @param page
+     *      The registry objects of the page
+     * @param baseURL
+     *      The base URL of the endpoint
+     * @param stage
+     *      The stage receiving the registry objects
+     * @param count
+     *      The number of registry objects passed on, incremented
+     *
+     * @throws RecordSplitter.Stopped if the error handler stops the
+     *      harvest
+     */
+    private void pass(final Page page, final String baseURL,
+                      final Stage stage, final AtomicLong count)
+            throws RecordSplitter.Stopped {
+        try {
+            for (PipelineRecord record : page.records) {
+                count.incrementAndGet();
+                try {
+                    stage.process(record);
+                } catch (RIFCSException re) {
+                    errorHandler.recordFailed(baseURL, record, re);
+                }
+            }
+            for (RIFCSException e : page.failures) {
+                errorHandler.recordFailed(baseURL, null, e);
+            }
+        } catch (RIFCSException re) {
+            throw new RecordSplitter.Stopped(re);
+        }
+    }
+
+
+    /**
+     * Wait for a page.
+     *
+     * @param page
+     *      The page being fetched
+     *
+     * @return
+     *      The page
+     *
+     * @throws IOException if the page could not be fetched
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static byte[] get(final Future<byte[]> page)
+            throws IOException, InterruptedException {
+        try {
+            return page.get();
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+
+    /**
+     * Build the URL of the first page of an endpoint.
+     *
+     * @param baseURL
+     *      The base URL of the endpoint
+     *
+     * @return
+     *      The URL
+     *
+     * @throws IOException if an argument can not be encoded
+     */
+    private String firstURL(final String baseURL) throws IOException {
+        StringBuilder sb = new StringBuilder(baseURL);
+        sb.append("?verb=ListRecords&metadataPrefix=");
+        sb.append(encode(metadataPrefix));
+        if (set != null) {
+            sb.append("&set=").append(encode(set));
+        }
+        if (from != null) {
+            sb.append("&from=").append(encode(from));
+        }
+        if (until != null) {
+            sb.append("&until=").append(encode(until));
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Encode a request argument.
+     *
+     * @param s
+     *      The argument
+     *
+     * @return
+     *      The encoded argument
+     *
+     * @throws UnsupportedEncodingException never
+     */
+    private static String encode(final String s)
+            throws UnsupportedEncodingException {
+        return URLEncoder.encode(s, "UTF-8");
+    }
+
+
+    /**
+     * Create a task fetching a page, retrying while the endpoint is
+     * unavailable.
+     *
+     * @param url
+     *      The URL of the page
+     *
+     * @return
+     *      The task, which returns the page
+     */
+    private Callable<byte[]> fetch(final String url) {
+        return new Callable<byte[]>() {
+            public byte[] call() throws IOException, InterruptedException {
+                for (int attempt = 0;; attempt++) {
+                    HttpURLConnection c = (HttpURLConnection)
+                            new URL(url).openConnection();
+                    c.setConnectTimeout(timeout);
+                    c.setReadTimeout(timeout);
+                    c.setRequestProperty("Accept-Encoding", "gzip, deflate");
+                    int status = c.getResponseCode();
+                    if (status == HttpURLConnection.HTTP_UNAVAILABLE
+                            && attempt < retries) {
+                        long wait = retryAfter(
+                                c.getHeaderField("Retry-After"));
+                        c.disconnect();
+                        Thread.sleep(wait * MILLIS);
+                        continue;
+                    }
+                    if (status != HttpURLConnection.HTTP_OK) {
+                        c.disconnect();
+                        throw new IOException("HTTP status " + status
+                                + " from " + url);
+                    }
+                    InputStream in = c.getInputStream();
+                    try {
+                        return in.readAllBytes();
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+        };
+    }
+
+
+    /**
+     * Obtain the wait before a retry.
+     *
+     * @param header
+     *      The Retry-After header, or null
+     *
+     * @return
+     *      The wait in seconds
+     */
+    private static long retryAfter(final String header) {
+        if (header != null) {
+            try {
+                return Math.min(MAX_RETRY_AFTER,
+                        Math.max(0, Long.parseLong(header.trim())));
+            } catch (NumberFormatException nfe) {
+                // an HTTP date, which is not supported
+                return DEFAULT_RETRY_AFTER;
+            }
+        }
+        return DEFAULT_RETRY_AFTER;
+    }
+
+
+    /**
+     * The registry objects of a page, and the failures of those which
+     * could not be read, held until the page has been read.
+     */
+    private static final class Page implements RecordSplitter.Target {
+        /** The records, in document order. */
+        private final List<PipelineRecord> records =
+                new ArrayList<PipelineRecord>();
+        /** The failures, in document order. */
+        private final List<RIFCSException> failures =
+                new ArrayList<RIFCSException>();
+
+        /**
+         * Create an empty page.
+         */
+        Page() {
+            // do nothing constructor
+        }
+
+        /**
+         * Hold a record.
+         *
+         * @param record
+         *      The record
+         */
+        public void put(final PipelineRecord record) {
+            records.add(record);
+        }
+
+        /**
+         * Hold the failure of a registry object.
+         *
+         * @param position
+         *      Index of the registry object within its endpoint
+         * @param e
+         *      The reason for the failure
+         */
+        public void failed(final int position, final RIFCSException e) {
+            failures.add(e);
+        }
+
+        /**
+         * Obtain the number of registry objects of the page.
+         *
+         * @return
+         *      The number of records and failures
+         */
+        int size() {
+            return records.size() + failures.size();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.pipeline;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX Handler which finds the resumption token and any error of an
+ * OAI-PMH response, passing every event on to a handler of its
+ * records, so that a page is read in a single pass.
+ *
+ */
+final class OAIResponse extends DefaultHandler {
+    /** The OAI-PMH namespace. */
+    static final String NS_OAI = "http://www.openarchives.org/OAI/2.0/";
+    /** Name of the resumptionToken element. */
+    static final String ELEMENT_RESUMPTION_TOKEN = "resumptionToken";
+    /** Name of the error element. */
+    static final String ELEMENT_ERROR = "error";
+    /** Name of the code attribute of errors. */
+    static final String ATTRIBUTE_CODE = "code";
+    /** Error code of a harvest with no records. */
+    static final String NO_RECORDS_MATCH = "noRecordsMatch";
+
+    /** The handler of the records. */
+    private final DefaultHandler records;
+    /** Text of the element being read, or null if not needed. */
+    private StringBuilder text = null;
+    /** The resumption token, or null. */
+    private String resumptionToken = null;
+    /** The code of the first error, or null. */
+    private String errorCode = null;
+    /** The message of the first error, or null. */
+    private String errorMessage = null;
+
+
+    /**
+     * Create a handler.
+     *
+     * @param aRecords
+     *      The handler of the records, such as a RecordSplitter
+     */
+    OAIResponse(final DefaultHandler aRecords) {
+        this.records = aRecords;
+    }
+
+
+    /**
+     * Processing for the startPrefixMapping event.
+     *
+     * @param prefix
+     *      The namespace prefix
+     * @param uri
+     *      The namespace URI
+     *
+     * @exception SAXException if the handler of the records fails
+     */
+    public void startPrefixMapping(final String prefix, final String uri)
+            throws SAXException {
+        records.startPrefixMapping(prefix, uri);
+    }
+
+
+    /**
+     * Processing for the startElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     * @param attributes
+     *      Attributes associated with the element
+     *
+     * @exception SAXException if the handler of the records fails
+     */
+    public void startElement(final String uri,
+                             final String localName,
+                             final String qName,
+                             final Attributes attributes)
+            throws SAXException {
+        records.startElement(uri, localName, qName, attributes);
+        if (!NS_OAI.equals(uri)) {
+            return;
+        }
+        if (ELEMENT_RESUMPTION_TOKEN.equals(localName)) {
+            text = new StringBuilder();
+        } else if (ELEMENT_ERROR.equals(localName) && errorCode == null) {
+            errorCode = attributes.getValue(ATTRIBUTE_CODE);
+            text = new StringBuilder();
+        }
+    }
+
+
+    /**
+     * Processing for characters.
+     *
+     * @param chars
+     *      An array of characters
+     * @param start
+     *      The start position of the first in the array
+     * @param length
+     *      The length of the character data being passed
+     *
+     * @exception SAXException if the handler of the records fails
+     */
+    public void characters(final char[] chars,
+                           final int start,
+                           final int length) throws SAXException {
+        records.characters(chars, start, length);
+        if (text != null) {
+            text.append(chars, start, length);
+        }
+    }
+
+
+    /**
+     * Processing for ignorable whitespace.
+     *
+     * @param chars
+     *      An array of characters
+     * @param start
+     *      The start position of the first in the array
+     * @param length
+     *      The length of the character data being passed
+     *
+     * @exception SAXException if the handler of the records fails
+     */
+    public void ignorableWhitespace(final char[] chars,
+                                    final int start,
+                                    final int length) throws SAXException {
+        records.ignorableWhitespace(chars, start, length);
+    }
+
+
+    /**
+     * Processing for a processing instruction.
+     *
+     * @param piTarget
+     *      The processing instruction target
+     * @param data
+     *      The processing instruction data
+     *
+     * @exception SAXException if the handler of the records fails
+     */
+    public void processingInstruction(final String piTarget,
+                                      final String data)
+            throws SAXException {
+        records.processingInstruction(piTarget, data);
+    }
+
+
+    /**
+     * Processing for the endElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     *
+     * @exception SAXException if the handler of the records fails
+     */
+    public void endElement(final String uri,
+                           final String localName,
+                           final String qName) throws SAXException {
+        records.endElement(uri, localName, qName);
+        if (text == null || !NS_OAI.equals(uri)) {
+            return;
+        }
+        if (ELEMENT_RESUMPTION_TOKEN.equals(localName)) {
+            resumptionToken = text.toString().trim();
+        } else if (ELEMENT_ERROR.equals(localName)
+                && errorMessage == null) {
+            errorMessage = text.toString().trim();
+        }
+        text = null;
+    }
+
+
+    /**
+     * Obtain the resumption token.
+     *
+     * @return
+     *      The token, or null if this is the last page
+     */
+    String getResumptionToken() {
+        if (resumptionToken == null || resumptionToken.length() == 0) {
+            return null;
+        }
+        return resumptionToken;
+    }
+
+
+    /**
+     * Obtain the code of the first error, other than noRecordsMatch.
+     *
+     * @return
+     *      The error code, or null if the response is not an error
+     */
+    String getErrorCode() {
+        if (NO_RECORDS_MATCH.equals(errorCode)) {
+            return null;
+        }
+        return errorCode;
+    }
+
+
+    /**
+     * Obtain the message of the first error.
+     *
+     * @return
+     *      The error message, or null
+     */
+    String getErrorMessage() {
+        return errorMessage;
+    }
+}
@@ -0,0 +1,578 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.pipeline;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.ands.rifcs.base.Compression;
+import org.ands.rifcs.base.RIFCS;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.ands.rifcs.base.UncheckedRIFCSException;
+
+/**
+ * Writes registry objects into a set of RIF-CS documents in a
+ * directory, each complete with the registryObjects root element and
+ * schemaLocation, so that loaders can process the files in parallel.
+ *
+ * Registry objects may be partitioned by group or by class, giving
+ * files of their own to each group or class, and each partition may be
+ * spread over several files written at once, a registry object going
+ * to the file chosen by the hash of its key. A file is rolled over to
+ * the next once it holds the maximum number of registry objects or
+ * has reached the maximum size. The size is that of the file written,
+ * so is reached once the registry objects have left the buffers and
+ * any compressor, and files end up to a buffer over it.
+ *
+ * Files are named after the prefix, the group or class, the file of
+ * the partition if there is more than one, and a sequence number from
+ * 0, with the suffix of the compression: ".xml", ".xml.gz" or
+ * ".xml.zlib". For example, the first file of file 0 of the party
+ * class, compressed with gzip, is "rifcs-party-0-00000.xml.gz".
+ * Classes are in lower case, as RegistryObject.getObjectClassName()
+ * gives them. Characters other than letters, digits, '.', '-' and '_'
+ * in a group or class are replaced by '_'.
+ *
+ * Thread safe: registry objects of different files are serialized at
+ * once, those of the same file one at a time. Configure the writer
+ * before writing, and call finish() to complete the files.
+ *
+ * <pre>
+ * PartitionWriter pw = new PartitionWriter(dir, "rifcs");
+ * pw.setPartitionBy(PartitionWriter.BY_GROUP);
+ * pw.setFiles(4);
+ * pw.setMaxRecords(10000);
+ * pw.write(rifcs);
+ * pw.finish();
+ * </pre>
+ *
+ */
+public final class PartitionWriter implements Stage {
+    /** All registry objects in one partition. */
+    public static final int BY_NONE = 0;
+    /** A partition for each group. */
+    public static final int BY_GROUP = 1;
+    /** A partition for each class. */
+    public static final int BY_CLASS = 2;
+
+    /** Format of the sequence number of a file. */
+    private static final String SEQUENCE_FORMAT = "%05d";
+    /** Characters replaced in file names. */
+    private static final String UNSAFE = "[^A-Za-z0-9._-]";
+
+    /** The directory written. */
+    private final File directory;
+    /** Start of the file names. */
+    private final String prefix;
+    /** How registry objects are partitioned. */
+    private int partitionBy = BY_NONE;
+    /** Files of each partition written at once. */
+    private int files = 1;
+    /** Registry objects at which a file is rolled over, or 0. */
+    private long maxRecords = 0;
+    /** Size at which a file is rolled over, or 0. */
+    private long maxBytes = 0;
+    /** Compression of the files. */
+    private int compression = Compression.NONE;
+    /** The files being written, by name. */
+    private final Map<String, Part> parts = new HashMap<String, Part>();
+    /** The files written, in the order they were started. */
+    private final List<File> written = new ArrayList<File>();
+    /** Number of registry objects written. */
+    private final AtomicLong count = new AtomicLong();
+    /** Whether finish() has been called. */
+    private boolean finished = false;
+
+
+    /**
+     * Create a writer.
+     *
+     * @param aDirectory
+     *      The directory, which must exist
+     * @param aPrefix
+     *      The start of the file names
+     */
+    public PartitionWriter(final File aDirectory, final String aPrefix) {
+        this.directory = aDirectory;
+        this.prefix = aPrefix;
+    }
+
+
+    /**
+     * Set how registry objects are partitioned.
+     *
+     * @param by
+     *      BY_NONE, BY_GROUP or BY_CLASS
+     */
+    public void setPartitionBy(final int by) {
+        if (by != BY_NONE && by != BY_GROUP && by != BY_CLASS) {
+            throw new IllegalArgumentException("Unknown partitioning "
+                    + by);
+        }
+        this.partitionBy = by;
+    }
+
+
+    /**
+     * Set the number of files of each partition written at once.
+     * Defaults to 1.
+     *
+     * @param number
+     *      The number of files
+     */
+    public void setFiles(final int number) {
+        if (number < 1) {
+            throw new IllegalArgumentException(
+                    "File count must be positive");
+        }
+        this.files = number;
+    }
+
+
+    /**
+     * Set the number of registry objects at which a file is rolled
+     * over. Defaults to 0, no maximum.
+     *
+     * @param max
+     *      The number of registry objects, or 0
+     */
+    public void setMaxRecords(final long max) {
+        if (max < 0) {
+            throw new IllegalArgumentException(
+                    "Maximum may not be negative");
+        }
+        this.maxRecords = max;
+    }
+
+
+    /**
+     * Set the size in bytes at which a file is rolled over. Defaults
+     * to 0, no maximum.
+     *
+     * @param max
+     *      The size, or 0
+     */
+    public void setMaxBytes(final long max) {
+        if (max < 0) {
+            throw new IllegalArgumentException(
+                    "Maximum may not be negative");
+        }
+        this.maxBytes = max;
+    }
+
+
+    /**
+     * Set the compression of the files, which is reflected in their
+     * names. Defaults to Compression.NONE.
+     *
+     * @param aCompression
+     *      One of the Compression constants
+     */
+    public void setCompression(final int aCompression) {
+        suffix(aCompression);
+        this.compression = aCompression;
+    }
+
+
+    /**
+     * Write the registry objects of a document, several at once. Each
+     * is copied into a document of its own first; see
+     * RIFCS.parallelStream().
+     *
+     * @param rifcs
+     *      The document
+     *
+     * @throws RIFCSException if a registry object can not be written
+     */
+    public void write(final RIFCS rifcs) throws RIFCSException {
+        write(rifcs.parallelStream());
+    }
+
+
+    /**
+     * Write the registry objects of a stream, which may be parallel.
+     *
+     * @param ros
+     *      The registry objects
+     *
+     * @throws RIFCSException if a registry object can not be written
+     */
+    public void write(final Stream<RegistryObject> ros)
+            throws RIFCSException {
+        try {
+            ros.forEach(new Consumer<RegistryObject>() {
+                public void accept(final RegistryObject ro) {
+                    try {
+                        write(ro);
+                    } catch (RIFCSException re) {
+                        throw new UncheckedRIFCSException(re);
+                    }
+                }
+            });
+        } catch (UncheckedRIFCSException ure) {
+            throw ure.getCause();
+        }
+    }
+
+
+    /**
+     * Write a registry object.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @throws RIFCSException if the registry object can not be written
+     */
+    public void write(final RegistryObject ro) throws RIFCSException {
+        part(ro).write(ro);
+        count.incrementAndGet();
+    }
+
+
+    /**
+     * Write the registry objects of a record.
+     *
+     * @param record
+     *      The record
+     *
+     * @return
+     *      The record
+     *
+     * @throws RIFCSException if a registry object can not be written
+     */
+    public PipelineRecord process(final PipelineRecord record)
+            throws RIFCSException {
+        for (RegistryObject ro
+                : record.getRIFCS().getRegistryObjects().values()) {
+            write(ro);
+        }
+        return record;
+    }
+
+
+    /**
+     * Complete the files being written. No more registry objects may
+     * be written.
+     *
+     * @throws RIFCSException if a file can not be completed; the
+     *      others are completed regardless
+     */
+    public void finish() throws RIFCSException {
+        List<Part> open;
+        synchronized (parts) {
+            finished = true;
+            open = new ArrayList<Part>(parts.values());
+        }
+        RIFCSException first = null;
+        for (Part p : open) {
+            try {
+                p.finish();
+            } catch (RIFCSException re) {
+                if (first == null) {
+                    first = re;
+                }
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+    }
+
+
+    /**
+     * Obtain the files written so far, in the order they were started.
+     *
+     * @return
+     *      The files
+     */
+    public List<File> getFiles() {
+        synchronized (written) {
+            return Collections.unmodifiableList(
+                    new ArrayList<File>(written));
+        }
+    }
+
+
+    /**
+     * Obtain the number of registry objects written.
+     *
+     * @return
+     *      The number of registry objects
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+
+    /**
+     * Find the file to write a registry object to.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @return
+     *      The file
+     *
+     * @throws RIFCSException if the class can not be determined
+     */
+    private Part part(final RegistryObject ro) throws RIFCSException {
+        StringBuilder name = new StringBuilder(prefix);
+        String by = null;
+        if (partitionBy == BY_GROUP) {
+            by = ro.getGroup();
+        } else if (partitionBy == BY_CLASS) {
+            by = ro.getObjectClassName();
+        }
+        if (by != null && by.length() > 0) {
+            name.append('-').append(by.replaceAll(UNSAFE, "_"));
+        }
+        if (files > 1) {
+            String key = ro.getKey();
+            int file = 0;
+            if (key != null) {
+                file = Math.floorMod(key.hashCode(), files);
+            }
+            name.append('-').append(file);
+        }
+        String n = name.toString();
+        synchronized (parts) {
+            if (finished) {
+                throw new IllegalStateException("Writer finished");
+            }
+            Part p = parts.get(n);
+            if (p == null) {
+                p = new Part(n);
+                parts.put(n, p);
+            }
+            return p;
+        }
+    }
+
+
+    /**
+     * Obtain the file name suffix of a compression.
+     *
+     * @param c
+     *      One of the Compression constants
+     *
+     * @return
+     *      The suffix
+     */
+    private static String suffix(final int c) {
+        switch (c) {
+        case Compression.NONE:
+            return ".xml";
+        case Compression.GZIP:
+        case Compression.GZIP_BLOCKS:
+            return ".xml.gz";
+        case Compression.DEFLATE:
+            return ".xml.zlib";
+        default:
+            throw new IllegalArgumentException("Unknown compression " + c);
+        }
+    }
+
+
+    /**
+     * Counts the bytes written to a file.
+     */
+    private static final class Counter extends FilterOutputStream {
+        /** Bytes written. */
+        private long bytes = 0;
+
+        /**
+         * Create a counter.
+         *
+         * @param anOut
+         *      The file
+         */
+        Counter(final OutputStream anOut) {
+            super(anOut);
+        }
+
+        /**
+         * Write a byte.
+         *
+         * @param b
+         *      The byte
+         *
+         * @throws IOException An IOException
+         */
+        public void write(final int b) throws IOException {
+            out.write(b);
+            bytes++;
+        }
+
+        /**
+         * Write bytes.
+         *
+         * @param b
+         *      The bytes
+         * @param off
+         *      The index of the first byte
+         * @param len
+         *      The number of bytes
+         *
+         * @throws IOException An IOException
+         */
+        public void write(final byte[] b, final int off, final int len)
+                throws IOException {
+            out.write(b, off, len);
+            bytes += len;
+        }
+    }
+
+
+    /**
+     * The files of one partition, or of one of the files written at
+     * once within a partition, written one after the other.
+     */
+    private final class Part {
+        /** Start of the file names. */
+        private final String name;
+        /** Sequence number of the next file. */
+        private int sequence = 0;
+        /** The file being written, or null. */
+        private OutputStream file = null;
+        /** Counter of the file being written. */
+        private Counter counter = null;
+        /** Writer of the file being written. */
+        private WriterStage writer = null;
+        /** Whether finish() has been called. */
+        private boolean done = false;
+
+        /**
+         * Create a partition.
+         *
+         * @param aName
+         *      The start of the file names
+         */
+        Part(final String aName) {
+            this.name = aName;
+        }
+
+        /**
+         * Write a registry object, starting a file if none is being
+         * written and rolling over if the file is full.
+         *
+         * @param ro
+         *      The registry object
+         *
+         * @throws RIFCSException if the registry object can not be
+         *      written
+         */
+        synchronized void write(final RegistryObject ro)
+                throws RIFCSException {
+            if (done) {
+                throw new IllegalStateException("Writer finished");
+            }
+            if (writer == null) {
+                open();
+            }
+            writer.write(ro);
+            if ((maxRecords > 0 && writer.getCount() >= maxRecords)
+                    || (maxBytes > 0 && counter.bytes >= maxBytes)) {
+                close();
+            }
+        }
+
+        /**
+         * Complete the file being written, if any.
+         *
+         * @throws RIFCSException if the file can not be completed
+         */
+        synchronized void finish() throws RIFCSException {
+            done = true;
+            if (writer != null) {
+                close();
+            }
+        }
+
+        /**
+         * Start the next file.
+         *
+         * @throws RIFCSException if the file can not be created
+         */
+        private void open() throws RIFCSException {
+            File f = new File(directory, name + "-"
+                    + String.format(SEQUENCE_FORMAT, sequence++)
+                    + suffix(compression));
+            try {
+                file = new FileOutputStream(f);
+            } catch (IOException ioe) {
+                throw new RIFCSException(ioe);
+            }
+            synchronized (written) {
+                written.add(f);
+            }
+            counter = new Counter(file);
+            try {
+                writer = new WriterStage(counter, compression);
+            } catch (RIFCSException re) {
+                closeQuietly();
+                throw re;
+            }
+        }
+
+        /**
+         * Complete and close the file being written.
+         *
+         * @throws RIFCSException if the file can not be completed
+         */
+        private void close() throws RIFCSException {
+            OutputStream f = file;
+            try {
+                writer.finish();
+                file = null;
+                f.close();
+            } catch (IOException ioe) {
+                throw new RIFCSException(ioe);
+            } finally {
+                closeQuietly();
+            }
+        }
+
+        /**
+         * Close the file being written, ignoring errors.
+         */
+        private void closeQuietly() {
+            writer = null;
+            counter = null;
+            if (file == null) {
+                return;
+            }
+            try {
+                file.close();
+            } catch (IOException ioe) {
+                // the error of writing, if any, is reported instead
+            } finally {
+                file = null;
+            }
+        }
+    }
+}
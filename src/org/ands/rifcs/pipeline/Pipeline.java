@@ -0,0 +1,456 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.ands.rifcs.base.Compression;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.UncheckedRIFCSException;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads RIF-CS documents and passes each registry object through a
+ * series of stages, such as a ValidationStage, editing stages and a
+ * WriterStage.
+ *
+ * Documents are split into records as they are parsed, so that a
+ * document of any size can be processed. Each stage runs in its own
+ * threads, as many as configured, taking records from a bounded queue
+ * and putting its results on the queue of the next stage; a stage
+ * which falls behind fills its queue, which holds up the stages
+ * before it. Records of the same input may therefore be processed by
+ * different threads, and a stage with more than one thread may pass
+ * them on in a different order.
+ *
+ * A record which a stage fails to process is given to the stage's
+ * RecordErrorHandler, which may drop it, divert it, or stop the
+ * pipeline. An input which can not be read, and a registry object
+ * which can not be made a record, are given to the read error handler,
+ * the rest of the input being read in the latter case.
+ *
+ * <pre>
+ * Pipeline p = new Pipeline();
+ * p.addStage("validate", new ValidationStage(schema), 4,
+ *         RecordErrorHandlers.SKIP);
+ * p.addStage("write", writer, 1);
+ * p.run(inputs);
+ * writer.finish();
+ * </pre>
+ *
+ */
+public class Pipeline {
+    /** The default capacity of each queue. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    /** The stage name given to RecordErrorHandlers for inputs which
+     *  could not be read. */
+    public static final String READ = "read";
+
+    /** Marks the end of a queue's records, one per consumer thread. */
+    private static final Object END = new Object();
+
+    /** The stages, in order. */
+    private final List<StageConfig> stages = new ArrayList<StageConfig>();
+    /** Capacity of each queue. */
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    /** Number of inputs read at once. */
+    private int readerThreads = 1;
+    /** Handler for inputs which could not be read. */
+    private RecordErrorHandler readErrorHandler = RecordErrorHandlers.FAIL;
+
+
+    /**
+     * Create a pipeline with no stages.
+     */
+    public Pipeline() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Set the number of records each queue holds before the stage
+     * putting records on it waits.
+     *
+     * @param capacity
+     *      The capacity, at least one
+     */
+    public final void setQueueCapacity(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                    "Queue capacity must be positive");
+        }
+        this.queueCapacity = capacity;
+    }
+
+
+    /**
+     * Set the number of inputs read at once.
+     *
+     * @param count
+     *      The number of threads, at least one
+     */
+    public final void setReaderThreads(final int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException(
+                    "Thread count must be positive");
+        }
+        this.readerThreads = count;
+    }
+
+
+    /**
+     * Set the handler for inputs which could not be read, and for
+     * registry objects which could not be made records. It is given a
+     * null record. The default is RecordErrorHandlers.FAIL.
+     *
+     * @param handler
+     *      The handler
+     */
+    public final void setReadErrorHandler(final RecordErrorHandler handler) {
+        this.readErrorHandler = handler;
+    }
+
+
+    /**
+     * Add a stage which stops the pipeline if it fails.
+     *
+     * @param name
+     *      The name of the stage, given to error handlers
+     * @param stage
+     *      The stage
+     * @param threads
+     *      The number of threads running the stage, at least one
+     */
+    public final void addStage(final String name, final Stage stage,
+                               final int threads) {
+        addStage(name, stage, threads, RecordErrorHandlers.FAIL);
+    }
+
+
+    /**
+     * Add a stage.
+     *
+     * @param name
+     *      The name of the stage, given to error handlers
+     * @param stage
+     *      The stage
+     * @param threads
+     *      The number of threads running the stage, at least one
+     * @param handler
+     *      The handler for records the stage fails to process
+     */
+    public final void addStage(final String name, final Stage stage,
+                               final int threads,
+                               final RecordErrorHandler handler) {
+        if (threads < 1) {
+            throw new IllegalArgumentException(
+                    "Thread count must be positive");
+        }
+        stages.add(new StageConfig(name, stage, threads, handler));
+    }
+
+
+    /**
+     * Pass the registry objects of RIF-CS documents through the stages.
+     * Returns once every record has passed through every stage. The
+     * streams are not closed.
+     *
+     * @param inputs
+     *      The documents
+     *
+     * @throws RIFCSException the exception of the first error handler
+     *      to stop the pipeline, or of a stage failing unexpectedly
+     */
+    public final void run(final List<InputStream> inputs)
+            throws RIFCSException {
+        new Run(inputs).run();
+    }
+
+
+    /**
+     * A stage and its configuration.
+     */
+    private static final class StageConfig {
+        /** The name of the stage. */
+        private final String name;
+        /** The stage. */
+        private final Stage stage;
+        /** The number of threads. */
+        private final int threads;
+        /** The error handler. */
+        private final RecordErrorHandler handler;
+
+        /**
+         * Create a stage configuration.
+         *
+         * @param aName
+         *      The name of the stage
+         * @param aStage
+         *      The stage
+         * @param someThreads
+         *      The number of threads
+         * @param aHandler
+         *      The error handler
+         */
+        StageConfig(final String aName, final Stage aStage,
+                    final int someThreads,
+                    final RecordErrorHandler aHandler) {
+            this.name = aName;
+            this.stage = aStage;
+            this.threads = someThreads;
+            this.handler = aHandler;
+        }
+    }
+
+
+    /**
+     * The state of one run of the pipeline.
+     */
+    private final class Run {
+        /** The inputs. */
+        private final List<InputStream> inputs;
+        /** The queue in front of each stage. */
+        private final List<BlockingQueue<Object>> queues =
+                new ArrayList<BlockingQueue<Object>>();
+        /** Running threads of the readers, then of each stage. */
+        private final AtomicInteger[] running;
+        /** Index of the next input to read. */
+        private final AtomicInteger nextInput = new AtomicInteger();
+        /** The first failure. */
+        private final AtomicReference<RIFCSException> failure =
+                new AtomicReference<RIFCSException>();
+        /** The threads. */
+        private final ExecutorService executor;
+
+        /**
+         * Prepare to run the pipeline.
+         *
+         * @param someInputs
+         *      The documents
+         */
+        Run(final List<InputStream> someInputs) {
+            this.inputs = someInputs;
+            running = new AtomicInteger[stages.size() + 1];
+            running[0] = new AtomicInteger(readerThreads);
+            int total = readerThreads;
+            for (int i = 0; i < stages.size(); i++) {
+                queues.add(new ArrayBlockingQueue<Object>(queueCapacity));
+                running[i + 1] = new AtomicInteger(stages.get(i).threads);
+                total += stages.get(i).threads;
+            }
+            executor = Executors.newFixedThreadPool(total);
+        }
+
+        /**
+         * Run the pipeline.
+         *
+         * @throws RIFCSException if the pipeline is stopped
+         */
+        void run() throws RIFCSException {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            try {
+                for (int i = 0; i < readerThreads; i++) {
+                    futures.add(executor.submit(new Callable<Void>() {
+                        public Void call() {
+                            read();
+                            return null;
+                        }
+                    }));
+                }
+                for (int i = 0; i < stages.size(); i++) {
+                    final int stage = i;
+                    for (int j = 0; j < stages.get(i).threads; j++) {
+                        futures.add(executor.submit(new Callable<Void>() {
+                            public Void call() {
+                                work(stage);
+                                return null;
+                            }
+                        }));
+                    }
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    futures.get(i).get();
+                }
+            } catch (CancellationException ce) {
+                // not started before a failure stopped the pipeline
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                fail(new RIFCSException("Interrupted", ie));
+            } catch (ExecutionException ee) {
+                fail(new RIFCSException(ee.getCause()));
+            } finally {
+                executor.shutdownNow();
+            }
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        }
+
+        /**
+         * Read inputs until none are left.
+         */
+        private void read() {
+            try {
+                SAXParserFactory spf = SAXParserFactory.newInstance();
+                spf.setNamespaceAware(true);
+                RecordSplitter.Target target = new RecordSplitter.Target() {
+                    public void put(final PipelineRecord record)
+                            throws InterruptedException {
+                        if (!queues.isEmpty()) {
+                            queues.get(0).put(record);
+                        }
+                    }
+
+                    public void failed(final int position,
+                                       final RIFCSException e)
+                            throws SAXException {
+                        try {
+                            readErrorHandler.recordFailed(READ, null, e);
+                        } catch (RIFCSException re) {
+                            throw new RecordSplitter.Stopped(re);
+                        }
+                    }
+                };
+                for (int i = nextInput.getAndIncrement(); i < inputs.size()
+                        && failure.get() == null;
+                        i = nextInput.getAndIncrement()) {
+                    try {
+                        spf.newSAXParser().parse(
+                                new InputSource(Compression.decode(
+                                        inputs.get(i))),
+                                new RecordSplitter(i, target));
+                    } catch (RecordSplitter.Stopped s) {
+                        throw s.getCause();
+                    } catch (SAXException se) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            return;
+                        }
+                        readErrorHandler.recordFailed(READ, null,
+                                new RIFCSException(se));
+                    } catch (IOException ioe) {
+                        readErrorHandler.recordFailed(READ, null,
+                                new RIFCSException(ioe));
+                    }
+                }
+                finished(0);
+            } catch (RIFCSException re) {
+                fail(re);
+            } catch (ParserConfigurationException pce) {
+                fail(new RIFCSException(pce));
+            } catch (InterruptedException ie) {
+                // stopped by a failure elsewhere
+                return;
+            } catch (RuntimeException re) {
+                fail(new RIFCSException(re));
+            }
+        }
+
+        /**
+         * Run a stage until its queue is finished.
+         *
+         * @param index
+         *      The index of the stage
+         */
+        private void work(final int index) {
+            StageConfig config = stages.get(index);
+            BlockingQueue<Object> in = queues.get(index);
+            BlockingQueue<Object> out = null;
+            if (index + 1 < queues.size()) {
+                out = queues.get(index + 1);
+            }
+            try {
+                for (Object o = in.take(); o != END; o = in.take()) {
+                    PipelineRecord result;
+                    try {
+                        result = config.stage.process((PipelineRecord) o);
+                    } catch (RIFCSException re) {
+                        config.handler.recordFailed(config.name,
+                                (PipelineRecord) o, re);
+                        result = null;
+                    } catch (UncheckedRIFCSException ure) {
+                        config.handler.recordFailed(config.name,
+                                (PipelineRecord) o, ure.getCause());
+                        result = null;
+                    } catch (RuntimeException re) {
+                        // a bug in a stage fails the record, not the run
+                        config.handler.recordFailed(config.name,
+                                (PipelineRecord) o, new RIFCSException(re));
+                        result = null;
+                    }
+                    if (result != null && out != null) {
+                        out.put(result);
+                    }
+                }
+                finished(index + 1);
+            } catch (RIFCSException re) {
+                fail(re);
+            } catch (InterruptedException ie) {
+                // stopped by a failure elsewhere
+                return;
+            } catch (RuntimeException re) {
+                fail(new RIFCSException(re));
+            }
+        }
+
+        /**
+         * Note that a thread putting records on a queue has finished,
+         * and if it is the last of its group, tell the threads taking
+         * records from the queue.
+         *
+         * @param group
+         *      0 for the readers, otherwise one more than the stage
+         *
+         * @throws InterruptedException if stopped by a failure elsewhere
+         */
+        private void finished(final int group) throws InterruptedException {
+            if (running[group].decrementAndGet() == 0
+                    && group < queues.size()) {
+                for (int i = 0; i < stages.get(group).threads; i++) {
+                    queues.get(group).put(END);
+                }
+            }
+        }
+
+        /**
+         * Stop the pipeline, keeping the first failure.
+         *
+         * @param e
+         *      The failure
+         */
+        private void fail(final RIFCSException e) {
+            if (failure.compareAndSet(null, e)) {
+                executor.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.pipeline;
+
+import org.ands.rifcs.base.RIFCS;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RIFCSWrapper;
+import org.w3c.dom.Document;
+
+/**
+ * One registry object passing through a pipeline, held as a RIF-CS
+ * document of its own so that it can be validated, edited and written
+ * independently of the others.
+ *
+ * A record is handled by one stage thread at a time.
+ *
+ */
+public final class PipelineRecord {
+    /** Index of the input the registry object was read from. */
+    private final int input;
+    /** Index of the registry object within its input. */
+    private final int position;
+    /** The document holding the registry object. */
+    private final RIFCSWrapper wrapper;
+
+
+    /**
+     * Create a record.
+     *
+     * @param anInput
+     *      Index of the input the registry object was read from
+     * @param aPosition
+     *      Index of the registry object within its input
+     * @param aWrapper
+     *      A document holding the registry object
+     */
+    public PipelineRecord(final int anInput, final int aPosition,
+                  final RIFCSWrapper aWrapper) {
+        this.input = anInput;
+        this.position = aPosition;
+        this.wrapper = aWrapper;
+    }
+
+
+    /**
+     * Create a record.
+     *
+     * @param anInput
+     *      Index of the input the registry object was read from
+     * @param aPosition
+     *      Index of the registry object within its input
+     * @param aDocument
+     *      A RIF-CS DOM holding the registry object
+     *
+     * @throws RIFCSException A RIFCSException
+     */
+    public PipelineRecord(final int anInput, final int aPosition,
+                  final Document aDocument) throws RIFCSException {
+        this(anInput, aPosition, new RIFCSWrapper(aDocument));
+    }
+
+
+    /**
+     * Obtain the index of the input the registry object was read from.
+     *
+     * @return
+     *      The index in the list given to Pipeline.run()
+     */
+    public int getInput() {
+        return input;
+    }
+
+
+    /**
+     * Obtain the index of the registry object within its input.
+     *
+     * @return
+     *      The position, from zero
+     */
+    public int getPosition() {
+        return position;
+    }
+
+
+    /**
+     * Obtain the document holding the registry object.
+     *
+     * @return
+     *      A RIFCSWrapper
+     */
+    public RIFCSWrapper getWrapper() {
+        return wrapper;
+    }
+
+
+    /**
+     * Obtain the RIF-CS object holding the registry object.
+     *
+     * @return
+     *      A RIFCS object
+     */
+    public RIFCS getRIFCS() {
+        return wrapper.getRIFCSObject();
+    }
+
+
+    /**
+     * Obtain the DOM holding the registry object.
+     *
+     * @return
+     *      A w3c Document
+     */
+    public Document getDocument() {
+        return wrapper.getRIFCSDocument();
+    }
+}
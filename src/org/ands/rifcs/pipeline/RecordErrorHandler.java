@@ -0,0 +1,41 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.pipeline;
+
+import org.ands.rifcs.base.RIFCSException;
+
+/**
+ * Decides what happens to a record which a stage failed to process. The
+ * record is not passed to later stages. May be called from several
+ * threads at once.
+ *
+ */
+public interface RecordErrorHandler {
+    /**
+     * Handle a failed record.
+     *
+     * @param stage
+     *      The name of the stage which failed
+     * @param record
+     *      The record, or null if an input could not be read
+     * @param e
+     *      The reason for the failure
+     *
+     * @throws RIFCSException to stop the pipeline
+     */
+    void recordFailed(String stage, PipelineRecord record, RIFCSException e)
+            throws RIFCSException;
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.pipeline;
+
+import org.ands.rifcs.base.RIFCSException;
+
+/**
+ * The standard record error handlers.
+ *
+ */
+public final class RecordErrorHandlers {
+    /** Stop the pipeline, which throws the exception. */
+    public static final RecordErrorHandler FAIL = new RecordErrorHandler() {
+        public void recordFailed(final String stage,
+                                 final PipelineRecord record,
+                                 final RIFCSException e)
+                throws RIFCSException {
+            throw e;
+        }
+    };
+
+    /** Drop the record and carry on. An input which could not be read
+     *  contributes the records read before the error. */
+    public static final RecordErrorHandler SKIP = new RecordErrorHandler() {
+        public void recordFailed(final String stage,
+                                 final PipelineRecord record,
+                                 final RIFCSException e) {
+            // do nothing
+        }
+    };
+
+
+    /**
+     * Prevent instantiation.
+     */
+    private RecordErrorHandlers() {
+        // do nothing constructor
+    }
+
+
+    /**
+     * Obtain a handler which passes failed records to a stage, such as
+     * a WriterStage for rejected registry objects, and carries on.
+     * Failures of the stage itself stop the pipeline.
+     *
+     * @param stage
+     *      The stage receiving failed records; called from several
+     *      threads at once
+     *
+     * @return
+     *      The handler
+     */
+    public static RecordErrorHandler divert(final Stage stage) {
+        return new RecordErrorHandler() {
+            public void recordFailed(final String name,
+                                     final PipelineRecord record,
+                                     final RIFCSException e)
+                    throws RIFCSException {
+                if (record != null) {
+                    stage.process(record);
+                }
+            }
+        };
+    }
+}
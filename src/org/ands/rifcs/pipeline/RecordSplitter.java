@@ -0,0 +1,446 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.pipeline;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.StringPool;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * SAX Handler which builds a RIF-CS DOM for each registry object of a
+ * document and passes it on as a PipelineRecord, so that a document
+ * of any size is read in the memory needed by the records held by the
+ * target.
+ *
+ * Registry objects are found at any depth, so that documents wrapped
+ * in an envelope, such as OAI-PMH responses, can be split. Namespace
+ * declarations made outside a registry object but in scope within it
+ * are repeated on the registry object. Attribute values and short text
+ * are taken from the shared StringPool.
+ *
+ * A registry object which can not be made a record, such as one the
+ * RIFCS object can not be built from, is given to the target's
+ * failed() and the rest of the document is read.
+ *
+ */
+final class RecordSplitter extends DefaultHandler {
+    /** Index of the input being read. */
+    private final int input;
+    /** The target receiving records. */
+    private final Target target;
+    /** Builder of record documents. */
+    private final DocumentBuilder builder;
+    /** Pool of attribute values and text. */
+    private final StringPool pool = StringPool.getShared();
+    /** Namespace declarations outside registry objects. */
+    private final NamespaceSupport namespaces = new NamespaceSupport();
+    /** Prefixes and URIs declared on the next element, in pairs. */
+    private final List<String> pending = new ArrayList<String>();
+    /** Current element depth. */
+    private int depth = 0;
+    /** Index of the next registry object. */
+    private int position;
+    /** Depth of the current registry object. */
+    private int recordDepth = 0;
+    /** The document of the current registry object, or null. */
+    private Document doc = null;
+    /** The node receiving content. */
+    private Node current = null;
+
+
+    /**
+     * Create a splitter.
+     *
+     * @param anInput
+     *      Index of the input being read
+     * @param aTarget
+     *      The target receiving records
+     *
+     * @throws ParserConfigurationException if no DocumentBuilder is
+     *      available
+     */
+    RecordSplitter(final int anInput, final Target aTarget)
+            throws ParserConfigurationException {
+        this(anInput, 0, aTarget);
+    }
+
+
+    /**
+     * Create a splitter for a document continuing an input, such as a
+     * page of a harvest.
+     *
+     * @param anInput
+     *      Index of the input being read
+     * @param aPosition
+     *      Index within the input of the first registry object
+     * @param aTarget
+     *      The target receiving records
+     *
+     * @throws ParserConfigurationException if no DocumentBuilder is
+     *      available
+     */
+    RecordSplitter(final int anInput, final int aPosition,
+                   final Target aTarget)
+            throws ParserConfigurationException {
+        this.input = anInput;
+        this.position = aPosition;
+        this.target = aTarget;
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        this.builder = factory.newDocumentBuilder();
+    }
+
+
+    /**
+     * Determine whether an element is a registryObject.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     *
+     * @return
+     *      true for registryObject elements
+     */
+    private static boolean isRegistryObject(final String uri,
+                                            final String localName) {
+        return Constants.NS_RIFCS.equals(uri)
+                && Constants.ELEMENT_REGISTRY_OBJECT.equals(localName);
+    }
+
+
+    /**
+     * Processing for the startPrefixMapping event.
+     *
+     * @param prefix
+     *      The namespace prefix
+     * @param uri
+     *      The namespace URI
+     */
+    public void startPrefixMapping(final String prefix, final String uri) {
+        pending.add(prefix);
+        pending.add(uri);
+    }
+
+
+    /**
+     * Processing for the startElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     * @param attributes
+     *      Attributes associated with the element
+     */
+    public void startElement(final String uri,
+                             final String localName,
+                             final String qName,
+                             final Attributes attributes) {
+        depth++;
+        if (doc == null) {
+            namespaces.pushContext();
+            for (int i = 0; i < pending.size(); i += 2) {
+                namespaces.declarePrefix(pending.get(i), pending.get(i + 1));
+            }
+            pending.clear();
+            if (!isRegistryObject(uri, localName)) {
+                return;
+            }
+            recordDepth = depth;
+            doc = builder.newDocument();
+            Element root = doc.createElementNS(Constants.NS_RIFCS,
+                    Constants.ELEMENT_REGISTRY_OBJECTS);
+            root.setAttributeNS(Constants.NS_SCHEMA,
+                    Constants.ATTRIBUTE_SCHEMA_LOCATION,
+                    Constants.NS_RIFCS + " "
+                    + Constants.SCHEMA_REGISTRY_OBJECTS);
+            doc.appendChild(root);
+            current = root;
+            Element e = createElement(uri, qName, attributes);
+            for (Enumeration<?> en = namespaces.getPrefixes();
+                    en.hasMoreElements();) {
+                String prefix = (String) en.nextElement();
+                if (!XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+                    declare(e, prefix, namespaces.getURI(prefix));
+                }
+            }
+            if (namespaces.getURI("") != null) {
+                declare(e, "", namespaces.getURI(""));
+            }
+            current = e;
+        } else {
+            Element e = createElement(uri, qName, attributes);
+            for (int i = 0; i < pending.size(); i += 2) {
+                declare(e, pending.get(i), pending.get(i + 1));
+            }
+            pending.clear();
+            current = e;
+        }
+    }
+
+
+    /**
+     * Create an element and append it to the current node.
+     *
+     * @param uri
+     *      The element namespace
+     * @param qName
+     *      The qualified element name
+     * @param attributes
+     *      Attributes associated with the element
+     *
+     * @return
+     *      The element
+     */
+    private Element createElement(final String uri, final String qName,
+                                  final Attributes attributes) {
+        Element e = doc.createElementNS(nullIfEmpty(uri), qName);
+        for (int i = 0; i < attributes.getLength(); i++) {
+            e.setAttributeNS(nullIfEmpty(attributes.getURI(i)),
+                    attributes.getQName(i),
+                    pool.intern(attributes.getValue(i)));
+        }
+        current.appendChild(e);
+        return e;
+    }
+
+
+    /**
+     * Add a namespace declaration attribute to an element.
+     *
+     * @param e
+     *      The element
+     * @param prefix
+     *      The prefix, empty for the default namespace
+     * @param uri
+     *      The namespace URI
+     */
+    private static void declare(final Element e, final String prefix,
+                                final String uri) {
+        if (prefix.length() == 0) {
+            e.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                    XMLConstants.XMLNS_ATTRIBUTE, uri);
+        } else {
+            e.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                    XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix, uri);
+        }
+    }
+
+
+    /**
+     * Convert the empty string used by SAX for no namespace to the null
+     * used by DOM.
+     *
+     * @param uri
+     *      A namespace URI
+     *
+     * @return
+     *      The URI, or null if it is empty
+     */
+    private static String nullIfEmpty(final String uri) {
+        if (uri == null || uri.length() == 0) {
+            return null;
+        }
+        return uri;
+    }
+
+
+    /**
+     * Processing for characters.
+     *
+     * @param chars
+     *      An array of characters
+     * @param start
+     *      The start position of the first in the array
+     * @param length
+     *      The length of the character data being passed
+     */
+    public void characters(final char[] chars,
+                           final int start,
+                           final int length) {
+        if (doc == null) {
+            return;
+        }
+        Node last = current.getLastChild();
+        String s = pool.intern(chars, start, length);
+        if (last != null && last.getNodeType() == Node.TEXT_NODE) {
+            ((Text) last).appendData(s);
+        } else {
+            current.appendChild(doc.createTextNode(s));
+        }
+    }
+
+
+    /**
+     * Processing for ignorable whitespace.
+     *
+     * @param chars
+     *      An array of characters
+     * @param start
+     *      The start position of the first in the array
+     * @param length
+     *      The length of the character data being passed
+     */
+    public void ignorableWhitespace(final char[] chars,
+                                    final int start,
+                                    final int length) {
+        characters(chars, start, length);
+    }
+
+
+    /**
+     * Processing for a processing instruction.
+     *
+     * @param piTarget
+     *      The processing instruction target
+     * @param data
+     *      The processing instruction data
+     */
+    public void processingInstruction(final String piTarget,
+                                      final String data) {
+        if (doc != null) {
+            current.appendChild(doc.createProcessingInstruction(piTarget,
+                    data));
+        }
+    }
+
+
+    /**
+     * Processing for the endElement event.
+     *
+     * @param uri
+     *      The element namespace
+     * @param localName
+     *      The unqualified element name
+     * @param qName
+     *      The qualified element name
+     *
+     * @exception SAXException if the target stops reading the document
+     */
+    public void endElement(final String uri,
+                           final String localName,
+                           final String qName) throws SAXException {
+        if (doc == null) {
+            namespaces.popContext();
+        } else if (depth == recordDepth) {
+            namespaces.popContext();
+            PipelineRecord record = null;
+            try {
+                record = new PipelineRecord(input, position, doc);
+            } catch (RIFCSException re) {
+                target.failed(position, re);
+            } catch (RuntimeException re) {
+                target.failed(position, new RIFCSException(re));
+            }
+            position++;
+            if (record != null) {
+                try {
+                    target.put(record);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new SAXException(ie);
+                }
+            }
+            doc = null;
+            current = null;
+        } else {
+            current = current.getParentNode();
+        }
+        depth--;
+    }
+
+
+    /**
+     * Receiver of the records of a document.
+     */
+    interface Target {
+        /**
+         * Receive a record, waiting until it can be accepted.
+         *
+         * @param record
+         *      The record
+         *
+         * @throws SAXException to stop reading the document
+         * @throws InterruptedException if interrupted while waiting
+         */
+        void put(PipelineRecord record)
+                throws SAXException, InterruptedException;
+
+        /**
+         * Receive the failure of a registry object which could not be
+         * made a record. The rest of the document is read.
+         *
+         * @param position
+         *      Index of the registry object within its input
+         * @param e
+         *      The reason for the failure
+         *
+         * @throws SAXException to stop reading the document, a Stopped
+         *      exception to stop with the exception of an error handler
+         */
+        void failed(int position, RIFCSException e) throws SAXException;
+    }
+
+
+    /**
+     * Carries the exception of an error handler stopping a read out of
+     * the parser.
+     */
+    static final class Stopped extends SAXException {
+        /** Serial version. */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Create an exception.
+         *
+         * @param cause
+         *      The exception of the error handler
+         */
+        Stopped(final RIFCSException cause) {
+            super(cause);
+        }
+
+        /**
+         * Obtain the exception of the error handler.
+         *
+         * @return
+         *      The exception
+         */
+        public RIFCSException getCause() {
+            return (RIFCSException) getException();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.ands.rifcs.base.Compression;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Publisher of the registry objects of a RIF-CS document, each mapped
+ * to a DOM of its own as it is parsed.
+ *
+ * The document is parsed on a thread of its own, which waits whenever
+ * the subscriber has not requested another registry object, so that a
+ * slow subscriber pauses the parse and at most one registry object is
+ * held that has not been passed on. A stream can only be read once, so
+ * a publisher accepts a single subscriber; others are sent onError().
+ * The stream is not closed.
+ *
+ */
+public final class RegistryObjectPublisher
+        implements Flow.Publisher<RegistryObject> {
+    /** Starts each parse on a new daemon thread. */
+    private static final Executor NEW_THREAD = new Executor() {
+        public void execute(final Runnable r) {
+            Thread t = new Thread(r, "RIF-CS publisher");
+            t.setDaemon(true);
+            t.start();
+        }
+    };
+
+    /** Subscription given to rejected subscribers. */
+    private static final Flow.Subscription NONE = new Flow.Subscription() {
+        public void request(final long n) {
+            // do nothing
+        }
+
+        public void cancel() {
+            // do nothing
+        }
+    };
+
+    /** The document. */
+    private final InputStream in;
+    /** Runs the parse. */
+    private final Executor executor;
+    /** Whether a subscriber has been accepted. */
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+
+    /**
+     * Create a publisher which parses on a new thread.
+     *
+     * @param anIn
+     *      The document
+     */
+    public RegistryObjectPublisher(final InputStream anIn) {
+        this(anIn, NEW_THREAD);
+    }
+
+
+    /**
+     * Create a publisher.
+     *
+     * @param anIn
+     *      The document
+     * @param anExecutor
+     *      Runs the parse, which blocks while there is no demand, so
+     *      the executor should not be a shared pool of few threads
+     */
+    public RegistryObjectPublisher(final InputStream anIn,
+                                   final Executor anExecutor) {
+        this.in = anIn;
+        this.executor = anExecutor;
+    }
+
+
+    /**
+     * Subscribe to the registry objects of the document.
+     *
+     * @param subscriber
+     *      The subscriber
+     */
+    public void subscribe(
+            final Flow.Subscriber<? super RegistryObject> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(NONE);
+            subscriber.onError(new IllegalStateException(
+                    "The document has already been subscribed to"));
+            return;
+        }
+        Parse parse = new Parse(subscriber);
+        subscriber.onSubscribe(parse);
+        try {
+            executor.execute(parse);
+        } catch (RejectedExecutionException ree) {
+            subscriber.onError(ree);
+        }
+    }
+
+
+    /**
+     * Stops the parse when the subscription ends early.
+     */
+    private static final class Stopped extends SAXException {
+        /** Serial version. */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Create an exception.
+         */
+        Stopped() {
+            super("Subscription ended");
+        }
+    }
+
+
+    /**
+     * The subscription, which parses the document and passes registry
+     * objects on as they are requested.
+     */
+    private final class Parse implements Flow.Subscription, Runnable,
+            RecordSplitter.Target {
+        /** The subscriber. */
+        private final Flow.Subscriber<? super RegistryObject> subscriber;
+        /** Registry objects requested and not yet passed on. */
+        private long demand = 0;
+        /** Whether the subscription has been cancelled. */
+        private boolean cancelled = false;
+        /** The error of an invalid request, if any. */
+        private IllegalArgumentException invalid = null;
+
+        /**
+         * Create a subscription.
+         *
+         * @param aSubscriber
+         *      The subscriber
+         */
+        Parse(final Flow.Subscriber<? super RegistryObject> aSubscriber) {
+            this.subscriber = aSubscriber;
+        }
+
+        /**
+         * Request more registry objects.
+         *
+         * @param n
+         *      The number of registry objects, which must be positive
+         */
+        public synchronized void request(final long n) {
+            if (n <= 0) {
+                if (invalid == null) {
+                    invalid = new IllegalArgumentException(
+                            "Requests must be positive: " + n);
+                }
+            } else if (demand + n < 0) {
+                // at least Long.MAX_VALUE is unbounded
+                demand = Long.MAX_VALUE;
+            } else {
+                demand += n;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Cancel the subscription; no more signals are sent.
+         */
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        /**
+         * Wait until a registry object is requested, then pass it on.
+         *
+         * @param record
+         *      The record holding the registry object
+         *
+         * @throws SAXException if the subscription has ended early
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public void put(final PipelineRecord record)
+                throws SAXException, InterruptedException {
+            synchronized (this) {
+                while (demand == 0 && !cancelled && invalid == null) {
+                    wait();
+                }
+                if (cancelled || invalid != null) {
+                    throw new Stopped();
+                }
+                demand--;
+            }
+            try {
+                subscriber.onNext(record.getRIFCS().getRegistryObjects()
+                        .values().iterator().next());
+            } catch (RuntimeException re) {
+                // a subscriber may not throw, so it is dropped
+                cancel();
+                throw new Stopped();
+            }
+        }
+
+        /**
+         * End the subscription with the failure of a registry object.
+         *
+         * @param position
+         *      Index of the registry object
+         * @param e
+         *      The reason for the failure
+         *
+         * @throws SAXException to stop the parse
+         */
+        public void failed(final int position, final RIFCSException e)
+                throws SAXException {
+            throw new SAXException(e);
+        }
+
+        /**
+         * Parse the document, then complete the subscription.
+         */
+        public void run() {
+            Throwable error = null;
+            try {
+                SAXParserFactory spf = SAXParserFactory.newInstance();
+                spf.setNamespaceAware(true);
+                spf.newSAXParser().parse(
+                        new InputSource(Compression.decode(in)),
+                        new RecordSplitter(0, this));
+            } catch (Stopped s) {
+                // reported below if a request was invalid
+                error = null;
+            } catch (SAXException se) {
+                error = new RIFCSException(se);
+            } catch (IOException ioe) {
+                error = new RIFCSException(ioe);
+            } catch (ParserConfigurationException pce) {
+                error = new RIFCSException(pce);
+            } catch (RuntimeException re) {
+                error = re;
+            }
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (invalid != null) {
+                    error = invalid;
+                }
+                cancelled = true;
+            }
+            if (error == null) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.pipeline;
+
+import org.ands.rifcs.base.RIFCSException;
+
+/**
+ * One step of a pipeline. A stage configured with more than one thread
+ * is called from all of them at once, and must be thread safe.
+ *
+ */
+public interface Stage {
+    /**
+     * Process a record.
+     *
+     * @param record
+     *      The record
+     *
+     * @return
+     *      The record to pass to the next stage, which may be the one
+     *      given, or null to drop it
+     *
+     * @throws RIFCSException if the record can not be processed; it is
+     *      passed to the stage's RecordErrorHandler, as is any
+     *      RuntimeException thrown, wrapped in a RIFCSException
+     */
+    PipelineRecord process(PipelineRecord record) throws RIFCSException;
+}
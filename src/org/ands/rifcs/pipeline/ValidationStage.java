@@ -0,0 +1,113 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.pipeline;
+
+import java.io.IOException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.validation.Schema;
+
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RIFCSWrapper;
+import org.xml.sax.SAXException;
+
+/**
+ * Stage validating each record against the RIF-CS schema with
+ * RIFCSWrapper.validate(Schema). Invalid records fail with a
+ * RIFCSException whose cause is the SAXException describing the
+ * problem. Thread safe.
+ *
+ */
+public final class ValidationStage implements Stage {
+    /** The schema, or null until it is first needed. */
+    private volatile Schema schema;
+
+
+    /**
+     * Create a stage validating against the most recent RIF-CS schema,
+     * which is fetched from the production site and compiled when the
+     * first record is validated.
+     */
+    public ValidationStage() {
+        this.schema = null;
+    }
+
+
+    /**
+     * Create a stage validating against a schema.
+     *
+     * @param aSchema
+     *      The schema, such as one from RIFCSWrapper.newSchema()
+     */
+    public ValidationStage(final Schema aSchema) {
+        this.schema = aSchema;
+    }
+
+
+    /**
+     * Validate a record.
+     *
+     * @param record
+     *      The record
+     *
+     * @return
+     *      The record
+     *
+     * @throws RIFCSException if the record is invalid or the schema can
+     *      not be loaded
+     */
+    public PipelineRecord process(final PipelineRecord record)
+            throws RIFCSException {
+        try {
+            record.getWrapper().validate(getSchema());
+        } catch (SAXException se) {
+            throw new RIFCSException(se);
+        } catch (IOException ioe) {
+            throw new RIFCSException(ioe);
+        }
+        return record;
+    }
+
+
+    /**
+     * Obtain the schema, loading it if necessary.
+     *
+     * @return
+     *      The schema
+     *
+     * @throws RIFCSException if the schema can not be loaded
+     */
+    private Schema getSchema() throws RIFCSException {
+        Schema s = schema;
+        if (s != null) {
+            return s;
+        }
+        synchronized (this) {
+            if (schema == null) {
+                try {
+                    schema = RIFCSWrapper.newSchema();
+                } catch (SAXException se) {
+                    throw new RIFCSException(se);
+                } catch (ParserConfigurationException pce) {
+                    throw new RIFCSException(pce);
+                } catch (IOException ioe) {
+                    throw new RIFCSException(ioe);
+                }
+            }
+            return schema;
+        }
+    }
+}
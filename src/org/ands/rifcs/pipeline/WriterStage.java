@@ -0,0 +1,262 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.pipeline;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.ands.rifcs.base.Compression;
+import org.ands.rifcs.base.Constants;
+import org.ands.rifcs.base.GzipBlockOutputStream;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+import org.w3c.dom.Node;
+
+/**
+ * Stage writing the registry objects of each record into a single
+ * RIF-CS document on a stream, in the order the records arrive. The
+ * document is completed by finish(). Thread safe, though records are
+ * written one at a time.
+ *
+ */
+public final class WriterStage implements Stage {
+    /** Start of the document. */
+    private static final String HEADER =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<"
+            + Constants.ELEMENT_REGISTRY_OBJECTS + " xmlns=\""
+            + Constants.NS_RIFCS + "\" xmlns:xsi=\"" + Constants.NS_SCHEMA
+            + "\" " + Constants.ATTRIBUTE_SCHEMA_LOCATION + "=\""
+            + Constants.NS_RIFCS + " " + Constants.SCHEMA_REGISTRY_OBJECTS
+            + "\">";
+    /** End of the document. */
+    private static final String FOOTER =
+            "\n</" + Constants.ELEMENT_REGISTRY_OBJECTS + ">\n";
+
+    /** The stream being written. */
+    private final Writer out;
+    /** The stream below out, which may compress. */
+    private final OutputStream stream;
+    /** The stream below out if it is compressed in blocks, or null. */
+    private final GzipBlockOutputStream blocks;
+    /** Serializer of registry objects. */
+    private final Transformer transformer;
+    /** Whether the start of the document has been written. */
+    private boolean started = false;
+    /** Number of records written. */
+    private long count = 0;
+
+
+    /**
+     * Create a stage writing to a stream in UTF-8.
+     *
+     * @param os
+     *      The stream, which is flushed but not closed by finish()
+     *
+     * @throws RIFCSException if no Transformer is available
+     */
+    public WriterStage(final OutputStream os) throws RIFCSException {
+        this(os, Compression.NONE);
+    }
+
+
+    /**
+     * Create a stage writing to a stream in UTF-8, compressed.
+     * Compression.GZIP_BLOCKS ends a block after the start of the
+     * document, after whichever registry object fills a block, and
+     * before the end of the document, so that the blocks can be read
+     * in parallel.
+     *
+     * @param os
+     *      The stream, which is flushed but not closed by finish()
+     * @param compression
+     *      One of the Compression constants
+     *
+     * @throws RIFCSException if no Transformer is available
+     */
+    public WriterStage(final OutputStream os, final int compression)
+            throws RIFCSException {
+        try {
+            this.stream = Compression.encode(os, compression);
+        } catch (IOException ioe) {
+            throw new RIFCSException(ioe);
+        }
+        if (stream instanceof GzipBlockOutputStream) {
+            this.blocks = (GzipBlockOutputStream) stream;
+        } else {
+            this.blocks = null;
+        }
+        this.out = new BufferedWriter(new OutputStreamWriter(stream,
+                StandardCharsets.UTF_8));
+        try {
+            this.transformer = TransformerFactory.newInstance()
+                    .newTransformer();
+        } catch (TransformerConfigurationException tce) {
+            throw new RIFCSException(tce);
+        }
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION,
+                "yes");
+    }
+
+
+    /**
+     * Write the registry objects of a record.
+     *
+     * @param record
+     *      The record
+     *
+     * @return
+     *      The record
+     *
+     * @throws RIFCSException if the record can not be written
+     */
+    public synchronized PipelineRecord process(final PipelineRecord record)
+            throws RIFCSException {
+        for (Node n = record.getDocument().getDocumentElement()
+                .getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() == Node.ELEMENT_NODE) {
+                writeNode(n);
+            }
+        }
+        endRecord();
+        count++;
+        return record;
+    }
+
+
+    /**
+     * Write a registry object on its own, whatever document holds it.
+     * It is counted as a record.
+     *
+     * @param ro
+     *      The registry object
+     *
+     * @throws RIFCSException if the registry object can not be written
+     */
+    public synchronized void write(final RegistryObject ro)
+            throws RIFCSException {
+        writeNode(ro.getDOMElement());
+        endRecord();
+        count++;
+    }
+
+
+    /**
+     * Note the end of a record, which may end a block.
+     *
+     * @throws RIFCSException if the block can not be written
+     */
+    private void endRecord() throws RIFCSException {
+        if (blocks == null) {
+            return;
+        }
+        try {
+            out.flush();
+            blocks.endRecord();
+        } catch (IOException ioe) {
+            throw new RIFCSException(ioe);
+        }
+    }
+
+
+    /**
+     * Write an element of the document.
+     *
+     * @param n
+     *      The element
+     *
+     * @throws RIFCSException if the element can not be written
+     */
+    private void writeNode(final Node n) throws RIFCSException {
+        try {
+            start();
+            out.write('\n');
+            transformer.transform(new DOMSource(n), new StreamResult(out));
+        } catch (IOException ioe) {
+            throw new RIFCSException(ioe);
+        } catch (TransformerException te) {
+            throw new RIFCSException(te);
+        }
+    }
+
+
+    /**
+     * Write the end of the document and flush the stream. No more
+     * records may be written.
+     *
+     * @throws RIFCSException if the stream can not be written
+     */
+    public synchronized void finish() throws RIFCSException {
+        try {
+            start();
+            endBlock();
+            out.write(FOOTER);
+            out.flush();
+            Compression.finish(stream);
+        } catch (IOException ioe) {
+            throw new RIFCSException(ioe);
+        }
+    }
+
+
+    /**
+     * Obtain the number of records written.
+     *
+     * @return
+     *      The number of records
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+
+    /**
+     * Write the start of the document if it has not been written.
+     *
+     * @throws IOException if the stream can not be written
+     */
+    private void start() throws IOException {
+        if (!started) {
+            out.write(HEADER);
+            endBlock();
+            started = true;
+        }
+    }
+
+
+    /**
+     * End the current block, if writing blocks.
+     *
+     * @throws IOException if the block can not be written
+     */
+    private void endBlock() throws IOException {
+        if (blocks != null) {
+            out.flush();
+            blocks.endBlock();
+        }
+    }
+}
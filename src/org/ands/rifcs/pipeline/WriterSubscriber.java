@@ -0,0 +1,223 @@
+/**
+ * Copyright 2009 The Australian National University (ANU)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ands.rifcs.pipeline;
+
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+import org.ands.rifcs.base.Compression;
+import org.ands.rifcs.base.RIFCSException;
+import org.ands.rifcs.base.RegistryObject;
+
+/**
+ * Subscriber writing registry objects into a single RIF-CS document on
+ * a stream as they arrive, requesting a batch at a time so that no more
+ * than a batch is ever outstanding.
+ *
+ * The document is completed when the publisher completes or fails, or
+ * when a registry object can not be written, in which case the
+ * subscription is cancelled. awaitCompletion() reports the outcome.
+ *
+ */
+public final class WriterSubscriber
+        implements Flow.Subscriber<RegistryObject> {
+    /** The default number of registry objects requested at a time. */
+    public static final int DEFAULT_BATCH_SIZE = 16;
+
+    /** The writer. */
+    private final WriterStage writer;
+    /** Number of registry objects requested at a time. */
+    private final int batchSize;
+    /** Released when the document is complete. */
+    private final CountDownLatch done = new CountDownLatch(1);
+    /** The subscription, once subscribed. */
+    private Flow.Subscription subscription = null;
+    /** Registry objects received since the last request. */
+    private int received = 0;
+    /** Whether the document is complete. */
+    private boolean finished = false;
+    /** The failure of the publisher or of writing, if any. */
+    private volatile Throwable failure = null;
+
+
+    /**
+     * Create a subscriber writing to a stream in UTF-8.
+     *
+     * @param os
+     *      The stream, which is flushed but not closed
+     *
+     * @throws RIFCSException if no Transformer is available
+     */
+    public WriterSubscriber(final OutputStream os) throws RIFCSException {
+        this(os, DEFAULT_BATCH_SIZE);
+    }
+
+
+    /**
+     * Create a subscriber writing to a stream in UTF-8.
+     *
+     * @param os
+     *      The stream, which is flushed but not closed
+     * @param aBatchSize
+     *      The number of registry objects requested at a time
+     *
+     * @throws RIFCSException if no Transformer is available
+     */
+    public WriterSubscriber(final OutputStream os, final int aBatchSize)
+            throws RIFCSException {
+        this(os, aBatchSize, Compression.NONE);
+    }
+
+
+    /**
+     * Create a subscriber writing to a stream in UTF-8, compressed.
+     *
+     * @param os
+     *      The stream, which is flushed but not closed
+     * @param aBatchSize
+     *      The number of registry objects requested at a time
+     * @param compression
+     *      One of the Compression constants
+     *
+     * @throws RIFCSException if no Transformer is available
+     */
+    public WriterSubscriber(final OutputStream os, final int aBatchSize,
+                            final int compression)
+            throws RIFCSException {
+        if (aBatchSize < 1) {
+            throw new IllegalArgumentException(
+                    "Batch size must be positive");
+        }
+        this.writer = new WriterStage(os, compression);
+        this.batchSize = aBatchSize;
+    }
+
+
+    /**
+     * Start the subscription by requesting the first batch.
+     *
+     * @param aSubscription
+     *      The subscription
+     */
+    public void onSubscribe(final Flow.Subscription aSubscription) {
+        if (subscription != null) {
+            aSubscription.cancel();
+            return;
+        }
+        subscription = aSubscription;
+        subscription.request(batchSize);
+    }
+
+
+    /**
+     * Write a registry object, requesting the next batch at the end of
+     * each batch.
+     *
+     * @param ro
+     *      The registry object
+     */
+    public void onNext(final RegistryObject ro) {
+        if (finished) {
+            return;
+        }
+        try {
+            writer.write(ro);
+        } catch (RIFCSException re) {
+            subscription.cancel();
+            finish(re);
+            return;
+        }
+        if (++received == batchSize) {
+            received = 0;
+            subscription.request(batchSize);
+        }
+    }
+
+
+    /**
+     * Complete the document after the publisher fails.
+     *
+     * @param t
+     *      The failure
+     */
+    public void onError(final Throwable t) {
+        finish(t);
+    }
+
+
+    /**
+     * Complete the document.
+     */
+    public void onComplete() {
+        finish(null);
+    }
+
+
+    /**
+     * Write the end of the document, once.
+     *
+     * @param t
+     *      The failure ending the document, or null
+     */
+    private void finish(final Throwable t) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        failure = t;
+        try {
+            writer.finish();
+        } catch (RIFCSException re) {
+            if (t == null) {
+                failure = re;
+            }
+        } finally {
+            done.countDown();
+        }
+    }
+
+
+    /**
+     * Wait until the document is complete.
+     *
+     * @throws RIFCSException if the publisher failed or a registry
+     *      object could not be written; the document is complete but
+     *      lacks the registry objects not received
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitCompletion() throws RIFCSException,
+            InterruptedException {
+        done.await();
+        Throwable t = failure;
+        if (t instanceof RIFCSException) {
+            throw (RIFCSException) t;
+        } else if (t != null) {
+            throw new RIFCSException(t);
+        }
+    }
+
+
+    /**
+     * Obtain the number of registry objects written.
+     *
+     * @return
+     *      The number of registry objects
+     */
+    public long getCount() {
+        return writer.getCount();
+    }
+}
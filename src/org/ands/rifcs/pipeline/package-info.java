@@ -0,0 +1,2 @@
+/** Staged processing of RIF-CS registry objects. */
+package org.ands.rifcs.pipeline;